@@ -0,0 +1,38 @@
+package irutils.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the irutils benchmarks with JSON results and the gc
+ * (allocation rate) profiler enabled.  Accepts the usual JMH command
+ * line options, e.g.:
+ * <pre>
+ *   java -jar target/benchmarks.jar InvertedFile -t 8 -p rows=1000000
+ * </pre>
+ * Results are written to <code>jmh-result.json</code> unless
+ * <code>-rff</code> is given.
+ */
+
+public class BenchmarkMain {
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    CommandLineOptions cmdOptions = new CommandLineOptions(args);
+    ChainedOptionsBuilder builder = new OptionsBuilder()
+      .parent(cmdOptions)
+      .addProfiler(GCProfiler.class);
+    if (! cmdOptions.getResultFormat().hasValue()) {
+      builder.resultFormat(ResultFormatType.JSON);
+    }
+    if (! cmdOptions.getResult().hasValue()) {
+      builder.result("jmh-result.json");
+    }
+    new Runner(builder.build()).run();
+  }
+}
@@ -0,0 +1,115 @@
+package irutils.benchmarks;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import irutils.DictionaryEntry;
+import irutils.DiskBinarySearch;
+import irutils.MappedFileBinarySearch;
+import irutils.NioDiskBinarySearch;
+
+/**
+ * Dictionary probe cost of the three binary search implementations
+ * over the same InvertedFile partition: DiskBinarySearch
+ * (RandomAccessFile), NioDiskBinarySearch (MappedByteBuffer, String
+ * compare) and MappedFileBinarySearch (ByteBuffer, byte compare).
+ * <p>
+ * Each thread owns its file handles, the implementations are not
+ * safe for concurrent use of one handle.
+ */
+
+@BenchmarkMode({Mode.SampleTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BinarySearchBenchmark {
+
+  /** number of (non huge) rows in fixture table */
+  @Param({"100000"})
+  int rows;
+
+  /** number of rows of the huge key */
+  @Param({"10000"})
+  int hugePostings;
+
+  /** "hit" or "miss" */
+  @Param({"hit", "miss"})
+  String keys;
+
+  RandomAccessFile raf;
+  MappedByteBuffer mappedBuffer;
+  int numrecs;
+  String[] keyArray;
+  int next = 0;
+
+  @Setup(Level.Trial)
+  public void setup()
+    throws Exception
+  {
+    Fixture fixture = Fixture.get(this.rows, this.hugePostings);
+    File partition = fixture.getInvertedFilePartition();
+    // dictionary record: term, # of postings (4 bytes), address (4 bytes)
+    this.numrecs = (int)(partition.length() / (Fixture.KEY_LENGTH + 8));
+    this.raf = new RandomAccessFile(partition, "r");
+    FileChannel channel = this.raf.getChannel();
+    this.mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    this.keyArray = fixture.keys(this.keys, 1024, Thread.currentThread().getId());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    this.raf.close();
+  }
+
+  String nextKey() {
+    String key = this.keyArray[this.next];
+    this.next = (this.next + 1) & (this.keyArray.length - 1);
+    return key;
+  }
+
+  @Benchmark
+  public DictionaryEntry diskBinarySearch()
+    throws Exception
+  {
+    String key = nextKey();
+    return DiskBinarySearch.dictionaryBinarySearch(this.raf, key, key.length(), this.numrecs);
+  }
+
+  @Benchmark
+  public DictionaryEntry nioDiskBinarySearch()
+    throws Exception
+  {
+    String key = nextKey();
+    return NioDiskBinarySearch.dictionaryBinarySearch(this.mappedBuffer, key, key.length(), this.numrecs);
+  }
+
+  @Benchmark
+  public DictionaryEntry mappedFileBinarySearch()
+    throws Exception
+  {
+    String key = nextKey();
+    return MappedFileBinarySearch.dictionaryBinarySearch((ByteBuffer)this.mappedBuffer, key, key.length(), this.numrecs);
+  }
+}
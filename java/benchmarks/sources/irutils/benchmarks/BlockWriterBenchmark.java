@@ -0,0 +1,106 @@
+package irutils.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import irutils.BlockWriter;
+
+/**
+ * Writing index files: <code>records</code> dictionary style records
+ * (a 12 byte term and two longs, as in a MultiKeyIndex partition)
+ * through each of the ways index builders have written files
+ * (parameter <code>writer</code>):
+ * <ul>
+ *  <li><code>raf</code>: RandomAccessFile, unbuffered;</li>
+ *  <li><code>stream</code>: DataOutputStream over a
+ *      BufferedOutputStream of 64 KB;</li>
+ *  <li><code>block</code>: irutils.BlockWriter.</li>
+ * </ul>
+ * Each invocation writes and closes one file.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlockWriterBenchmark {
+
+  static final byte[] TERM = "C0012345|ENG".getBytes();
+
+  /** raf, stream or block */
+  @Param({"raf", "stream", "block"})
+  String writer;
+
+  /** number of records written */
+  @Param({"65536", "1048576"})
+  int records;
+
+  File file;
+
+  @Setup(Level.Trial)
+  public void setup()
+    throws IOException
+  {
+    this.file = File.createTempFile("blockwriter", ".bin");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    this.file.delete();
+  }
+
+  void writeRecords(DataOutput out)
+    throws IOException
+  {
+    for (int i = 0; i < this.records; i++) {
+      out.write(TERM);
+      out.writeLong(i);
+      out.writeLong(16L * i);
+    }
+  }
+
+  @Benchmark
+  public long write()
+    throws IOException
+  {
+    if (this.writer.equals("raf")) {
+      RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+      raf.setLength(0);
+      this.writeRecords(raf);
+      raf.close();
+    } else if (this.writer.equals("stream")) {
+      DataOutputStream out =
+	new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file), 65536));
+      this.writeRecords(out);
+      out.close();
+    } else {
+      BlockWriter out = new BlockWriter(this.file.getPath());
+      this.writeRecords(out);
+      out.close();
+    }
+    return this.file.length();
+  }
+}
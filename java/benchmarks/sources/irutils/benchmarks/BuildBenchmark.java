@@ -0,0 +1,296 @@
+package irutils.benchmarks;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.FileWriter;
+import java.io.BufferedWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+
+import irutils.InvertedFile;
+import irutils.InvertedFileContainer;
+import irutils.MultiKeyIndex;
+import irutils.MultiKeyIndexGeneration;
+
+/**
+ * End-to-end build benchmark for InvertedFile (IFBuild) and
+ * MultiKeyIndexGeneration.  Times each build phase separately:
+ * <pre>
+ *  invertedfile: load_map, create
+ *  multikey:     loadTable, generateMaps, writePostings, writePartitions
+ *  multikeystream: build (MultiKeyIndexGeneration.build, streaming)
+ * </pre>
+ * and reports wall and cpu time, rows/s and table bytes/s, peak heap
+ * (sum of heap memory pool peaks during the phase) and the size of
+ * temporary files and of the resulting index.  If the table is
+ * missing from <code>&lt;workingdir&gt;/tables</code> it is generated
+ * first using TableGenerator (see its <code>tablegen.*</code>
+ * properties).
+ * <p>
+ * Results are printed and written as JSON to the file named by
+ * <code>buildbench.result</code> (default: build-result.json).
+ */
+
+public class BuildBenchmark {
+
+  /** timing and resource usage of one build phase. */
+  static class Phase {
+    String index;
+    String name;
+    long wallNanos;
+    long cpuNanos;
+    long peakHeapBytes;
+    Phase(String index, String name) { this.index = index; this.name = name; }
+  }
+
+  final File workingDir;
+  final String tablename;
+  long tableRows;
+  long tableBytes;
+  long tempBytes = 0;
+  List<Phase> phases = new ArrayList<Phase>();
+  Map<String,Long> indexBytes = new TreeMap<String,Long>();
+
+  ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+  Phase current;
+  long startWall;
+  long startCpu;
+
+  BuildBenchmark(File workingDir, String tablename) {
+    this.workingDir = workingDir;
+    this.tablename = tablename;
+  }
+
+  File getTableDir() { return new File(this.workingDir, "tables"); }
+  File getIndexRoot() { return new File(this.workingDir, "indices"); }
+  File getTableFile() { return new File(getTableDir(), this.tablename + ".txt"); }
+
+  void begin(String index, String name) {
+    System.gc();
+    for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+	pool.resetPeakUsage();
+      }
+    }
+    this.current = new Phase(index, name);
+    System.out.println("begin " + index + " " + name);
+    this.startCpu = this.threadBean.getCurrentThreadCpuTime();
+    this.startWall = System.nanoTime();
+  }
+
+  void end() {
+    this.current.wallNanos = System.nanoTime() - this.startWall;
+    this.current.cpuNanos = this.threadBean.getCurrentThreadCpuTime() - this.startCpu;
+    long peak = 0;
+    for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+	peak = peak + pool.getPeakUsage().getUsed();
+      }
+    }
+    this.current.peakHeapBytes = peak;
+    this.phases.add(this.current);
+  }
+
+  void prepareTable()
+    throws IOException
+  {
+    if (! getTableFile().exists()) {
+      TableGenerator generator = TableGenerator.fromProperties();
+      getTableDir().mkdirs();
+      System.out.println("generating table " + getTableFile() + ": " + generator);
+      generator.writeTable(getTableFile());
+      TableGenerator.writeConfig(new File(getTableDir(), "ifconfig"), this.tablename);
+    }
+    this.tableBytes = getTableFile().length();
+    this.tableRows = 0;
+    BufferedReader reader = new BufferedReader(new FileReader(getTableFile()), 1 << 20);
+    while (reader.readLine() != null) {
+      this.tableRows++;
+    }
+    reader.close();
+  }
+
+  void buildInvertedFile()
+    throws Exception
+  {
+    String indexname = this.tablename;
+    deleteTree(new File(getIndexRoot(), indexname));
+    getIndexRoot().mkdirs();
+    InvertedFileContainer container =
+      new InvertedFileContainer(getTableDir().getPath(), getIndexRoot().getPath());
+    InvertedFile index = container.get(indexname);
+    // TemporaryPostingsPool writes its pool in the current directory.
+    File tposts = new File(indexname + "_tposts");
+    tposts.delete();
+    begin(indexname, "load_map");
+    index.load_map();
+    end();
+    this.tempBytes = this.tempBytes + tposts.length();
+    begin(indexname, "create");
+    index.create();
+    end();
+    index.release();
+    tposts.delete();
+    this.indexBytes.put(indexname, treeSize(new File(getIndexRoot(), indexname)));
+  }
+
+  void buildMultiKeyIndex()
+    throws Exception
+  {
+    String indexname = this.tablename + "mk";
+    File indexDir = new File(getIndexRoot(), indexname);
+    deleteTree(indexDir);
+    indexDir.mkdirs();
+    begin(indexname, "loadTable");
+    List<MultiKeyIndex.Record> recordTable = MultiKeyIndex.loadTable(getTableFile().getPath());
+    end();
+    MultiKeyIndexGeneration generator = new MultiKeyIndexGeneration();
+    begin(indexname, "generateMaps");
+    generator.generateMaps(recordTable, new int[] { 0, 1 });
+    end();
+    begin(indexname, "writePostings");
+    MultiKeyIndex.Extent[] extents =
+      generator.writePostingExtents(this.workingDir.getPath(), indexname);
+    end();
+    begin(indexname, "writePartitions");
+    generator.writePartitions(this.workingDir.getPath(), indexname, extents);
+    end();
+    this.indexBytes.put(indexname, treeSize(indexDir));
+  }
+
+  void buildMultiKeyIndexStreaming()
+    throws Exception
+  {
+    String indexname = this.tablename + "mk";
+    File indexDir = new File(getIndexRoot(), indexname);
+    deleteTree(indexDir);
+    indexDir.mkdirs();
+    MultiKeyIndexGeneration generator = new MultiKeyIndexGeneration();
+    begin(indexname, "build");
+    generator.build(this.workingDir.getPath(), indexname, getTableFile().getPath(),
+		    Charset.defaultCharset(), new int[] { 0, 1 });
+    end();
+    this.indexBytes.put(indexname, treeSize(indexDir));
+  }
+
+  static long treeSize(File file) {
+    if (file.isDirectory()) {
+      long size = 0;
+      File[] files = file.listFiles();
+      if (files != null) {
+	for (File child: files) {
+	  size = size + treeSize(child);
+	}
+      }
+      return size;
+    }
+    return file.length();
+  }
+
+  static void deleteTree(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child: files) {
+	deleteTree(child);
+      }
+    }
+    file.delete();
+  }
+
+  static double perSecond(long count, long nanos) {
+    return nanos > 0 ? count * 1e9 / nanos : 0.0;
+  }
+
+  void report() {
+    System.out.println();
+    System.out.println("table: " + getTableFile() + ", rows: " + this.tableRows + ", bytes: " + this.tableBytes);
+    System.out.println(String.format("%-14s %-16s %10s %10s %12s %14s %12s",
+				     "index", "phase", "wall ms", "cpu ms", "rows/s", "bytes/s", "peak heap MB"));
+    for (Phase phase: this.phases) {
+      System.out.println(String.format("%-14s %-16s %10d %10d %12.0f %14.0f %12.1f",
+				       phase.index, phase.name,
+				       phase.wallNanos / 1000000, phase.cpuNanos / 1000000,
+				       perSecond(this.tableRows, phase.wallNanos),
+				       perSecond(this.tableBytes, phase.wallNanos),
+				       phase.peakHeapBytes / (1024.0 * 1024.0)));
+    }
+    System.out.println("temporary postings pool bytes: " + this.tempBytes);
+    for (Map.Entry<String,Long> entry: this.indexBytes.entrySet()) {
+      System.out.println("index " + entry.getKey() + " bytes: " + entry.getValue());
+    }
+  }
+
+  void writeJson(File file)
+    throws IOException
+  {
+    PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+    pw.println("{");
+    pw.println("  \"table\": \"" + getTableFile().getPath().replace("\\", "\\\\") + "\",");
+    pw.println("  \"rows\": " + this.tableRows + ",");
+    pw.println("  \"bytes\": " + this.tableBytes + ",");
+    pw.println("  \"tempBytes\": " + this.tempBytes + ",");
+    pw.println("  \"indexBytes\": {");
+    int i = 0;
+    for (Map.Entry<String,Long> entry: this.indexBytes.entrySet()) {
+      pw.println("    \"" + entry.getKey() + "\": " + entry.getValue() +
+		 (++i < this.indexBytes.size() ? "," : ""));
+    }
+    pw.println("  },");
+    pw.println("  \"phases\": [");
+    for (i = 0; i < this.phases.size(); i++) {
+      Phase phase = this.phases.get(i);
+      pw.println("    { \"index\": \"" + phase.index + "\", \"phase\": \"" + phase.name + "\"" +
+		 ", \"wallNanos\": " + phase.wallNanos +
+		 ", \"cpuNanos\": " + phase.cpuNanos +
+		 ", \"rowsPerSecond\": " + perSecond(this.tableRows, phase.wallNanos) +
+		 ", \"bytesPerSecond\": " + perSecond(this.tableBytes, phase.wallNanos) +
+		 ", \"peakHeapBytes\": " + phase.peakHeapBytes + " }" +
+		 (i + 1 < this.phases.size() ? "," : ""));
+    }
+    pw.println("  ]");
+    pw.println("}");
+    pw.close();
+  }
+
+  /**
+   * main program
+   * @param args argument vector.
+   *
+   * usage: irutils.benchmarks.BuildBenchmark &lt;workingdir&gt; &lt;tablename&gt; [invertedfile|multikey|multikeystream|both]
+   */
+  public static void main(String[] args)
+    throws Exception
+  {
+    if (args.length < 2) {
+      System.out.println("usage: irutils.benchmarks.BuildBenchmark <workingdir> <tablename> [invertedfile|multikey|multikeystream|both]");
+      System.out.println("properties: ");
+      System.out.println("  -Dbuildbench.result=<file> : JSON result file (default build-result.json)");
+      System.out.println("  -Dtablegen.*               : table generation, see irutils.benchmarks.TableGenerator");
+      System.exit(0);
+    }
+    String which = args.length > 2 ? args[2] : "both";
+    BuildBenchmark bench = new BuildBenchmark(new File(args[0]), args[1]);
+    bench.prepareTable();
+    if (which.equals("invertedfile") || which.equals("both")) {
+      bench.buildInvertedFile();
+    }
+    if (which.equals("multikey") || which.equals("both")) {
+      bench.buildMultiKeyIndex();
+    }
+    if (which.equals("multikeystream")) {
+      bench.buildMultiKeyIndexStreaming();
+    }
+    bench.report();
+    bench.writeJson(new File(System.getProperty("buildbench.result", "build-result.json")));
+  }
+}
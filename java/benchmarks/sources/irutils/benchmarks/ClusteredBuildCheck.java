@@ -0,0 +1,123 @@
+package irutils.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Random;
+
+import irutils.MultiKeyIndex;
+import irutils.MultiKeyIndexGeneration;
+
+/**
+ * Checks that a streaming multi-key index build with clustered
+ * postings (MultiKeyIndexGeneration.setClusterColumn) returns the same
+ * lookups as an unclustered build of the same table.
+ * <p>
+ * The generated table, <code>key|id</code>, has repeated rows and
+ * blank rows: a blank row is an empty posting at the same offset as
+ * the posting after it.  Column 0 is indexed and postings are
+ * clustered by column 1, with and without
+ * <code>ifbuild.multikey.dedup</code>.  Every key is looked up in both
+ * indices; exits with status 1 if any lookup differs.
+ * </p>
+ * <pre>
+ *   usage: irutils.benchmarks.ClusteredBuildCheck
+ *   properties:
+ *     -Dcheck.rows=&lt;n&gt; : rows of table (default 20000)
+ *     -Dirutils.bench.dir=&lt;dir&gt; : directory of the check's tables and indices
+ *                                 (default target/bench-fixtures)
+ * </pre>
+ */
+
+public class ClusteredBuildCheck {
+
+  static final String INDEX = "clustermk";
+  static final String TABLE_FILENAME = "cluster.txt";
+  static final int KEYS = 500;
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    int rows = Integer.getInteger("check.rows", 20000);
+    File root = new File(System.getProperty("irutils.bench.dir", "target/bench-fixtures"));
+    File table = new File(root, "clustered-check-" + rows + "/" + TABLE_FILENAME);
+    table.getParentFile().mkdirs();
+    writeTable(table, rows, 42L);
+
+    long mismatches = 0;
+    for (String dedup: new String[] { "true", "false" }) {
+      System.setProperty("ifbuild.multikey.dedup", dedup);
+      File unclustered = build(table, new File(table.getParentFile(), "unclustered-dedup-" + dedup), -1);
+      File clustered = build(table, new File(table.getParentFile(), "clustered-dedup-" + dedup), 1);
+      long differences = compare(unclustered, clustered);
+      System.out.println("dedup: " + dedup + ", keys: " + KEYS + ", mismatches: " + differences);
+      mismatches = mismatches + differences;
+    }
+    if (mismatches > 0) {
+      System.exit(1);
+    }
+  }
+
+  /** key|id rows, with a blank row after about one row in ten and repeated rows. */
+  static void writeTable(File tablefile, int rows, long seed)
+    throws IOException
+  {
+    Random random = new Random(seed);
+    PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(tablefile)));
+    String last = null;
+    for (int i = 0; i < rows; i++) {
+      String row = last != null && random.nextInt(20) == 0 ?
+	last : key(random.nextInt(KEYS)) + "|" + random.nextInt(rows);
+      pw.println(row);
+      last = row;
+      if (random.nextInt(10) == 0) {
+	pw.println();
+      }
+    }
+    pw.close();
+  }
+
+  static String key(int number) {
+    return "k" + number;
+  }
+
+  /** @return index directory of streaming build of table clustered by column cluster, -1 for none */
+  static File build(File table, File workingDir, int cluster)
+    throws IOException
+  {
+    File indexDir = new File(workingDir, "indices/" + INDEX);
+    indexDir.mkdirs();
+    MultiKeyIndexGeneration generator = new MultiKeyIndexGeneration();
+    generator.setClusterColumn(cluster);
+    generator.build(workingDir.getPath(), INDEX, table.getPath(), Charset.defaultCharset(),
+		    new int[] { 0 });
+    return indexDir;
+  }
+
+  /** @return number of keys whose postings differ */
+  static long compare(File expectedDir, File actualDir)
+    throws IOException
+  {
+    long mismatches = 0;
+    MultiKeyIndex expectedIndex = new MultiKeyIndex(expectedDir.getPath());
+    MultiKeyIndex actualIndex = new MultiKeyIndex(actualDir.getPath());
+    try {
+      for (int k = 0; k < KEYS; k++) {
+	List<String> expected = expectedIndex.lookup(0, key(k));
+	List<String> actual = actualIndex.lookup(0, key(k));
+	if (! actual.equals(expected)) {
+	  System.out.println(key(k) + ": expected " + expected + ", clustered build found " + actual);
+	  mismatches++;
+	}
+      }
+    } finally {
+      expectedIndex.close();
+      actualIndex.close();
+    }
+    return mismatches;
+  }
+}
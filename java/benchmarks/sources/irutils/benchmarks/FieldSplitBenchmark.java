@@ -0,0 +1,241 @@
+package irutils.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import irutils.ByteSearch;
+import utils.StringUtils;
+
+/**
+ * Field splitting and key comparison on MRCONSO style rows (18
+ * pipe delimited fields, trailing delimiter, some empty fields):
+ * <ul>
+ *  <li>splitting rows into fields: StringUtils.tokenizerSplit (the
+ *      StringTokenizer implementation), StringUtils.split and
+ *      String.split("\\|") as used by MultiKeyIndex.loadTable;</li>
+ *  <li>finding the delimiters of the rows as bytes and comparing fixed
+ *      width keys with each ByteSearch implementation (parameter
+ *      <code>impl</code>), and comparing keys the old way, decoding the
+ *      record key to a String.</li>
+ * </ul>
+ * The vector implementation needs the irutils-vector module (maven
+ * profile <code>vector</code>) and the JVM option
+ * <code>--add-modules=jdk.incubator.vector</code>, e.g.:
+ * <pre>
+ *   java -jar target/benchmarks.jar FieldSplit -p impl=scalar,swar,vector \
+ *        -jvmArgsAppend --add-modules=jdk.incubator.vector
+ * </pre>
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FieldSplitBenchmark {
+
+  static final String[] LANGUAGES = { "ENG", "ENG", "ENG", "SPA", "FRE", "GER" };
+  static final String[] SOURCES = { "MSH", "SNOMEDCT_US", "RXNORM", "NCI", "MDR", "LNC" };
+  static final String[] TERM_TYPES = { "PT", "SY", "MH", "ET", "IN", "LLT" };
+  static final String[] WORDS = {
+    "acute", "chronic", "syndrome", "disease", "of", "the", "left", "right",
+    "carcinoma", "infection", "pain", "fracture", "neoplasm", "malignant",
+    "benign", "heart", "lung", "renal", "failure", "type", "2", "diabetes",
+    "mellitus", "(disorder)", "[Ambiguous]", "hydrochloride", "tablet", "mg"
+  };
+
+  /** number of rows */
+  static final int ROWS = 4096;
+
+  /**
+   * Generate MRCONSO style rows:
+   * CUI|LAT|TS|LUI|STT|SUI|ISPREF|AUI|SAUI|SCUI|SDUI|SAB|TTY|CODE|STR|SRL|SUPPRESS|CVF|
+   * @param rows number of rows
+   * @param seed random seed
+   * @return rows
+   */
+  static String[] mrconsoRows(int rows, long seed)
+  {
+    Random random = new Random(seed);
+    String[] result = new String[rows];
+    for (int i = 0; i < rows; i++) {
+      String source = SOURCES[random.nextInt(SOURCES.length)];
+      StringBuilder name = new StringBuilder();
+      int words = 1 + random.nextInt(8);
+      for (int j = 0; j < words; j++) {
+	if (j > 0) {
+	  name.append(' ');
+	}
+	name.append(WORDS[random.nextInt(WORDS.length)]);
+      }
+      result[i] = String.format("C%07d|%s|%s|L%07d|PF|S%07d|%s|A%08d|%s|%s|%s|%s|%s|%s|%s|%d|N|%s|",
+				random.nextInt(5000000),
+				LANGUAGES[random.nextInt(LANGUAGES.length)],
+				random.nextBoolean() ? "P" : "S",
+				random.nextInt(10000000),
+				random.nextInt(10000000),
+				random.nextBoolean() ? "Y" : "N",
+				random.nextInt(100000000),
+				random.nextInt(4) == 0 ? Integer.toString(random.nextInt(1000000)) : "",
+				random.nextInt(3) == 0 ? "" : "D" + random.nextInt(1000000),
+				source.equals("MSH") ? "D" + random.nextInt(1000000) : "",
+				source,
+				TERM_TYPES[random.nextInt(TERM_TYPES.length)],
+				Integer.toString(random.nextInt(10000000)),
+				name,
+				random.nextInt(4),
+				random.nextInt(2) == 0 ? "" : Integer.toString(256 + random.nextInt(1024)));
+    }
+    return result;
+  }
+
+  /** rows as strings and as bytes */
+  @State(Scope.Benchmark)
+  public static class Rows {
+    String[] rows;
+    byte[][] rowBytes;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+      this.rows = mrconsoRows(ROWS, 42L);
+      this.rowBytes = new byte[ROWS][];
+      for (int i = 0; i < ROWS; i++) {
+	this.rowBytes[i] = this.rows[i].getBytes(StandardCharsets.UTF_8);
+      }
+    }
+  }
+
+  /** ByteSearch implementation */
+  @State(Scope.Benchmark)
+  public static class Impl {
+    /** scalar, swar or vector */
+    @Param({"scalar", "swar"})
+    String impl;
+
+    ByteSearch search;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+      this.search = ByteSearch.forName(this.impl);
+    }
+  }
+
+  /** fixed width keys: CUIs or names padded to 40 bytes, and probes for them */
+  @State(Scope.Benchmark)
+  public static class Keys {
+    /** width of keys */
+    @Param({"8", "40"})
+    int keyLength;
+
+    byte[][] keys;
+    byte[][] probes;
+    String[] probeStrings;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+      String[] rows = mrconsoRows(ROWS, 7L);
+      this.keys = new byte[ROWS][];
+      this.probes = new byte[ROWS][];
+      this.probeStrings = new String[ROWS];
+      for (int i = 0; i < ROWS; i++) {
+	List<String> fields = StringUtils.split(rows[i], '|');
+	String key = this.keyLength == 8 ? fields.get(0) : pad(fields.get(14), this.keyLength);
+	this.keys[i] = key.getBytes(StandardCharsets.US_ASCII);
+	// probes share long prefixes with keys, as neighbours in a dictionary do.
+	String probe = key.substring(0, key.length() - 1) + (char)(key.charAt(key.length() - 1) ^ (i & 1));
+	this.probes[i] = probe.getBytes(StandardCharsets.US_ASCII);
+	this.probeStrings[i] = probe;
+      }
+    }
+
+    static String pad(String s, int length)
+    {
+      StringBuilder sb = new StringBuilder(s);
+      while (sb.length() < length) {
+	sb.append(' ');
+      }
+      return sb.substring(0, length);
+    }
+  }
+
+  @Benchmark
+  public void tokenizerSplit(Rows rows, Blackhole blackhole)
+  {
+    for (String row: rows.rows) {
+      blackhole.consume(StringUtils.tokenizerSplit(row, "|"));
+    }
+  }
+
+  @Benchmark
+  public void stringUtilsSplit(Rows rows, Blackhole blackhole)
+  {
+    for (String row: rows.rows) {
+      blackhole.consume(StringUtils.split(row, "|"));
+    }
+  }
+
+  @Benchmark
+  public void stringSplit(Rows rows, Blackhole blackhole)
+  {
+    for (String row: rows.rows) {
+      blackhole.consume(row.split("\\|"));
+    }
+  }
+
+  /** find all delimiters of the rows as bytes */
+  @Benchmark
+  public int byteDelimiters(Rows rows, Impl impl)
+  {
+    ByteSearch byteSearch = impl.search;
+    int fields = 0;
+    for (byte[] row: rows.rowBytes) {
+      int i = -1;
+      while ((i = byteSearch.indexOf(row, i + 1, row.length, (byte)'|')) >= 0) {
+	fields++;
+      }
+    }
+    return fields;
+  }
+
+  /** compare fixed width keys as bytes, as dictionary searches do */
+  @Benchmark
+  public int keyCompare(Keys keys, Impl impl)
+  {
+    ByteSearch byteSearch = impl.search;
+    int sum = 0;
+    for (int i = 0; i < ROWS; i++) {
+      sum += byteSearch.compare(keys.probes[i], 0, keys.keys[i], 0, keys.keyLength);
+    }
+    return sum;
+  }
+
+  /** compare fixed width keys by decoding record key, as dictionary searches did */
+  @Benchmark
+  public int keyCompareString(Keys keys)
+  {
+    int sum = 0;
+    for (int i = 0; i < ROWS; i++) {
+      sum += keys.probeStrings[i].compareTo(new String(keys.keys[i]));
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,198 @@
+package irutils.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import irutils.InvertedFile;
+import irutils.InvertedFileContainer;
+import irutils.MultiKeyIndex;
+import irutils.MultiKeyIndexGeneration;
+
+/**
+ * Benchmark fixture: a generated table, its <b>ifconfig</b> and the
+ * indices built from it.
+ * <p>
+ * The table has three columns, <code>key|id|payload</code>.  Keys are
+ * of the form <code>k0000002</code>; only even key numbers are
+ * present in the table so that odd key numbers of the same length
+ * are misses that still fall in the middle of the partition.  Key
+ * number zero (<code>k0000000</code>) is the "huge" key, it has
+ * <code>hugePostings</code> rows of its own, every other key has a
+ * small number of rows.
+ * <p>
+ * Two indices are built from the table in the fixture's working
+ * directory:
+ * <pre>
+ *  benchif -- InvertedFile keyed on column 0.
+ *  benchmk -- MultiKeyIndex keyed on columns 0 and 1.
+ * </pre>
+ * Fixtures are cached under <code>irutils.bench.dir</code> (default
+ * <code>target/bench-fixtures</code>) and only rebuilt when missing.
+ */
+
+public class Fixture {
+
+  /** name of InvertedFile index */
+  public static final String INVERTED_FILE_INDEX = "benchif";
+  /** name of MultiKeyIndex index */
+  public static final String MULTIKEY_INDEX = "benchmk";
+  /** name of generated table file */
+  public static final String TABLE_FILENAME = "bench.txt";
+  /** the huge key, present in every fixture. */
+  public static final String HUGE_KEY = key(0);
+  /** length of every key in the fixture */
+  public static final int KEY_LENGTH = HUGE_KEY.length();
+
+  /** number of (non huge) rows in table */
+  final int rows;
+  /** number of rows for the huge key */
+  final int hugePostings;
+  /** number of distinct (non huge) keys in table */
+  final int cardinality;
+  /** working directory containing tables and indices directories */
+  final File workingDir;
+
+  Fixture(int rows, int hugePostings, File workingDir) {
+    this.rows = rows;
+    this.hugePostings = hugePostings;
+    this.cardinality = Math.max(1, rows / 4);
+    this.workingDir = workingDir;
+  }
+
+  /**
+   * Get fixture for table size, building it if necessary.
+   * @param rows number of rows of table, not including huge key rows.
+   * @param hugePostings number of rows for the huge key.
+   * @return fixture instance.
+   */
+  public static synchronized Fixture get(int rows, int hugePostings)
+    throws Exception
+  {
+    File root = new File(System.getProperty("irutils.bench.dir", "target/bench-fixtures"));
+    File workingDir = new File(root, "rows" + rows + "-huge" + hugePostings);
+    Fixture fixture = new Fixture(rows, hugePostings, workingDir);
+    if (! new File(fixture.getIndexDir(MULTIKEY_INDEX), "postings").exists()) {
+      fixture.build();
+    }
+    return fixture;
+  }
+
+  /**
+   * @param keyNumber key number
+   * @return key string for key number.
+   */
+  public static String key(int keyNumber) {
+    return String.format("k%07d", keyNumber);
+  }
+
+  public File getWorkingDir() { return this.workingDir; }
+  public File getTableDir() { return new File(this.workingDir, "tables"); }
+  public File getIndexRoot() { return new File(this.workingDir, "indices"); }
+  public File getIndexDir(String indexname) { return new File(getIndexRoot(), indexname); }
+
+  /**
+   * @return path of dictionary partition of current generation of InvertedFile index.
+   */
+  public File getInvertedFilePartition()
+    throws IOException
+  {
+    File indexDir = getIndexDir(INVERTED_FILE_INDEX);
+    String generation = InvertedFile.readCurrentGeneration(indexDir);
+    if (generation != null) {
+      indexDir = new File(indexDir, generation);
+    }
+    return new File(indexDir, "partition_" + INVERTED_FILE_INDEX + KEY_LENGTH);
+  }
+
+  /**
+   * Keys for lookups of a particular kind.
+   * @param kind "hit" (key with a small postings list), "miss" or
+   *             "huge" (key with a large postings list.)
+   * @param n number of keys to generate.
+   * @param seed random seed
+   * @return array of keys
+   */
+  public String[] keys(String kind, int n, long seed) {
+    Random random = new Random(seed);
+    String[] keys = new String[n];
+    for (int i = 0; i < n; i++) {
+      if (kind.equals("hit")) {
+	keys[i] = key(2 * (1 + random.nextInt(this.cardinality)));
+      } else if (kind.equals("miss")) {
+	keys[i] = key(2 * random.nextInt(this.cardinality + 1) + 1);
+      } else if (kind.equals("huge")) {
+	keys[i] = HUGE_KEY;
+      } else {
+	throw new IllegalArgumentException("unknown key kind: " + kind);
+      }
+    }
+    return keys;
+  }
+
+  /** Generate table and ifconfig, then build both indices. */
+  void build()
+    throws Exception
+  {
+    getTableDir().mkdirs();
+    getIndexRoot().mkdirs();
+    writeTable(new File(getTableDir(), TABLE_FILENAME), 42L);
+    writeConfig(new File(getTableDir(), "ifconfig"));
+
+    InvertedFileContainer container =
+      new InvertedFileContainer(getTableDir().getPath(), getIndexRoot().getPath());
+    InvertedFile index = container.get(INVERTED_FILE_INDEX);
+    index.update();
+    index.release();
+    new File(INVERTED_FILE_INDEX + "_tposts").delete();
+
+    getIndexDir(MULTIKEY_INDEX).mkdirs();
+    List<MultiKeyIndex.Record> recordTable =
+      MultiKeyIndex.loadTable(new File(getTableDir(), TABLE_FILENAME).getPath());
+    MultiKeyIndexGeneration generator = new MultiKeyIndexGeneration();
+    generator.generateMaps(recordTable, new int[] { 0, 1 });
+    MultiKeyIndex.Extent[] extents =
+      generator.writePostingExtents(this.workingDir.getPath(), MULTIKEY_INDEX);
+    generator.writePartitions(this.workingDir.getPath(), MULTIKEY_INDEX, extents);
+  }
+
+  void writeTable(File tablefile, long seed)
+    throws IOException
+  {
+    Random random = new Random(seed);
+    char[] payload = new char[40];
+    PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(tablefile)));
+    int id = 0;
+    for (int i = 0; i < this.hugePostings; i++, id++) {
+      pw.println(HUGE_KEY + "|" + String.format("r%09d", id) + "|" + payload(random, payload));
+    }
+    for (int i = 0; i < this.rows; i++, id++) {
+      // every key gets at least one row, the rest are spread at random.
+      int keyNumber = 2 * (1 + (i < this.cardinality ? i : random.nextInt(this.cardinality)));
+      pw.println(key(keyNumber) + "|" + String.format("r%09d", id) + "|" + payload(random, payload));
+    }
+    pw.close();
+  }
+
+  void writeConfig(File configfile)
+    throws IOException
+  {
+    PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(configfile)));
+    pw.println("NUM_TABLES: 2");
+    pw.println("#");
+    pw.println(TABLE_FILENAME + "|" + INVERTED_FILE_INDEX + "|3|0|key|id|payload|TXT|TXT|TXT");
+    pw.println(TABLE_FILENAME + "|" + MULTIKEY_INDEX + "|3|0,1|key|id|payload|TXT|TXT|TXT");
+    pw.close();
+  }
+
+  static String payload(Random random, char[] buf) {
+    for (int i = 0; i < buf.length; i++) {
+      buf[i] = (char)('a' + random.nextInt(26));
+    }
+    return new String(buf);
+  }
+}
@@ -0,0 +1,95 @@
+package irutils.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import irutils.BSPTuple;
+import irutils.InvertedFile;
+import irutils.InvertedFileContainer;
+
+/**
+ * InvertedFile.lookup over RandomAccessFile and memory mapped
+ * partitions and postings.  Every posting of the result is consumed
+ * so lazily loaded postings lists are charged their full cost.
+ * <p>
+ * Each thread opens its own InvertedFile instance, an instance is not
+ * safe for concurrent lookups.
+ */
+
+@BenchmarkMode({Mode.SampleTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class InvertedFileBenchmark {
+
+  /** number of (non huge) rows in fixture table */
+  @Param({"100000"})
+  int rows;
+
+  /** number of rows of the huge key */
+  @Param({"10000"})
+  int hugePostings;
+
+  /** "hit", "miss" or "huge" */
+  @Param({"hit", "miss", "huge"})
+  String keys;
+
+  /** use memory mapped partitions and postings (ifread.mapped) */
+  @Param({"false", "true"})
+  boolean mapped;
+
+  /** kept reachable, the container's finalizer releases its indices. */
+  InvertedFileContainer container;
+  InvertedFile index;
+  String[] keyArray;
+  int next = 0;
+
+  @Setup(Level.Trial)
+  public void setup()
+    throws Exception
+  {
+    Fixture fixture = Fixture.get(this.rows, this.hugePostings);
+    this.container =
+      new InvertedFileContainer(fixture.getTableDir().getPath(), fixture.getIndexRoot().getPath());
+    this.index = this.container.get(Fixture.INVERTED_FILE_INDEX);
+    this.index.setUseMappedFile(this.mapped);
+    this.index.setup();
+    this.keyArray = fixture.keys(this.keys, 1024, Thread.currentThread().getId());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    this.index.release();
+  }
+
+  @Benchmark
+  public void lookup(Blackhole bh)
+    throws Exception
+  {
+    String key = this.keyArray[this.next];
+    this.next = (this.next + 1) & (this.keyArray.length - 1);
+    BSPTuple<List<String>> result = this.index.lookup(key);
+    for (String posting: result.getValue()) {
+      bh.consume(posting);
+    }
+  }
+}
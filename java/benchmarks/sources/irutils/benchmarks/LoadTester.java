@@ -0,0 +1,395 @@
+package irutils.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import irutils.BSPTuple;
+import irutils.InvertedFile;
+import irutils.InvertedFileContainer;
+import irutils.MultiKeyIndex;
+
+/**
+ * Query-log replay load tester for InvertedFileContainer indices and
+ * MultiKeyIndex.
+ * <p>
+ * A fixed number of workers (platform threads, or virtual threads
+ * when the JVM supports them) replay a key stream against the index,
+ * each worker with its own InvertedFile instance; MultiKeyIndex
+ * workers share one long-lived MultiKeyIndex.  With an arrival rate
+ * (<code>loadtest.rate</code> &gt; 0) the test is open loop: request
+ * <em>i</em> is due at <code>start + i/rate</code> and its corrected
+ * latency is measured from that due time, so time spent queued behind
+ * a slow request is not omitted (coordinated omission).  Uncorrected
+ * latency, measured from the moment a worker actually issues the
+ * lookup, is reported alongside.  With a rate of zero the test is
+ * closed loop and both figures are the same.
+ * <p>
+ * The key stream is either a recorded query log
+ * (<code>loadtest.keys</code>, one key per line) or synthetic: keys
+ * sampled from the index's table, with a fraction
+ * (<code>1 - loadtest.hitratio</code>) turned into misses of the same
+ * length by changing their last character.
+ */
+
+public class LoadTester {
+
+  /** a lookup against an index, owned by a single worker. */
+  interface Lookup {
+    /** @return number of postings found for key. */
+    int lookup(String key) throws Exception;
+  }
+
+  /** creates one Lookup per worker. */
+  interface LookupFactory {
+    Lookup newLookup() throws Exception;
+  }
+
+  static class InvertedFileLookupFactory implements LookupFactory {
+    final String tableRoot;
+    final String indexRoot;
+    final String indexname;
+    InvertedFileLookupFactory(String tableRoot, String indexRoot, String indexname) {
+      this.tableRoot = tableRoot; this.indexRoot = indexRoot; this.indexname = indexname;
+    }
+    public Lookup newLookup()
+      throws Exception
+    {
+      // each worker gets its own container and index: an InvertedFile
+      // instance shares file positions between lookups.
+      final InvertedFileContainer container = new InvertedFileContainer(this.tableRoot, this.indexRoot);
+      final InvertedFile index = container.get(this.indexname);
+      if (index == null) {
+	throw new IllegalArgumentException("no entry for " + this.indexname + " in ifconfig.");
+      }
+      index.setup();
+      return new Lookup() {
+	// keep container reachable, its finalizer releases the index.
+	InvertedFileContainer owner = container;
+	public int lookup(String key)
+	  throws Exception
+	{
+	  BSPTuple<List<String>> result = index.lookup(key);
+	  int n = 0;
+	  for (String posting: result.getValue()) {
+	    if (posting != null) n++;
+	  }
+	  return n;
+	}
+      };
+    }
+  }
+
+  static class MultiKeyLookupFactory implements LookupFactory {
+    final String indexDirectoryName;
+    final int column;
+    /** index shared by all workers, opened by first newLookup() */
+    MultiKeyIndex index;
+    MultiKeyLookupFactory(String indexDirectoryName, int column) {
+      this.indexDirectoryName = indexDirectoryName; this.column = column;
+    }
+    public synchronized Lookup newLookup()
+      throws Exception
+    {
+      if (this.index == null) {
+	this.index = new MultiKeyIndex(this.indexDirectoryName);
+      }
+      final MultiKeyIndex index = this.index;
+      return new Lookup() {
+	public int lookup(String key)
+	  throws Exception
+	{
+	  return index.lookup(column, key.toLowerCase()).size();
+	}
+      };
+    }
+  }
+
+  final LookupFactory factory;
+  final String[] keys;
+  int threads = 4;
+  boolean virtual = false;
+  double rate = 0.0;
+  long durationNanos = TimeUnit.SECONDS.toNanos(30);
+  long warmupNanos = TimeUnit.SECONDS.toNanos(5);
+
+  final Recorder corrected = new Recorder(TimeUnit.MINUTES.toNanos(10), 3);
+  final Recorder uncorrected = new Recorder(TimeUnit.MINUTES.toNanos(10), 3);
+  final AtomicLong requestCounter = new AtomicLong();
+  final AtomicLong errors = new AtomicLong();
+  final AtomicLong postings = new AtomicLong();
+
+  LoadTester(LookupFactory factory, String[] keys) {
+    this.factory = factory;
+    this.keys = keys;
+  }
+
+  /** @return thread factory for workers, virtual threads if requested and available. */
+  ThreadFactory threadFactory() {
+    if (this.virtual) {
+      try {
+	Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+	return (ThreadFactory)Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+      } catch (Exception exception) {
+	throw new UnsupportedOperationException("virtual threads are not available in this JVM (" +
+						System.getProperty("java.version") + ")", exception);
+      }
+    }
+    return Executors.defaultThreadFactory();
+  }
+
+  /**
+   * Run one phase (warmup or measurement).
+   * @param nanos duration of phase
+   * @param record if false, discard latencies
+   * @return elapsed time in nanoseconds
+   */
+  long runPhase(final long nanos, final boolean record)
+    throws Exception
+  {
+    final long start = System.nanoTime();
+    final long end = start + nanos;
+    final double intervalNanos = this.rate > 0 ? 1e9 / this.rate : 0.0;
+    this.requestCounter.set(0);
+    ThreadFactory threadFactory = threadFactory();
+    List<Thread> workers = new ArrayList<Thread>(this.threads);
+    for (int w = 0; w < this.threads; w++) {
+      final Lookup lookup = this.factory.newLookup();
+      final Random random = new Random(w);
+      workers.add(threadFactory.newThread(new Runnable() {
+	  public void run() {
+	    while (true) {
+	      long intended;
+	      if (intervalNanos > 0) {
+		long i = requestCounter.getAndIncrement();
+		intended = start + (long)(i * intervalNanos);
+		if (intended >= end) {
+		  break;
+		}
+		long wait = intended - System.nanoTime();
+		if (wait > 0) {
+		  sleepNanos(wait);
+		}
+	      } else {
+		requestCounter.getAndIncrement();
+		intended = System.nanoTime();
+		if (intended >= end) {
+		  break;
+		}
+	      }
+	      long issued = System.nanoTime();
+	      try {
+		postings.addAndGet(lookup.lookup(keys[random.nextInt(keys.length)]));
+	      } catch (Exception exception) {
+		errors.incrementAndGet();
+	      }
+	      long done = System.nanoTime();
+	      if (record) {
+		corrected.recordValue(done - intended);
+		uncorrected.recordValue(done - issued);
+	      }
+	    }
+	  }
+	}));
+    }
+    for (Thread worker: workers) {
+      worker.start();
+    }
+    for (Thread worker: workers) {
+      worker.join();
+    }
+    return System.nanoTime() - start;
+  }
+
+  static void sleepNanos(long nanos) {
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  void run(PrintStream out)
+    throws Exception
+  {
+    out.println("workers: " + this.threads + (this.virtual ? " (virtual)" : " (platform)") +
+		", rate: " + (this.rate > 0 ? this.rate + " req/s (open loop)" : "closed loop") +
+		", keys: " + this.keys.length);
+    if (this.warmupNanos > 0) {
+      runPhase(this.warmupNanos, false);
+    }
+    this.corrected.reset();
+    this.uncorrected.reset();
+    this.errors.set(0);
+    long elapsed = runPhase(this.durationNanos, true);
+    Histogram correctedHistogram = this.corrected.getIntervalHistogram();
+    Histogram uncorrectedHistogram = this.uncorrected.getIntervalHistogram();
+    long count = correctedHistogram.getTotalCount();
+    out.println(String.format("requests: %d, errors: %d, elapsed: %.1f s, throughput: %.1f req/s",
+			      count, this.errors.get(), elapsed / 1e9, count * 1e9 / elapsed));
+    out.println(String.format("%-12s %12s %12s", "latency us", "corrected", "uncorrected"));
+    double[] percentiles = { 50.0, 90.0, 99.0, 99.9, 99.99 };
+    for (double percentile: percentiles) {
+      out.println(String.format("%-12s %12.1f %12.1f", "p" + percentile,
+				correctedHistogram.getValueAtPercentile(percentile) / 1000.0,
+				uncorrectedHistogram.getValueAtPercentile(percentile) / 1000.0));
+    }
+    out.println(String.format("%-12s %12.1f %12.1f", "max",
+			      correctedHistogram.getMaxValue() / 1000.0,
+			      uncorrectedHistogram.getMaxValue() / 1000.0));
+    String hgrm = System.getProperty("loadtest.hgrm");
+    if (hgrm != null) {
+      PrintStream ps = new PrintStream(new FileOutputStream(hgrm));
+      correctedHistogram.outputPercentileDistribution(ps, 1000.0);
+      ps.close();
+      ps = new PrintStream(new FileOutputStream(hgrm.replaceAll("\\.hgrm$", "") + "-uncorrected.hgrm"));
+      uncorrectedHistogram.outputPercentileDistribution(ps, 1000.0);
+      ps.close();
+    }
+  }
+
+  /**
+   * Read keys, one per line, from a recorded query log.
+   * @param filename name of key file
+   * @return array of keys
+   */
+  static String[] readKeys(String filename)
+    throws IOException
+  {
+    List<String> keyList = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(new FileReader(filename));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.length() > 0) {
+	keyList.add(line);
+      }
+    }
+    reader.close();
+    return keyList.toArray(new String[keyList.size()]);
+  }
+
+  /**
+   * Sample keys from a table (reservoir sampling) and turn a fraction
+   * of them into misses.
+   * @param tablefilename table file
+   * @param column key column
+   * @param n number of keys to sample
+   * @param hitRatio fraction of keys that are left as hits.
+   * @return array of keys
+   */
+  static String[] sampleKeys(String tablefilename, int column, int n, double hitRatio)
+    throws IOException
+  {
+    Random random = new Random(42);
+    List<String> reservoir = new ArrayList<String>(n);
+    BufferedReader reader = new BufferedReader(new FileReader(tablefilename), 1 << 20);
+    String line;
+    long seen = 0;
+    while ((line = reader.readLine()) != null) {
+      String[] fields = line.split("\\|");
+      if (fields.length <= column || fields[column].length() == 0) {
+	continue;
+      }
+      seen++;
+      if (reservoir.size() < n) {
+	reservoir.add(fields[column]);
+      } else {
+	long j = (long)(random.nextDouble() * seen);
+	if (j < n) {
+	  reservoir.set((int)j, fields[column]);
+	}
+      }
+    }
+    reader.close();
+    String[] keys = reservoir.toArray(new String[reservoir.size()]);
+    for (int i = 0; i < keys.length; i++) {
+      if (random.nextDouble() >= hitRatio) {
+	// same length, so the lookup still searches the partition.
+	keys[i] = keys[i].substring(0, keys[i].length() - 1) + '~';
+      }
+    }
+    return keys;
+  }
+
+  static void usage() {
+    System.out.println("usage: irutils.benchmarks.LoadTester invertedfile <tabledir> <indexdir> <indexname>");
+    System.out.println("       irutils.benchmarks.LoadTester multikey <indexdirectory> <column>");
+    System.out.println("properties: ");
+    System.out.println("  -Dloadtest.threads=<n>      : number of workers (default 4)");
+    System.out.println("  -Dloadtest.virtual=<bool>   : use virtual threads for workers (default false)");
+    System.out.println("  -Dloadtest.rate=<n>         : arrival rate in req/s, 0 is closed loop (default 0)");
+    System.out.println("  -Dloadtest.duration=<s>     : measurement duration in seconds (default 30)");
+    System.out.println("  -Dloadtest.warmup=<s>       : warmup duration in seconds (default 5)");
+    System.out.println("  -Dloadtest.keys=<file>      : recorded key stream, one key per line");
+    System.out.println("  -Dloadtest.table=<file>     : table to sample keys from (multikey only)");
+    System.out.println("  -Dloadtest.samplekeys=<n>   : number of keys to sample (default 100000)");
+    System.out.println("  -Dloadtest.hitratio=<r>     : fraction of sampled keys that are hits (default 0.9)");
+    System.out.println("  -Dloadtest.hgrm=<file>      : write percentile distributions (HdrHistogram .hgrm)");
+  }
+
+  /**
+   * main program
+   * @param args argument vector.
+   */
+  public static void main(String[] args)
+    throws Exception
+  {
+    if (args.length < 3) {
+      usage();
+      System.exit(0);
+    }
+    LookupFactory factory;
+    String tablefilename;
+    int keyColumn;
+    if (args[0].equals("invertedfile") && args.length > 3) {
+      factory = new InvertedFileLookupFactory(args[1], args[2], args[3]);
+      String config = new InvertedFileContainer(args[1], args[2]).getTableConfigMap().get(args[3]);
+      tablefilename = config == null ? null : args[1] + File.separator + utils.StringUtils.getToken(config, "|", 0);
+      keyColumn = 0;
+    } else if (args[0].equals("multikey")) {
+      keyColumn = Integer.parseInt(args[2]);
+      factory = new MultiKeyLookupFactory(args[1], keyColumn);
+      tablefilename = System.getProperty("loadtest.table");
+    } else {
+      usage();
+      System.exit(1);
+      return;
+    }
+    String[] keys;
+    if (System.getProperty("loadtest.keys") != null) {
+      keys = readKeys(System.getProperty("loadtest.keys"));
+    } else if (tablefilename != null) {
+      keys = sampleKeys(tablefilename, keyColumn,
+			Integer.getInteger("loadtest.samplekeys", 100000),
+			Double.parseDouble(System.getProperty("loadtest.hitratio", "0.9")));
+    } else {
+      System.out.println("no key stream: set loadtest.keys or loadtest.table.");
+      System.exit(1);
+      return;
+    }
+    if (keys.length == 0) {
+      System.out.println("key stream is empty.");
+      System.exit(1);
+    }
+    LoadTester tester = new LoadTester(factory, keys);
+    tester.threads = Integer.getInteger("loadtest.threads", 4);
+    tester.virtual = Boolean.parseBoolean(System.getProperty("loadtest.virtual", "false"));
+    tester.rate = Double.parseDouble(System.getProperty("loadtest.rate", "0"));
+    tester.durationNanos = TimeUnit.SECONDS.toNanos(Integer.getInteger("loadtest.duration", 30));
+    tester.warmupNanos = TimeUnit.SECONDS.toNanos(Integer.getInteger("loadtest.warmup", 5));
+    tester.run(System.out);
+  }
+}
@@ -0,0 +1,108 @@
+package irutils.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import irutils.MappedMultiKeyIndex;
+import irutils.MultiKeyIndex;
+
+/**
+ * MultiKeyIndex.lookup and MappedMultiKeyIndex.lookup on key column 0.
+ * <p>
+ * multiKeyIndex looks up in a MultiKeyIndex opened once, as callers
+ * should; multiKeyIndexReopen opens and closes a MultiKeyIndex for
+ * every lookup, which is what callers had to do while lookup closed
+ * the index's files.  Each thread owns its indices; see
+ * SharedMultiKeyIndexBenchmark for indices shared by threads.
+ */
+
+@BenchmarkMode({Mode.SampleTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MultiKeyIndexBenchmark {
+
+  /** number of (non huge) rows in fixture table */
+  @Param({"100000"})
+  int rows;
+
+  /** number of rows of the huge key */
+  @Param({"10000"})
+  int hugePostings;
+
+  /** "hit", "miss" or "huge" */
+  @Param({"hit", "miss", "huge"})
+  String keys;
+
+  String indexDirectoryName;
+  MultiKeyIndex index;
+  MappedMultiKeyIndex mappedIndex;
+  String[] keyArray;
+  int next = 0;
+
+  @Setup(Level.Trial)
+  public void setup()
+    throws Exception
+  {
+    Fixture fixture = Fixture.get(this.rows, this.hugePostings);
+    this.indexDirectoryName = fixture.getIndexDir(Fixture.MULTIKEY_INDEX).getPath();
+    this.index = new MultiKeyIndex(this.indexDirectoryName);
+    this.mappedIndex = new MappedMultiKeyIndex(this.indexDirectoryName);
+    this.keyArray = fixture.keys(this.keys, 1024, Thread.currentThread().getId());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    this.index.close();
+  }
+
+  String nextKey() {
+    String key = this.keyArray[this.next];
+    this.next = (this.next + 1) & (this.keyArray.length - 1);
+    return key;
+  }
+
+  @Benchmark
+  public List<String> multiKeyIndex()
+    throws Exception
+  {
+    return this.index.lookup(0, nextKey());
+  }
+
+  @Benchmark
+  public List<String> multiKeyIndexReopen()
+    throws Exception
+  {
+    MultiKeyIndex index = new MultiKeyIndex(this.indexDirectoryName);
+    try {
+      return index.lookup(0, nextKey());
+    } finally {
+      index.close();
+    }
+  }
+
+  @Benchmark
+  public List<String> mappedMultiKeyIndex()
+    throws Exception
+  {
+    return this.mappedIndex.lookup(0, nextKey());
+  }
+}
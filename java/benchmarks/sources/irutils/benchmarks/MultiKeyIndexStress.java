@@ -0,0 +1,103 @@
+package irutils.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import irutils.MappedMultiKeyIndex;
+import irutils.MultiKeyIndex;
+
+/**
+ * Multi-threaded stress test of lookups in one shared MappedMultiKeyIndex
+ * and one shared MultiKeyIndex.
+ * <p>
+ * The expected postings of a mix of hit, miss and huge keys of the
+ * benchmark fixture are looked up by one thread first; then a number of
+ * threads, released together, look up random keys of the mix in both
+ * indices at once and compare every result with the expected postings.
+ * Exits with status 1 if any lookup differs or fails.
+ * </p>
+ * <pre>
+ *   usage: irutils.benchmarks.MultiKeyIndexStress
+ *   properties:
+ *     -Dstress.threads=&lt;n&gt; : number of threads (default 8)
+ *     -Dstress.lookups=&lt;n&gt; : lookups per thread in each index (default 20000)
+ *     -Dstress.rows=&lt;n&gt;    : rows of fixture table (default 100000)
+ *     -Dstress.huge=&lt;n&gt;    : postings of huge key (default 10000)
+ * </pre>
+ */
+
+public class MultiKeyIndexStress {
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    final int threads = Integer.getInteger("stress.threads", 8);
+    final int lookups = Integer.getInteger("stress.lookups", 20000);
+    Fixture fixture = Fixture.get(Integer.getInteger("stress.rows", 100000),
+				  Integer.getInteger("stress.huge", 10000));
+    String indexDirectoryName = fixture.getIndexDir(Fixture.MULTIKEY_INDEX).getPath();
+    final MappedMultiKeyIndex mappedIndex = new MappedMultiKeyIndex(indexDirectoryName);
+    final MultiKeyIndex index = new MultiKeyIndex(indexDirectoryName);
+
+    final List<String> keys = new ArrayList<String>();
+    for (String kind: new String[] { "hit", "miss", "huge" }) {
+      for (String key: fixture.keys(kind, kind.equals("huge") ? 1 : 512, 1L)) {
+	keys.add(key);
+      }
+    }
+    final Map<String,List<String>> expectedMapped = new HashMap<String,List<String>>();
+    final Map<String,List<String>> expected = new HashMap<String,List<String>>();
+    for (String key: keys) {
+      expectedMapped.put(key, mappedIndex.lookup(0, key));
+      expected.put(key, index.lookup(0, key));
+    }
+
+    final AtomicLong mismatches = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+    final CountDownLatch startSignal = new CountDownLatch(1);
+    List<Thread> workers = new ArrayList<Thread>(threads);
+    for (int w = 0; w < threads; w++) {
+      final Random random = new Random(w);
+      workers.add(new Thread(new Runnable() {
+	  public void run() {
+	    try {
+	      startSignal.await();
+	      for (int i = 0; i < lookups; i++) {
+		String key = keys.get(random.nextInt(keys.size()));
+		if (! mappedIndex.lookup(0, key).equals(expectedMapped.get(key))) {
+		  mismatches.incrementAndGet();
+		}
+		if (! index.lookup(0, key).equals(expected.get(key))) {
+		  mismatches.incrementAndGet();
+		}
+	      }
+	    } catch (Exception exception) {
+	      failures.incrementAndGet();
+	      exception.printStackTrace(System.err);
+	    }
+	  }
+	}));
+    }
+    long start = System.nanoTime();
+    for (Thread worker: workers) {
+      worker.start();
+    }
+    startSignal.countDown();
+    for (Thread worker: workers) {
+      worker.join();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    index.close();
+    System.out.println("threads: " + threads + ", lookups: " + (2L * threads * lookups) +
+		       ", keys: " + keys.size() + ", elapsed: " + String.format("%.1f s", seconds));
+    System.out.println("mismatches: " + mismatches.get() + ", failed threads: " + failures.get());
+    if (mismatches.get() > 0 || failures.get() > 0) {
+      System.exit(1);
+    }
+  }
+}
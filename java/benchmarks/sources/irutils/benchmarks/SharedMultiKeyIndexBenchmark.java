@@ -0,0 +1,115 @@
+package irutils.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import irutils.MappedMultiKeyIndex;
+import irutils.MultiKeyIndex;
+
+/**
+ * Throughput of lookups on key column 0 by several threads sharing one
+ * MappedMultiKeyIndex or one MultiKeyIndex (see MultiKeyIndexBenchmark
+ * for one index per thread).  Each lookup checks the number of
+ * postings found, so lookups disturbing each other fail the benchmark.
+ * Run with -t to change the number of threads.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class SharedMultiKeyIndexBenchmark {
+
+  /** number of (non huge) rows in fixture table */
+  @Param({"100000"})
+  int rows;
+
+  /** number of rows of the huge key */
+  @Param({"10000"})
+  int hugePostings;
+
+  /** "hit" or "huge" */
+  @Param({"hit", "huge"})
+  String keys;
+
+  MappedMultiKeyIndex mappedIndex;
+  MultiKeyIndex index;
+  String[] keyArray;
+  /** postings of each key of keyArray */
+  int[] expectedPostings;
+
+  @Setup(Level.Trial)
+  public void setup()
+    throws Exception
+  {
+    Fixture fixture = Fixture.get(this.rows, this.hugePostings);
+    String indexDirectoryName = fixture.getIndexDir(Fixture.MULTIKEY_INDEX).getPath();
+    this.mappedIndex = new MappedMultiKeyIndex(indexDirectoryName);
+    this.index = new MultiKeyIndex(indexDirectoryName);
+    this.keyArray = fixture.keys(this.keys, 1024, 1L);
+    this.expectedPostings = new int[this.keyArray.length];
+    for (int i = 0; i < this.keyArray.length; i++) {
+      this.expectedPostings[i] = this.mappedIndex.lookup(0, this.keyArray[i]).size();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    this.index.close();
+  }
+
+  /** position of a thread in the keys */
+  @State(Scope.Thread)
+  public static class Cursor {
+    int next = (int)Thread.currentThread().getId();
+    int next() {
+      this.next = (this.next + 1) & 1023;
+      return this.next;
+    }
+  }
+
+  List<String> check(int key, List<String> postings) {
+    if (postings.size() != this.expectedPostings[key]) {
+      throw new IllegalStateException("lookup of " + this.keyArray[key] + " found " +
+				      postings.size() + " postings, expected " +
+				      this.expectedPostings[key]);
+    }
+    return postings;
+  }
+
+  @Benchmark
+  public List<String> mappedMultiKeyIndex(Cursor cursor)
+    throws Exception
+  {
+    int key = cursor.next();
+    return check(key, this.mappedIndex.lookup(0, this.keyArray[key]));
+  }
+
+  @Benchmark
+  public List<String> multiKeyIndex(Cursor cursor)
+    throws Exception
+  {
+    int key = cursor.next();
+    return check(key, this.index.lookup(0, this.keyArray[key]));
+  }
+}
@@ -0,0 +1,220 @@
+package irutils.benchmarks;
+
+import java.util.Random;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Synthetic table generator, writes ifconfig compatible pipe
+ * delimited tables of the form:
+ * <pre>
+ *   key|id|payload
+ * </pre>
+ * Keys are drawn from a Zipfian distribution over
+ * <code>cardinality</code> distinct keys; <code>id</code> is unique
+ * per row; <code>payload</code> pads each record to about
+ * <code>width</code> bytes.  Rows are streamed to disk, memory use does
+ * not depend on the number of rows.
+ * <p>
+ * The generated <b>ifconfig</b> has two entries for the table:
+ * <pre>
+ *   &lt;tablename&gt;.txt|&lt;tablename&gt;|3|0|key|id|payload|TXT|TXT|TXT
+ *   &lt;tablename&gt;.txt|&lt;tablename&gt;mk|3|0,1|key|id|payload|TXT|TXT|TXT
+ * </pre>
+ * the first for InvertedFile (IFBuild), the second for
+ * MultiKeyIndexGeneration.
+ */
+
+public class TableGenerator {
+
+  /** number of rows */
+  long rows = 100000;
+  /** number of distinct keys */
+  int cardinality = 25000;
+  /** Zipfian exponent, 0.0 is uniform */
+  double skew = 1.0;
+  /** minimum key length */
+  int minKeyLength = 8;
+  /** maximum key length */
+  int maxKeyLength = 8;
+  /** approximate record width in bytes */
+  int width = 80;
+  /** random seed */
+  long seed = 42L;
+
+  /** block of random payload characters, payloads are slices of it. */
+  char[] payloadBlock;
+
+  public TableGenerator() { }
+
+  /**
+   * Instantiate generator from properties:
+   * <pre>
+   *  tablegen.rows        number of rows (default 100000)
+   *  tablegen.cardinality number of distinct keys (default rows/4)
+   *  tablegen.skew        Zipfian exponent, 0 is uniform (default 1.0)
+   *  tablegen.keylength   key length distribution: fixed:N or uniform:MIN-MAX (default fixed:8)
+   *  tablegen.width       approximate record width in bytes (default 80)
+   *  tablegen.seed        random seed (default 42)
+   * </pre>
+   * @return generator instance
+   */
+  public static TableGenerator fromProperties() {
+    TableGenerator generator = new TableGenerator();
+    generator.rows = Long.parseLong(System.getProperty("tablegen.rows", "100000"));
+    generator.cardinality =
+      Integer.parseInt(System.getProperty("tablegen.cardinality",
+					  Long.toString(Math.max(1, Math.min(Integer.MAX_VALUE, generator.rows / 4)))));
+    generator.skew = Double.parseDouble(System.getProperty("tablegen.skew", "1.0"));
+    generator.setKeyLength(System.getProperty("tablegen.keylength", "fixed:8"));
+    generator.width = Integer.parseInt(System.getProperty("tablegen.width", "80"));
+    generator.seed = Long.parseLong(System.getProperty("tablegen.seed", "42"));
+    return generator;
+  }
+
+  /**
+   * @param spec key length distribution: "fixed:N" or "uniform:MIN-MAX"
+   */
+  public void setKeyLength(String spec) {
+    String[] fields = spec.split(":");
+    if (fields.length == 2 && fields[0].equals("fixed")) {
+      this.minKeyLength = this.maxKeyLength = Integer.parseInt(fields[1]);
+    } else if (fields.length == 2 && fields[0].equals("uniform")) {
+      String[] range = fields[1].split("-");
+      this.minKeyLength = Integer.parseInt(range[0]);
+      this.maxKeyLength = Integer.parseInt(range[1]);
+    } else {
+      throw new IllegalArgumentException("unknown key length distribution: " + spec);
+    }
+    if (this.minKeyLength < 1 || this.maxKeyLength < this.minKeyLength) {
+      throw new IllegalArgumentException("invalid key length range: " + spec);
+    }
+  }
+
+  /**
+   * Generate key for key number. Keys are unique per key number, the
+   * length of each key is chosen by a hash of the key number so it is
+   * the same everywhere the key occurs.
+   * @param keyNumber key number, zero based.
+   * @return key
+   */
+  public String key(int keyNumber) {
+    StringBuilder sb = new StringBuilder(this.maxKeyLength + 8);
+    int n = keyNumber;
+    do {
+      sb.append((char)('a' + (n % 26)));
+      n = n / 26;
+    } while (n > 0);
+    long hash = mix(keyNumber);
+    int targetLength = this.minKeyLength +
+      (int)((hash >>> 1) % (this.maxKeyLength - this.minKeyLength + 1));
+    if (sb.length() < targetLength) {
+      // separator keeps padded keys distinct from longer encodings.
+      sb.append('.');
+      while (sb.length() < targetLength) {
+	hash = mix(hash);
+	sb.append((char)('a' + (int)((hash >>> 1) % 26)));
+      }
+    }
+    return sb.toString();
+  }
+
+  static long mix(long z) {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return z ^ (z >>> 33);
+  }
+
+  /**
+   * Write table to file.
+   * @param tablefile table file
+   * @return number of bytes written
+   */
+  public long writeTable(File tablefile)
+    throws IOException
+  {
+    Random random = new Random(this.seed);
+    ZipfSampler sampler = new ZipfSampler(this.cardinality, this.skew, random);
+    this.payloadBlock = new char[1 << 16];
+    for (int i = 0; i < this.payloadBlock.length; i++) {
+      this.payloadBlock[i] = (char)('a' + random.nextInt(26));
+    }
+    Writer writer = new BufferedWriter
+      (new OutputStreamWriter(new FileOutputStream(tablefile), Charset.forName("US-ASCII")), 1 << 20);
+    long bytes = 0;
+    for (long row = 0; row < this.rows; row++) {
+      String key = key(sampler.sample() - 1);
+      String id = "r" + row;
+      int payloadLength = Math.max(1, this.width - key.length() - id.length() - 3);
+      int start = random.nextInt(this.payloadBlock.length - payloadLength);
+      writer.write(key);
+      writer.write('|');
+      writer.write(id);
+      writer.write('|');
+      writer.write(this.payloadBlock, start, payloadLength);
+      writer.write('\n');
+      bytes = bytes + key.length() + id.length() + payloadLength + 3;
+    }
+    writer.close();
+    return bytes;
+  }
+
+  /**
+   * Write ifconfig for table.
+   * @param configfile ifconfig file
+   * @param tablename name of table (and InvertedFile index)
+   */
+  public static void writeConfig(File configfile, String tablename)
+    throws IOException
+  {
+    PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(configfile)));
+    pw.println("NUM_TABLES: 2");
+    pw.println("#");
+    pw.println(tablename + ".txt|" + tablename + "|3|0|key|id|payload|TXT|TXT|TXT");
+    pw.println(tablename + ".txt|" + tablename + "mk|3|0,1|key|id|payload|TXT|TXT|TXT");
+    pw.close();
+  }
+
+  public String toString() {
+    return "rows: " + this.rows + ", cardinality: " + this.cardinality +
+      ", skew: " + this.skew + ", key length: " + this.minKeyLength + "-" + this.maxKeyLength +
+      ", width: " + this.width + ", seed: " + this.seed;
+  }
+
+  /**
+   * main program
+   * @param args argument vector.
+   *
+   * usage: irutils.benchmarks.TableGenerator &lt;tabledir&gt; &lt;tablename&gt;
+   */
+  public static void main(String[] args)
+    throws IOException
+  {
+    if (args.length < 2) {
+      System.out.println("usage: irutils.benchmarks.TableGenerator <tabledir> <tablename>");
+      System.out.println("properties: ");
+      System.out.println("  -Dtablegen.rows=<n>           : number of rows (default 100000)");
+      System.out.println("  -Dtablegen.cardinality=<n>    : number of distinct keys (default rows/4)");
+      System.out.println("  -Dtablegen.skew=<s>           : Zipfian exponent, 0 is uniform (default 1.0)");
+      System.out.println("  -Dtablegen.keylength=<dist>   : fixed:N or uniform:MIN-MAX (default fixed:8)");
+      System.out.println("  -Dtablegen.width=<n>          : approximate record width (default 80)");
+      System.out.println("  -Dtablegen.seed=<n>           : random seed (default 42)");
+      System.exit(0);
+    }
+    File tableDir = new File(args[0]);
+    String tablename = args[1];
+    tableDir.mkdirs();
+    TableGenerator generator = fromProperties();
+    System.out.println("generating " + tablename + ": " + generator);
+    long bytes = generator.writeTable(new File(tableDir, tablename + ".txt"));
+    writeConfig(new File(tableDir, "ifconfig"), tablename);
+    System.out.println("wrote " + bytes + " bytes.");
+  }
+}
@@ -0,0 +1,97 @@
+package irutils.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Zipfian sampler over the ranks 1..n using rejection-inversion
+ * (W. Hörmann, G. Derflinger, "Rejection-inversion to generate
+ * variates from monotone discrete distributions", 1996).
+ * <p>
+ * Sampling is O(1) and needs no tables, so key cardinalities of
+ * hundreds of millions are as cheap as small ones.  An exponent of
+ * zero yields a uniform distribution.
+ */
+
+public class ZipfSampler {
+
+  /** number of elements */
+  final int numberOfElements;
+  /** exponent of distribution */
+  final double exponent;
+  final double hIntegralX1;
+  final double hIntegralNumberOfElements;
+  final double s;
+  final Random random;
+
+  /**
+   * @param numberOfElements number of ranks, must be greater than zero.
+   * @param exponent skew of distribution, must not be negative.
+   * @param random source of randomness
+   */
+  public ZipfSampler(int numberOfElements, double exponent, Random random) {
+    if (numberOfElements <= 0) {
+      throw new IllegalArgumentException("number of elements must be > 0: " + numberOfElements);
+    }
+    if (exponent < 0) {
+      throw new IllegalArgumentException("exponent must be >= 0: " + exponent);
+    }
+    this.numberOfElements = numberOfElements;
+    this.exponent = exponent;
+    this.random = random;
+    this.hIntegralX1 = hIntegral(1.5) - 1d;
+    this.hIntegralNumberOfElements = hIntegral(numberOfElements + 0.5);
+    this.s = 2d - hIntegralInverse(hIntegral(2.5) - h(2));
+  }
+
+  /** @return a rank between 1 and numberOfElements inclusive. */
+  public int sample() {
+    while (true) {
+      double u = this.hIntegralNumberOfElements +
+	this.random.nextDouble() * (this.hIntegralX1 - this.hIntegralNumberOfElements);
+      double x = hIntegralInverse(u);
+      int k = (int)(x + 0.5);
+      if (k < 1) {
+	k = 1;
+      } else if (k > this.numberOfElements) {
+	k = this.numberOfElements;
+      }
+      if (k - x <= this.s || u >= hIntegral(k + 0.5) - h(k)) {
+	return k;
+      }
+    }
+  }
+
+  double hIntegral(double x) {
+    double logX = Math.log(x);
+    return helper2((1d - this.exponent) * logX) * logX;
+  }
+
+  double h(double x) {
+    return Math.exp(-this.exponent * Math.log(x));
+  }
+
+  double hIntegralInverse(double x) {
+    double t = x * (1d - this.exponent);
+    if (t < -1d) {
+      // limit to avoid NaN from rounding errors.
+      t = -1d;
+    }
+    return Math.exp(helper1(t) * x);
+  }
+
+  /** log1p(x)/x, accurate near zero. */
+  static double helper1(double x) {
+    if (Math.abs(x) > 1e-8) {
+      return Math.log1p(x) / x;
+    }
+    return 1 - x * (0.5 - x * (0.33333333333333333 - 0.25 * x));
+  }
+
+  /** expm1(x)/x, accurate near zero. */
+  static double helper2(double x) {
+    if (Math.abs(x) > 1e-8) {
+      return Math.expm1(x) / x;
+    }
+    return 1 + x * 0.5 * (1 + x * 0.33333333333333333 * (1 + 0.25 * x));
+  }
+}
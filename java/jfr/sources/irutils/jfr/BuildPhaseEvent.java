@@ -0,0 +1,39 @@
+package irutils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for a completed phase of index generation:
+ * <code>load_map</code>, <code>create</code> and <code>serialize</code>
+ * for InvertedFile; <code>generateMaps</code>,
+ * <code>writePostings</code> and <code>writePartitions</code>, or
+ * <code>streamTable</code>, <code>clusterPostings</code> (if clustered)
+ * and <code>mergeRuns</code> when streaming, for MultiKeyIndexGeneration.
+ */
+
+@Name("irutils.BuildPhase")
+@Label("Index Build Phase")
+@Category({"irutils", "Build"})
+@Description("Completed phase of index generation")
+@StackTrace(false)
+public class BuildPhaseEvent extends Event
+{
+  @Label("Index")
+  String index;
+
+  @Label("Phase")
+  String phase;
+
+  @Label("Records")
+  long records;
+
+  @Label("Phase Duration")
+  @Timespan(Timespan.NANOSECONDS)
+  long phaseDuration;
+}
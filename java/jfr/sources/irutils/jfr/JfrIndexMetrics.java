@@ -0,0 +1,159 @@
+package irutils.jfr;
+
+import jdk.jfr.EventType;
+
+import irutils.IndexMetrics;
+import irutils.NullIndexMetrics;
+
+/**
+ * IndexMetrics implementation that emits JDK Flight Recorder events:
+ * <pre>
+ *  irutils.Lookup         -- lookups taking at least the lookup threshold
+ *  irutils.BuildPhase     -- each phase of index generation
+ *  irutils.PartitionBuild -- each generated partition
+ * </pre>
+ * Events are only created while a recording with the event type
+ * enabled is running, otherwise isEnabled() is false and indices
+ * skip instrumentation altogether.
+ * <p>
+ * The metrics SPI reports lookups after they complete, so durations
+ * are carried in event fields (<code>lookupDuration</code>,
+ * <code>phaseDuration</code>, <code>partitionDuration</code>) rather
+ * than the event's own duration, and slow lookups are selected with
+ * the lookup threshold instead of the JFR <code>threshold</code>
+ * setting.  The threshold is read from system property
+ * <code>irutils.jfr.lookup.threshold</code> (default: "1 ms"), e.g.:
+ * <pre>
+ *   java -XX:StartFlightRecording=filename=irutils.jfr \
+ *        -Difread.metrics=irutils.jfr.JfrIndexMetrics \
+ *        -Dirutils.jfr.lookup.threshold="500 us" ...
+ * </pre>
+ * Events are also passed on to a delegate, e.g. an IndexStatistics
+ * instance, so JFR and JMX can be used together.
+ */
+
+public class JfrIndexMetrics implements IndexMetrics
+{
+  static final EventType LOOKUP_TYPE = EventType.getEventType(LookupEvent.class);
+  static final EventType BUILD_PHASE_TYPE = EventType.getEventType(BuildPhaseEvent.class);
+  static final EventType PARTITION_BUILD_TYPE = EventType.getEventType(PartitionBuildEvent.class);
+
+  /** lookups faster than this are not recorded */
+  final long lookupThresholdNanos;
+  /** metrics receiving all events in addition to flight recorder */
+  final IndexMetrics delegate;
+
+  /** instantiate using lookup threshold from irutils.jfr.lookup.threshold. */
+  public JfrIndexMetrics()
+  {
+    this(parseTimespan(System.getProperty("irutils.jfr.lookup.threshold", "1 ms")),
+	 NullIndexMetrics.INSTANCE);
+  }
+
+  /**
+   * @param lookupThresholdNanos lookups faster than this are not recorded.
+   * @param delegate metrics receiving all events in addition to flight recorder.
+   */
+  public JfrIndexMetrics(long lookupThresholdNanos, IndexMetrics delegate)
+  {
+    this.lookupThresholdNanos = lookupThresholdNanos;
+    this.delegate = delegate;
+  }
+
+  /**
+   * Parse timespan of the form used by JFR settings: "20 ms", "500 us",
+   * "1 s"; a number without unit is in nanoseconds.
+   * @param timespan timespan string
+   * @return timespan in nanoseconds
+   */
+  public static long parseTimespan(String timespan)
+  {
+    String value = timespan.trim();
+    String[] units = { "ns", "us", "ms", "s" };
+    long[] factors = { 1L, 1000L, 1000000L, 1000000000L };
+    for (int i = 0; i < units.length; i++) {
+      if (value.endsWith(units[i])) {
+	String number = value.substring(0, value.length() - units[i].length()).trim();
+	return Long.parseLong(number) * factors[i];
+      }
+    }
+    return Long.parseLong(value);
+  }
+
+  public boolean isEnabled()
+  {
+    return LOOKUP_TYPE.isEnabled() || BUILD_PHASE_TYPE.isEnabled() ||
+      PARTITION_BUILD_TYPE.isEnabled() || this.delegate.isEnabled();
+  }
+
+  public void lookup(String indexname, String partition, int keyLength, boolean mapped,
+		     long nanos, int postings, long bytes)
+  {
+    if (nanos >= this.lookupThresholdNanos && LOOKUP_TYPE.isEnabled()) {
+      LookupEvent event = new LookupEvent();
+      event.index = indexname;
+      event.partition = partition;
+      event.keyLength = keyLength;
+      event.postings = postings;
+      event.bytesRead = bytes;
+      event.mapped = mapped;
+      event.lookupDuration = nanos;
+      event.commit();
+    }
+    if (this.delegate.isEnabled()) {
+      this.delegate.lookup(indexname, partition, keyLength, mapped, nanos, postings, bytes);
+    }
+  }
+
+  public void lookupFailed(String indexname, String partition)
+  {
+    if (this.delegate.isEnabled()) {
+      this.delegate.lookupFailed(indexname, partition);
+    }
+  }
+
+  public void partitionOpened(String indexname, String partition)
+  {
+    if (this.delegate.isEnabled()) {
+      this.delegate.partitionOpened(indexname, partition);
+    }
+  }
+
+  public void partitionBuilt(String indexname, String partition, long nanos, int terms, long postings)
+  {
+    if (PARTITION_BUILD_TYPE.isEnabled()) {
+      PartitionBuildEvent event = new PartitionBuildEvent();
+      event.index = indexname;
+      event.partition = partition;
+      event.terms = terms;
+      event.postings = postings;
+      event.partitionDuration = nanos;
+      event.commit();
+    }
+    if (this.delegate.isEnabled()) {
+      this.delegate.partitionBuilt(indexname, partition, nanos, terms, postings);
+    }
+  }
+
+  public void buildPhase(String indexname, String phase, long nanos, long records)
+  {
+    if (BUILD_PHASE_TYPE.isEnabled()) {
+      BuildPhaseEvent event = new BuildPhaseEvent();
+      event.index = indexname;
+      event.phase = phase;
+      event.records = records;
+      event.phaseDuration = nanos;
+      event.commit();
+    }
+    if (this.delegate.isEnabled()) {
+      this.delegate.buildPhase(indexname, phase, nanos, records);
+    }
+  }
+
+  public String toString()
+  {
+    return "JfrIndexMetrics: lookup threshold: " + this.lookupThresholdNanos + " ns, delegate: " +
+      this.delegate.getClass().getName();
+  }
+
+} // JfrIndexMetrics
@@ -0,0 +1,48 @@
+package irutils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for an index lookup slower than the lookup
+ * threshold of JfrIndexMetrics.  The event is committed when the
+ * lookup completes; its duration is in field
+ * <code>lookupDuration</code>.
+ */
+
+@Name("irutils.Lookup")
+@Label("Index Lookup")
+@Category({"irutils", "Lookup"})
+@Description("Index lookup that took longer than the lookup threshold")
+@StackTrace(false)
+public class LookupEvent extends Event
+{
+  @Label("Index")
+  String index;
+
+  @Label("Partition")
+  String partition;
+
+  @Label("Key Length")
+  int keyLength;
+
+  @Label("Postings")
+  int postings;
+
+  @Label("Bytes Read")
+  @DataAmount
+  long bytesRead;
+
+  @Label("Memory Mapped")
+  boolean mapped;
+
+  @Label("Lookup Duration")
+  @Timespan(Timespan.NANOSECONDS)
+  long lookupDuration;
+}
@@ -0,0 +1,40 @@
+package irutils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for a generated partition (InvertedFile
+ * buildInvertedFile, or one column and term length of
+ * MultiKeyIndexGeneration.writePartitions), including the writing
+ * of its postings.
+ */
+
+@Name("irutils.PartitionBuild")
+@Label("Index Partition Build")
+@Category({"irutils", "Build"})
+@Description("Generation of one index partition")
+@StackTrace(false)
+public class PartitionBuildEvent extends Event
+{
+  @Label("Index")
+  String index;
+
+  @Label("Partition")
+  String partition;
+
+  @Label("Terms")
+  int terms;
+
+  @Label("Postings")
+  long postings;
+
+  @Label("Partition Duration")
+  @Timespan(Timespan.NANOSECONDS)
+  long partitionDuration;
+}
@@ -0,0 +1,213 @@
+package irutils.server;
+
+import irutils.InvertedFileContainer;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of LookupServer on localhost: starts a server for an
+ * InvertedFileContainer on free ports, then runs client threads, each
+ * with its own connection, looking up random keys for a fixed time
+ * and reports throughput, latency percentiles and batching.
+ *
+ * usage: irutils.server.LoadTest &lt;tableRoot&gt; &lt;indexRoot&gt; &lt;indexname&gt;
+ *                                 &lt;keyfile&gt; [threads] [seconds] [binary|http]
+ *
+ * Keys are the first field of each line of keyfile, so the table of
+ * the index may be used.
+ */
+
+public class LoadTest
+{
+  /** one client thread */
+  static final class Client extends Thread
+  {
+    final String protocol;
+    final String host;
+    final int port;
+    final String indexname;
+    final List<String> keys;
+    final long deadline;
+    final Random random;
+    /** latency of each lookup in nanoseconds */
+    long[] latencies = new long[1 << 16];
+    int count = 0;
+    long errors = 0;
+    long postings = 0;
+
+    Client(String protocol, String host, int port, String indexname, List<String> keys,
+	   long deadline, long seed)
+    {
+      this.protocol = protocol;
+      this.host = host;
+      this.port = port;
+      this.indexname = indexname;
+      this.keys = keys;
+      this.deadline = deadline;
+      this.random = new Random(seed);
+    }
+
+    public void run()
+    {
+      try {
+	LookupClient client = this.protocol.equals("binary") ? new LookupClient(this.host, this.port) : null;
+	try {
+	  while (System.nanoTime() < this.deadline) {
+	    String key = this.keys.get(this.random.nextInt(this.keys.size()));
+	    long start = System.nanoTime();
+	    try {
+	      if (client != null) {
+		this.postings += client.lookup(this.indexname, key).size();
+	      } else {
+		this.postings += this.httpLookup(key);
+	      }
+	    } catch (LookupException exception) {
+	      this.errors++;
+	    }
+	    this.record(System.nanoTime() - start);
+	  }
+	} finally {
+	  if (client != null) {
+	    client.close();
+	  }
+	}
+      } catch (IOException exception) {
+	System.err.println("client failed: " + exception);
+	this.errors++;
+      }
+    }
+
+    /** @return number of postings, counted as lines of response. */
+    int httpLookup(String key)
+      throws IOException
+    {
+      URL url = new URL("http://" + this.host + ":" + this.port + "/lookup?index=" +
+			URLEncoder.encode(this.indexname, "UTF-8") + "&term=" +
+			URLEncoder.encode(key, "UTF-8"));
+      HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+      if (connection.getResponseCode() != 200) {
+	connection.getErrorStream().close();
+	throw new LookupException(Protocol.ERROR, "status " + connection.getResponseCode());
+      }
+      int lines = 0;
+      byte[] buffer = new byte[8192];
+      InputStream in = connection.getInputStream();
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+	for (int i = 0; i < n; i++) {
+	  if (buffer[i] == '\n') {
+	    lines++;
+	  }
+	}
+      }
+      in.close();		// keeps connection alive for reuse
+      return lines;
+    }
+
+    void record(long nanos)
+    {
+      if (this.count == this.latencies.length) {
+	this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+      }
+      this.latencies[this.count++] = nanos;
+    }
+  }
+
+  static List<String> readKeys(String filename)
+    throws IOException
+  {
+    List<String> keys = new ArrayList<String>();
+    BufferedReader br = new BufferedReader(new FileReader(filename));
+    String line;
+    while ((line = br.readLine()) != null) {
+      int bar = line.indexOf('|');
+      keys.add(bar < 0 ? line : line.substring(0, bar));
+    }
+    br.close();
+    return keys;
+  }
+
+  static double percentile(long[] sorted, double fraction)
+  {
+    if (sorted.length == 0) {
+      return 0.0;
+    }
+    int index = (int)Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+    return sorted[Math.max(0, index)] / 1000.0;
+  }
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    if (args.length < 4) {
+      System.out.println("usage: irutils.server.LoadTest <tableRoot> <indexRoot> <indexname> <keyfile> [threads] [seconds] [binary|http]");
+      System.exit(0);
+    }
+    String indexname = args[2];
+    List<String> keys = readKeys(args[3]);
+    int threads = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+    int seconds = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+    String protocol = args.length > 6 ? args[6] : "binary";
+
+    LookupServer server = new LookupServer(new InvertedFileContainer(args[0], args[1]));
+    InetAddress localhost = InetAddress.getLoopbackAddress();
+    server.start(localhost, 0, 0);
+    int port = protocol.equals("binary") ? server.getBinaryPort() : server.getHttpPort();
+    System.out.println("server on " + localhost.getHostAddress() + ":" + port + " (" + protocol + ", " +
+		       (server.usesVirtualThreads() ? "virtual" : "platform") + " threads), " +
+		       threads + " clients, " + seconds + " s, " + keys.size() + " keys");
+
+    // warm up: open index and partitions.
+    LookupClient warmup = new LookupClient(localhost.getHostAddress(), server.getBinaryPort());
+    for (int i = 0; i < Math.min(1000, keys.size()); i++) {
+      warmup.lookup(indexname, keys.get(i));
+    }
+    warmup.close();
+
+    long start = System.nanoTime();
+    long deadline = start + seconds * 1000000000L;
+    Client[] clients = new Client[threads];
+    for (int i = 0; i < threads; i++) {
+      clients[i] = new Client(protocol, localhost.getHostAddress(), port, indexname, keys, deadline, i);
+      clients[i].start();
+    }
+    long total = 0;
+    long errors = 0;
+    long postings = 0;
+    for (Client client: clients) {
+      client.join();
+      total += client.count;
+      errors += client.errors;
+      postings += client.postings;
+    }
+    double elapsed = (System.nanoTime() - start) / 1e9;
+    long[] latencies = new long[(int)total];
+    int offset = 0;
+    for (Client client: clients) {
+      System.arraycopy(client.latencies, 0, latencies, offset, client.count);
+      offset += client.count;
+    }
+    Arrays.sort(latencies);
+    System.out.println(String.format("lookups: %d, errors: %d, postings: %d, throughput: %.0f lookups/s",
+				     total, errors, postings, total / elapsed));
+    System.out.println(String.format("latency us: p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f",
+				     percentile(latencies, 0.5), percentile(latencies, 0.9),
+				     percentile(latencies, 0.99), percentile(latencies, 0.999),
+				     percentile(latencies, 1.0)));
+    System.out.print(server.statistics());
+    server.close();
+  }
+
+} // LoadTest
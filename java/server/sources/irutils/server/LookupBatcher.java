@@ -0,0 +1,159 @@
+package irutils.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent single-term lookups of one index into batched
+ * lookups.
+ * <p>
+ * At most maxInFlight batches of an index are outstanding.  A request
+ * arriving while that many are outstanding waits in the queue; when a
+ * batch completes, the waiting requests, up to maxBatch of them, are
+ * issued together as the next batch.  So a lone request is issued
+ * immediately and batches grow with load, without a timer adding
+ * latency.  Duplicate terms in a batch are looked up once.
+ * </p>
+ */
+
+public class LookupBatcher
+{
+  /** batched lookup of an index */
+  public interface Backend
+  {
+    /**
+     * @param terms distinct terms to look up.
+     * @return future of map of term to postings.
+     */
+    CompletableFuture<Map<String,List<String>>> lookup(List<String> terms);
+  }
+
+  static final class Pending
+  {
+    final String term;
+    final CompletableFuture<List<String>> future = new CompletableFuture<List<String>>();
+
+    Pending(String term)
+    {
+      this.term = term;
+    }
+  }
+
+  final Backend backend;
+  final int maxBatch;
+  final int maxInFlight;
+  final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<Pending>();
+  final AtomicInteger inFlight = new AtomicInteger(0);
+
+  final AtomicLong requests = new AtomicLong();
+  final AtomicLong batches = new AtomicLong();
+  final AtomicLong terms = new AtomicLong();
+  final AtomicInteger largestBatch = new AtomicInteger();
+
+  /**
+   * @param backend     batched lookup of index
+   * @param maxBatch    largest number of requests in a batch
+   * @param maxInFlight largest number of outstanding batches
+   */
+  public LookupBatcher(Backend backend, int maxBatch, int maxInFlight)
+  {
+    this.backend = backend;
+    this.maxBatch = Math.max(1, maxBatch);
+    this.maxInFlight = Math.max(1, maxInFlight);
+  }
+
+  /**
+   * @param term term to look up.
+   * @return future of postings of term.
+   */
+  public CompletableFuture<List<String>> submit(String term)
+  {
+    Pending pending = new Pending(term);
+    this.requests.incrementAndGet();
+    this.queue.add(pending);
+    this.drain();
+    return pending.future;
+  }
+
+  /** issue queued requests as batches while fewer than maxInFlight are outstanding. */
+  void drain()
+  {
+    while (! this.queue.isEmpty()) {
+      int outstanding = this.inFlight.get();
+      if (outstanding >= this.maxInFlight) {
+	return;			// completion of a batch drains the queue.
+      }
+      if (! this.inFlight.compareAndSet(outstanding, outstanding + 1)) {
+	continue;
+      }
+      List<Pending> batch = new ArrayList<Pending>();
+      Pending pending;
+      while (batch.size() < this.maxBatch && (pending = this.queue.poll()) != null) {
+	batch.add(pending);
+      }
+      if (batch.isEmpty()) {
+	this.inFlight.decrementAndGet();
+      } else {
+	this.dispatch(batch);
+      }
+    }
+  }
+
+  void dispatch(final List<Pending> batch)
+  {
+    Set<String> distinct = new LinkedHashSet<String>();
+    for (Pending pending: batch) {
+      distinct.add(pending.term);
+    }
+    this.batches.incrementAndGet();
+    this.terms.addAndGet(distinct.size());
+    int size = batch.size();
+    int largest;
+    while (size > (largest = this.largestBatch.get()) &&
+	   (! this.largestBatch.compareAndSet(largest, size))) {
+    }
+    CompletableFuture<Map<String,List<String>>> result;
+    try {
+      result = this.backend.lookup(new ArrayList<String>(distinct));
+    } catch (RuntimeException exception) {
+      result = new CompletableFuture<Map<String,List<String>>>();
+      result.completeExceptionally(exception);
+    }
+    result.whenComplete((map, throwable) -> {
+	this.inFlight.decrementAndGet();
+	for (Pending pending: batch) {
+	  if (throwable != null) {
+	    pending.future.completeExceptionally(throwable);
+	  } else {
+	    pending.future.complete(map.get(pending.term));
+	  }
+	}
+	this.drain();
+      });
+  }
+
+  public long getRequestCount() { return this.requests.get(); }
+  public long getBatchCount() { return this.batches.get(); }
+  /** @return mean number of requests per batch. */
+  public double getMeanBatchSize()
+  {
+    long batchCount = this.batches.get();
+    return batchCount == 0 ? 0.0 : (double)this.requests.get() / batchCount;
+  }
+
+  public String toString()
+  {
+    return "requests: " + this.requests.get() + ", batches: " + this.batches.get() +
+      ", distinct terms: " + this.terms.get() +
+      ", mean batch: " + String.format("%.2f", this.getMeanBatchSize()) +
+      ", largest batch: " + this.largestBatch.get();
+  }
+
+} // LookupBatcher
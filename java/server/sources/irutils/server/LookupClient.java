@@ -0,0 +1,128 @@
+package irutils.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client of the binary protocol of LookupServer.
+ * <p>
+ * A client holds one connection; its methods are synchronized, so it
+ * may be shared, but requests of one client are answered one after
+ * the other.  Use one client per thread for concurrent lookups, the
+ * server batches concurrent requests of all connections.
+ * </p>
+ * Example of use:
+ * <pre>
+ *   LookupClient client = new LookupClient("localhost", 8089);
+ *   try {
+ *     List&lt;String&gt; postings = client.lookup("mrcon", "C0001403");
+ *     ...
+ *   } finally {
+ *     client.close();
+ *   }
+ * </pre>
+ */
+
+public class LookupClient implements Closeable
+{
+  final Socket socket;
+  final DataInputStream in;
+  final DataOutputStream out;
+
+  /**
+   * Connect to server.
+   * @param host host of server
+   * @param port binary protocol port of server
+   * @exception IOException if connection fails
+   */
+  public LookupClient(String host, int port)
+    throws IOException
+  {
+    this.socket = new Socket();
+    this.socket.setTcpNoDelay(true);
+    this.socket.connect(new InetSocketAddress(host, port));
+    this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+    this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+  }
+
+  /**
+   * Look up term in index of server's InvertedFileContainer.
+   * @param indexname name of index
+   * @param term      term
+   * @return postings of term, empty if term is not in index.
+   * @exception LookupException if index does not exist or lookup failed.
+   * @exception IOException if an error occurs
+   */
+  public synchronized List<String> lookup(String indexname, String term)
+    throws IOException
+  {
+    Protocol.writeRequest(this.out, Protocol.LOOKUP, indexname, -1, term);
+    this.out.flush();
+    return Protocol.readResult(this.in);
+  }
+
+  /**
+   * Look up term in column of a MultiKeyIndex of server.
+   * @param name   name of MultiKeyIndex
+   * @param column key column
+   * @param term   term
+   * @return postings of term, empty if term is not in index.
+   * @exception LookupException if index or partition does not exist or lookup failed.
+   * @exception IOException if an error occurs
+   */
+  public synchronized List<String> lookup(String name, int column, String term)
+    throws IOException
+  {
+    Protocol.writeRequest(this.out, Protocol.MULTIKEY_LOOKUP, name, column, term);
+    this.out.flush();
+    return Protocol.readResult(this.in);
+  }
+
+  /**
+   * Look up several terms in index with one round trip: requests are
+   * pipelined and answered in order.
+   * @param indexname name of index
+   * @param terms     terms
+   * @return postings of each term, in order of terms.
+   * @exception LookupException if index does not exist or a lookup failed.
+   * @exception IOException if an error occurs
+   */
+  public synchronized List<List<String>> lookup(String indexname, List<String> terms)
+    throws IOException
+  {
+    for (String term: terms) {
+      Protocol.writeRequest(this.out, Protocol.LOOKUP, indexname, -1, term);
+    }
+    this.out.flush();
+    List<List<String>> results = new ArrayList<List<String>>(terms.size());
+    LookupException failure = null;
+    for (int i = 0; i < terms.size(); i++) {
+      try {
+	results.add(Protocol.readResult(this.in));
+      } catch (LookupException exception) {
+	// keep reading so the connection stays in step.
+	failure = failure == null ? exception : failure;
+	results.add(null);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return results;
+  }
+
+  public synchronized void close()
+    throws IOException
+  {
+    this.socket.close();
+  }
+
+} // LookupClient
@@ -0,0 +1,29 @@
+package irutils.server;
+
+import java.io.IOException;
+
+/**
+ * Error reported by a LookupServer for one request; the connection
+ * stays usable.
+ */
+
+public class LookupException extends IOException
+{
+  private static final long serialVersionUID = 1L;
+
+  /** status of response, see Protocol. */
+  final byte status;
+
+  public LookupException(byte status, String message)
+  {
+    super(message);
+    this.status = status;
+  }
+
+  /** @return true if index or partition does not exist. */
+  public boolean isNotFound() { return this.status == Protocol.NOT_FOUND; }
+
+  /** @return status of response, Protocol.NOT_FOUND or Protocol.ERROR. */
+  public byte getStatus() { return this.status; }
+
+} // LookupException
@@ -0,0 +1,548 @@
+package irutils.server;
+
+import irutils.InvertedFileContainer;
+import irutils.InvertedFileHandle;
+import irutils.MultiKeyIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lookup server sharing one InvertedFileContainer and a set of
+ * MultiKeyIndexes between processes on the same host.
+ * <p>
+ * Serves two protocols, each on its own port: HTTP/1.1 with keep-alive
+ * and the length-prefixed binary protocol described in Protocol, used
+ * by LookupClient.  Each connection is served by its own thread: a
+ * virtual thread when running on Java 21 or later, a platform thread
+ * otherwise.  Concurrent single-term requests for an index are
+ * coalesced by a LookupBatcher into batched asynchronous lookups
+ * (InvertedFile.lookupAsync() and MultiKeyIndex.lookupAsync()), so
+ * waiting connections don't hold I/O threads.
+ * </p>
+ * HTTP requests:
+ * <pre>
+ *   GET /lookup?index=&lt;indexname&gt;&amp;term=&lt;term&gt;
+ *   GET /mlookup?index=&lt;name&gt;&amp;column=&lt;column&gt;&amp;term=&lt;term&gt;
+ *   GET /stats
+ * </pre>
+ * Lookups answer with the postings, one per line, as text/plain;
+ * unknown indices with 404.
+ * <p>
+ * Properties of main():
+ * <pre>
+ *   -Dtable.path=&lt;directory&gt;      tables of container
+ *   -Dindex.path=&lt;directory&gt;      indices of container
+ *   -Dserver.bind=&lt;address&gt;       address to listen on (default: 127.0.0.1)
+ *   -Dserver.http.port=&lt;port&gt;     HTTP port, -1 to disable (default: 8088)
+ *   -Dserver.binary.port=&lt;port&gt;   binary protocol port, -1 to disable (default: 8089)
+ *   -Dserver.multikey=&lt;name&gt;=&lt;directory&gt;,...  MultiKeyIndexes to serve
+ *   -Dserver.batch.size=&lt;n&gt;       largest batch (default: 256)
+ *   -Dserver.batch.inflight=&lt;n&gt;   outstanding batches per index (default: 4)
+ * </pre>
+ * </p>
+ */
+
+public class LookupServer implements Closeable
+{
+  /** indices of container */
+  final InvertedFileContainer container;
+  /** MultiKeyIndexes by name */
+  final Map<String,MultiKeyIndex> multiKeyIndexMap = new ConcurrentHashMap<String,MultiKeyIndex>();
+  /** batcher of each index or MultiKeyIndex column: "name" or "name|column" -> batcher */
+  final ConcurrentMap<String,LookupBatcher> batcherMap = new ConcurrentHashMap<String,LookupBatcher>();
+
+  int maxBatch = Integer.parseInt(System.getProperty("server.batch.size", "256"));
+  int maxInFlight = Integer.parseInt(System.getProperty("server.batch.inflight", "4"));
+
+  /** runs one task per connection */
+  final ExecutorService connectionExecutor = newConnectionExecutor();
+
+  ServerSocket httpSocket;
+  ServerSocket binarySocket;
+  /** open connections, closed with server. */
+  final Map<Socket,Boolean> connections = new ConcurrentHashMap<Socket,Boolean>();
+  volatile boolean closed = false;
+
+  /**
+   * @param container indices to serve, null to serve MultiKeyIndexes only.
+   */
+  public LookupServer(InvertedFileContainer container)
+  {
+    this.container = container;
+  }
+
+  /**
+   * Serve MultiKeyIndex under name.
+   * @param name  name of index in requests
+   * @param index index, its asynchronous lookups are used.
+   */
+  public void addMultiKeyIndex(String name, MultiKeyIndex index)
+  {
+    this.multiKeyIndexMap.put(name, index);
+  }
+
+  /**
+   * @return executor starting a virtual thread per task when available
+   *         (Java 21+), otherwise a daemon platform thread per task.
+   */
+  static ExecutorService newConnectionExecutor()
+  {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService)method.invoke(null);
+    } catch (Exception exception) {
+      return Executors.newCachedThreadPool(runnable -> {
+	  Thread thread = new Thread(runnable, "irutils-server-connection");
+	  thread.setDaemon(true);
+	  return thread;
+	});
+    }
+  }
+
+  /** @return true if connections are served by virtual threads. */
+  public boolean usesVirtualThreads()
+  {
+    return ! (this.connectionExecutor instanceof java.util.concurrent.ThreadPoolExecutor);
+  }
+
+  /**
+   * Start listening.
+   * @param bind       address to listen on
+   * @param httpPort   port of HTTP, 0 for any free port, negative to disable.
+   * @param binaryPort port of binary protocol, 0 for any free port, negative to disable.
+   * @exception IOException if a port could not be bound.
+   */
+  public void start(InetAddress bind, int httpPort, int binaryPort)
+    throws IOException
+  {
+    if (httpPort >= 0) {
+      this.httpSocket = listen(bind, httpPort);
+      this.startAcceptor(this.httpSocket, true);
+    }
+    if (binaryPort >= 0) {
+      this.binarySocket = listen(bind, binaryPort);
+      this.startAcceptor(this.binarySocket, false);
+    }
+  }
+
+  static ServerSocket listen(InetAddress bind, int port)
+    throws IOException
+  {
+    ServerSocket socket = new ServerSocket();
+    socket.setReuseAddress(true);
+    socket.bind(new InetSocketAddress(bind, port), 1024);
+    return socket;
+  }
+
+  /** @return bound HTTP port, -1 if not listening. */
+  public int getHttpPort() { return this.httpSocket == null ? -1 : this.httpSocket.getLocalPort(); }
+
+  /** @return bound binary protocol port, -1 if not listening. */
+  public int getBinaryPort() { return this.binarySocket == null ? -1 : this.binarySocket.getLocalPort(); }
+
+  void startAcceptor(final ServerSocket serverSocket, final boolean http)
+  {
+    Thread acceptor = new Thread(() -> {
+	while (! this.closed) {
+	  try {
+	    final Socket socket = serverSocket.accept();
+	    socket.setTcpNoDelay(true);
+	    this.connections.put(socket, Boolean.TRUE);
+	    this.connectionExecutor.execute(() -> this.serve(socket, http));
+	  } catch (IOException exception) {
+	    if (! this.closed) {
+	      System.err.println("LookupServer: accept failed: " + exception.getMessage());
+	    }
+	  }
+	}
+      }, "irutils-server-accept-" + serverSocket.getLocalPort());
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  void serve(Socket socket, boolean http)
+  {
+    try {
+      if (http) {
+	this.serveHttp(socket);
+      } else {
+	this.serveBinary(socket);
+      }
+    } catch (SocketException exception) {
+      // connection reset or server closed.
+    } catch (EOFException exception) {
+      // client closed connection within a request.
+    } catch (IOException exception) {
+      if (! this.closed) {
+	System.err.println("LookupServer: connection from " + socket.getRemoteSocketAddress() +
+			   ": " + exception.getMessage());
+      }
+    } finally {
+      this.connections.remove(socket);
+      try {
+	socket.close();
+      } catch (IOException exception) {
+	// nothing to do
+      }
+    }
+  }
+
+  /**
+   * Look up term in index of container.
+   * @param indexname name of index
+   * @param term      term
+   * @return future of postings; completes with FileNotFoundException if there is no such index.
+   */
+  public CompletableFuture<List<String>> lookup(String indexname, String term)
+  {
+    return this.batcher(indexname, -1).submit(term);
+  }
+
+  /**
+   * Look up term in column of MultiKeyIndex.
+   * @param name   name of MultiKeyIndex
+   * @param column key column
+   * @param term   term
+   * @return future of postings; completes with FileNotFoundException if there is no such index.
+   */
+  public CompletableFuture<List<String>> lookup(String name, int column, String term)
+  {
+    if (! this.multiKeyIndexMap.containsKey(name)) {
+      CompletableFuture<List<String>> future = new CompletableFuture<List<String>>();
+      future.completeExceptionally(new FileNotFoundException("no multikey index " + name));
+      return future;
+    }
+    return this.batcher(name, column).submit(term);
+  }
+
+  LookupBatcher batcher(final String name, final int column)
+  {
+    String key = column < 0 ? name : name + "|" + column;
+    LookupBatcher batcher = this.batcherMap.get(key);
+    if (batcher == null) {
+      LookupBatcher.Backend backend;
+      if (column < 0) {
+	backend = terms -> this.lookupBatch(name, terms);
+      } else {
+	final MultiKeyIndex index = this.multiKeyIndexMap.get(name);
+	backend = terms -> index.lookupAsync(column, terms);
+      }
+      LookupBatcher newBatcher = new LookupBatcher(backend, this.maxBatch, this.maxInFlight);
+      batcher = this.batcherMap.putIfAbsent(key, newBatcher);
+      if (batcher == null) {
+	batcher = newBatcher;
+      }
+    }
+    return batcher;
+  }
+
+  /** batched lookup in current generation of index, released when lookup completes. */
+  CompletableFuture<Map<String,List<String>>> lookupBatch(String indexname, List<String> terms)
+  {
+    final InvertedFileHandle handle;
+    try {
+      handle = this.container == null ? null : this.container.acquire(indexname);
+      if (handle == null) {
+	throw new FileNotFoundException("no index " + indexname);
+      }
+    } catch (Exception exception) {
+      CompletableFuture<Map<String,List<String>>> future = new CompletableFuture<Map<String,List<String>>>();
+      future.completeExceptionally(exception);
+      return future;
+    }
+    CompletableFuture<Map<String,List<String>>> result;
+    try {
+      result = handle.getIndex().lookupAsync(terms);
+    } catch (RuntimeException exception) {
+      result = new CompletableFuture<Map<String,List<String>>>();
+      result.completeExceptionally(exception);
+    }
+    return result.whenComplete((map, throwable) -> {
+	try {
+	  handle.close();
+	} catch (IOException exception) {
+	  System.err.println("LookupServer: releasing " + indexname + ": " + exception.getMessage());
+	}
+      });
+  }
+
+  /** wait for result of lookup, unwrapping its exception. */
+  static List<String> await(CompletableFuture<List<String>> future)
+    throws Exception
+  {
+    try {
+      return future.get();
+    } catch (ExecutionException exception) {
+      Throwable cause = exception.getCause();
+      while (cause instanceof CompletionException && cause.getCause() != null) {
+	cause = cause.getCause();
+      }
+      throw cause instanceof Exception ? (Exception)cause : exception;
+    }
+  }
+
+  void serveBinary(Socket socket)
+    throws IOException
+  {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    Protocol.Request request;
+    while ((request = Protocol.readRequest(in)) != null) {
+      try {
+	List<String> postings;
+	if (request.op == Protocol.LOOKUP) {
+	  postings = await(this.lookup(request.index, request.term));
+	} else if (request.op == Protocol.MULTIKEY_LOOKUP) {
+	  postings = await(this.lookup(request.index, request.column, request.term));
+	} else {
+	  throw new IllegalArgumentException("unknown operation " + request.op);
+	}
+	Protocol.writeResult(out, postings);
+      } catch (FileNotFoundException exception) {
+	Protocol.writeError(out, Protocol.NOT_FOUND, exception.getMessage());
+      } catch (Exception exception) {
+	Protocol.writeError(out, Protocol.ERROR, exception.toString());
+      }
+      if (in.available() == 0) {
+	out.flush();		// flush when no pipelined request is waiting.
+      }
+    }
+    out.flush();
+  }
+
+  void serveHttp(Socket socket)
+    throws IOException
+  {
+    InputStream in = new BufferedInputStream(socket.getInputStream());
+    OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+    String requestLine;
+    while ((requestLine = readLine(in)) != null) {
+      if (requestLine.isEmpty()) {
+	continue;
+      }
+      boolean keepAlive = requestLine.endsWith("HTTP/1.1");
+      String header;
+      while ((header = readLine(in)) != null && (! header.isEmpty())) {
+	int colon = header.indexOf(':');
+	if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("connection")) {
+	  String value = header.substring(colon + 1).trim();
+	  if (value.equalsIgnoreCase("close")) {
+	    keepAlive = false;
+	  } else if (value.equalsIgnoreCase("keep-alive")) {
+	    keepAlive = true;
+	  }
+	}
+      }
+      String[] fields = requestLine.split(" ");
+      if (fields.length != 3) {
+	writeHttp(out, 400, "Bad Request", "malformed request line\n", false);
+	break;
+      }
+      if (! fields[0].equals("GET")) {
+	writeHttp(out, 405, "Method Not Allowed", "only GET is supported\n", keepAlive);
+      } else {
+	this.handleHttp(fields[1], out, keepAlive);
+      }
+      if (in.available() == 0) {
+	out.flush();
+      }
+      if (! keepAlive) {
+	break;
+      }
+    }
+    out.flush();
+  }
+
+  void handleHttp(String target, OutputStream out, boolean keepAlive)
+    throws IOException
+  {
+    int question = target.indexOf('?');
+    String path = question < 0 ? target : target.substring(0, question);
+    Map<String,String> params = parseQuery(question < 0 ? "" : target.substring(question + 1));
+    if (path.equals("/stats")) {
+      writeHttp(out, 200, "OK", this.statistics(), keepAlive);
+      return;
+    }
+    if (! (path.equals("/lookup") || path.equals("/mlookup"))) {
+      writeHttp(out, 404, "Not Found", "unknown path " + path + "\n", keepAlive);
+      return;
+    }
+    String index = params.get("index");
+    String term = params.get("term");
+    if (index == null || term == null) {
+      writeHttp(out, 400, "Bad Request", "index and term are required\n", keepAlive);
+      return;
+    }
+    try {
+      List<String> postings;
+      if (path.equals("/lookup")) {
+	postings = await(this.lookup(index, term));
+      } else {
+	postings = await(this.lookup(index, Integer.parseInt(params.get("column")), term));
+      }
+      StringBuilder body = new StringBuilder();
+      for (String posting: postings) {
+	body.append(posting).append('\n');
+      }
+      writeHttp(out, 200, "OK", body.toString(), keepAlive);
+    } catch (FileNotFoundException exception) {
+      writeHttp(out, 404, "Not Found", exception.getMessage() + "\n", keepAlive);
+    } catch (NumberFormatException exception) {
+      writeHttp(out, 400, "Bad Request", "invalid column\n", keepAlive);
+    } catch (Exception exception) {
+      writeHttp(out, 500, "Internal Server Error", exception + "\n", keepAlive);
+    }
+  }
+
+  static void writeHttp(OutputStream out, int status, String reason, String body, boolean keepAlive)
+    throws IOException
+  {
+    byte[] content = body.getBytes(StandardCharsets.UTF_8);
+    String head = "HTTP/1.1 " + status + " " + reason + "\r\n" +
+      "Content-Type: text/plain; charset=utf-8\r\n" +
+      "Content-Length: " + content.length + "\r\n" +
+      (keepAlive ? "" : "Connection: close\r\n") +
+      "\r\n";
+    out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+    out.write(content);
+  }
+
+  /** @return line without terminating CRLF, null at end of stream. */
+  static String readLine(InputStream in)
+    throws IOException
+  {
+    StringBuilder line = new StringBuilder();
+    int c;
+    while ((c = in.read()) >= 0) {
+      if (c == '\n') {
+	int length = line.length();
+	if (length > 0 && line.charAt(length - 1) == '\r') {
+	  line.setLength(length - 1);
+	}
+	return line.toString();
+      }
+      if (line.length() >= 8192) {
+	throw new IOException("request line too long");
+      }
+      line.append((char)c);
+    }
+    return line.length() == 0 ? null : line.toString();
+  }
+
+  static Map<String,String> parseQuery(String query)
+  {
+    Map<String,String> params = new HashMap<String,String>();
+    for (String pair: query.split("&")) {
+      int equals = pair.indexOf('=');
+      if (equals > 0) {
+	try {
+	  params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+		     URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+	} catch (IllegalArgumentException exception) {
+	  // malformed escape, ignore parameter.
+	} catch (java.io.UnsupportedEncodingException exception) {
+	  throw new IllegalStateException(exception);
+	}
+      }
+    }
+    return params;
+  }
+
+  /** @return statistics of batchers, one line per index. */
+  public String statistics()
+  {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String,LookupBatcher> entry: this.batcherMap.entrySet()) {
+      sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /** stop listening and close open connections. */
+  public void close()
+    throws IOException
+  {
+    this.closed = true;
+    if (this.httpSocket != null) {
+      this.httpSocket.close();
+    }
+    if (this.binarySocket != null) {
+      this.binarySocket.close();
+    }
+    for (Socket socket: this.connections.keySet()) {
+      socket.close();
+    }
+    this.connectionExecutor.shutdown();
+  }
+
+  /**
+   * main program
+   * @param args argument vector.
+   *
+   * usage: irutils.server.LookupServer, configured by properties, see above.
+   */
+  public static void main(String[] args)
+    throws Exception
+  {
+    String tablePath = System.getProperty("table.path");
+    String indexPath = System.getProperty("index.path");
+    String multikey = System.getProperty("server.multikey", "");
+    if ((tablePath == null || indexPath == null) && multikey.isEmpty()) {
+      System.out.println("usage: irutils.server.LookupServer");
+      System.out.println("properties: ");
+      System.out.println("  -Dtable.path=<directory path> : where tables reside");
+      System.out.println("  -Dindex.path=<directory path> : where path indices resides");
+      System.out.println("  -Dserver.multikey=<name>=<index directory>,... : MultiKeyIndexes to serve");
+      System.out.println("  -Dserver.bind=<address>       : address to listen on (default: 127.0.0.1)");
+      System.out.println("  -Dserver.http.port=<port>     : HTTP port, -1 to disable (default: 8088)");
+      System.out.println("  -Dserver.binary.port=<port>   : binary protocol port, -1 to disable (default: 8089)");
+      System.exit(0);
+    }
+    InvertedFileContainer container = null;
+    if (tablePath != null && indexPath != null) {
+      container = new InvertedFileContainer(tablePath, indexPath);
+    }
+    LookupServer server = new LookupServer(container);
+    for (String entry: multikey.split(",")) {
+      int equals = entry.indexOf('=');
+      if (equals > 0) {
+	server.addMultiKeyIndex(entry.substring(0, equals), new MultiKeyIndex(entry.substring(equals + 1)));
+      }
+    }
+    server.start(InetAddress.getByName(System.getProperty("server.bind", "127.0.0.1")),
+		 Integer.parseInt(System.getProperty("server.http.port", "8088")),
+		 Integer.parseInt(System.getProperty("server.binary.port", "8089")));
+    System.out.println("LookupServer: http port " + server.getHttpPort() +
+		       ", binary port " + server.getBinaryPort() +
+		       (server.usesVirtualThreads() ? ", virtual threads" : ", platform threads"));
+    Thread.currentThread().join();
+  }
+
+} // LookupServer
@@ -0,0 +1,183 @@
+package irutils.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Length-prefixed binary protocol of LookupServer.
+ * <p>
+ * Every message is a frame: an int holding the length of the rest of
+ * the frame, followed by its body.  All ints are big-endian, strings
+ * are in the modified UTF-8 of DataOutput.writeUTF().
+ * </p>
+ * Request body:
+ * <pre>
+ *   byte  op       LOOKUP or MULTIKEY_LOOKUP
+ *   UTF   index    name of index
+ *   int   column   key column, -1 for LOOKUP
+ *   UTF   term     term to look up
+ * </pre>
+ * Response body:
+ * <pre>
+ *   byte  status   OK, NOT_FOUND or ERROR
+ *   if OK:
+ *     int count    number of postings, followed by count postings:
+ *     int length   length of posting in bytes
+ *     byte[length] posting, UTF-8
+ *   otherwise:
+ *     UTF message
+ * </pre>
+ * Requests on a connection are answered in order; a client may send
+ * several requests before reading responses.
+ */
+
+public final class Protocol
+{
+  /** look up term in an index of the InvertedFileContainer */
+  public static final byte LOOKUP = 1;
+  /** look up term in a column of a MultiKeyIndex */
+  public static final byte MULTIKEY_LOOKUP = 2;
+
+  public static final byte OK = 0;
+  /** index or partition does not exist */
+  public static final byte NOT_FOUND = 1;
+  public static final byte ERROR = 2;
+
+  /** largest frame accepted */
+  public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+  /** decoded request */
+  public static final class Request
+  {
+    public final byte op;
+    public final String index;
+    public final int column;
+    public final String term;
+
+    public Request(byte op, String index, int column, String term)
+    {
+      this.op = op;
+      this.index = index;
+      this.column = column;
+      this.term = term;
+    }
+  }
+
+  private Protocol() { }
+
+  /**
+   * Read length of next frame.
+   * @return length of frame, -1 at end of stream.
+   */
+  static int readFrameLength(DataInputStream in)
+    throws IOException
+  {
+    int b = in.read();
+    if (b < 0) {
+      return -1;
+    }
+    int length = (b << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+    if (length < 0 || length > MAX_FRAME_LENGTH) {
+      throw new IOException("invalid frame length: " + length);
+    }
+    return length;
+  }
+
+  /** @return next request, null at end of stream. */
+  public static Request readRequest(DataInputStream in)
+    throws IOException
+  {
+    if (readFrameLength(in) < 0) {
+      return null;
+    }
+    byte op = in.readByte();
+    String index = in.readUTF();
+    int column = in.readInt();
+    String term = in.readUTF();
+    return new Request(op, index, column, term);
+  }
+
+  public static void writeRequest(DataOutputStream out, byte op, String index, int column, String term)
+    throws IOException
+  {
+    byte[] indexBytes = utf(index);
+    byte[] termBytes = utf(term);
+    out.writeInt(1 + indexBytes.length + 4 + termBytes.length);
+    out.writeByte(op);
+    out.write(indexBytes);
+    out.writeInt(column);
+    out.write(termBytes);
+  }
+
+  public static void writeResult(DataOutputStream out, List<String> postings)
+    throws IOException
+  {
+    byte[][] encoded = new byte[postings.size()][];
+    long length = 1 + 4;
+    for (int i = 0; i < encoded.length; i++) {
+      encoded[i] = postings.get(i).getBytes(StandardCharsets.UTF_8);
+      length = length + 4 + encoded[i].length;
+    }
+    if (length > MAX_FRAME_LENGTH) {
+      writeError(out, ERROR, "result of " + postings.size() + " postings exceeds frame limit");
+      return;
+    }
+    out.writeInt((int)length);
+    out.writeByte(OK);
+    out.writeInt(encoded.length);
+    for (byte[] posting: encoded) {
+      out.writeInt(posting.length);
+      out.write(posting);
+    }
+  }
+
+  public static void writeError(DataOutputStream out, byte status, String message)
+    throws IOException
+  {
+    byte[] messageBytes = utf(message == null ? "" : message);
+    out.writeInt(1 + messageBytes.length);
+    out.writeByte(status);
+    out.write(messageBytes);
+  }
+
+  /**
+   * Read response.
+   * @return postings
+   * @exception LookupException if server answered with an error.
+   * @exception IOException if an error occurs
+   */
+  public static List<String> readResult(DataInputStream in)
+    throws IOException
+  {
+    if (readFrameLength(in) < 0) {
+      throw new EOFException("connection closed by server");
+    }
+    byte status = in.readByte();
+    if (status != OK) {
+      throw new LookupException(status, in.readUTF());
+    }
+    int count = in.readInt();
+    List<String> postings = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      byte[] posting = new byte[in.readInt()];
+      in.readFully(posting);
+      postings.add(new String(posting, StandardCharsets.UTF_8));
+    }
+    return postings;
+  }
+
+  /** @return string in modified UTF-8 prefixed by its length, as written by writeUTF(). */
+  static byte[] utf(String string)
+    throws IOException
+  {
+    java.io.ByteArrayOutputStream buffer = new java.io.ByteArrayOutputStream(string.length() + 2);
+    new DataOutputStream(buffer).writeUTF(string);
+    return buffer.toByteArray();
+  }
+
+} // Protocol
@@ -0,0 +1,301 @@
+package irutils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking reads of index files, used by InvertedFile.lookupAsync()
+ * and MultiKeyIndex.lookupAsync().
+ * <p>
+ * Files are read with AsynchronousFileChannel.  A dictionary lookup is
+ * a chain of reads, one record per probe of the binary search, each
+ * issued from the completion of the previous one, followed by the
+ * reads of the postings; no thread waits for a lookup to complete.
+ * All channels share one small I/O executor, set the number of its
+ * threads with property <code>-Difread.async.threads=</code><em>n</em>
+ * (default: 2).  Completions run on I/O executor threads, so dependent
+ * stages doing real work should use the *Async variants of
+ * CompletableFuture with an executor of their own.
+ * </p>
+ * An instance caches open channels by filename and is thread-safe.
+ */
+
+public class AsyncFileReader
+{
+  /** executor performing reads and running their completions. */
+  static final ExecutorService IO_EXECUTOR =
+    Executors.newFixedThreadPool(Integer.parseInt(System.getProperty("ifread.async.threads", "2")),
+				 new ThreadFactory() {
+				   final AtomicInteger count = new AtomicInteger(0);
+				   public Thread newThread(Runnable runnable) {
+				     Thread thread = new Thread(runnable, "irutils-async-io-" + count.incrementAndGet());
+				     thread.setDaemon(true);
+				     return thread;
+				   }
+				 });
+
+  static final Set<OpenOption> READ_OPTIONS =
+    Collections.<OpenOption>singleton(StandardOpenOption.READ);
+
+  /** open channels, filename -> channel */
+  final ConcurrentMap<String,AsynchronousFileChannel> channels =
+    new ConcurrentHashMap<String,AsynchronousFileChannel>();
+
+  /** set once closed. */
+  volatile boolean closed = false;
+
+  /**
+   * Get channel of file, opening it if necessary.
+   * @param filename name of file
+   * @return channel of file, null if file does not exist.
+   * @exception IOException if file could not be opened.
+   */
+  public AsynchronousFileChannel channel(String filename)
+    throws IOException
+  {
+    AsynchronousFileChannel channel = this.channels.get(filename);
+    if (channel != null) {
+      return channel;
+    }
+    if (this.closed) {
+      throw new IOException("reader is closed");
+    }
+    try {
+      channel = AsynchronousFileChannel.open(Paths.get(filename), READ_OPTIONS, IO_EXECUTOR);
+    } catch (NoSuchFileException exception) {
+      return null;
+    }
+    AsynchronousFileChannel existing = this.channels.putIfAbsent(filename, channel);
+    if (existing != null) {
+      channel.close();
+      return existing;
+    }
+    return channel;
+  }
+
+  /**
+   * Close all channels, reads in progress fail.
+   * @exception IOException if an error occurs
+   */
+  public void close()
+    throws IOException
+  {
+    this.closed = true;
+    for (AsynchronousFileChannel channel: this.channels.values()) {
+      channel.close();
+    }
+    this.channels.clear();
+  }
+
+  /** @return future completed exceptionally with throwable. */
+  static <T> CompletableFuture<T> failed(Throwable throwable)
+  {
+    CompletableFuture<T> future = new CompletableFuture<T>();
+    future.completeExceptionally(throwable);
+    return future;
+  }
+
+  /**
+   * Read bytes of file, completing when length bytes or end of file are read.
+   * @param channel  channel of file
+   * @param position offset in file
+   * @param length   number of bytes to read
+   * @return future of buffer of bytes read, flipped for reading.
+   */
+  public static CompletableFuture<ByteBuffer> read(final AsynchronousFileChannel channel,
+						   final long position, int length)
+  {
+    final CompletableFuture<ByteBuffer> future = new CompletableFuture<ByteBuffer>();
+    final ByteBuffer buffer = ByteBuffer.allocate(length);
+    CompletionHandler<Integer,Void> handler = new CompletionHandler<Integer,Void>() {
+	public void completed(Integer n, Void attachment) {
+	  if (n.intValue() < 0 || (! buffer.hasRemaining())) {
+	    buffer.flip();
+	    future.complete(buffer);
+	  } else {
+	    try {
+	      channel.read(buffer, position + buffer.position(), null, this);
+	    } catch (RuntimeException exception) {
+	      future.completeExceptionally(exception);
+	    }
+	  }
+	}
+	public void failed(Throwable throwable, Void attachment) {
+	  future.completeExceptionally(throwable);
+	}
+      };
+    try {
+      channel.read(buffer, position, null, handler);
+    } catch (RuntimeException exception) {
+      future.completeExceptionally(exception);
+    }
+    return future;
+  }
+
+  /**
+   * Binary search of a dictionary of fixed length records: term
+   * followed by number of postings and address of postings, both
+   * either ints (InvertedFile partitions) or longs (MultiKeyIndex term
+   * dictionaries).
+   * @param channel  channel of dictionary
+   * @param word     search word
+   * @param wordlen  length of terms in bytes
+   * @param datalen  length of data following term in record
+   * @param numrecs  number of records in dictionary
+   * @param longData if true, count and address are longs.
+   * @return future of entry of word, null if not found.
+   */
+  public static CompletableFuture<DictionaryEntry>
+    dictionaryBinarySearch(AsynchronousFileChannel channel, String word,
+			   int wordlen, int datalen, long numrecs, boolean longData)
+  {
+    return probe(channel, word, ByteSearch.keyBytes(word, wordlen), wordlen, datalen, longData,
+		 0, numrecs);
+  }
+
+  /**
+   * @param wordbytes bytes of word compared with terms of records if
+   *                  not null, see ByteSearch.keyBytes().
+   */
+  static CompletableFuture<DictionaryEntry> probe(final AsynchronousFileChannel channel,
+						  final String word, final byte[] wordbytes,
+						  final int wordlen,
+						  final int datalen, final boolean longData,
+						  final long low, final long high)
+  {
+    if (low >= high) {
+      return CompletableFuture.completedFuture(null);
+    }
+    final long mid = low + (high - low) / 2;
+    return read(channel, mid * (wordlen + datalen), wordlen + datalen)
+      .thenCompose(record -> {
+	  if (record.remaining() < wordlen + (longData ? 16 : 8)) {
+	    return AsyncFileReader.<DictionaryEntry>failed
+	      (new IOException("short dictionary record at " + (mid * (wordlen + datalen))));
+	  }
+	  String tstword;
+	  int cond;
+	  if (wordbytes != null) {
+	    cond = ByteSearch.get().compare(wordbytes, 0, record.array(), 0, wordlen);
+	    tstword = word;
+	  } else {
+	    tstword = new String(record.array(), 0, wordlen);
+	    cond = word.compareTo(tstword);
+	  }
+	  if (cond < 0) {
+	    return probe(channel, word, wordbytes, wordlen, datalen, longData, low, mid);
+	  } else if (cond > 0) {
+	    return probe(channel, word, wordbytes, wordlen, datalen, longData, mid + 1, high);
+	  }
+	  record.position(wordlen);
+	  DictionaryEntry entry = longData ?
+	    new DictionaryEntry(tstword, record.getLong(), record.getLong()) :
+	    new DictionaryEntry(tstword, record.getInt(), record.getInt());
+	  return CompletableFuture.completedFuture(entry);
+	});
+  }
+
+  /**
+   * Read postings list of an InvertedFile postings file: count postings
+   * each prefixed by its length as an int.  Postings are read in
+   * chunks sized from an estimate of their length.
+   * @param channel channel of postings file
+   * @param address offset of first posting
+   * @param count   number of postings
+   * @return future of postings.
+   */
+  public static CompletableFuture<List<String>> readPostings(AsynchronousFileChannel channel,
+							     long address, int count)
+  {
+    List<String> postings = new ArrayList<String>(count);
+    if (count == 0) {
+      return CompletableFuture.completedFuture(postings);
+    }
+    return readPostings(channel, address, count, postings,
+			(int)Math.min(Math.max(4096L, 64L * count), 1 << 20));
+  }
+
+  static CompletableFuture<List<String>> readPostings(final AsynchronousFileChannel channel,
+						      final long position, final int count,
+						      final List<String> postings, int chunkSize)
+  {
+    return read(channel, position, chunkSize).thenCompose(buffer -> {
+	int start = buffer.position();
+	while (postings.size() < count && buffer.remaining() >= 4) {
+	  int length = buffer.getInt(buffer.position());
+	  if (buffer.remaining() < 4 + length) {
+	    break;
+	  }
+	  buffer.getInt();
+	  postings.add(new String(buffer.array(), buffer.position(), length));
+	  buffer.position(buffer.position() + length);
+	}
+	if (postings.size() == count) {
+	  return CompletableFuture.completedFuture(postings);
+	}
+	int consumed = buffer.position() - start;
+	if (buffer.limit() < buffer.capacity() && consumed == 0) {
+	  return AsyncFileReader.<List<String>>failed
+	    (new IOException("postings list truncated at " + position));
+	}
+	int needed = buffer.remaining() >= 4 ? 4 + buffer.getInt(buffer.position()) : 4;
+	return readPostings(channel, position + consumed, count, postings,
+			    Math.max(buffer.capacity(), needed));
+      });
+  }
+
+  /**
+   * Read postings given by extents: pairs of longs holding offset and
+   * length of each posting in postings file.  Nearby postings are
+   * read together, see ExtentReads.
+   * @param postingsChannel channel of postings file
+   * @param extents         buffer of extents
+   * @param charset         charset of postings
+   * @return future of postings, in order of extents.
+   */
+  public static CompletableFuture<List<String>> readExtents(AsynchronousFileChannel postingsChannel,
+							    ByteBuffer extents, final Charset charset)
+  {
+    final ExtentReads extentReads = new ExtentReads(extents);
+    int count = extentReads.getRangeCount();
+    final List<CompletableFuture<ByteBuffer>> reads = new ArrayList<CompletableFuture<ByteBuffer>>(count);
+    for (int range = 0; range < count; range++) {
+      reads.add(read(postingsChannel, extentReads.getRangeStart(range),
+		     extentReads.getRangeLength(range)));
+    }
+    return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[reads.size()]))
+      .thenApply(ignored -> {
+	  String[] postings = new String[extentReads.size()];
+	  for (int range = 0; range < reads.size(); range++) {
+	    ByteBuffer buffer = reads.get(range).join();
+	    if (buffer.limit() < extentReads.getRangeLength(range)) {
+	      throw new CompletionException
+		(new IOException("postings truncated at " + extentReads.getRangeStart(range)));
+	    }
+	    extentReads.decode(range, buffer.array(), 0, postings, charset);
+	  }
+	  return (List<String>)new ArrayList<String>(Arrays.asList(postings));
+	});
+  }
+
+} // AsyncFileReader
@@ -2,6 +2,7 @@ package irutils;
 
 import java.util.*;
 import java.io.*;
+import java.nio.charset.Charset;
 
 /**
  * Implementation of Binary Search Partition Index.
@@ -137,43 +138,47 @@ public class BSPIndex implements Serializable
    * load table into in-memory term -> value map.
    * @param keyIndex index of col to be used as key for index.
    */
-  public void load_map(int keyIndex)
+  public void load_map(final int keyIndex)
      throws FileNotFoundException, IOException
   {
     // Load records into buckets based on term length.  Each bucket is
     // a TreeMap where record is stored by the ordinal value of the
-    // first element (key) of the record.
-    String line;
-    String key = null;
-    List<String> lineList;
-    int i = 0;
+    // first element (key) of the record.  Lines are split in
+    // parallel and added to buckets in table order.
     // System.out.println("loading map " + this.indexname );
-    BufferedReader reader = 
-      new BufferedReader(new FileReader( this.tablefilename ));
-    while ( (line = reader.readLine()) != null )
-      {
+    class Loader implements ParallelTableReader.LineConsumer<String> {
+      String key = null;
+      public void accept(String line, String lineKey) {
 	Map<String,String> bucket;
-	i++;
-	if (line.trim().length() > 0) {
-	  lineList = utils.StringUtils.split(line, "|");
-	  if (lineList.size() > 0) {
-	    key = (String)lineList.get(keyIndex);
-	  } else {
-	    System.err.println("lineList size <= 0, line = " + line);
-	  }
+	if (lineKey != null) {
+	  key = lineKey;
 	}
 	String keyLength = new Integer (key.length()).toString();
-	bucket = this.hashlist.get(this.indexname+keyLength);
+	bucket = hashlist.get(indexname+keyLength);
 	if (bucket == null ) {
 	  bucket = new TreeMap<String,String>();
-	  this.hashlist.put(this.indexname+keyLength, bucket);
+	  hashlist.put(indexname+keyLength, bucket);
 	} 
 	bucket.put(key, line);
 	wordnum++;
 	// System.out.println("bucket.put(key: " + key + ", value), " + 
 	// "keylength: " + keyLength + ", bucket size: " + bucket.size());
       }
-    reader.close();
+    }
+    long i = new ParallelTableReader(this.tablefilename, Charset.defaultCharset())
+      .read(new ParallelTableReader.LineParser<String>() {
+	  public String parse(String line) {
+	    if (line.trim().length() > 0) {
+	      List<String> lineList = utils.StringUtils.split(line, "|");
+	      if (lineList.size() > 0) {
+		return lineList.get(keyIndex);
+	      } else {
+		System.err.println("lineList size <= 0, line = " + line);
+	      }
+	    }
+	    return null;
+	  }
+	}, new Loader());
     // System.out.println("# of input lines: " + i );
     // System.out.println("# of buckets: " + hashlist.size());
     for (Map<String,String> bucket : hashlist.values() ) {
@@ -0,0 +1,529 @@
+package irutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Off-heap cache of fixed size blocks of index files, shared by the
+ * indices of an InvertedFileContainer.
+ * <p>
+ * Blocks are keyed by (file id, block number) and held in direct
+ * buffers sliced from slabs, which are allocated as the cache fills,
+ * up to a hard memory cap.  When the cache is full a victim is chosen
+ * by CLOCK (second chance) and the new block is only admitted if
+ * its TinyLFU frequency estimate is higher than the victim's, so a
+ * scan over cold postings cannot flush the hot dictionary blocks.
+ * Blocks not admitted are read around the cache.
+ * </p><p>
+ * Reads of cached blocks do not lock: a block's version is odd while
+ * the block is being filled and changes whenever it is reused, readers
+ * copy and then check the version, falling back to a read from disk if
+ * it changed (a seqlock).  Allocation and eviction are serialized on
+ * the cache; filling a block from disk is not.
+ * </p><p>
+ * Files are read through a cache with CachedRandomAccessFile.
+ * Enable for an InvertedFileContainer with properties:
+ * <pre>
+ *   -Difread.blockcache.size=&lt;bytes&gt;      (default: 0, no cache)
+ *   -Difread.blockcache.blocksize=&lt;bytes&gt; (default: 8192)
+ * </pre>
+ * </p>
+ * @see CachedRandomAccessFile
+ */
+
+public class BlockCache implements BlockCacheMXBean
+{
+  /** JMX domain of registered MXBeans */
+  public static final String DOMAIN = IndexStatistics.DOMAIN;
+
+  /** largest slab of direct memory allocated at once. */
+  static final int MAX_SLAB_SIZE = 64 * 1024 * 1024;
+
+  /** key of an unused block */
+  static final long EMPTY = -1L;
+
+  /** bits of key holding block number */
+  static final int BLOCK_NUMBER_BITS = 40;
+
+  /** one cached block */
+  static final class Block
+  {
+    /** slice of slab holding block data */
+    final ByteBuffer buffer;
+    /** key of block, EMPTY if unused. */
+    volatile long key = EMPTY;
+    /** odd while block is being filled, incremented when filled and when reused. */
+    volatile int version = 0;
+    /** number of valid bytes, less than block size for last block of file. */
+    volatile int limit = 0;
+    /** CLOCK reference bit */
+    volatile boolean referenced = false;
+
+    Block(ByteBuffer buffer)
+    {
+      this.buffer = buffer;
+    }
+  }
+
+  /** size of blocks in bytes */
+  final int blockSize;
+  /** number of blocks that fit in memory cap */
+  final int capacity;
+  /** blocks per slab */
+  final int slabBlocks;
+  /** all allocated blocks, in CLOCK order. */
+  final Block[] blocks;
+  /** number of blocks allocated */
+  int allocated = 0;
+  /** current slab blocks are sliced from */
+  ByteBuffer slab;
+  /** CLOCK hand */
+  int hand = 0;
+
+  /** key -> cached block */
+  final ConcurrentMap<Long,Block> map;
+  /** frequency estimates of recently accessed blocks */
+  final FrequencySketch sketch;
+
+  /** "path:length:modified" -> file id */
+  final ConcurrentMap<String,Integer> fileIds = new ConcurrentHashMap<String,Integer>();
+  final AtomicInteger nextFileId = new AtomicInteger(0);
+
+  final AtomicLong hits = new AtomicLong();
+  final AtomicLong misses = new AtomicLong();
+  final AtomicLong evictions = new AtomicLong();
+  final AtomicLong rejections = new AtomicLong();
+  final AtomicLong bytesRead = new AtomicLong();
+
+  /** MBean server cache is registered with, null if not registered. */
+  MBeanServer mbeanServer;
+  /** name cache is registered under */
+  ObjectName objectName;
+
+  /**
+   * @param capacityBytes hard limit on memory used by blocks.
+   * @param blockSize     size of blocks, a power of two is recommended.
+   */
+  public BlockCache(long capacityBytes, int blockSize)
+  {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("block size must be positive: " + blockSize);
+    }
+    long blockCount = capacityBytes / blockSize;
+    if (blockCount < 1 || blockCount > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("block cache of " + capacityBytes +
+					 " bytes and block size " + blockSize + " is not supported.");
+    }
+    this.blockSize = blockSize;
+    this.capacity = (int)blockCount;
+    this.slabBlocks = Math.max(1, Math.min(this.capacity, MAX_SLAB_SIZE / blockSize));
+    this.blocks = new Block[this.capacity];
+    this.map = new ConcurrentHashMap<Long,Block>(Math.min(this.capacity, 1 << 16));
+    this.sketch = new FrequencySketch(this.capacity);
+  }
+
+  /**
+   * Instantiate cache configured by properties ifread.blockcache.size
+   * and ifread.blockcache.blocksize.
+   * @return new cache, null if ifread.blockcache.size is not set or zero.
+   */
+  public static BlockCache fromProperties()
+  {
+    long size = Long.parseLong(System.getProperty("ifread.blockcache.size", "0"));
+    if (size <= 0) {
+      return null;
+    }
+    int blockSize = Integer.parseInt(System.getProperty("ifread.blockcache.blocksize", "8192"));
+    return new BlockCache(size, blockSize);
+  }
+
+  /**
+   * Get id of file for keys of its blocks.  A file that has been
+   * rewritten gets a new id, blocks of the old file age out of the cache.
+   * @param file file
+   * @return id of file
+   */
+  public int fileId(File file)
+  {
+    String name = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    Integer id = this.fileIds.get(name);
+    if (id == null) {
+      Integer newId = this.nextFileId.getAndIncrement();
+      id = this.fileIds.putIfAbsent(name, newId);
+      if (id == null) {
+	id = newId;
+      }
+    }
+    return id.intValue();
+  }
+
+  static long key(int fileId, long blockNumber)
+  {
+    return ((long)fileId << BLOCK_NUMBER_BITS) | blockNumber;
+  }
+
+  /**
+   * Read bytes of file through cache, stopping at end of block containing position.
+   * @param channel    channel of file, used for positional reads only.
+   * @param fileId     id of file, see fileId().
+   * @param fileLength length of file
+   * @param position   offset in file to read from
+   * @param b          buffer to copy bytes to
+   * @param off        offset in buffer
+   * @param len        maximum number of bytes to read, greater than 0.
+   * @return number of bytes read, -1 if position is at or beyond end of file.
+   * @exception IOException if an error occurs
+   */
+  public int read(FileChannel channel, int fileId, long fileLength,
+		  long position, byte[] b, int off, int len)
+    throws IOException
+  {
+    if (position >= fileLength) {
+      return -1;
+    }
+    long blockNumber = position / this.blockSize;
+    int offset = (int)(position - blockNumber * this.blockSize);
+    long key = key(fileId, blockNumber);
+    Long boxedKey = Long.valueOf(key);
+    len = (int)Math.min(len, Math.min(this.blockSize - offset, fileLength - position));
+    this.sketch.increment(key);
+    boolean missed = false;
+    while (true) {
+      Block block = this.map.get(boxedKey);
+      if (block != null) {
+	int version = block.version;
+	if ((version & 1) == 0 && block.key == key) {
+	  int n = Math.min(len, block.limit - offset);
+	  if (n > 0) {
+	    copy(block.buffer, offset, b, off, n);
+	    if (block.version == version) {
+	      block.referenced = true;
+	      if (! missed) {
+		this.hits.incrementAndGet();
+	      }
+	      return n;
+	    }
+	  }
+	}
+	// block is being filled or was reused while copying.
+	if (! missed) {
+	  this.misses.incrementAndGet();
+	}
+	return this.readDirect(channel, position, b, off, len);
+      }
+      if (! missed) {
+	this.misses.incrementAndGet();
+	missed = true;
+      }
+      block = this.allocate(key, boxedKey);
+      if (block == null) {
+	if (this.map.containsKey(boxedKey)) {
+	  continue;		// another reader just added block.
+	}
+	return this.readDirect(channel, position, b, off, len);
+      }
+      this.fill(channel, block, key, boxedKey, blockNumber * this.blockSize, fileLength);
+    }
+  }
+
+  /**
+   * Find a block for key and add it to map, its version odd until filled.
+   * @return block, null if key is already present or was not admitted.
+   */
+  synchronized Block allocate(long key, Long boxedKey)
+  {
+    if (this.map.containsKey(boxedKey)) {
+      return null;
+    }
+    Block block;
+    if (this.allocated < this.capacity) {
+      block = this.newBlock();
+    } else {
+      block = this.victim();
+      if (block == null) {
+	this.rejections.incrementAndGet();
+	return null;
+      }
+      if (block.key != EMPTY) {
+	if (this.sketch.frequency(key) <= this.sketch.frequency(block.key)) {
+	  this.rejections.incrementAndGet();
+	  return null;
+	}
+	this.map.remove(Long.valueOf(block.key), block);
+	this.evictions.incrementAndGet();
+      }
+    }
+    block.version++;		// odd: being filled
+    block.key = key;
+    block.referenced = false;
+    this.map.put(boxedKey, block);
+    return block;
+  }
+
+  /** @return next block of current slab, allocating a new slab if needed. */
+  Block newBlock()
+  {
+    int slot = this.allocated % this.slabBlocks;
+    if (slot == 0) {
+      int count = Math.min(this.slabBlocks, this.capacity - this.allocated);
+      this.slab = ByteBuffer.allocateDirect(count * this.blockSize);
+    }
+    ByteBuffer buffer = this.slab.duplicate();
+    buffer.position(slot * this.blockSize);
+    buffer.limit(slot * this.blockSize + this.blockSize);
+    Block block = new Block(buffer.slice());
+    this.blocks[this.allocated++] = block;
+    return block;
+  }
+
+  /** @return CLOCK victim, null if all blocks are being filled. */
+  Block victim()
+  {
+    for (int i = 0; i < 2 * this.capacity; i++) {
+      Block block = this.blocks[this.hand];
+      this.hand = (this.hand + 1) % this.capacity;
+      if ((block.version & 1) == 1) {
+	continue;
+      }
+      if (block.key == EMPTY) {
+	return block;
+      }
+      if (block.referenced) {
+	block.referenced = false;
+      } else {
+	return block;
+      }
+    }
+    return null;
+  }
+
+  /** read block from file and publish it, remove it from map on failure. */
+  void fill(FileChannel channel, Block block, long key, Long boxedKey,
+	    long start, long fileLength)
+    throws IOException
+  {
+    ByteBuffer buffer = block.buffer.duplicate();
+    buffer.clear();
+    buffer.limit((int)Math.min(this.blockSize, fileLength - start));
+    try {
+      while (buffer.hasRemaining()) {
+	if (channel.read(buffer, start + buffer.position()) < 0) {
+	  break;
+	}
+      }
+    } catch (IOException exception) {
+      this.discard(block, boxedKey);
+      throw exception;
+    } catch (RuntimeException exception) {
+      this.discard(block, boxedKey);
+      throw exception;
+    }
+    this.bytesRead.addAndGet(buffer.position());
+    block.limit = buffer.position();
+    block.version++;		// even: readable
+  }
+
+  synchronized void discard(Block block, Long boxedKey)
+  {
+    this.map.remove(boxedKey, block);
+    block.key = EMPTY;
+    block.limit = 0;
+    block.version++;
+  }
+
+  /** read bytes from file without caching them. */
+  int readDirect(FileChannel channel, long position, byte[] b, int off, int len)
+    throws IOException
+  {
+    ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position() - off) < 0) {
+	break;
+      }
+    }
+    int n = buffer.position() - off;
+    this.bytesRead.addAndGet(n);
+    return n == 0 ? -1 : n;
+  }
+
+  static void copy(ByteBuffer source, int offset, byte[] b, int off, int n)
+  {
+    if (n <= 16) {
+      for (int i = 0; i < n; i++) {
+	b[off + i] = source.get(offset + i);
+      }
+    } else {
+      ByteBuffer buffer = source.duplicate();
+      buffer.position(offset);
+      buffer.get(b, off, n);
+    }
+  }
+
+  /** drop all cached blocks, memory stays allocated. */
+  public synchronized void clear()
+  {
+    for (int i = 0; i < this.allocated; i++) {
+      Block block = this.blocks[i];
+      if ((block.version & 1) == 0 && block.key != EMPTY) {
+	this.map.remove(Long.valueOf(block.key), block);
+	block.key = EMPTY;
+	block.limit = 0;
+	block.version += 2;
+      }
+    }
+  }
+
+  public int getBlockSize() { return this.blockSize; }
+  public long getCapacityBytes() { return (long)this.capacity * this.blockSize; }
+  public synchronized long getAllocatedBytes() { return (long)this.allocated * this.blockSize; }
+  public long getHitCount() { return this.hits.get(); }
+  public long getMissCount() { return this.misses.get(); }
+  public double getHitRatio()
+  {
+    long hitCount = this.hits.get();
+    long total = hitCount + this.misses.get();
+    return total == 0 ? 0.0 : (double)hitCount / total;
+  }
+  public long getEvictionCount() { return this.evictions.get(); }
+  public long getRejectionCount() { return this.rejections.get(); }
+  public long getBytesRead() { return this.bytesRead.get(); }
+
+  public void resetCounters()
+  {
+    this.hits.set(0);
+    this.misses.set(0);
+    this.evictions.set(0);
+    this.rejections.set(0);
+    this.bytesRead.set(0);
+  }
+
+  /**
+   * Register cache with platform MBean server as
+   * <code>irutils:type=BlockCache,scope="&lt;scope&gt;"</code>.
+   * @param scope scope of MXBean name, e.g.: index root directory.
+   */
+  public void register(String scope)
+  {
+    try {
+      this.mbeanServer = ManagementFactory.getPlatformMBeanServer();
+      this.objectName = new ObjectName(DOMAIN + ":type=BlockCache,scope=" + ObjectName.quote(scope));
+      if (! this.mbeanServer.isRegistered(this.objectName)) {
+	this.mbeanServer.registerMBean(this, this.objectName);
+      }
+    } catch (JMException exception) {
+      System.err.println("unable to register block cache: " + exception.getMessage());
+    }
+  }
+
+  /** unregister cache from MBean server. */
+  public void unregister()
+  {
+    if (this.mbeanServer != null) {
+      try {
+	if (this.mbeanServer.isRegistered(this.objectName)) {
+	  this.mbeanServer.unregisterMBean(this.objectName);
+	}
+      } catch (JMException exception) {
+	System.err.println("unable to unregister block cache: " + exception.getMessage());
+      }
+    }
+  }
+
+  public String toString()
+  {
+    return "BlockCache: block size: " + this.blockSize +
+      ", capacity: " + this.getCapacityBytes() + ", allocated: " + this.getAllocatedBytes() +
+      ", hits: " + this.hits.get() + ", misses: " + this.misses.get() +
+      ", hit ratio: " + String.format("%.3f", this.getHitRatio()) +
+      ", evictions: " + this.evictions.get() + ", rejections: " + this.rejections.get() +
+      ", bytes read: " + this.bytesRead.get();
+  }
+
+  /**
+   * TinyLFU frequency sketch: a count-min sketch of 4-bit counters,
+   * four per key, halved after every 10 * capacity increments so
+   * estimates follow recent use.  Updates are not synchronized; a lost
+   * increment only makes an estimate slightly less precise.
+   */
+  static final class FrequencySketch
+  {
+    static final long[] SEEDS = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    static final long RESET_MASK = 0x7777777777777777L;
+
+    final long[] table;
+    final int mask;
+    final int sampleSize;
+    int size = 0;
+
+    FrequencySketch(int capacity)
+    {
+      int length = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+      this.table = new long[length];
+      this.mask = length - 1;
+      this.sampleSize = (int)Math.min(10L * capacity, Integer.MAX_VALUE);
+    }
+
+    static int spread(long key)
+    {
+      long h = key * 0x9e3779b97f4a7c15L;
+      return (int)(h ^ (h >>> 32));
+    }
+
+    static int hash(int item, int i)
+    {
+      long h = (item + SEEDS[i]) * SEEDS[i];
+      h += h >>> 32;
+      return (int)h;
+    }
+
+    int frequency(long key)
+    {
+      int item = spread(key);
+      int frequency = 15;
+      for (int i = 0; i < 4; i++) {
+	int h = hash(item, i);
+	int shift = ((h >>> 24) & 15) << 2;
+	frequency = Math.min(frequency, (int)((this.table[h & this.mask] >>> shift) & 15L));
+      }
+      return frequency;
+    }
+
+    void increment(long key)
+    {
+      int item = spread(key);
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+	int h = hash(item, i);
+	int index = h & this.mask;
+	int shift = ((h >>> 24) & 15) << 2;
+	if (((this.table[index] >>> shift) & 15L) < 15L) {
+	  this.table[index] += 1L << shift;
+	  added = true;
+	}
+      }
+      if (added && ++this.size >= this.sampleSize) {
+	this.reset();
+      }
+    }
+
+    void reset()
+    {
+      for (int i = 0; i < this.table.length; i++) {
+	this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+      }
+      this.size = this.size / 2;
+    }
+  }
+
+} // BlockCache
@@ -0,0 +1,30 @@
+package irutils;
+
+/**
+ * JMX management interface of a BlockCache.
+ *
+ * @see BlockCache
+ */
+
+public interface BlockCacheMXBean
+{
+  int getBlockSize();
+  /** @return hard limit on memory used by cached blocks. */
+  long getCapacityBytes();
+  /** @return memory allocated for cached blocks so far. */
+  long getAllocatedBytes();
+
+  long getHitCount();
+  long getMissCount();
+  /** @return fraction of block reads served from the cache. */
+  double getHitRatio();
+  long getEvictionCount();
+  /** @return number of blocks read from disk that TinyLFU refused to cache. */
+  long getRejectionCount();
+  /** @return bytes read from disk, both into cache and around it. */
+  long getBytesRead();
+
+  /** reset counters, cached blocks are kept. */
+  void resetCounters();
+
+} // BlockCacheMXBean
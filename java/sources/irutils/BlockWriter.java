@@ -0,0 +1,417 @@
+package irutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sequential writer of index files used by all index builders.
+ * <p>
+ * Data is collected in large direct buffers (blocks), which are
+ * written with one gathering FileChannel.write(ByteBuffer[]) once all
+ * blocks of the writer are full, or on flush() and close().  Blocks
+ * are taken from and returned to a pool shared by all writers, so
+ * building many small partitions does not allocate buffers for each.
+ * The byte format is that of DataOutputStream (big endian).
+ * </p><p>
+ * Data already written can be read back with readFully(), whether it
+ * is still in the blocks or in the file.  preallocate() extends the
+ * file to its expected size up front; the file is truncated to the
+ * length written on close.
+ * </p>
+ * Properties:
+ * <pre>
+ *   -Difbuild.write.blocksize=&lt;n&gt; bytes per block (default: 1048576)
+ *   -Difbuild.write.blocks=&lt;n&gt;    blocks per writer, written together (default: 4)
+ *   -Difbuild.write.sync=&lt;n&gt;      force data to disk every n bytes and on close
+ *                                 (default: 0, leave it to the operating system)
+ * </pre>
+ */
+
+public class BlockWriter implements DataOutput, Closeable
+{
+  /** bytes per block */
+  static final int BLOCK_SIZE =
+    Math.max(4096, Integer.parseInt(System.getProperty("ifbuild.write.blocksize", "1048576")));
+  /** blocks per writer */
+  static final int BLOCKS =
+    Math.max(1, Integer.parseInt(System.getProperty("ifbuild.write.blocks", "4")));
+  /** bytes between syncs, 0 for none */
+  static final long SYNC_BYTES =
+    Long.parseLong(System.getProperty("ifbuild.write.sync", "0"));
+  /** most blocks kept in pool */
+  static final int POOL_LIMIT = 4 * BLOCKS * Runtime.getRuntime().availableProcessors();
+
+  /** free blocks */
+  static final ConcurrentLinkedQueue<ByteBuffer> POOL = new ConcurrentLinkedQueue<ByteBuffer>();
+  static final AtomicInteger POOL_SIZE = new AtomicInteger(0);
+
+  static ByteBuffer takeBlock()
+  {
+    ByteBuffer block = POOL.poll();
+    if (block == null) {
+      return ByteBuffer.allocateDirect(BLOCK_SIZE);
+    }
+    POOL_SIZE.decrementAndGet();
+    block.clear();
+    return block;
+  }
+
+  static void returnBlock(ByteBuffer block)
+  {
+    if (POOL_SIZE.incrementAndGet() <= POOL_LIMIT) {
+      POOL.add(block);
+    } else {
+      POOL_SIZE.decrementAndGet();
+    }
+  }
+
+  final String filename;
+  final FileChannel channel;
+  /** blocks holding data not yet written, all but the last full */
+  final ByteBuffer[] blocks = new ByteBuffer[BLOCKS];
+  /** number of blocks in use */
+  int used = 0;
+  /** block being filled, null if none */
+  ByteBuffer current = null;
+  /** bytes in file when writing started (appending) */
+  final long base;
+  /** bytes written to channel */
+  long flushed;
+  /** bytes written to channel at last sync */
+  long synced;
+  /** size file was extended to by preallocate(), -1 if none */
+  long preallocated = -1;
+  boolean closed = false;
+
+  /**
+   * Create (or truncate) file and write from its start.
+   * @param filename name of file
+   */
+  public BlockWriter(String filename)
+    throws IOException
+  {
+    this(filename, false);
+  }
+
+  /**
+   * @param filename name of file
+   * @param append   write from end of existing file, rather than truncating it.
+   */
+  public BlockWriter(String filename, boolean append)
+    throws IOException
+  {
+    this.filename = filename;
+    this.channel = append ?
+      FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+		       StandardOpenOption.READ, StandardOpenOption.WRITE) :
+      FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+		       StandardOpenOption.READ, StandardOpenOption.WRITE,
+		       StandardOpenOption.TRUNCATE_EXISTING);
+    this.base = append ? this.channel.size() : 0;
+    this.channel.position(this.base);
+    this.flushed = this.base;
+    this.synced = this.base;
+  }
+
+  /**
+   * Create (or truncate) file and write from its start, for callers
+   * that declare FileNotFoundException as FileOutputStream does.
+   * @param filename name of file
+   * @return writer
+   * @exception FileNotFoundException if file can not be opened for writing.
+   */
+  public static BlockWriter create(String filename)
+    throws FileNotFoundException
+  {
+    try {
+      return new BlockWriter(filename);
+    } catch (FileNotFoundException exception) {
+      throw exception;
+    } catch (IOException exception) {
+      FileNotFoundException notFound = new FileNotFoundException(filename + ": " + exception);
+      notFound.initCause(exception);
+      throw notFound;
+    }
+  }
+
+  /** @return name of file */
+  public String getFilename() { return this.filename; }
+
+  /** @return offset in file of next byte written */
+  public long position()
+  {
+    return this.flushed + (long)BLOCK_SIZE * Math.max(0, this.used - 1) +
+      (this.current == null ? 0 : this.current.position());
+  }
+
+  /**
+   * Hint that the file will hold size bytes: extend it to that size
+   * now.  Data beyond the bytes written is truncated on close.
+   * @param size expected length of file
+   */
+  public void preallocate(long size)
+    throws IOException
+  {
+    if (size > this.channel.size()) {
+      this.channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+      this.preallocated = size;
+    }
+  }
+
+  /** @return block with at least one byte free */
+  ByteBuffer block()
+    throws IOException
+  {
+    if (this.current == null || ! this.current.hasRemaining()) {
+      if (this.used == BLOCKS) {
+	this.writeBlocks();	// leaves first block, empty, as current
+      } else {
+	this.current = takeBlock();
+	this.blocks[this.used++] = this.current;
+      }
+    }
+    return this.current;
+  }
+
+  /** write blocks in use to channel, gathering */
+  void writeBlocks()
+    throws IOException
+  {
+    if (this.used == 0) {
+      return;
+    }
+    long bytes = 0;
+    for (int i = 0; i < this.used; i++) {
+      this.blocks[i].flip();
+      bytes = bytes + this.blocks[i].remaining();
+    }
+    long written = 0;
+    while (written < bytes) {
+      written = written + this.channel.write(this.blocks, 0, this.used);
+    }
+    this.flushed = this.flushed + bytes;
+    // keep one block for the data that follows, return the others.
+    for (int i = 1; i < this.used; i++) {
+      returnBlock(this.blocks[i]);
+      this.blocks[i] = null;
+    }
+    this.current = this.blocks[0];
+    this.current.clear();
+    this.used = 1;
+    if (SYNC_BYTES > 0 && this.flushed - this.synced >= SYNC_BYTES) {
+      this.channel.force(false);
+      this.synced = this.flushed;
+    }
+  }
+
+  public void write(int b)
+    throws IOException
+  {
+    this.block().put((byte)b);
+  }
+
+  public void write(byte[] b)
+    throws IOException
+  {
+    this.write(b, 0, b.length);
+  }
+
+  public void write(byte[] b, int off, int len)
+    throws IOException
+  {
+    while (len > 0) {
+      ByteBuffer block = this.block();
+      int n = Math.min(len, block.remaining());
+      block.put(b, off, n);
+      off = off + n;
+      len = len - n;
+    }
+  }
+
+  public void writeBoolean(boolean v)
+    throws IOException
+  {
+    this.write(v ? 1 : 0);
+  }
+
+  public void writeByte(int v)
+    throws IOException
+  {
+    this.write(v);
+  }
+
+  public void writeShort(int v)
+    throws IOException
+  {
+    ByteBuffer block = this.block();
+    if (block.remaining() >= 2) {
+      block.putShort((short)v);
+    } else {
+      this.write(v >>> 8);
+      this.write(v);
+    }
+  }
+
+  public void writeChar(int v)
+    throws IOException
+  {
+    this.writeShort(v);
+  }
+
+  public void writeInt(int v)
+    throws IOException
+  {
+    ByteBuffer block = this.block();
+    if (block.remaining() >= 4) {
+      block.putInt(v);
+    } else {
+      this.writeShort(v >>> 16);
+      this.writeShort(v);
+    }
+  }
+
+  public void writeLong(long v)
+    throws IOException
+  {
+    ByteBuffer block = this.block();
+    if (block.remaining() >= 8) {
+      block.putLong(v);
+    } else {
+      this.writeInt((int)(v >>> 32));
+      this.writeInt((int)v);
+    }
+  }
+
+  public void writeFloat(float v)
+    throws IOException
+  {
+    this.writeInt(Float.floatToIntBits(v));
+  }
+
+  public void writeDouble(double v)
+    throws IOException
+  {
+    this.writeLong(Double.doubleToLongBits(v));
+  }
+
+  /** write low byte of each character of s, as DataOutputStream does. */
+  public void writeBytes(String s)
+    throws IOException
+  {
+    int length = s.length();
+    for (int i = 0; i < length; i++) {
+      this.block().put((byte)s.charAt(i));
+    }
+  }
+
+  public void writeChars(String s)
+    throws IOException
+  {
+    int length = s.length();
+    for (int i = 0; i < length; i++) {
+      this.writeChar(s.charAt(i));
+    }
+  }
+
+  public void writeUTF(String s)
+    throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length() + 2);
+    new DataOutputStream(bytes).writeUTF(s);
+    this.write(bytes.toByteArray());
+  }
+
+  /**
+   * Read back bytes written.
+   * @param position offset in file of bytes
+   * @param b        array to fill
+   * @exception IOException if bytes have not been written.
+   */
+  public void readFully(long position, byte[] b)
+    throws IOException
+  {
+    if (position < 0 || position + b.length > this.position()) {
+      throw new IOException(this.filename + ": read of " + b.length + " bytes at " + position +
+			    " beyond " + this.position() + " bytes written");
+    }
+    int off = 0;
+    // part in file
+    while (off < b.length && position + off < this.flushed) {
+      int n = (int)Math.min(b.length - off, this.flushed - (position + off));
+      ByteBuffer dst = ByteBuffer.wrap(b, off, n);
+      while (dst.hasRemaining()) {
+	int read = this.channel.read(dst, position + off + (n - dst.remaining()));
+	if (read < 0) {
+	  throw new IOException(this.filename + ": unexpected end of file");
+	}
+      }
+      off = off + n;
+    }
+    // part in blocks, all but the last of which are full.
+    while (off < b.length) {
+      long offset = position + off - this.flushed;
+      ByteBuffer block = this.blocks[(int)(offset / BLOCK_SIZE)];
+      int start = (int)(offset % BLOCK_SIZE);
+      int n = Math.min(b.length - off, BLOCK_SIZE - start);
+      ByteBuffer src = block.duplicate();
+      src.limit(start + n);
+      src.position(start);
+      src.get(b, off, n);
+      off = off + n;
+    }
+  }
+
+  /** write buffered data to file */
+  public void flush()
+    throws IOException
+  {
+    this.writeBlocks();
+  }
+
+  /** write buffered data to file and force it to disk */
+  public void sync()
+    throws IOException
+  {
+    this.writeBlocks();
+    this.channel.force(false);
+    this.synced = this.flushed;
+  }
+
+  /** flush data, truncate preallocated space and close file. */
+  public void close()
+    throws IOException
+  {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    try {
+      this.writeBlocks();
+      if (this.preallocated > this.flushed) {
+	this.channel.truncate(this.flushed);
+      }
+      if (SYNC_BYTES > 0) {
+	this.channel.force(false);
+      }
+    } finally {
+      for (int i = 0; i < this.used; i++) {
+	returnBlock(this.blocks[i]);
+	this.blocks[i] = null;
+      }
+      this.used = 0;
+      this.current = null;
+      this.channel.close();
+    }
+  }
+
+} // BlockWriter
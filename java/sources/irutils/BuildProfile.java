@@ -0,0 +1,414 @@
+package irutils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Profile of an index build: wall and cpu time of each phase, time
+ * spent in sections of the inner loops (parsing, map inserts,
+ * temporary postings chain walks, writing), per partition key,
+ * postings and byte counts, and the largest postings lists.
+ * <p>
+ * InvertedFile and MultiKeyIndexGeneration write the profile as
+ * <b>build-profile.json</b> in the index directory, next to
+ * <b>partition.stats</b>.  Phases also report progress to an optional
+ * BuildProgressListener, at most once every
+ * <code>ifbuild.progress.interval</code> milliseconds (default 5000).
+ * <p>
+ * Profiling is on by default; set <code>ifbuild.profile</code> to
+ * false to disable it.
+ */
+
+public class BuildProfile
+{
+  /** name of profile file in index directory */
+  public static final String FILENAME = "build-profile.json";
+
+  /** number of largest postings lists to keep */
+  static final int LARGEST_POSTINGS_LISTS = 20;
+
+  /** number of records between checks of the clock for progress reports */
+  static final int PROGRESS_CHECK_RECORDS = 1024;
+
+  /** @return true unless profiling has been disabled by property ifbuild.profile */
+  public static boolean isProfilingEnabled()
+  {
+    return Boolean.parseBoolean(System.getProperty("ifbuild.profile", "true"));
+  }
+
+  String indexname;
+  long startTimeMillis = System.currentTimeMillis();
+  long startNanos = System.nanoTime();
+  List<Phase> phases = new ArrayList<Phase>();
+  Map<String,Section> sections = new LinkedHashMap<String,Section>();
+  List<Partition> partitions = new ArrayList<Partition>();
+  LargestPostingsLists largest = new LargestPostingsLists();
+  BuildProgressListener listener;
+  long progressIntervalNanos =
+    Long.parseLong(System.getProperty("ifbuild.progress.interval", "5000")) * 1000000L;
+  ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+  /**
+   * @param indexname name of index
+   * @param listener  progress listener, may be null.
+   */
+  public BuildProfile(String indexname, BuildProgressListener listener)
+  {
+    this.indexname = indexname;
+    this.listener = listener;
+  }
+
+  public String getIndexName() { return this.indexname; }
+
+  void setIndexName(String indexname) { this.indexname = indexname; }
+
+  long currentThreadCpuTime()
+  {
+    if (this.threadBean.isCurrentThreadCpuTimeSupported()) {
+      return this.threadBean.getCurrentThreadCpuTime();
+    }
+    return -1;
+  }
+
+  /**
+   * Start timing a build phase.
+   * @param name name of phase
+   * @param total number of units (bytes, rows, terms) in phase used to
+   *              estimate completion, 0 if unknown.
+   * @return phase instance
+   */
+  public Phase beginPhase(String name, long total)
+  {
+    Phase phase = new Phase(name, total);
+    this.phases.add(phase);
+    return phase;
+  }
+
+  /**
+   * @param name name of section, e.g.: "load_map.parse"
+   * @return section accumulating time spent in part of a phase.
+   */
+  public Section section(String name)
+  {
+    Section section = this.sections.get(name);
+    if (section == null) {
+      section = new Section(name);
+      this.sections.put(name, section);
+    }
+    return section;
+  }
+
+  /**
+   * Record generated partition.
+   * @param name         partition name
+   * @param keys         number of keys (terms) in partition
+   * @param postings     number of postings referenced by partition
+   * @param bytesWritten bytes written for partition: dictionary, postings or extents.
+   * @param nanos        elapsed time
+   */
+  public void addPartition(String name, long keys, long postings, long bytesWritten, long nanos)
+  {
+    this.addPartition(name, keys, postings, bytesWritten, nanos, -1);
+  }
+
+  /**
+   * Record generated partition whose postings are not contiguous.
+   * @param seekBytes    sum over keys of the bytes skipped between the
+   *                     postings of the key when they are read in order,
+   *                     -1 if not measured.
+   */
+  public void addPartition(String name, long keys, long postings, long bytesWritten, long nanos,
+			   long seekBytes)
+  {
+    this.partitions.add(new Partition(name, keys, postings, bytesWritten, nanos, seekBytes));
+  }
+
+  /**
+   * Offer postings list to list of largest postings lists.
+   * @param partition partition containing term
+   * @param term      term
+   * @param postings  number of postings for term
+   */
+  public void addPostingsList(String partition, String term, long postings)
+  {
+    this.largest.add(partition, term, postings);
+  }
+
+  /** @return largest postings lists, largest first. */
+  public List<PostingsListSize> getLargestPostingsLists()
+  {
+    return this.largest.get();
+  }
+
+  public List<Phase> getPhases() { return this.phases; }
+  public List<Partition> getPartitions() { return this.partitions; }
+
+  /**
+   * Write profile as JSON to file.
+   * @param file output file
+   */
+  public void writeJson(File file)
+    throws IOException
+  {
+    PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+    pw.println("{");
+    pw.println("  \"index\": " + quote(this.indexname) + ",");
+    pw.println("  \"startTimeMillis\": " + this.startTimeMillis + ",");
+    pw.println("  \"wallNanos\": " + (System.nanoTime() - this.startNanos) + ",");
+    pw.println("  \"phases\": [");
+    for (int i = 0; i < this.phases.size(); i++) {
+      Phase phase = this.phases.get(i);
+      pw.println("    { \"name\": " + quote(phase.name) +
+		 ", \"wallNanos\": " + phase.wallNanos +
+		 ", \"cpuNanos\": " + phase.cpuNanos +
+		 ", \"records\": " + phase.records +
+		 ", \"bytes\": " + phase.bytes + " }" +
+		 (i + 1 < this.phases.size() ? "," : ""));
+    }
+    pw.println("  ],");
+    pw.println("  \"sections\": [");
+    int i = 0;
+    for (Section section: this.sections.values()) {
+      pw.println("    { \"name\": " + quote(section.name) +
+		 ", \"nanos\": " + section.nanos +
+		 ", \"count\": " + section.count + " }" +
+		 (++i < this.sections.size() ? "," : ""));
+    }
+    pw.println("  ],");
+    pw.println("  \"partitions\": [");
+    for (i = 0; i < this.partitions.size(); i++) {
+      Partition partition = this.partitions.get(i);
+      pw.println("    { \"name\": " + quote(partition.name) +
+		 ", \"keys\": " + partition.keys +
+		 ", \"postings\": " + partition.postings +
+		 ", \"bytesWritten\": " + partition.bytesWritten +
+		 ", \"nanos\": " + partition.nanos +
+		 (partition.seekBytes >= 0 ? ", \"seekBytes\": " + partition.seekBytes : "") + " }" +
+		 (i + 1 < this.partitions.size() ? "," : ""));
+    }
+    pw.println("  ],");
+    pw.println("  \"largestPostingsLists\": [");
+    List<PostingsListSize> largestList = this.getLargestPostingsLists();
+    for (i = 0; i < largestList.size(); i++) {
+      PostingsListSize entry = largestList.get(i);
+      pw.println("    { \"partition\": " + quote(entry.partition) +
+		 ", \"term\": " + quote(entry.term) +
+		 ", \"postings\": " + entry.postings + " }" +
+		 (i + 1 < largestList.size() ? "," : ""));
+    }
+    pw.println("  ]");
+    pw.println("}");
+    pw.close();
+  }
+
+  /**
+   * @param value string value
+   * @return value as quoted JSON string.
+   */
+  static String quote(String value)
+  {
+    if (value == null) {
+      return "null";
+    }
+    StringBuilder sb = new StringBuilder(value.length() + 2);
+    sb.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char ch = value.charAt(i);
+      if (ch == '"' || ch == '\\') {
+	sb.append('\\').append(ch);
+      } else if (ch < 0x20) {
+	sb.append(String.format("\\u%04x", (int)ch));
+      } else {
+	sb.append(ch);
+      }
+    }
+    sb.append('"');
+    return sb.toString();
+  }
+
+  /** timing of a build phase, also tracks progress of phase. */
+  public class Phase
+  {
+    String name;
+    long total;
+    long startNanos;
+    long startCpuNanos;
+    long wallNanos = -1;
+    long cpuNanos = -1;
+    long records;
+    long bytes;
+    long lastCheckRecords = 0;
+    long lastReportNanos;
+
+    Phase(String name, long total)
+    {
+      this.name = name;
+      this.total = total;
+      this.startCpuNanos = currentThreadCpuTime();
+      this.startNanos = System.nanoTime();
+      this.lastReportNanos = this.startNanos;
+    }
+
+    /**
+     * Report progress to listener if at least the progress interval
+     * has elapsed since the last report.
+     * @param records number of records processed so far
+     * @param done    number of units (of total) processed so far
+     */
+    public void progress(long records, long done)
+    {
+      if (listener == null || records - this.lastCheckRecords < PROGRESS_CHECK_RECORDS) {
+	return;
+      }
+      this.lastCheckRecords = records;
+      long now = System.nanoTime();
+      if (now - this.lastReportNanos >= progressIntervalNanos) {
+	this.lastReportNanos = now;
+	double fractionDone = this.total > 0 ? (double)done / this.total : -1.0;
+	listener.progress(new BuildProgress(indexname, this.name, records, fractionDone,
+					    (now - this.startNanos) / 1000000));
+      }
+    }
+
+    /**
+     * Stop timing phase.
+     * @param records number of records processed
+     * @param bytes   number of bytes written, 0 if none.
+     */
+    public void end(long records, long bytes)
+    {
+      this.wallNanos = System.nanoTime() - this.startNanos;
+      long cpu = currentThreadCpuTime();
+      this.cpuNanos = (cpu < 0 || this.startCpuNanos < 0) ? -1 : cpu - this.startCpuNanos;
+      this.records = records;
+      this.bytes = bytes;
+      if (listener != null) {
+	listener.progress(new BuildProgress(indexname, this.name, records, 1.0,
+					    this.wallNanos / 1000000));
+      }
+    }
+
+    public String getName() { return this.name; }
+    public long getWallNanos() { return this.wallNanos; }
+    public long getCpuNanos() { return this.cpuNanos; }
+    public long getRecords() { return this.records; }
+    public long getBytes() { return this.bytes; }
+  }
+
+  /** accumulated time spent in part of a phase. */
+  public static class Section
+  {
+    String name;
+    long nanos = 0;
+    long count = 0;
+
+    Section(String name) { this.name = name; }
+
+    /** @param elapsed nanoseconds to add to section. */
+    public void add(long elapsed)
+    {
+      this.nanos = this.nanos + elapsed;
+      this.count++;
+    }
+
+    public String getName() { return this.name; }
+    public long getNanos() { return this.nanos; }
+    public long getCount() { return this.count; }
+  }
+
+  /** key, postings and byte counts of a generated partition. */
+  public static class Partition
+  {
+    String name;
+    long keys;
+    long postings;
+    long bytesWritten;
+    long nanos;
+    long seekBytes;
+
+    Partition(String name, long keys, long postings, long bytesWritten, long nanos, long seekBytes)
+    {
+      this.name = name;
+      this.keys = keys;
+      this.postings = postings;
+      this.bytesWritten = bytesWritten;
+      this.nanos = nanos;
+      this.seekBytes = seekBytes;
+    }
+
+    public String getName() { return this.name; }
+    public long getKeys() { return this.keys; }
+    public long getPostings() { return this.postings; }
+    public long getBytesWritten() { return this.bytesWritten; }
+    public long getNanos() { return this.nanos; }
+    /** @return bytes skipped reading postings of all keys, -1 if not measured. */
+    public long getSeekBytes() { return this.seekBytes; }
+  }
+
+  /** number of postings of a term. */
+  public static class PostingsListSize
+  {
+    String partition;
+    String term;
+    long postings;
+
+    PostingsListSize(String partition, String term, long postings)
+    {
+      this.partition = partition;
+      this.term = term;
+      this.postings = postings;
+    }
+
+    public String getPartition() { return this.partition; }
+    public String getTerm() { return this.term; }
+    public long getPostings() { return this.postings; }
+  }
+
+  /**
+   * The LARGEST_POSTINGS_LISTS largest postings lists offered, kept
+   * apart from a profile by writers of partitions running in other
+   * threads and added to the profile when they are done.
+   */
+  static class LargestPostingsLists
+  {
+    /** smallest of the largest postings lists at head */
+    final PriorityQueue<PostingsListSize> queue =
+      new PriorityQueue<PostingsListSize>(LARGEST_POSTINGS_LISTS + 1, new Comparator<PostingsListSize>() {
+	  public int compare(PostingsListSize a, PostingsListSize b) {
+	    return a.postings < b.postings ? -1 : (a.postings == b.postings ? 0 : 1);
+	  }
+	});
+
+    /** offer postings list, see BuildProfile.addPostingsList */
+    void add(String partition, String term, long postings)
+    {
+      if (this.queue.size() < LARGEST_POSTINGS_LISTS) {
+	this.queue.add(new PostingsListSize(partition, term, postings));
+      } else if (postings > this.queue.peek().postings) {
+	this.queue.poll();
+	this.queue.add(new PostingsListSize(partition, term, postings));
+      }
+    }
+
+    /** @return largest postings lists, largest first. */
+    List<PostingsListSize> get()
+    {
+      List<PostingsListSize> list = new ArrayList<PostingsListSize>(this.queue);
+      Collections.sort(list, Collections.reverseOrder(this.queue.comparator()));
+      return list;
+    }
+  }
+
+} // BuildProfile
@@ -0,0 +1,75 @@
+package irutils;
+
+/**
+ * Snapshot of the progress of a build phase, passed to
+ * BuildProgressListener.
+ */
+
+public class BuildProgress
+{
+  String indexname;
+  String phase;
+  long records;
+  double fractionDone;
+  long elapsedMillis;
+
+  /**
+   * @param indexname     name of index, null if not yet known
+   * @param phase         name of build phase
+   * @param records       number of records (rows, terms) processed so far
+   * @param fractionDone  fraction of phase completed, -1.0 if unknown
+   * @param elapsedMillis elapsed time of phase in milliseconds
+   */
+  public BuildProgress(String indexname, String phase, long records,
+		       double fractionDone, long elapsedMillis)
+  {
+    this.indexname = indexname;
+    this.phase = phase;
+    this.records = records;
+    this.fractionDone = fractionDone;
+    this.elapsedMillis = elapsedMillis;
+  }
+
+  public String getIndexName() { return this.indexname; }
+  public String getPhase() { return this.phase; }
+  public long getRecords() { return this.records; }
+  public double getFractionDone() { return this.fractionDone; }
+  public long getElapsedMillis() { return this.elapsedMillis; }
+
+  /** @return records processed per second. */
+  public double getRecordsPerSecond()
+  {
+    return this.elapsedMillis > 0 ? this.records * 1000.0 / this.elapsedMillis : 0.0;
+  }
+
+  /** @return estimated milliseconds until phase completes, -1 if unknown. */
+  public long getEtaMillis()
+  {
+    if (this.fractionDone <= 0.0 || this.fractionDone > 1.0) {
+      return -1;
+    }
+    return (long)(this.elapsedMillis * (1.0 - this.fractionDone) / this.fractionDone);
+  }
+
+  /**
+   * Implementation of toString to override default implementation in
+   * java.lang.Object.
+   * @return string representation of progress.
+   */
+  public String toString()
+  {
+    StringBuilder sb = new StringBuilder();
+    if (this.indexname != null) {
+      sb.append(this.indexname).append(" ");
+    }
+    sb.append(this.phase).append(": ");
+    sb.append(this.records).append(" records");
+    sb.append(String.format(", %.0f records/s", this.getRecordsPerSecond()));
+    if (this.fractionDone >= 0.0) {
+      sb.append(String.format(", %.1f%%", this.fractionDone * 100.0));
+      sb.append(", eta ").append(this.getEtaMillis() / 1000).append(" s");
+    }
+    return sb.toString();
+  }
+
+} // BuildProgress
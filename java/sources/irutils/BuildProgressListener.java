@@ -0,0 +1,18 @@
+package irutils;
+
+/**
+ * Receives periodic progress reports during index generation.
+ *
+ * @see BuildProfile
+ * @see InvertedFile#setProgressListener
+ * @see MultiKeyIndexGeneration#setProgressListener
+ */
+
+public interface BuildProgressListener
+{
+  /**
+   * @param progress snapshot of progress of current build phase.
+   */
+  void progress(BuildProgress progress);
+
+} // BuildProgressListener
@@ -0,0 +1,211 @@
+package irutils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Byte array primitives used on hot paths: finding a delimiter byte
+ * and comparing fixed width keys.
+ * <p>
+ * Implementations, selected by property <code>irutils.bytesearch</code>:
+ * <dl>
+ *  <dt>scalar</dt><dd>one byte at a time.</dd>
+ *  <dt>swar</dt>  <dd>eight bytes at a time in a long (default).</dd>
+ *  <dt>vector</dt><dd>jdk.incubator.vector, from module irutils-vector;
+ *                  needs Java 17 and <code>--add-modules jdk.incubator.vector</code>.
+ *                  Falls back to swar if not available.</dd>
+ * </dl>
+ * Any other value is taken as the name of a ByteSearch subclass.
+ * </p><p>
+ * Keys are compared as unsigned bytes, which orders ASCII and
+ * ISO-8859-1 keys like String.compareTo(); dictionary searches use
+ * the bytes only for ASCII words, see keyBytes().
+ * </p>
+ */
+
+public abstract class ByteSearch
+{
+  /** class of vector implementation in module irutils-vector */
+  static final String VECTOR_CLASS = "irutils.vector.VectorByteSearch";
+
+  /** implementation selected by property irutils.bytesearch */
+  static final ByteSearch INSTANCE =
+    forName(System.getProperty("irutils.bytesearch", "swar"), true);
+
+  /** @return implementation selected by property irutils.bytesearch. */
+  public static ByteSearch get() { return INSTANCE; }
+
+  /**
+   * @param name scalar, swar, vector or the name of a ByteSearch subclass.
+   * @return implementation
+   * @exception IllegalArgumentException if implementation is not available.
+   */
+  public static ByteSearch forName(String name)
+  {
+    return forName(name, false);
+  }
+
+  static ByteSearch forName(String name, boolean fallback)
+  {
+    if (name.equals("scalar")) {
+      return new Scalar();
+    } else if (name.equals("swar")) {
+      return new Swar();
+    }
+    String className = name.equals("vector") ? VECTOR_CLASS : name;
+    try {
+      return (ByteSearch)Class.forName(className).getConstructor().newInstance();
+    } catch (Throwable exception) {
+      // NoClassDefFoundError if jdk.incubator.vector is not resolved.
+      if (! fallback) {
+	throw new IllegalArgumentException("byte search " + name + " not available: " + exception);
+      }
+      System.err.println("irutils.bytesearch=" + name + " not available (" + exception +
+			 "), using swar");
+      return new Swar();
+    }
+  }
+
+  /** @return name of implementation */
+  public abstract String getName();
+
+  /**
+   * @param a    array
+   * @param from index to start search at
+   * @param to   index to end search at, exclusive
+   * @param b    byte to find
+   * @return index of first b in a[from..to), -1 if none.
+   */
+  public abstract int indexOf(byte[] a, int from, int to, byte b);
+
+  /**
+   * @param a       first array
+   * @param aOffset start of range in a
+   * @param b       second array
+   * @param bOffset start of range in b
+   * @param length  length of ranges
+   * @return index in ranges of first byte that differs, -1 if ranges are equal.
+   */
+  public abstract int mismatch(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+
+  /**
+   * Compare ranges as unsigned bytes.
+   * @return negative, zero or positive as range of a is less than,
+   *         equal to or greater than range of b.
+   */
+  public int compare(byte[] a, int aOffset, byte[] b, int bOffset, int length)
+  {
+    int i = this.mismatch(a, aOffset, b, bOffset, length);
+    return i < 0 ? 0 : (a[aOffset + i] & 0xff) - (b[bOffset + i] & 0xff);
+  }
+
+  /**
+   * Bytes of word as written to dictionaries, if the bytes compare
+   * like the word.
+   * @param word    word
+   * @param wordlen width of keys of dictionary
+   * @return bytes of word if all characters are ASCII and word has
+   *         wordlen characters, otherwise null.
+   */
+  public static byte[] keyBytes(String word, int wordlen)
+  {
+    int length = word.length();
+    if (length != wordlen) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      char c = word.charAt(i);
+      if (c >= 0x80) {
+	return null;
+      }
+      bytes[i] = (byte)c;
+    }
+    return bytes;
+  }
+
+  public String toString() { return this.getName(); }
+
+  /** one byte at a time */
+  static final class Scalar extends ByteSearch
+  {
+    public String getName() { return "scalar"; }
+
+    public int indexOf(byte[] a, int from, int to, byte b)
+    {
+      for (int i = from; i < to; i++) {
+	if (a[i] == b) {
+	  return i;
+	}
+      }
+      return -1;
+    }
+
+    public int mismatch(byte[] a, int aOffset, byte[] b, int bOffset, int length)
+    {
+      for (int i = 0; i < length; i++) {
+	if (a[aOffset + i] != b[bOffset + i]) {
+	  return i;
+	}
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * SIMD within a register: eight bytes per step, read as little
+   * endian longs through heap ByteBuffers.
+   */
+  static final class Swar extends ByteSearch
+  {
+    static final long ONES = 0x0101010101010101L;
+    static final long HIGHS = 0x8080808080808080L;
+
+    public String getName() { return "swar"; }
+
+    public int indexOf(byte[] a, int from, int to, byte b)
+    {
+      int i = from;
+      if (to - from >= 8) {
+	ByteBuffer buffer = ByteBuffer.wrap(a).order(ByteOrder.LITTLE_ENDIAN);
+	long pattern = (b & 0xffL) * ONES;
+	for (; i + 8 <= to; i += 8) {
+	  long x = buffer.getLong(i) ^ pattern;
+	  // high bit set in each byte of x that is zero (exact for the lowest one)
+	  long zeros = (x - ONES) & ~x & HIGHS;
+	  if (zeros != 0) {
+	    return i + (Long.numberOfTrailingZeros(zeros) >>> 3);
+	  }
+	}
+      }
+      for (; i < to; i++) {
+	if (a[i] == b) {
+	  return i;
+	}
+      }
+      return -1;
+    }
+
+    public int mismatch(byte[] a, int aOffset, byte[] b, int bOffset, int length)
+    {
+      int i = 0;
+      if (length >= 8) {
+	ByteBuffer aBuffer = ByteBuffer.wrap(a).order(ByteOrder.LITTLE_ENDIAN);
+	ByteBuffer bBuffer = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+	for (; i + 8 <= length; i += 8) {
+	  long x = aBuffer.getLong(aOffset + i) ^ bBuffer.getLong(bOffset + i);
+	  if (x != 0) {
+	    return i + (Long.numberOfTrailingZeros(x) >>> 3);
+	  }
+	}
+      }
+      for (; i < length; i++) {
+	if (a[aOffset + i] != b[bOffset + i]) {
+	  return i;
+	}
+      }
+      return -1;
+    }
+  }
+
+} // ByteSearch
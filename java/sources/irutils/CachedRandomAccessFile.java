@@ -0,0 +1,125 @@
+package irutils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only RandomAccessFile reading through a BlockCache.
+ * <p>
+ * Overrides the primitive operations of RandomAccessFile: seek(),
+ * getFilePointer(), length() and the read() methods, which the final
+ * readInt(), readLong() and readFully() of RandomAccessFile are built
+ * on, so DiskBinarySearch, PostingsList and MultiKeyIndex.readPostings
+ * read through the cache unchanged.  The file pointer is kept by this
+ * object and blocks are read with positional reads on the file's
+ * channel.  Like RandomAccessFile an instance is not thread-safe.
+ * </p>
+ * @see BlockCache
+ */
+
+public class CachedRandomAccessFile extends RandomAccessFile
+{
+  /** cache to read through */
+  final BlockCache cache;
+  /** id of file in cache */
+  final int fileId;
+  /** length of file, index files don't change once written. */
+  final long length;
+  /** channel of file */
+  final FileChannel channel;
+  /** file pointer */
+  long position = 0;
+  /** buffer of single byte reads */
+  final byte[] single = new byte[1];
+
+  /**
+   * Open file for reading through cache.
+   * @param cache    block cache
+   * @param filename name of file
+   * @exception FileNotFoundException if file does not exist.
+   */
+  public CachedRandomAccessFile(BlockCache cache, String filename)
+    throws FileNotFoundException
+  {
+    super(filename, "r");
+    File file = new File(filename);
+    this.cache = cache;
+    this.fileId = cache.fileId(file);
+    this.length = file.length();
+    this.channel = this.getChannel();
+  }
+
+  /**
+   * Open file for reading, through cache if cache is not null.
+   * @param cache    block cache, may be null.
+   * @param filename name of file
+   * @return file opened for reading.
+   * @exception FileNotFoundException if file does not exist.
+   */
+  public static RandomAccessFile open(BlockCache cache, String filename)
+    throws FileNotFoundException
+  {
+    if (cache == null) {
+      return new RandomAccessFile(filename, "r");
+    }
+    return new CachedRandomAccessFile(cache, filename);
+  }
+
+  public void seek(long pos)
+    throws IOException
+  {
+    if (pos < 0) {
+      throw new IOException("Negative seek offset");
+    }
+    this.position = pos;
+  }
+
+  public long getFilePointer() { return this.position; }
+
+  public long length() { return this.length; }
+
+  public int read()
+    throws IOException
+  {
+    if (this.cache.read(this.channel, this.fileId, this.length, this.position,
+			this.single, 0, 1) < 0) {
+      return -1;
+    }
+    this.position++;
+    return this.single[0] & 0xff;
+  }
+
+  public int read(byte[] b)
+    throws IOException
+  {
+    return this.read(b, 0, b.length);
+  }
+
+  public int read(byte[] b, int off, int len)
+    throws IOException
+  {
+    if (len == 0) {
+      return 0;
+    }
+    int total = 0;
+    while (total < len) {
+      int n = this.cache.read(this.channel, this.fileId, this.length, this.position,
+			      b, off + total, len - total);
+      if (n < 0) {
+	break;
+      }
+      this.position += n;
+      total += n;
+    }
+    return total == 0 ? -1 : total;
+  }
+
+  public String toString()
+  {
+    return "CachedRandomAccessFile: file id: " + this.fileId + ", length: " + this.length;
+  }
+
+} // CachedRandomAccessFile
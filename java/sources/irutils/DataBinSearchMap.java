@@ -25,8 +25,8 @@ import java.io.*;
 public class DataBinSearchMap implements BinSearchMap, Serializable 
 {
 
-  /** data output stream for writing map. */
-  private transient DataOutputStream mapWriter;
+  /** block writer for writing map. */
+  private transient BlockWriter mapWriter;
   /** random access file for reading map. */
   private transient RandomAccessFile mapRAFile;
   /** number of records in this map. */
@@ -50,9 +50,7 @@ public class DataBinSearchMap implements BinSearchMap, Serializable
     throws FileNotFoundException
   {
     if ( mode == WRITE ) {
-      this.mapWriter = 
-	new DataOutputStream ( new BufferedOutputStream
-			       ( new FileOutputStream ( mapFilename )));
+      this.mapWriter = BlockWriter.create ( mapFilename );
     } else {
       this.mapRAFile = new RandomAccessFile ( mapFilename, "r");
     }
@@ -28,8 +28,8 @@ public class DictionaryBinSearchMap implements DiskBasedBinSearchMap, Serializab
  
   /** length of integer in bytes */
   public static final int DATALENGTH = 4; /* is this right? */
-  /** data output stream for writing map. */
-  private transient DataOutputStream mapWriter;
+  /** block writer for writing map. */
+  private transient BlockWriter mapWriter;
   /** random access file for reading map. */
   private transient RandomAccessFile mapRAFile;
   /** FileChannel for reading map. */
@@ -59,9 +59,7 @@ public class DictionaryBinSearchMap implements DiskBasedBinSearchMap, Serializab
     throws FileNotFoundException, IOException
   {
     if ( mode == WRITE ) {
-      this.mapWriter = 
-	new DataOutputStream ( new BufferedOutputStream
-			       ( new FileOutputStream ( mapFilename )));
+      this.mapWriter = BlockWriter.create ( mapFilename );
     } else {
       if (this.useMappedFile) {
 	this.mapFileChannel = 
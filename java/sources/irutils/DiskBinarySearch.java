@@ -124,14 +124,23 @@ public final class DiskBinarySearch extends Object
     byte[] wordbuf = new byte[wordlen];
     String tstword;
 
+    // ASCII words are compared as bytes, without decoding records.
+    ByteSearch search = ByteSearch.get();
+    byte[] wordbytes = ByteSearch.keyBytes(word, wordlen);
+
     while ( low < high )
       {
 	mid = low + (high- low) / 2;
 	bsfp.seek(mid * (wordlen+datalen));
 	bsfp.read(wordbuf);
-	tstword = new String(wordbuf);
 	// System.out.println("tstword: " + tstword + ", word: " + word);
-	cond = word.compareTo(tstword);
+	if (wordbytes != null) {
+	  cond = search.compare(wordbytes, 0, wordbuf, 0, wordlen);
+	  tstword = word;
+	} else {
+	  tstword = new String(wordbuf);
+	  cond = word.compareTo(tstword);
+	}
 	if (cond < 0) {
 	  high = mid;
 	} else if (cond > 0) {
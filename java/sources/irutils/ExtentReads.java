@@ -0,0 +1,281 @@
+package irutils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Coalesced reads of the postings of a term.
+ * <p>
+ * The extents (offset, length) of the postings of a term are sorted by
+ * offset and merged into ranges of the postings file: an extent
+ * starting at most <code>ifread.coalesce.gap</code> bytes after the end
+ * of the range before it is added to that range, as long as the range
+ * stays within <code>ifread.coalesce.max</code> bytes.  Each range is
+ * read at once, into a buffer reused by the thread, and the postings
+ * are decoded from it, in the order of the extent list.  A term whose
+ * postings are clustered (see MultiKeyIndexGeneration.setClusterColumn)
+ * is read with one or a few reads, however many postings it has.
+ * </p>
+ * Properties:
+ * <pre>
+ *   -Difread.coalesce.gap=&lt;n&gt; bytes between extents read with them (default: 4096)
+ *   -Difread.coalesce.max=&lt;n&gt; most bytes in one read (default: 1048576)
+ * </pre>
+ */
+
+public final class ExtentReads
+{
+  /** bytes between extents read along with them */
+  static final int GAP =
+    Math.max(0, Integer.parseInt(System.getProperty("ifread.coalesce.gap", "4096")));
+  /** most bytes in one read, unless an extent is longer */
+  static final int MAX_READ =
+    Math.max(4096, Integer.parseInt(System.getProperty("ifread.coalesce.max", "1048576")));
+
+  /** read buffer of each thread */
+  static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+    protected byte[] initialValue() {
+      return new byte[8192];
+    }
+  };
+
+  /**
+   * @param size bytes needed
+   * @return buffer of thread of at least size bytes, only kept for
+   *         the next read if not larger than a coalesced read.
+   */
+  public static byte[] buffer(int size)
+  {
+    byte[] buffer = BUFFER.get();
+    if (buffer.length < size) {
+      buffer = new byte[Math.max(size, Math.min(MAX_READ, 2 * buffer.length))];
+      if (buffer.length <= MAX_READ) {
+	BUFFER.set(buffer);
+      }
+    }
+    return buffer;
+  }
+
+  /** offsets of extents, in order of extent list */
+  final long[] starts;
+  /** lengths of extents */
+  final int[] lengths;
+  /** extent numbers in order of offset */
+  final int[] order;
+  /** number of ranges */
+  int rangeCount = 0;
+  /** index into order of first extent of each range, rangeCount + 1 entries */
+  int[] rangeFirst;
+  long[] rangeStarts;
+  int[] rangeLengths;
+  int maxRangeLength = 0;
+
+  /**
+   * @param extents extent list: 8 byte offset and 8 byte length of
+   *                each posting, from position to limit of buffer.
+   */
+  public ExtentReads(ByteBuffer extents)
+  {
+    int count = extents.remaining() / 16;
+    this.starts = new long[count];
+    this.lengths = new int[count];
+    boolean sorted = true;
+    for (int i = 0; i < count; i++) {
+      this.starts[i] = extents.getLong();
+      this.lengths[i] = (int)extents.getLong();
+      if (i > 0 && this.starts[i] < this.starts[i - 1]) {
+	sorted = false;
+      }
+    }
+    this.order = sortedOrder(this.starts, sorted);
+    this.coalesce();
+  }
+
+  /**
+   * Read extent list of term with one read.
+   * @param extentsRaf extents file of partition of term
+   * @param entry      dictionary entry of term
+   * @return reads of postings of term
+   */
+  public static ExtentReads read(RandomAccessFile extentsRaf, DictionaryEntry entry)
+    throws IOException
+  {
+    byte[] extents = new byte[(int)(16 * entry.getNumberOfPostings())];
+    extentsRaf.seek(entry.getAddress());
+    extentsRaf.readFully(extents);
+    return new ExtentReads(ByteBuffer.wrap(extents));
+  }
+
+  /**
+   * Read extent list of term with one positional read.
+   * @param extentsFile extents file of partition of term
+   * @param entry       dictionary entry of term
+   * @return reads of postings of term
+   */
+  public static ExtentReads read(PositionalFile extentsFile, DictionaryEntry entry)
+    throws IOException
+  {
+    byte[] extents = new byte[(int)(16 * entry.getNumberOfPostings())];
+    extentsFile.readFully(entry.getAddress(), extents, 0, extents.length);
+    return new ExtentReads(ByteBuffer.wrap(extents));
+  }
+
+  /** @return extent numbers in order of offset, equal offsets in list order. */
+  static int[] sortedOrder(final long[] starts, boolean sorted)
+  {
+    int[] order = new int[starts.length];
+    if (sorted) {
+      for (int i = 0; i < order.length; i++) {
+	order[i] = i;
+      }
+      return order;
+    }
+    Integer[] extents = new Integer[starts.length];
+    for (int i = 0; i < extents.length; i++) {
+      extents[i] = i;
+    }
+    Arrays.sort(extents, new Comparator<Integer>() {
+	public int compare(Integer a, Integer b) {
+	  return Long.compare(starts[a], starts[b]);
+	}
+      });
+    for (int i = 0; i < order.length; i++) {
+      order[i] = extents[i];
+    }
+    return order;
+  }
+
+  /** merge extents, in order of offset, into ranges */
+  void coalesce()
+  {
+    int count = this.order.length;
+    this.rangeFirst = new int[count + 1];
+    this.rangeStarts = new long[count];
+    this.rangeLengths = new int[count];
+    long rangeStart = 0;
+    long rangeEnd = 0;
+    for (int i = 0; i < count; i++) {
+      int extent = this.order[i];
+      long start = this.starts[extent];
+      long end = start + this.lengths[extent];
+      if (this.rangeCount > 0 &&
+	  start <= rangeEnd + GAP && Math.max(rangeEnd, end) - rangeStart <= MAX_READ) {
+	rangeEnd = Math.max(rangeEnd, end);
+      } else {
+	if (this.rangeCount > 0) {
+	  this.endRange(rangeStart, rangeEnd);
+	}
+	this.rangeFirst[this.rangeCount] = i;
+	rangeStart = start;
+	rangeEnd = end;
+	this.rangeCount++;
+      }
+    }
+    if (this.rangeCount > 0) {
+      this.endRange(rangeStart, rangeEnd);
+    }
+    this.rangeFirst[this.rangeCount] = count;
+  }
+
+  void endRange(long rangeStart, long rangeEnd)
+  {
+    int range = this.rangeCount - 1;
+    this.rangeStarts[range] = rangeStart;
+    this.rangeLengths[range] = (int)(rangeEnd - rangeStart);
+    this.maxRangeLength = Math.max(this.maxRangeLength, this.rangeLengths[range]);
+  }
+
+  /** @return number of postings */
+  public int size() { return this.starts.length; }
+
+  /** @return number of reads */
+  public int getRangeCount() { return this.rangeCount; }
+
+  /** @return offset in postings file of range */
+  public long getRangeStart(int range) { return this.rangeStarts[range]; }
+
+  /** @return bytes of range */
+  public int getRangeLength(int range) { return this.rangeLengths[range]; }
+
+  /** @return bytes of longest range */
+  public int getMaxRangeLength() { return this.maxRangeLength; }
+
+  /**
+   * Decode postings of range.
+   * @param range    range read
+   * @param buffer   bytes of range
+   * @param offset   offset of range in buffer
+   * @param postings postings by extent number, filled in
+   * @param charset  charset of postings
+   */
+  public void decode(int range, byte[] buffer, int offset, String[] postings, Charset charset)
+  {
+    long rangeStart = this.rangeStarts[range];
+    for (int i = this.rangeFirst[range]; i < this.rangeFirst[range + 1]; i++) {
+      int extent = this.order[i];
+      postings[extent] = new String(buffer, offset + (int)(this.starts[extent] - rangeStart),
+				    this.lengths[extent], charset);
+    }
+  }
+
+  /**
+   * Read postings from file, one read per range.
+   * @param postingsRaf postings file
+   * @param newList     list postings are added to, in extent list order
+   * @param charset     charset of postings
+   */
+  public void read(RandomAccessFile postingsRaf, List<String> newList, Charset charset)
+    throws IOException
+  {
+    String[] postings = new String[this.size()];
+    byte[] buffer = buffer(this.maxRangeLength);
+    for (int range = 0; range < this.rangeCount; range++) {
+      postingsRaf.seek(this.rangeStarts[range]);
+      postingsRaf.readFully(buffer, 0, this.rangeLengths[range]);
+      this.decode(range, buffer, 0, postings, charset);
+    }
+    newList.addAll(Arrays.asList(postings));
+  }
+
+  /**
+   * Read postings from file shared by threads, one positional read per range.
+   * @param postingsFile postings file
+   * @param newList      list postings are added to, in extent list order
+   * @param charset      charset of postings
+   */
+  public void read(PositionalFile postingsFile, List<String> newList, Charset charset)
+    throws IOException
+  {
+    String[] postings = new String[this.size()];
+    byte[] buffer = buffer(this.maxRangeLength);
+    for (int range = 0; range < this.rangeCount; range++) {
+      postingsFile.readFully(this.rangeStarts[range], buffer, 0, this.rangeLengths[range]);
+      this.decode(range, buffer, 0, postings, charset);
+    }
+    newList.addAll(Arrays.asList(postings));
+  }
+
+  /**
+   * Read postings from buffer (a mapped postings file), one bulk get per range.
+   * @param postings buffer holding postings file, its position is changed
+   * @param newList  list postings are added to, in extent list order
+   * @param charset  charset of postings
+   */
+  public void read(ByteBuffer postingsBuffer, List<String> newList, Charset charset)
+  {
+    String[] postings = new String[this.size()];
+    byte[] buffer = buffer(this.maxRangeLength);
+    for (int range = 0; range < this.rangeCount; range++) {
+      postingsBuffer.position((int)this.rangeStarts[range]);
+      postingsBuffer.get(buffer, 0, this.rangeLengths[range]);
+      this.decode(range, buffer, 0, postings, charset);
+    }
+    newList.addAll(Arrays.asList(postings));
+  }
+
+} // ExtentReads
@@ -19,8 +19,9 @@ import java.io.*;
 
 public class FileRunLengthPostingsWriter implements RunLengthPostingsWriter, Serializable
 {
-  transient DataOutputStream postingsWriter = null;
+  transient BlockWriter postingsWriter = null;
   String directoryName;
+  String filename = "postings";
   int nextPosting = 0;
 
   /**
@@ -29,11 +30,19 @@ public class FileRunLengthPostingsWriter implements RunLengthPostingsWriter, Ser
   public FileRunLengthPostingsWriter (String aDirectoryName)
     throws FileNotFoundException
   {
-    this.postingsWriter = 
-      new DataOutputStream ( new BufferedOutputStream
-			     (new FileOutputStream
-			      (aDirectoryName + "/postings" )));
+    this(aDirectoryName, "postings");
+  }
+
+  /**
+   * @param aDirectoryName directory in which postings file resides.
+   * @param aFilename      name of postings file, e.g.: "postings" or "postings.1"
+   */
+  public FileRunLengthPostingsWriter (String aDirectoryName, String aFilename)
+    throws FileNotFoundException
+  {
+    this.postingsWriter = BlockWriter.create(aDirectoryName + "/" + aFilename);
     this.directoryName = aDirectoryName;
+    this.filename = aFilename;
   }
 
   /** 
@@ -44,10 +53,7 @@ public class FileRunLengthPostingsWriter implements RunLengthPostingsWriter, Ser
     throws FileNotFoundException
   {
     if (this.postingsWriter == null) {
-      this.postingsWriter = 
-	new DataOutputStream ( new BufferedOutputStream
-			       (new FileOutputStream
-				(this.directoryName + "/postings" )));
+      this.postingsWriter = BlockWriter.create(this.directoryName + "/" + this.filename);
     }
   }
 
@@ -1,5 +1,6 @@
 package irutils;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Iterator;
 
@@ -15,6 +16,17 @@ public class IFBuild {
   static boolean verbose = 
     Boolean.getBoolean(System.getProperty("ifbuild.verbose", "false"));
 
+  /** report build progress on stderr via property <code>-Difbuild.progress=</code><em>true|false</em> */
+  static boolean progress = 
+    Boolean.parseBoolean(System.getProperty("ifbuild.progress", "false"));
+
+  /** progress listener printing reports to stderr */
+  static final BuildProgressListener STDERR_PROGRESS_LISTENER = new BuildProgressListener() {
+      public void progress(BuildProgress progress) {
+	System.err.println(progress);
+      }
+    };
+
   /**
    * main program 
    * @param args argument vector.
@@ -23,6 +35,7 @@ public class IFBuild {
    * properties:
    *   index.path=<directory path> : where path of indices resides
    *   table.path=<directory path> : where tables reside
+   *   ifbuild.shards=<n>          : build index as n hash partitioned shards
    */
   public static void main(String[] args)
     throws java.io.FileNotFoundException,
@@ -45,6 +58,23 @@ public class IFBuild {
       System.out.println("   (default: " + indexPath + ")");
       System.out.println("  -Dtable.path=<directory path> : where tables reside");
       System.out.println("   (default: " + tablePath + ")");
+      System.out.println("  -Difbuild.progress=true       : report build progress on stderr");
+      System.out.println("  -Difbuild.profile=false       : don't write build-profile.json");
+      System.out.println("  -Difbuild.incremental=true    : only rebuild changed partitions");
+      System.out.println("  -Difbuild.compact.segments=<n> : full rebuild after n incremental updates");
+      System.out.println("   (default: 8)");
+      System.out.println("  -Difbuild.parse.threads=<n>   : threads parsing table");
+      System.out.println("   (default: available processors)");
+      System.out.println("  -Difbuild.shards=<n>          : hash partition rows into n shards");
+      System.out.println("  -Difbuild.shard.paths=<dir>,<dir>,... : roots of shard directories");
+      System.out.println("   (default: index directory)");
+      System.out.println("  -Difbuild.shard.threads=<n>   : number of shards built at once");
+      System.out.println("  -Difbuild.write.blocksize=<n> : bytes per write buffer block");
+      System.out.println("   (default: 1048576)");
+      System.out.println("  -Difbuild.write.sync=<n>      : force data to disk every n bytes");
+      System.out.println("   (default: 0, never)");
+      System.out.println("  -Difbuild.usemappedbytebuffer=true : write through memory mapped windows");
+      System.out.println("  -Difbuild.mapped.window=<n>   : bytes mapped at a time (default: 67108864)");
       System.exit(0);
     }
 
@@ -65,7 +95,21 @@ public class IFBuild {
       }
     if (IFBuild.verbose)
       System.out.println("using index: " + index);
+    if (IFBuild.progress)
+      index.setProgressListener(STDERR_PROGRESS_LISTENER);
 
+    int shards = Integer.parseInt(System.getProperty("ifbuild.shards", "1"));
+    if (shards > 1) {
+      String shardPaths = System.getProperty("ifbuild.shard.paths", "");
+      List<String> shardRoots = new ArrayList<String>();
+      for (String shardRoot: shardPaths.split(",")) {
+	if (shardRoot.trim().length() > 0) {
+	  shardRoots.add(shardRoot.trim());
+	}
+      }
+      ShardedInvertedFile.build(index, shards, shardRoots);
+      return;
+    }
     // check to see if index exists, if not then create it. 
     index.update();
 
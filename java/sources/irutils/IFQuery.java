@@ -50,6 +50,21 @@ public class IFQuery {
     InvertedFileContainer container = 
       new InvertedFileContainer(tablePath, indexPath);
 
+    StringBuffer wordsb = new StringBuffer();
+    for (int i = 1; i < args.length; i++) {
+      wordsb.append(args[i]).append(" ");
+    }
+
+    // sharded index: lookup term in shard holding it.
+    if (ShardedInvertedFile.isSharded(new java.io.File(indexPath, indexname))) {
+      ShardedInvertedFile sharded = ShardedInvertedFile.open(indexPath, indexname);
+      for (String posting: sharded.lookup(wordsb.toString().trim()).getValue()) {
+	System.out.println(posting);
+      }
+      sharded.close();
+      return;
+    }
+
     // get a index instance for "recommendations"
     InvertedFile index = container.get(indexname);
     if (index == null)
@@ -68,11 +83,6 @@ public class IFQuery {
     // setup index for retrieval.
     index.setup();
 
-    StringBuffer wordsb = new StringBuffer();
-    for (int i = 1; i < args.length; i++) {
-      wordsb.append(args[i]).append(" ");
-    }
-
     // lookup term in index.
     BSPTuple<List<String>> result = index.lookup(wordsb.toString().trim());
     List<String> list = result.getValue();
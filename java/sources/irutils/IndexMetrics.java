@@ -0,0 +1,75 @@
+package irutils;
+
+/**
+ * Metrics service provider interface for index lookup and index
+ * generation.
+ * <p>
+ * Indices only call the recording methods (and only read the clock)
+ * when <code>isEnabled()</code> returns true, so the default
+ * implementation, NullIndexMetrics, costs one virtual call per
+ * operation and allocates nothing.  Implementations are called from
+ * any thread and must be thread-safe.
+ * <p>
+ * Partitions are named as the indices name them:
+ * <code>indexname + termlength</code> for InvertedFile and
+ * <code>column|termlength</code> for MultiKeyIndex and
+ * MappedMultiKeyIndex.
+ *
+ * @see NullIndexMetrics
+ * @see IndexStatistics
+ */
+
+public interface IndexMetrics
+{
+  /**
+   * @return true if metrics should be recorded.
+   */
+  boolean isEnabled();
+
+  /**
+   * Record completed lookup.
+   * @param indexname name of index
+   * @param partition partition searched
+   * @param keyLength length of key
+   * @param mapped    true if index is memory mapped, false if read using random access files
+   * @param nanos     elapsed time of lookup in nanoseconds
+   * @param postings  number of postings returned, zero for a miss
+   * @param bytes     number of postings bytes read
+   */
+  void lookup(String indexname, String partition, int keyLength, boolean mapped,
+	      long nanos, int postings, long bytes);
+
+  /**
+   * Record lookup that failed with an exception.
+   * @param indexname name of index
+   * @param partition partition searched
+   */
+  void lookupFailed(String indexname, String partition);
+
+  /**
+   * Record opening (a cache miss on) a partition's files.
+   * @param indexname name of index
+   * @param partition partition opened
+   */
+  void partitionOpened(String indexname, String partition);
+
+  /**
+   * Record generation of a partition.
+   * @param indexname name of index
+   * @param partition partition written
+   * @param nanos     elapsed time in nanoseconds
+   * @param terms     number of terms in partition
+   * @param postings  number of postings referenced by partition
+   */
+  void partitionBuilt(String indexname, String partition, long nanos, int terms, long postings);
+
+  /**
+   * Record completed phase of index generation.
+   * @param indexname name of index
+   * @param phase     name of phase, e.g.: "load_map", "create", "serialize"
+   * @param nanos     elapsed time in nanoseconds
+   * @param records   number of records processed by phase
+   */
+  void buildPhase(String indexname, String phase, long nanos, long records);
+
+} // IndexMetrics
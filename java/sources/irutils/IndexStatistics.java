@@ -0,0 +1,346 @@
+package irutils;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * IndexMetrics implementation keeping counters, timers and latency
+ * histograms per index and per partition.
+ * <p>
+ * Recording is lock-free; apart from the first event seen for an
+ * index or partition it does not allocate.  If constructed with a
+ * scope, the statistics of each index are registered as an MXBean
+ * with the platform MBean server as:
+ * <pre>
+ *   irutils:type=IndexStatistics,scope="&lt;scope&gt;",name="&lt;indexname&gt;"
+ * </pre>
+ * InvertedFileContainer uses its index root as scope, see
+ * InvertedFileContainer.enableStatistics().
+ */
+
+public class IndexStatistics implements IndexMetrics
+{
+  /** JMX domain of registered MXBeans */
+  public static final String DOMAIN = "irutils";
+
+  /** map of statistics for each index, indexname -> counters */
+  ConcurrentMap<String,IndexCounters> indexMap = new ConcurrentHashMap<String,IndexCounters>();
+
+  /** MBean server to register index statistics with, null if not registering. */
+  MBeanServer mbeanServer;
+
+  /** scope of MXBean object names */
+  String scope;
+
+  /** instantiate statistics that are not registered with JMX. */
+  public IndexStatistics()
+  {
+  }
+
+  /**
+   * instantiate statistics registered with the platform MBean server.
+   * @param scope scope of MXBean names, e.g.: index root directory.
+   */
+  public IndexStatistics(String scope)
+  {
+    this.mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    this.scope = scope;
+  }
+
+  /** @return true, always. */
+  public boolean isEnabled() { return true; }
+
+  public void lookup(String indexname, String partition, int keyLength, boolean mapped,
+		     long nanos, int postings, long bytes)
+  {
+    IndexCounters counters = this.getOrCreateIndexCounters(indexname);
+    counters.lookups.incrementAndGet();
+    counters.postings.addAndGet(postings);
+    counters.bytes.addAndGet(bytes);
+    counters.latency.record(nanos);
+    PartitionCounters partitionCounters = counters.getOrCreatePartitionCounters(partition);
+    partitionCounters.lookups.incrementAndGet();
+    partitionCounters.postings.addAndGet(postings);
+    partitionCounters.bytes.addAndGet(bytes);
+    partitionCounters.latency.record(nanos);
+  }
+
+  public void lookupFailed(String indexname, String partition)
+  {
+    IndexCounters counters = this.getOrCreateIndexCounters(indexname);
+    counters.failures.incrementAndGet();
+    counters.getOrCreatePartitionCounters(partition).failures.incrementAndGet();
+  }
+
+  public void partitionOpened(String indexname, String partition)
+  {
+    IndexCounters counters = this.getOrCreateIndexCounters(indexname);
+    counters.opens.incrementAndGet();
+    counters.getOrCreatePartitionCounters(partition).opens.incrementAndGet();
+  }
+
+  public void partitionBuilt(String indexname, String partition, long nanos, int terms, long postings)
+  {
+    PartitionCounters partitionCounters =
+      this.getOrCreateIndexCounters(indexname).getOrCreatePartitionCounters(partition);
+    partitionCounters.terms.set(terms);
+    partitionCounters.builtPostings.set(postings);
+    partitionCounters.buildNanos.set(nanos);
+  }
+
+  public void buildPhase(String indexname, String phase, long nanos, long records)
+  {
+    IndexCounters counters = this.getOrCreateIndexCounters(indexname);
+    AtomicLong phaseNanos = counters.phaseNanos.get(phase);
+    if (phaseNanos == null) {
+      AtomicLong newPhaseNanos = new AtomicLong();
+      phaseNanos = counters.phaseNanos.putIfAbsent(phase, newPhaseNanos);
+      if (phaseNanos == null) {
+	phaseNanos = newPhaseNanos;
+      }
+    }
+    phaseNanos.set(nanos);
+  }
+
+  IndexCounters getOrCreateIndexCounters(String indexname)
+  {
+    IndexCounters counters = this.indexMap.get(indexname);
+    if (counters == null) {
+      IndexCounters newCounters = new IndexCounters(indexname);
+      counters = this.indexMap.putIfAbsent(indexname, newCounters);
+      if (counters == null) {
+	counters = newCounters;
+	this.register(counters);
+      }
+    }
+    return counters;
+  }
+
+  /**
+   * @param indexname name of index
+   * @return statistics of index, null if nothing has been recorded for index.
+   */
+  public IndexCounters getIndexCounters(String indexname)
+  {
+    return this.indexMap.get(indexname);
+  }
+
+  /** @return statistics of all indices seen so far. */
+  public Collection<IndexCounters> getAllIndexCounters()
+  {
+    return this.indexMap.values();
+  }
+
+  ObjectName getObjectName(String indexname)
+    throws JMException
+  {
+    return new ObjectName(DOMAIN + ":type=IndexStatistics,scope=" + ObjectName.quote(this.scope) +
+			  ",name=" + ObjectName.quote(indexname));
+  }
+
+  void register(IndexCounters counters)
+  {
+    if (this.mbeanServer != null) {
+      try {
+	ObjectName name = this.getObjectName(counters.getIndexName());
+	if (! this.mbeanServer.isRegistered(name)) {
+	  this.mbeanServer.registerMBean(counters, name);
+	}
+      } catch (JMException exception) {
+	System.err.println("unable to register statistics for index " + counters.getIndexName() +
+			   ": " + exception.getMessage());
+      }
+    }
+  }
+
+  /** unregister MXBeans of all indices from MBean server. */
+  public void unregister()
+  {
+    if (this.mbeanServer != null) {
+      for (IndexCounters counters: this.indexMap.values()) {
+	try {
+	  ObjectName name = this.getObjectName(counters.getIndexName());
+	  if (this.mbeanServer.isRegistered(name)) {
+	    this.mbeanServer.unregisterMBean(name);
+	  }
+	} catch (JMException exception) {
+	  System.err.println("unable to unregister statistics for index " + counters.getIndexName() +
+			     ": " + exception.getMessage());
+	}
+      }
+    }
+  }
+
+  /**
+   * Implementation of toString to override default implementation in
+   * java.lang.Object.
+   * @return summary of statistics of each index.
+   */
+  public String toString()
+  {
+    StringBuilder sb = new StringBuilder();
+    for (IndexCounters counters: this.indexMap.values()) {
+      sb.append(counters).append("\n");
+    }
+    return sb.toString();
+  }
+
+  /** counters, timers and latency histogram of a partition */
+  public static class PartitionCounters
+  {
+    AtomicLong lookups = new AtomicLong();
+    AtomicLong failures = new AtomicLong();
+    AtomicLong postings = new AtomicLong();
+    AtomicLong bytes = new AtomicLong();
+    AtomicLong opens = new AtomicLong();
+    AtomicLong terms = new AtomicLong();
+    AtomicLong builtPostings = new AtomicLong();
+    AtomicLong buildNanos = new AtomicLong();
+    LatencyHistogram latency = new LatencyHistogram();
+
+    public long getLookupCount() { return this.lookups.get(); }
+    public long getLookupFailureCount() { return this.failures.get(); }
+    public long getPostingsRead() { return this.postings.get(); }
+    public long getBytesRead() { return this.bytes.get(); }
+    public long getOpenCount() { return this.opens.get(); }
+    public long getTermCount() { return this.terms.get(); }
+    public long getBuiltPostingsCount() { return this.builtPostings.get(); }
+    public long getBuildNanos() { return this.buildNanos.get(); }
+    public LatencyHistogram getLatencyHistogram() { return this.latency; }
+  }
+
+  /** counters, timers and latency histogram of an index and its partitions */
+  public static class IndexCounters implements IndexStatisticsMXBean
+  {
+    String indexname;
+    AtomicLong lookups = new AtomicLong();
+    AtomicLong failures = new AtomicLong();
+    AtomicLong postings = new AtomicLong();
+    AtomicLong bytes = new AtomicLong();
+    AtomicLong opens = new AtomicLong();
+    LatencyHistogram latency = new LatencyHistogram();
+    /** map of partition name -> partition counters */
+    ConcurrentMap<String,PartitionCounters> partitionMap =
+      new ConcurrentHashMap<String,PartitionCounters>();
+    /** map of build phase -> elapsed nanoseconds of last run of phase. */
+    ConcurrentMap<String,AtomicLong> phaseNanos = new ConcurrentHashMap<String,AtomicLong>();
+
+    IndexCounters(String indexname)
+    {
+      this.indexname = indexname;
+    }
+
+    PartitionCounters getOrCreatePartitionCounters(String partition)
+    {
+      PartitionCounters counters = this.partitionMap.get(partition);
+      if (counters == null) {
+	PartitionCounters newCounters = new PartitionCounters();
+	counters = this.partitionMap.putIfAbsent(partition, newCounters);
+	if (counters == null) {
+	  counters = newCounters;
+	}
+      }
+      return counters;
+    }
+
+    /**
+     * @param partition name of partition
+     * @return counters of partition, null if nothing has been recorded for partition.
+     */
+    public PartitionCounters getPartitionCounters(String partition)
+    {
+      return this.partitionMap.get(partition);
+    }
+
+    public LatencyHistogram getLatencyHistogram() { return this.latency; }
+
+    public String getIndexName() { return this.indexname; }
+    public long getLookupCount() { return this.lookups.get(); }
+    public long getLookupFailureCount() { return this.failures.get(); }
+    public long getPostingsRead() { return this.postings.get(); }
+    public long getBytesRead() { return this.bytes.get(); }
+    public long getPartitionOpenCount() { return this.opens.get(); }
+
+    public double getPartitionCacheHitRatio()
+    {
+      long n = this.lookups.get() + this.failures.get();
+      return n == 0 ? 0.0 : Math.max(0.0, 1.0 - (double)this.opens.get() / n);
+    }
+
+    public double getMeanLookupMicros() { return this.latency.getMean() / 1000.0; }
+    public double getMedianLookupMicros() { return this.latency.getValueAtPercentile(50.0) / 1000.0; }
+    public double getP99LookupMicros() { return this.latency.getValueAtPercentile(99.0) / 1000.0; }
+    public double getP999LookupMicros() { return this.latency.getValueAtPercentile(99.9) / 1000.0; }
+    public double getMaxLookupMicros() { return this.latency.getMax() / 1000.0; }
+
+    public Map<String,Long> getPartitionLookupCounts()
+    {
+      Map<String,Long> countMap = new TreeMap<String,Long>();
+      for (Map.Entry<String,PartitionCounters> entry: this.partitionMap.entrySet()) {
+	countMap.put(entry.getKey(), entry.getValue().getLookupCount());
+      }
+      return countMap;
+    }
+
+    public Map<String,Double> getPartitionP99LookupMicros()
+    {
+      Map<String,Double> latencyMap = new TreeMap<String,Double>();
+      for (Map.Entry<String,PartitionCounters> entry: this.partitionMap.entrySet()) {
+	latencyMap.put(entry.getKey(), entry.getValue().latency.getValueAtPercentile(99.0) / 1000.0);
+      }
+      return latencyMap;
+    }
+
+    public Map<String,Long> getPartitionTermCounts()
+    {
+      Map<String,Long> termMap = new TreeMap<String,Long>();
+      for (Map.Entry<String,PartitionCounters> entry: this.partitionMap.entrySet()) {
+	termMap.put(entry.getKey(), entry.getValue().getTermCount());
+      }
+      return termMap;
+    }
+
+    public Map<String,Long> getBuildPhaseMillis()
+    {
+      Map<String,Long> phaseMap = new TreeMap<String,Long>();
+      for (Map.Entry<String,AtomicLong> entry: this.phaseNanos.entrySet()) {
+	phaseMap.put(entry.getKey(), entry.getValue().get() / 1000000);
+      }
+      return phaseMap;
+    }
+
+    public void reset()
+    {
+      this.lookups.set(0);
+      this.failures.set(0);
+      this.postings.set(0);
+      this.bytes.set(0);
+      this.opens.set(0);
+      this.latency.reset();
+      this.partitionMap.clear();
+      this.phaseNanos.clear();
+    }
+
+    public String toString()
+    {
+      return this.indexname + ": lookups: " + this.getLookupCount() +
+	", failures: " + this.getLookupFailureCount() +
+	", postings: " + this.getPostingsRead() +
+	", bytes: " + this.getBytesRead() +
+	", partition opens: " + this.getPartitionOpenCount() +
+	", mean us: " + String.format("%.1f", this.getMeanLookupMicros()) +
+	", p99 us: " + String.format("%.1f", this.getP99LookupMicros()) +
+	", max us: " + String.format("%.1f", this.getMaxLookupMicros()) +
+	", build ms: " + this.getBuildPhaseMillis();
+    }
+  }
+
+} // IndexStatistics
@@ -0,0 +1,39 @@
+package irutils;
+
+import java.util.Map;
+
+/**
+ * JMX management interface for the statistics of one index.
+ * Latencies are in microseconds, maps are keyed by partition or
+ * build phase name.
+ *
+ * @see IndexStatistics
+ */
+
+public interface IndexStatisticsMXBean
+{
+  String getIndexName();
+
+  long getLookupCount();
+  long getLookupFailureCount();
+  long getPostingsRead();
+  long getBytesRead();
+  long getPartitionOpenCount();
+  /** @return fraction of lookups that found their partition already open. */
+  double getPartitionCacheHitRatio();
+
+  double getMeanLookupMicros();
+  double getMedianLookupMicros();
+  double getP99LookupMicros();
+  double getP999LookupMicros();
+  double getMaxLookupMicros();
+
+  Map<String,Long> getPartitionLookupCounts();
+  Map<String,Double> getPartitionP99LookupMicros();
+  Map<String,Long> getPartitionTermCounts();
+  Map<String,Long> getBuildPhaseMillis();
+
+  /** discard all recorded statistics for index. */
+  void reset();
+
+} // IndexStatisticsMXBean
@@ -110,8 +110,8 @@ public class InspectIF {
     int num_of_partitions = 0; 
     for (int keyLength = 0; keyLength < MAXKEYLENGTH; keyLength++) {
       String partitionId = index.indexname + keyLength;
-      String partitionFilename = index.indexParentDirectoryPath + File.separator +
-	index.indexname + File.separator + "partition_" + partitionId;
+      String partitionFilename = index.getIndexDirectoryPath() + File.separator +
+	index.partitionFilename(partitionId);
       File partitionFile = new File(partitionFilename);
       if (partitionFile.exists()) {
 	dictionaryFile = new RandomAccessFile ( partitionFile, "r" );
@@ -141,8 +141,8 @@ public class InspectIF {
     throws java.io.IOException
   {
     RandomAccessFile dictionaryFile;
-    String partitionFilename = index.indexParentDirectoryPath + File.separator +
-      index.indexname + File.separator + "partition_" + partitionId;
+    String partitionFilename = index.getIndexDirectoryPath() + File.separator +
+      index.partitionFilename(partitionId);
     File partitionFile = new File(partitionFilename);
     if (partitionFile.exists()) {
       dictionaryFile = new RandomAccessFile ( partitionFile, "r" );
@@ -25,8 +25,8 @@ public class IntBinSearchMap implements BinSearchMap, Serializable {
 
   /** length of integer in bytes */
   public static final int DATALENGTH = 4; /* is this right */
-  /** data output stream for writing map. */
-  private transient DataOutputStream mapWriter;
+  /** block writer for writing map. */
+  private transient BlockWriter mapWriter;
   /** random access file for reading map. */
   private transient RandomAccessFile mapRAFile;
   /** number of records in this map. */
@@ -46,9 +46,7 @@ public class IntBinSearchMap implements BinSearchMap, Serializable {
     throws FileNotFoundException
   {
     if ( mode == WRITE ) {
-      this.mapWriter = 
-	new DataOutputStream ( new BufferedOutputStream
-			       ( new FileOutputStream ( mapFilename )));
+      this.mapWriter = BlockWriter.create ( mapFilename );
     } else {
       this.mapRAFile = new RandomAccessFile ( mapFilename, "r");
     }
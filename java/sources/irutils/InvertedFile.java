@@ -7,6 +7,13 @@ import java.io.*;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.channels.AsynchronousFileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Implementation of Binary Search Partition Inverted File.
@@ -57,6 +64,31 @@ import java.nio.charset.Charset;
  * MRCON|mrcon|8|0|cui|lat|ts|lui|stt|sui|str|lrl|TXT|TXT|TXT|TXT|TXT|TXT|TXT|TXT
  * </pre>
  * </p>
+ * <p>
+ * Incremental updates: a build records a content fingerprint (MD5 of
+ * the table rows) of each term length partition.  If property
+ * <code>ifbuild.incremental</code> is true, update() only rebuilds
+ * partitions whose fingerprint has changed: their dictionaries and
+ * postings are written to a new postings segment
+ * (<b>partition_&lt;indexname&gt;&lt;length&gt;.&lt;n&gt;</b> and
+ * <b>postings.&lt;n&gt;</b>) and the serialized index, which maps
+ * each partition to its segment, is replaced atomically.  Unchanged
+ * partitions keep using their existing files.  After
+ * <code>ifbuild.compact.segments</code> (default: 8) incremental
+ * segments the next update rebuilds the whole index, see compact().
+ * </p>
+ * <p>
+ * Generations: a full build writes the index to a new generation
+ * directory, <b>&lt;indexname&gt;/gen-&lt;n&gt;</b>, and then
+ * atomically replaces file <b>&lt;indexname&gt;/CURRENT</b>, which
+ * names the current generation.  Files of earlier generations are
+ * never rewritten, so processes reading them are not disturbed; see
+ * InvertedFileContainer.acquire() for switching readers to a new
+ * generation.  The most recent <code>ifbuild.generations.keep</code>
+ * (default: 2) generations are kept.  Setting
+ * <code>ifbuild.generations</code> to false builds the index directly
+ * in the index directory, as earlier versions did.
+ * </p>
  * Created: Fri Jul  6 15:37:53 2001
  *
  * @author <a href="mailto:wrogers@nlm.nih.gov">Willie Rogers</a>
@@ -70,6 +102,10 @@ public class InvertedFile implements Serializable
   static final long serialVersionUID = -6131431462910547522L;
   /** canonical name of Serialized version of object */
   public static String canonicalSerializedName = "InvertedFileInfo.ser";
+  /** name of file in index directory naming the current generation directory */
+  public static final String CURRENT_GENERATION_FILENAME = "CURRENT";
+  /** prefix of generation directory names */
+  public static final String GENERATION_PREFIX = "gen-";
   /** list of supportted binary formats */
   static Map<String,String> binFormats = new HashMap<String,String>(4);
   /** do this once at class instantiation */
@@ -90,15 +126,30 @@ public class InvertedFile implements Serializable
   /** hashmap of open partition files. */
   transient Map<String,Object> partitionFiles = new HashMap<String,Object>(5);
 
-  /** postings file */
-  transient RandomAccessFile postingsFile;
-
-  /** mapped version of postings file */
-  transient MappedByteBuffer postingsByteBuffer;
+  /** open postings files (RandomAccessFile or MappedByteBuffer) by postings segment. */
+  transient Map<Integer,Object> postingsFiles = new HashMap<Integer,Object>(2);
 
   /** if true, don't close index file pointer after release(). */
   transient boolean deferClosing = false;
 
+  /** lookup and generation metrics, null is equivalent to NullIndexMetrics. */
+  transient IndexMetrics metrics = NullIndexMetrics.INSTANCE;
+
+  /** cache non-mapped reads go through, null if reading files directly. */
+  transient BlockCache blockCache;
+
+  /** channels of lookupAsync(), null until first asynchronous lookup. */
+  transient volatile AsyncFileReader asyncReader;
+
+  /** temporary postings file used during build, null for indexname_tposts in working directory. */
+  transient String temporaryPostingsFilename;
+
+  /** profile of last build, null if not profiled. */
+  transient BuildProfile buildProfile;
+
+  /** receives build progress reports, may be null. */
+  transient BuildProgressListener progressListener;
+
   /** Is current index valid? */
   boolean valid = false;
 
@@ -108,6 +159,9 @@ public class InvertedFile implements Serializable
   /** name of table index is derived from */
   transient String tablefilename;
 
+  /** generation directory of index, null if index is directly in index directory. */
+  transient String generation;
+
   /** directory path of parent directory for index */
   transient String indexParentDirectoryPath;
 
@@ -126,6 +180,21 @@ public class InvertedFile implements Serializable
   /** list of key indices (Integer)  used for this index. (default is [0]) */
   List<Integer> keyIndices = null;		// if null, key index is zero
 
+  /** fingerprint of table rows in each partition, null if index predates fingerprints. */
+  Map<String,String> partitionFingerprints;
+
+  /** postings segment of each partition, partitions not present are in segment 0. */
+  Map<String,Integer> partitionSegments;
+
+  /** last postings segment written by an incremental update, 0 after full build. */
+  int lastSegment = 0;
+
+  /** offset in table of first row in index */
+  long tableStart = 0;
+
+  /** offset in table following last row in index, 0 if index predates offsets. */
+  long tableEnd = 0;
+
   /** display informational messages */
   private boolean verbose =
     Boolean.getBoolean(System.getProperty("ifbuild.verbose","false"));
@@ -140,7 +209,7 @@ public class InvertedFile implements Serializable
 
   /** flag to use MappedByteBuffer to build index (Memory Mapped version) */
   boolean useMappedByteBuffer = 
-    Boolean.getBoolean(System.getProperty("ifbuild.usemappedbytebuffer", "false"));
+    Boolean.parseBoolean(System.getProperty("ifbuild.usemappedbytebuffer", "false"));
 
   /** default constructor for serialization purposes only. */
   public InvertedFile()
@@ -180,84 +249,132 @@ public class InvertedFile implements Serializable
    */
   public void load_map()
      throws FileNotFoundException, IOException
+  {
+    this.load_map(null);
+  }
+
+  /**
+   * load rows of table belonging to partitions into in-memory term ->
+   * value map.  If partitions is null all rows are loaded and the
+   * fingerprint of each partition is recorded.
+   * @param partitions names of partitions (indexname + key length) to load, null for all.
+   * @exception FileNotFoundException if an error occurs
+   * @exception IOException if an error occurs
+   */
+  void load_map(final Set<String> partitions)
+     throws FileNotFoundException, IOException
   {
     // Load records into buckets based on term length.  Each bucket is
     // a TreeMap where record is stored by the ordinal value of the
-    // first element (key) of the record.
-    String line;
-    String key = null;
-    List<String> lineList;
-    int i = 0;
+    // first element (key) of the record.  Lines are split and keyed
+    // in parallel, then added to buckets and pool in table order.
+    IndexMetrics metrics = this.getMetrics();
+    long start = metrics.isEnabled() ? System.nanoTime() : 0L;
     if (this.verbose) {
        System.out.println("loading map " + this.indexname );
     }
-    TemporaryPostingsPool pool =
-      new TemporaryPostingsPool(this.indexname + "_tposts", "rw");
-    BufferedReader reader = 
-      new BufferedReader(new FileReader( this.tablefilename ));
-    while ( (line = reader.readLine()) != null )
+    this.buildProfile = this.newBuildProfile();
+    BuildProfile.Phase phase = null;
+    BuildProfile.Section insertSection = null;
+    BuildProfile.Section poolSection = null;
+    final boolean profiling = this.buildProfile != null;
+    if (profiling) {
+      phase = this.buildProfile.beginPhase("load_map", new File(this.tablefilename).length());
+      insertSection = this.buildProfile.section("load_map.insert");
+      poolSection = this.buildProfile.section("load_map.pool_append");
+    }
+    final Map<String,MessageDigest> digests =
+      partitions == null ? new TreeMap<String,MessageDigest>() : null;
+    if (partitions == null) {
+      this.wordnum = 0;
+      this.tableStart = 0;
+      this.tableEnd = new File(this.tablefilename).length();
+    }
+    final TemporaryPostingsPool pool =
+      new TemporaryPostingsPool(this.temporaryPostingsFilename(), "rw");
+    final BuildProfile.Phase loadPhase = phase;
+    final BuildProfile.Section loadInsertSection = insertSection;
+    final BuildProfile.Section loadPoolSection = poolSection;
+    class Loader implements ParallelTableReader.LineConsumer<String> {
+      int i = 0;
+      String key = null;
+      long bytesRead = 0;
+      public void accept(String line, String rowKey)
+	throws IOException
       {
 	Map<String,Integer> bucket;
+	long t1 = 0, t2 = 0, t3 = 0;
 	i++;
-	if (line.trim().length() > 0) {
-	  lineList = utils.StringUtils.split(line, "|");
-	  if (lineList.size() > 0) {
-	    if (this.keyIndices == null || 
-		(this.keyIndices.size() == 1 && 
-		 (this.keyIndices.get(0)).intValue() == 0)) {
-	      if (invfLowerCaseKeys) {
-		key = lineList.get(0).toLowerCase();
-	      } else {
-		key = lineList.get(0);
-	      }
-	    } else {
-	      StringBuffer strBuf = new StringBuffer();
-	      for (int j = 0; j < keyIndices.size(); j++) {
-		int col = keyIndices.get(j).intValue();
-		if (invfLowerCaseKeys) {
-		  strBuf.append(lineList.get(col).toLowerCase());
-		} else {
-		  strBuf.append(lineList.get(col));
-		}
-	      }
-	      key = strBuf.toString();
-	    }
-	  } else {
-	    System.err.println("lineList size <= 0, line = " + line);
-	  }
+	if (profiling) {
+	  t1 = System.nanoTime();
+	}
+	if (rowKey != null) {
+	  key = rowKey;
 	}
-	String keyLength = new Integer (key.length()).toString();
-	bucket = this.hashlist.get(this.indexname+keyLength);
+	String keyLength = Integer.toString(key.length());
+	String partitionId = indexname + keyLength;
+	if (digests != null) {
+	  updateFingerprint(digests, partitionId, line);
+	} else if (! partitions.contains(partitionId)) {
+	  bytesRead = bytesRead + line.length() + 1;
+	  return;
+	}
+	bucket = hashlist.get(partitionId);
 	if (bucket == null ) {
 	  bucket = new TreeMap<String,Integer>();
-	  this.hashlist.put(this.indexname+keyLength, bucket);
-	  
-	  /*List postings = new ArrayList();
-	    postings.add(line);*/
-	  bucket.put(key, new Integer(pool.add(line, -1)));
-	} else {
-	if ( bucket.containsKey(key) )
-	  {
-	    /*	    List postings = (List)bucket.get(key);
-		    postings.add(line);*/
-	    int link = bucket.get(key).intValue();
-	    bucket.put(key, new Integer(pool.add(line, link)));
-	  }
-	else
-	  {
-	    /*List postings = new ArrayList();
-	    postings.add(line);
-	    bucket.put(key, postings);*/
-	    bucket.put(key, new Integer(pool.add(line, -1)));
-	  }
+	  hashlist.put(partitionId, bucket);
 	}
+	// postings for key are chained in pool, bucket holds head of chain.
+	Integer link = bucket.get(key);
+	if (profiling) {
+	  t2 = System.nanoTime();
+	}
+	int address = pool.add(line, link == null ? -1 : link.intValue());
+	if (profiling) {
+	  t3 = System.nanoTime();
+	  loadPoolSection.add(t3 - t2);
+	}
+	bucket.put(key, new Integer(address));
 	wordnum++;
-	if (this.verbose) {
+	if (profiling) {
+	  loadInsertSection.add((t2 - t1) + (System.nanoTime() - t3));
+	  bytesRead = bytesRead + line.length() + 1;
+	  loadPhase.progress(i, bytesRead);
+	}
+	if (verbose) {
 	  System.out.println("bucket.put(key: " + key + ", value), " + 
 			     "keylength: " + keyLength + ", bucket size: " + bucket.size());
 	}
       }
-    reader.close();
+    }
+    Loader loader = new Loader();
+    ParallelTableReader reader =
+      new ParallelTableReader(this.tablefilename, Charset.defaultCharset());
+    try {
+      reader.read(new ParallelTableReader.LineParser<String>() {
+	  public String parse(String line) {
+	    if (line.trim().length() > 0) {
+	      List<String> lineList = utils.StringUtils.split(line, "|");
+	      if (lineList.size() > 0) {
+		return rowKey(lineList);
+	      } else {
+		System.err.println("lineList size <= 0, line = " + line);
+	      }
+	    }
+	    return null;	// blank line: keeps key of previous line
+	  }
+	}, loader);
+    } catch (IOException exception) {
+      pool.close();
+      throw exception;
+    } catch (RuntimeException exception) {
+      pool.close();
+      throw exception;
+    }
+    int i = loader.i;
+    if (profiling) {
+      this.buildProfile.section("load_map.parse").add(reader.getParseNanos());
+    }
     if (this.verbose) {
       System.out.println("# of input lines: " + i );
       System.out.println("# of buckets: " + hashlist.size());
@@ -270,6 +387,15 @@ public class InvertedFile implements Serializable
       }
     }
     pool.close();
+    if (digests != null) {
+      this.partitionFingerprints = fingerprints(digests);
+    }
+    if (profiling) {
+      phase.end(i, new File(this.temporaryPostingsFilename()).length());
+    }
+    if (metrics.isEnabled()) {
+      metrics.buildPhase(this.indexname, "load_map", System.nanoTime() - start, i);
+    }
   }
 
   /**
@@ -279,14 +405,50 @@ public class InvertedFile implements Serializable
    */
   public void create()
     throws BSPIndexCreateException, IOException
+  {
+    this.create(0);
+  }
+
+  /**
+   * Generate disk-based partitions for the terms in the in-memory map,
+   * writing their postings to a postings segment.  Segment 0 is a full
+   * build: the map must contain every partition of the index.  Other
+   * segments replace the partitions in the map, the remaining
+   * partitions of the index are left as they are.
+   * @param segment postings segment to write.
+   * @exception BSPIndexCreateException if an error occurs
+   * @exception IOException if an error occurs
+   */
+  void create(int segment)
+    throws BSPIndexCreateException, IOException
   {
     RunLengthPostingsWriter postingsWriter = null;
     List<String> dictDataFormat = new ArrayList<String>(1);
     int rowLen = Integer.parseInt(indexFormat.get(2));
     List<String> typeList = new ArrayList<String>(rowLen);
+    IndexMetrics metrics = this.getMetrics();
+    long start = metrics.isEnabled() ? System.nanoTime() : 0L;
+    if (this.buildProfile == null) {
+      this.buildProfile = this.newBuildProfile();
+    }
+    BuildProfile.Phase phase = null;
+    if (this.buildProfile != null) {
+      long totalTerms = 0;
+      for (Map<String,Integer> bucket: this.hashlist.values()) {
+	totalTerms = totalTerms + bucket.size();
+      }
+      phase = this.buildProfile.beginPhase("create", totalTerms);
+    }
+    long termsDone = 0;
 
-    this.dataLength = new HashMap<String,Integer>(5);
-    this.numrecs = new HashMap<String,Integer>(5);
+    if (segment == 0 || this.numrecs == null) {
+      this.dataLength = new HashMap<String,Integer>(5);
+      this.numrecs = new HashMap<String,Integer>(5);
+      this.partitionSegments = null;
+    }
+    if (this.partitionSegments == null) {
+      this.partitionSegments = new HashMap<String,Integer>(5);
+    }
     try {
       for (int i = 3 + rowLen, j = 0; i < 4 + rowLen + rowLen; i++, j++)
         {
@@ -316,22 +478,29 @@ public class InvertedFile implements Serializable
     
     // create index
 
-    File indexDirectory = new File(this.indexParentDirectoryPath + File.separator + this.indexname);
+    if (segment == 0 &&
+	Boolean.parseBoolean(System.getProperty("ifbuild.generations", "true"))) {
+      this.generation = GENERATION_PREFIX + (lastGeneration(this.getBaseDirectory()) + 1);
+    }
+    File indexDirectory = new File(this.getIndexDirectoryPath());
     if ((! indexDirectory.exists()) && (! indexDirectory.isDirectory()))
       {
-	if (indexDirectory.mkdir() == false)
+	if (indexDirectory.mkdirs() == false)
 	  {
 	    throw new BSPIndexCreateException
-              ("unable to create index directory: " + this.indexParentDirectoryPath + 
-               File.separator + this.indexname);
+              ("unable to create index directory: " + this.getIndexDirectoryPath());
 	  }
       }
     dictDataFormat.add(binFormats.get("PTR"));
-    postingsWriter = new FileRunLengthPostingsWriter 
-      (indexParentDirectoryPath + File.separator + this.indexname );
+    if (this.useMappedByteBuffer) {
+      postingsWriter = new NioRunLengthPostingsWriter
+	(this.getIndexDirectoryPath(), postingsFilename(segment));
+    } else {
+      postingsWriter = new FileRunLengthPostingsWriter 
+	(this.getIndexDirectoryPath(), postingsFilename(segment));
+    }
     PrintWriter statfp = new PrintWriter
-      (new BufferedWriter(new FileWriter( indexParentDirectoryPath + File.separator +
-					  this.indexname + File.separator + "partition.stats")));
+      (new BufferedWriter(new FileWriter( this.getIndexDirectoryPath() + File.separator + "partition.stats")));
     statfp.println( "# " + this.indexname + File.separator + "partition.log -- bsp_map.tcl status file" );
     statfp.println( "# total number of terms: " + this.wordnum );
     statfp.println( "#" );
@@ -339,8 +508,7 @@ public class InvertedFile implements Serializable
     statfp.println( "#  partition_filename termlen nterms" );
 
     PrintWriter rcfp = new PrintWriter
-      (new BufferedWriter(new FileWriter( indexParentDirectoryPath + File.separator +
-					  this.indexname + File.separator + "mapinforc.tcl")));
+      (new BufferedWriter(new FileWriter( this.getIndexDirectoryPath() + File.separator + "mapinforc.tcl")));
     rcfp.println( "# Tcl rc file for bsp_map." );
     rcfp.println( "#" );
     rcfp.println( "# record format:" );
@@ -362,16 +530,25 @@ public class InvertedFile implements Serializable
 	String key = iter.next();
 	Map<String,Integer> map = hashlist.get(key);
 	
-	this.buildInvertedFile(dictDataFormat, map, key, postingsWriter);
-	int keylength = 0;
-	Iterator<String> mapIter = map.keySet().iterator();
-	if (mapIter.hasNext()) {
-	  keylength = (mapIter.next()).length();
+	if (segment == 0) {
+	  this.partitionSegments.remove(key);
+	} else {
+	  this.partitionSegments.put(key, new Integer(segment));
 	}
-	statfp.println( "partition_" + key + " " + 
-			keylength + " " + map.size());
+	this.buildInvertedFile(dictDataFormat, map, key, postingsWriter, phase, termsDone);
+	termsDone = termsDone + map.size();
+      }
+    // list all partitions of index, including those in earlier segments.
+    Iterator<String> partitionIter = new TreeSet<String>(this.numrecs.keySet()).iterator();
+    while (partitionIter.hasNext())
+      {
+	String key = partitionIter.next();
+	int keylength = Integer.parseInt(key.substring(this.indexname.length()));
+	int nterms = (this.numrecs.get(key)).intValue();
+	statfp.println( this.partitionFilename(key) + " " + 
+			keylength + " " + nterms);
 	rcfp.println( "bsp_map::partition " + this.indexname + " " +
-		      keylength + " partition_" + key + " " + map.size());
+		      keylength + " " + this.partitionFilename(key) + " " + nterms);
       }
     
     postingsWriter.close();
@@ -379,20 +556,65 @@ public class InvertedFile implements Serializable
     rcfp.close();
     // we've gotten this far, assume we have a valid index.
     this.valid = true;
+    this.lastSegment = segment;
     if (this.verbose) {
       System.out.println("Index info: \n" + this);
     }
+    long indexBytes = 0;
+    if (phase != null) {
+      for (BuildProfile.Partition partition: this.buildProfile.getPartitions()) {
+	indexBytes = indexBytes + partition.getBytesWritten();
+      }
+      phase.end(termsDone, indexBytes);
+    }
     /* serialize info on object to indexname/<Canonical Serialized Name> */
-    FileOutputStream ostream = 
-      new FileOutputStream(this.indexParentDirectoryPath + File.separator + this.indexname +
-			   File.separator + canonicalSerializedName);
+    long serializeStart = metrics.isEnabled() ? System.nanoTime() : 0L;
+    BuildProfile.Phase serializePhase =
+      this.buildProfile != null ? this.buildProfile.beginPhase("serialize", 0) : null;
+    this.writeSerializedInfo();
+    if (serializePhase != null) {
+      serializePhase.end(1, new File(this.getIndexDirectoryPath() +
+				     File.separator + canonicalSerializedName).length());
+      this.buildProfile.writeJson(new File(this.getIndexDirectoryPath() +
+					   File.separator + BuildProfile.FILENAME));
+    }
+    if (segment == 0 && this.generation != null) {
+      // switch readers to new generation.
+      writeCurrentGeneration(this.getBaseDirectory(), this.generation);
+      this.removeOldGenerations
+	(Integer.parseInt(System.getProperty("ifbuild.generations.keep", "2")));
+    }
+    if (metrics.isEnabled()) {
+      metrics.buildPhase(this.indexname, "serialize", System.nanoTime() - serializeStart, 1);
+      metrics.buildPhase(this.indexname, "create", System.nanoTime() - start, this.wordnum);
+    }
+    }
+
+  /**
+   * Serialize info on object to indexname/&lt;Canonical Serialized
+   * Name&gt;.  Writes to a temporary file, then replaces serialized
+   * index in one step: readers see either the previous set of
+   * partitions or the new one.
+   * @exception IOException if an error occurs
+   */
+  void writeSerializedInfo()
+    throws IOException
+  {
+    File serializedFile =
+      new File(this.getIndexDirectoryPath() +
+	       File.separator + canonicalSerializedName);
+    File tempSerializedFile = new File(serializedFile.getPath() + ".tmp");
+    FileOutputStream ostream = new FileOutputStream(tempSerializedFile);
     ObjectOutputStream p = new ObjectOutputStream(ostream);
     
     p.writeObject(this);
     p.flush();
+    ostream.getFD().sync();
     p.close();
     ostream.close();
-    }
+    Files.move(tempSerializedFile.toPath(), serializedFile.toPath(),
+	       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
 
   /**
    * Build index in inverted file organization.
@@ -400,25 +622,40 @@ public class InvertedFile implements Serializable
    * @param aTermMap    Map containing key/value pairs to be stored in index.
    * @param partitionId     partition identifier.
    * @param postingsWriter  postings file writer.
+   * @param phase     build profile phase to record progress in, null if not profiling.
+   * @param termsDone number of terms in previously built partitions.
    */
   private void buildInvertedFile( List<String> dataFormat, 
 				  Map<String,Integer> aTermMap, 
 				  String partitionId,
-				  RunLengthPostingsWriter postingsWriter)
+				  RunLengthPostingsWriter postingsWriter,
+				  BuildProfile.Phase phase,
+				  long termsDone)
     throws IOException
   {
     int nextpost = 0;
-    TemporaryPostingsPool pool = new TemporaryPostingsPool(this.indexname + "_tposts", "r");
+    long postingsCount = 0;
+    long postingsBytes = 0;
+    int keylength = 0;
+    IndexMetrics metrics = this.getMetrics();
+    long start = (metrics.isEnabled() || phase != null) ? System.nanoTime() : 0L;
+    boolean profiling = phase != null;
+    BuildProfile.Section walkSection = null;
+    BuildProfile.Section writeSection = null;
+    if (profiling) {
+      walkSection = this.buildProfile.section("create.chain_walk");
+      writeSection = this.buildProfile.section("create.postings_write");
+    }
+    long t0 = 0, t1 = 0;
+    TemporaryPostingsPool pool = new TemporaryPostingsPool(this.temporaryPostingsFilename(), "r");
     DiskBasedBinSearchMap intPartition;
     if (this.useMappedByteBuffer) {
     intPartition = 
-      new NioDictionaryBinSearchMap ( indexParentDirectoryPath + File.separator +
-				   this.indexname + File.separator + "partition_" + partitionId, 
+      new NioDictionaryBinSearchMap ( this.getIndexDirectoryPath() + File.separator + this.partitionFilename(partitionId), 
 				   BinSearchMap.WRITE );
     } else {
       intPartition = 
-	new DictionaryBinSearchMap ( indexParentDirectoryPath + File.separator +
-				   this.indexname + File.separator + "partition_" + partitionId, 
+	new DictionaryBinSearchMap ( this.getIndexDirectoryPath() + File.separator + this.partitionFilename(partitionId), 
 				   BinSearchMap.WRITE );
     }
     Iterator<String> keyIter = aTermMap.keySet().iterator();
@@ -433,24 +670,44 @@ public class InvertedFile implements Serializable
       if (this.verbose) {
 	System.out.println("postings size: " + postings.size());
       }
+      // count postings while writing them, size() walks the chain in the pool.
+      int termPostings = 0;
       Iterator<String> postingIter = postings.iterator();
-      if (postingIter.hasNext()) 
+      while (true)
 	{
+	  if (profiling) {
+	    t0 = System.nanoTime();
+	  }
+	  if (! postingIter.hasNext()) {
+	    break;
+	  }
 	  String dataRecord = postingIter.next();
-	  if (this.verbose) {
+	  if (profiling) {
+	    t1 = System.nanoTime();
+	    walkSection.add(t1 - t0);
+	  }
+	  if (this.verbose && termPostings == 0) {
 	    System.out.println("dataRecord: " + dataRecord);
 	  }
 	  // write posting
-	  nextpost = postingsWriter.writeString(dataRecord);
-	  while (postingIter.hasNext()) 
-	    {
-	      dataRecord = postingIter.next();
-	      // write posting
-	      postingsWriter.writeString(dataRecord);
-	    }
+	  int address = postingsWriter.writeString(dataRecord);
+	  if (termPostings == 0) {
+	    nextpost = address;
+	  }
+	  termPostings++;
+	  if (profiling) {
+	    writeSection.add(System.nanoTime() - t1);
+	    postingsBytes = postingsBytes + 4 + dataRecord.length();
+	  }
 	}
       // write dictionary entry
-      intPartition.writeEntry(termKey, postings.size(), nextpost);
+      intPartition.writeEntry(termKey, termPostings, nextpost);
+      postingsCount = postingsCount + termPostings;
+      keylength = termKey.length();
+      if (profiling) {
+	this.buildProfile.addPostingsList(partitionId, termKey, termPostings);
+	phase.progress(++termsDone, termsDone);
+      }
     }
     synchronized (this.numrecs) {
       this.numrecs.put(partitionId, new Integer(intPartition.getNumberOfRecords()));
@@ -460,39 +717,540 @@ public class InvertedFile implements Serializable
     }
     intPartition.close();
     pool.close();
+    if (profiling) {
+      // dictionary records: term, postings count, address.
+      long dictionaryBytes = (long)aTermMap.size() * (keylength + 8);
+      this.buildProfile.addPartition(partitionId, aTermMap.size(), postingsCount,
+				     postingsBytes + dictionaryBytes, System.nanoTime() - start);
+    }
+    if (metrics.isEnabled()) {
+      metrics.partitionBuilt(this.indexname, partitionId, System.nanoTime() - start,
+			     aTermMap.size(), postingsCount);
+    }
   }
 
   /**
    * If modification time of table file is later than index then rebuild index
-   * using lisp file. See method "create".
+   * using lisp file. See method "create".  If property
+   * <code>ifbuild.incremental</code> is true, only rebuild partitions
+   * whose rows have changed, see updateIncremental().
    * @exception IOException if an error occurs
    * @exception BSPIndexCreateException if an error occurs
    */
   public void update()
     throws IOException, BSPIndexCreateException
   {
-    String indexDir = this.indexParentDirectoryPath + File.separator + this.indexname;
+    String indexDir = this.getIndexDirectoryPath();
     if (this.verbose) {
       System.out.println("updating index: " + this.indexname );
     }
     File tablefile = new File(this.tablefilename);
     File mapfile = new File(indexDir);
+    // the serialized index is written last, its modification time is
+    // that of the build.
+    File infofile = new File(indexDir + File.separator + canonicalSerializedName);
+    long indexModified = infofile.exists() ? infofile.lastModified() : mapfile.lastModified();
     if (this.verbose) {
       System.out.println("mapfile.exists(): " + mapfile.exists());
     }
     if (mapfile.exists() == false ||
-	tablefile.lastModified() > mapfile.lastModified())  {
+	tablefile.lastModified() > indexModified)  {
+      if (mapfile.exists() &&
+	  Boolean.parseBoolean(System.getProperty("ifbuild.incremental", "false"))) {
+	this.updateIncremental();
+	return;
+      }
       if (this.hashlist == null) 
 	{
 	  this.hashlist = new HashMap<String,Map<String,Integer>>(5);
 	}
       this.load_map();
       this.create();
+      this.removeUnusedSegments();
     } else if (mapfile.isFile())  {
 	throw new IOException("file " + indexname + " is not a directory!");
     } 
   } // InvertedFile.update
 
+  /**
+   * Rebuild only the partitions whose table rows have changed since
+   * the index was built.  The table is read once to compute the
+   * fingerprint of each partition, then again to load the rows of the
+   * changed partitions, which are written to a new postings segment.
+   * Does a full rebuild if the index has no fingerprints (was built
+   * before they were recorded) or if the number of incremental segments
+   * has reached property <code>ifbuild.compact.segments</code>
+   * (default: 8).
+   * @return names of rebuilt partitions, including removed partitions.
+   * @exception IOException if an error occurs
+   * @exception BSPIndexCreateException if an error occurs
+   */
+  public Set<String> updateIncremental()
+    throws IOException, BSPIndexCreateException
+  {
+    int compactSegments =
+      Integer.parseInt(System.getProperty("ifbuild.compact.segments", "8"));
+    if (this.valid == false || this.partitionFingerprints == null ||
+	this.lastSegment >= compactSegments) {
+      this.compact();
+      return new TreeSet<String>(this.numrecs.keySet());
+    }
+    long[] rows = new long[1];
+    long tableLength = new File(this.tablefilename).length();
+    Map<String,String> fingerprints = this.fingerprintTable(rows);
+    Set<String> changed = new TreeSet<String>();
+    for (Map.Entry<String,String> entry: fingerprints.entrySet()) {
+      if (! entry.getValue().equals(this.partitionFingerprints.get(entry.getKey()))) {
+	changed.add(entry.getKey());
+      }
+    }
+    Set<String> removed = new TreeSet<String>(this.numrecs.keySet());
+    removed.removeAll(fingerprints.keySet());
+    if (this.verbose) {
+      System.out.println("changed partitions: " + changed + ", removed partitions: " + removed);
+    }
+    if (changed.isEmpty() && removed.isEmpty()) {
+      // table was touched but not changed, don't check it again.
+      new File(this.getIndexDirectoryPath() +
+	       File.separator + canonicalSerializedName).setLastModified(System.currentTimeMillis());
+      return changed;
+    }
+    for (String partitionId: removed) {
+      this.numrecs.remove(partitionId);
+      this.dataLength.remove(partitionId);
+      if (this.partitionSegments != null) {
+	this.partitionSegments.remove(partitionId);
+      }
+    }
+    this.hashlist = new TreeMap<String,Map<String,Integer>>();
+    this.load_map(changed);
+    this.wordnum = (int)rows[0];
+    this.tableEnd = tableLength;
+    this.partitionFingerprints = fingerprints;
+    // drop open files of replaced partitions.
+    this.release();
+    this.create(this.lastSegment + 1);
+    this.hashlist = new TreeMap<String,Map<String,Integer>>();
+    changed.addAll(removed);
+    return changed;
+  }
+
+  /**
+   * Rebuild the whole index into postings segment 0 and remove the
+   * files of incremental segments.  Other processes with the index
+   * open must reopen it afterwards.
+   * @exception IOException if an error occurs
+   * @exception BSPIndexCreateException if an error occurs
+   */
+  public void compact()
+    throws IOException, BSPIndexCreateException
+  {
+    this.release();
+    this.hashlist = new TreeMap<String,Map<String,Integer>>();
+    this.load_map();
+    this.create();
+    this.removeUnusedSegments();
+  }
+
+  /**
+   * Remove files of incremental postings segments no longer referenced by index.
+   */
+  void removeUnusedSegments()
+  {
+    File indexDirectory = new File(this.getIndexDirectoryPath());
+    Set<String> inUse = new HashSet<String>();
+    for (String partitionId: this.numrecs.keySet()) {
+      inUse.add(this.partitionFilename(partitionId));
+      inUse.add(postingsFilename(this.partitionSegment(partitionId)));
+    }
+    File[] files = indexDirectory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file: files) {
+      String name = file.getName();
+      if ((name.startsWith("partition_") || name.startsWith("postings.")) &&
+	  name.matches(".*\\.[0-9]+") && (! inUse.contains(name))) {
+	if (this.verbose) {
+	  System.out.println("removing unused segment file: " + file);
+	}
+	file.delete();
+      }
+    }
+  }
+
+  /**
+   * Read table computing fingerprint of the rows of each partition.
+   * @param rows array of one element receiving number of rows read.
+   * @return map of partition name to fingerprint.
+   */
+  Map<String,String> fingerprintTable(long[] rows)
+    throws FileNotFoundException, IOException
+  {
+    Map<String,MessageDigest> digests = new TreeMap<String,MessageDigest>();
+    String line;
+    String key = null;
+    BufferedReader reader = new BufferedReader(new FileReader(this.tablefilename));
+    while ((line = reader.readLine()) != null) {
+      rows[0]++;
+      if (line.trim().length() > 0) {
+	List<String> lineList = utils.StringUtils.split(line, "|");
+	if (lineList.size() > 0) {
+	  key = this.rowKey(lineList);
+	}
+      }
+      updateFingerprint(digests, this.indexname + key.length(), line);
+    }
+    reader.close();
+    return fingerprints(digests);
+  }
+
+  /** @return name of temporary postings file used during build. */
+  String temporaryPostingsFilename()
+  {
+    if (this.temporaryPostingsFilename != null) {
+      return this.temporaryPostingsFilename;
+    }
+    return this.indexname + "_tposts";
+  }
+
+  /**
+   * @param lineList fields of table row.
+   * @return key of row: key columns concatenated.
+   */
+  String rowKey(List<String> lineList)
+  {
+    if (this.keyIndices == null || 
+	(this.keyIndices.size() == 1 && 
+	 (this.keyIndices.get(0)).intValue() == 0)) {
+      if (invfLowerCaseKeys) {
+	return lineList.get(0).toLowerCase();
+      } else {
+	return lineList.get(0);
+      }
+    } else {
+      StringBuffer strBuf = new StringBuffer();
+      for (int j = 0; j < keyIndices.size(); j++) {
+	int col = keyIndices.get(j).intValue();
+	if (invfLowerCaseKeys) {
+	  strBuf.append(lineList.get(col).toLowerCase());
+	} else {
+	  strBuf.append(lineList.get(col));
+	}
+      }
+      return strBuf.toString();
+    }
+  }
+
+  /**
+   * Add table row to fingerprint of partition.
+   * @param digests     map of partition name to digest.
+   * @param partitionId name of partition
+   * @param line        table row
+   */
+  static void updateFingerprint(Map<String,MessageDigest> digests, String partitionId, String line)
+  {
+    MessageDigest digest = digests.get(partitionId);
+    if (digest == null) {
+      try {
+	digest = MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException exception) {
+	// every Java platform is required to support MD5
+	throw new IllegalStateException(exception.getMessage());
+      }
+      digests.put(partitionId, digest);
+    }
+    digest.update(line.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte)'\n');
+  }
+
+  /**
+   * @param digests map of partition name to digest.
+   * @return map of partition name to fingerprint (hex digest).
+   */
+  static Map<String,String> fingerprints(Map<String,MessageDigest> digests)
+  {
+    Map<String,String> fingerprintMap = new TreeMap<String,String>();
+    for (Map.Entry<String,MessageDigest> entry: digests.entrySet()) {
+      StringBuilder sb = new StringBuilder();
+      for (byte b: entry.getValue().digest()) {
+	sb.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+      }
+      fingerprintMap.put(entry.getKey(), sb.toString());
+    }
+    return fingerprintMap;
+  }
+
+  /** @return index directory: parent directory + index name. */
+  File getBaseDirectory()
+  {
+    return new File(this.indexParentDirectoryPath + File.separator + this.indexname);
+  }
+
+  /**
+   * @return directory containing files of index: generation directory,
+   *         or index directory if index has no generations.
+   */
+  public String getIndexDirectoryPath()
+  {
+    if (this.generation == null) {
+      return this.indexParentDirectoryPath + File.separator + this.indexname;
+    }
+    return this.indexParentDirectoryPath + File.separator + this.indexname +
+      File.separator + this.generation;
+  }
+
+  /**
+   * Deserialize current generation of index.  The table filename must
+   * be set by the caller before the index is updated.
+   * @param indexParentDirectoryPath parent directory of index
+   * @param indexname name of index
+   * @return index, null if index has not been built.
+   * @exception IOException if an error occurs
+   */
+  public static InvertedFile readSerialized(String indexParentDirectoryPath, String indexname)
+    throws IOException
+  {
+    String generation =
+      readCurrentGeneration(new File(indexParentDirectoryPath + File.separator + indexname));
+    File serializedInfo =
+      new File(indexParentDirectoryPath + File.separator + indexname +
+	       (generation == null ? "" : File.separator + generation) +
+	       File.separator + canonicalSerializedName);
+    if (! serializedInfo.exists()) {
+      return null;
+    }
+    ObjectInputStream istream =
+      new ObjectInputStream(new BufferedInputStream(new FileInputStream(serializedInfo)));
+    InvertedFile index;
+    try {
+      index = (InvertedFile)istream.readObject();
+    } catch (ClassNotFoundException exception) {
+      throw new IOException(exception.getMessage());
+    } finally {
+      istream.close();
+    }
+    index.indexParentDirectoryPath = indexParentDirectoryPath;
+    index.generation = generation;
+    return index;
+  }
+
+  /** @return generation directory name of index, null if index has no generations. */
+  public String getGeneration()
+  {
+    return this.generation;
+  }
+
+  /**
+   * @param indexDirectory index directory
+   * @return name of current generation directory, null if index has no generations.
+   * @exception IOException if an error occurs
+   */
+  public static String readCurrentGeneration(File indexDirectory)
+    throws IOException
+  {
+    File currentFile = new File(indexDirectory, CURRENT_GENERATION_FILENAME);
+    if (! currentFile.exists()) {
+      return null;
+    }
+    BufferedReader reader = new BufferedReader(new FileReader(currentFile));
+    try {
+      String line = reader.readLine();
+      return line == null ? null : line.trim();
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Atomically replace name of current generation.
+   * @param indexDirectory index directory
+   * @param generation     name of generation directory
+   */
+  static void writeCurrentGeneration(File indexDirectory, String generation)
+    throws IOException
+  {
+    File currentFile = new File(indexDirectory, CURRENT_GENERATION_FILENAME);
+    File tempFile = new File(indexDirectory, CURRENT_GENERATION_FILENAME + ".tmp");
+    FileOutputStream ostream = new FileOutputStream(tempFile);
+    ostream.write((generation + "\n").getBytes(StandardCharsets.UTF_8));
+    ostream.getFD().sync();
+    ostream.close();
+    Files.move(tempFile.toPath(), currentFile.toPath(),
+	       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @param name file name
+   * @return generation number of generation directory name, -1 if not a generation.
+   */
+  static int generationNumber(String name)
+  {
+    if (name.startsWith(GENERATION_PREFIX)) {
+      try {
+	return Integer.parseInt(name.substring(GENERATION_PREFIX.length()));
+      } catch (NumberFormatException exception) {
+	return -1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param indexDirectory index directory
+   * @return highest generation number in index directory, 0 if none.
+   */
+  static int lastGeneration(File indexDirectory)
+  {
+    int last = 0;
+    String[] names = indexDirectory.list();
+    if (names != null) {
+      for (String name: names) {
+	last = Math.max(last, generationNumber(name));
+      }
+    }
+    return last;
+  }
+
+  /** generation directories with handles acquired in this process, number of handles by path */
+  static final Map<String,Integer> openGenerations = new HashMap<String,Integer>();
+  /** generation directories removed while open, deleted when their last handle is released */
+  static final Set<String> removedGenerations = new HashSet<String>();
+
+  static String generationKey(File generationDirectory)
+  {
+    return generationDirectory.getAbsoluteFile().toPath().normalize().toString();
+  }
+
+  /**
+   * Record handle acquired on generation, see InvertedFileHandle.
+   * @param generationDirectory generation directory
+   */
+  static synchronized void generationOpened(File generationDirectory)
+  {
+    String key = generationKey(generationDirectory);
+    Integer handles = openGenerations.get(key);
+    openGenerations.put(key, handles == null ? 1 : handles + 1);
+  }
+
+  /**
+   * Record release of handle on generation, removing the generation
+   * if it was removed while open and this was its last handle.
+   * @param generationDirectory generation directory
+   */
+  static synchronized void generationReleased(File generationDirectory)
+  {
+    String key = generationKey(generationDirectory);
+    Integer handles = openGenerations.get(key);
+    if (handles == null) {
+      return;
+    }
+    if (handles > 1) {
+      openGenerations.put(key, handles - 1);
+      return;
+    }
+    openGenerations.remove(key);
+    if (removedGenerations.remove(key)) {
+      LiveInvertedFile.deleteTree(generationDirectory);
+    }
+  }
+
+  /**
+   * Delete generation directory, or defer deletion until the last
+   * handle on it in this process is released.
+   * @param generationDirectory generation directory
+   * @return false if deletion was deferred.
+   */
+  static synchronized boolean removeGeneration(File generationDirectory)
+  {
+    String key = generationKey(generationDirectory);
+    if (openGenerations.containsKey(key)) {
+      removedGenerations.add(key);
+      return false;
+    }
+    LiveInvertedFile.deleteTree(generationDirectory);
+    return true;
+  }
+
+  /**
+   * Remove all but the most recent generations, and files of an index
+   * built without generations once there are enough generations.  A
+   * generation still open by handles in this process is removed when
+   * its last handle is released.
+   * @param keep number of generations to keep.
+   */
+  void removeOldGenerations(int keep)
+  {
+    File indexDirectory = this.getBaseDirectory();
+    File[] files = indexDirectory.listFiles();
+    if (files == null) {
+      return;
+    }
+    int current = generationNumber(this.generation);
+    keep = Math.max(keep, 1);
+    for (File file: files) {
+      int number = generationNumber(file.getName());
+      String name = file.getName();
+      boolean old;
+      if (number >= 0) {
+	old = number <= current - keep;
+      } else {
+	// files of index built without generations.
+	old = current >= keep &&
+	  (name.equals(canonicalSerializedName) || name.equals("partition.stats") ||
+	   name.equals("mapinforc.tcl") || name.equals(BuildProfile.FILENAME) ||
+	   name.startsWith("partition_") || name.startsWith("postings") ||
+	   name.startsWith(LiveInvertedFile.SEGMENT_PREFIX));
+      }
+      if (old) {
+	if (number >= 0) {
+	  boolean removed = removeGeneration(file);
+	  if (this.verbose) {
+	    System.out.println((removed ? "removing old generation: " :
+				"removing old generation when its handles are closed: ") + file);
+	  }
+	} else {
+	  if (this.verbose) {
+	    System.out.println("removing old generation: " + file);
+	  }
+	  LiveInvertedFile.deleteTree(file);
+	}
+      }
+    }
+  }
+
+  /**
+   * @param partitionId name of partition
+   * @return postings segment containing partition.
+   */
+  int partitionSegment(String partitionId)
+  {
+    if (this.partitionSegments == null) {
+      return 0;
+    }
+    Integer segment = this.partitionSegments.get(partitionId);
+    return segment == null ? 0 : segment.intValue();
+  }
+
+  /**
+   * @param partitionId name of partition
+   * @return filename of partition's dictionary in index directory.
+   */
+  String partitionFilename(String partitionId)
+  {
+    int segment = this.partitionSegment(partitionId);
+    return segment == 0 ? "partition_" + partitionId : "partition_" + partitionId + "." + segment;
+  }
+
+  /**
+   * @param segment postings segment
+   * @return filename of postings segment in index directory.
+   */
+  static String postingsFilename(int segment)
+  {
+    return segment == 0 ? "postings" : "postings." + segment;
+  }
+
 
   /**
    * setup newly read serialized index.
@@ -507,6 +1265,9 @@ public class InvertedFile implements Serializable
     if ( this.partitionFiles == null ) {
       this.partitionFiles = new HashMap<String,Object>(4);
     }
+    if ( this.postingsFiles == null ) {
+      this.postingsFiles = new HashMap<Integer,Object>(2);
+    }
   }
 
   /**
@@ -535,10 +1296,6 @@ public class InvertedFile implements Serializable
   public BSPTuple<List<String>> lookup(String targetWord, boolean loadAllData)
     throws FileNotFoundException, IOException
   {
-    RandomAccessFile dictionaryRAFFile;
-    MappedByteBuffer dictionaryByteBuffer = null;
-    File dictionaryFile;
-    DictionaryEntry entry;
     String word;
     if (this.invfLowerCaseKeys) {
       word = targetWord.toLowerCase();
@@ -547,6 +1304,156 @@ public class InvertedFile implements Serializable
     }
     String keyLength = new Integer (word.length()).toString();
     String key = this.indexname + keyLength;
+    IndexMetrics metrics = this.getMetrics();
+    if (! metrics.isEnabled()) {
+      return this.lookup(word, key, loadAllData, metrics);
+    }
+    long start = System.nanoTime();
+    try {
+      BSPTuple<List<String>> result = this.lookup(word, key, loadAllData, metrics);
+      List<String> postings = result.getValue();
+      metrics.lookup(this.indexname, key, word.length(), this.useMappedFile,
+		     System.nanoTime() - start, postings.size(), postingsByteLength(postings));
+      return result;
+    } catch (IOException exception) {
+      metrics.lookupFailed(this.indexname, key);
+      throw exception;
+    }
+  }
+
+  /**
+   * Look up word in index without blocking the calling thread.
+   * <p>
+   * The dictionary probes and the postings read are chained reads on
+   * AsynchronousFileChannels sharing a small I/O executor (see
+   * AsyncFileReader), so outstanding lookups don't occupy threads.
+   * Postings are loaded completely.  Unlike lookup(), lookupAsync()
+   * may be called from several threads at once.  If the index uses
+   * mapped files the lookup is done in the calling thread, which does
+   * not block on disk reads.
+   * </p>
+   * @param targetWord word to lookup in index.
+   * @return future of postings of word, empty if word is not in index.
+   */
+  public CompletableFuture<List<String>> lookupAsync(String targetWord)
+  {
+    final String word = this.invfLowerCaseKeys ? targetWord.toLowerCase() : targetWord;
+    final String key = this.indexname + word.length();
+    final IndexMetrics metrics = this.getMetrics();
+    if (this.useMappedFile) {
+      try {
+	synchronized (this) {
+	  return CompletableFuture.completedFuture(this.lookup(word, true).getValue());
+	}
+      } catch (IOException exception) {
+	return AsyncFileReader.failed(exception);
+      }
+    }
+    Integer records = this.numrecs.get(key);
+    if (records == null) {
+      return CompletableFuture.completedFuture((List<String>)new ArrayList<String>(0));
+    }
+    final long start = metrics.isEnabled() ? System.nanoTime() : 0L;
+    final AsynchronousFileChannel dictionaryChannel;
+    final AsynchronousFileChannel postingsChannel;
+    try {
+      AsyncFileReader reader = this.getAsyncReader();
+      dictionaryChannel =
+	reader.channel(this.getIndexDirectoryPath() + File.separator + this.partitionFilename(key));
+      if (dictionaryChannel == null) {
+	return CompletableFuture.completedFuture((List<String>)new ArrayList<String>(0));
+      }
+      postingsChannel =
+	reader.channel(this.getIndexDirectoryPath() + File.separator +
+		       postingsFilename(this.partitionSegment(key)));
+      if (postingsChannel == null) {
+	throw new FileNotFoundException("missing postings of partition " + key);
+      }
+    } catch (IOException exception) {
+      if (metrics.isEnabled()) {
+	metrics.lookupFailed(this.indexname, key);
+      }
+      return AsyncFileReader.failed(exception);
+    }
+    CompletableFuture<List<String>> result =
+      AsyncFileReader.dictionaryBinarySearch(dictionaryChannel, word, word.length(), 8,
+					     records.intValue(), false)
+      .thenCompose(entry -> {
+	  if (entry == null) {
+	    return CompletableFuture.completedFuture((List<String>)new ArrayList<String>(0));
+	  }
+	  return AsyncFileReader.readPostings(postingsChannel, entry.getAddress(),
+					      (int)entry.getNumberOfPostings());
+	});
+    if (metrics.isEnabled()) {
+      result = result.whenComplete((postings, throwable) -> {
+	  if (throwable != null) {
+	    metrics.lookupFailed(this.indexname, key);
+	  } else {
+	    metrics.lookup(this.indexname, key, word.length(), false,
+			   System.nanoTime() - start, postings.size(), postingsByteLength(postings));
+	  }
+	});
+    }
+    return result;
+  }
+
+  /**
+   * Look up several words without blocking the calling thread, see
+   * lookupAsync(String).  All lookups are issued at once.
+   * @param words words to look up.
+   * @return future of map of each word to its postings, in order of words.
+   */
+  public CompletableFuture<Map<String,List<String>>> lookupAsync(Collection<String> words)
+  {
+    final Map<String,CompletableFuture<List<String>>> lookups =
+      new LinkedHashMap<String,CompletableFuture<List<String>>>();
+    for (String word: words) {
+      if (! lookups.containsKey(word)) {
+	lookups.put(word, this.lookupAsync(word));
+      }
+    }
+    return CompletableFuture.allOf(lookups.values().toArray(new CompletableFuture<?>[lookups.size()]))
+      .thenApply(ignored -> {
+	  Map<String,List<String>> result = new LinkedHashMap<String,List<String>>();
+	  for (Map.Entry<String,CompletableFuture<List<String>>> entry: lookups.entrySet()) {
+	    result.put(entry.getKey(), entry.getValue().join());
+	  }
+	  return result;
+	});
+  }
+
+  /** @return reader of asynchronous lookups, created on first use. */
+  AsyncFileReader getAsyncReader()
+  {
+    AsyncFileReader reader = this.asyncReader;
+    if (reader == null) {
+      synchronized (this) {
+	reader = this.asyncReader;
+	if (reader == null) {
+	  reader = new AsyncFileReader();
+	  this.asyncReader = reader;
+	}
+      }
+    }
+    return reader;
+  }
+
+  /**
+   * Look up word in partition.
+   * @param word word to lookup in index.
+   * @param key  partition key: indexname + word length.
+   * @param loadAllData if true then load all the data.
+   * @param metrics metrics to report partition opens to.
+   * @return tuple containing key/value pair, value is empty if key not found.
+   */
+  private BSPTuple<List<String>> lookup(String word, String key, boolean loadAllData,
+					IndexMetrics metrics)
+    throws FileNotFoundException, IOException
+  {
+    RandomAccessFile dictionaryRAFFile;
+    MappedByteBuffer dictionaryByteBuffer = null;
+    DictionaryEntry entry;
     List<String> postings;
     // if (this.verbose) {
     //   System.out.println("lookup(): verbose mode is " + this.verbose);
@@ -560,9 +1467,8 @@ public class InvertedFile implements Serializable
       else 
 	{
 	  File partitionFile = 
-	    new File ( indexParentDirectoryPath + File.separator +
-		       indexname + File.separator +
-		       "partition_" + key );
+	    new File ( this.getIndexDirectoryPath() + File.separator +
+		       this.partitionFilename(key) );
 	  if (partitionFile.exists()) {
 	    FileChannel dictionaryFileChannel = 
 	      new FileInputStream(partitionFile).getChannel();
@@ -571,6 +1477,9 @@ public class InvertedFile implements Serializable
 	      dictionaryFileChannel.map(FileChannel.MapMode.READ_ONLY, 0, sz);
 	    this.partitionFiles.put(key, dictionaryByteBuffer);
 	    dictionaryFileChannel.close();
+	    if (metrics.isEnabled()) {
+	      metrics.partitionOpened(this.indexname, key);
+	    }
 	  } else {
 	    // partition doesn't exist.
 	    return new BSPTuple<List<String>>(word, new ArrayList<String>(0));
@@ -594,10 +1503,13 @@ public class InvertedFile implements Serializable
 	else 
 	  {
 	    dictionaryRAFFile = 
-	      new RandomAccessFile ( indexParentDirectoryPath + File.separator +
-				     indexname + File.separator + "partition_" + key, "r" );
+	      CachedRandomAccessFile.open(this.blockCache,
+					  this.getIndexDirectoryPath() + File.separator + this.partitionFilename(key));
 	    
 	    this.partitionFiles.put(key, dictionaryRAFFile);
+	    if (metrics.isEnabled()) {
+	      metrics.partitionOpened(this.indexname, key);
+	    }
 	  } 
 	entry = 
 	  DiskBinarySearch.dictionaryBinarySearch(dictionaryRAFFile, word, word.length(), 
@@ -611,48 +1523,55 @@ public class InvertedFile implements Serializable
     }
     long count = entry.getNumberOfPostings();
     long address = entry.getAddress();
+    int segment = this.partitionSegment(key);
+    if (this.postingsFiles == null) {
+      this.postingsFiles = new HashMap<Integer,Object>(2);
+    }
     // if (this.verbose) {
     //   System.out.println("lookup(): postings count : " + count);
     //   System.out.println("lookup(): address : " + address);
     // }
     if (useMappedFile) {
-      if ( this.postingsByteBuffer == null ) {
+      MappedByteBuffer postingsByteBuffer = (MappedByteBuffer)this.postingsFiles.get(segment);
+      if ( postingsByteBuffer == null ) {
 	FileChannel postingsFileChannel = 
-	  (new FileInputStream( new File ( indexParentDirectoryPath + 
-					   File.separator + indexname +
-					   File.separator + "postings"))).getChannel();
+	  (new FileInputStream( new File ( this.getIndexDirectoryPath() +
+					   File.separator + postingsFilename(segment)))).getChannel();
 	int sz = (int)postingsFileChannel.size();
 	if (this.verbose) {
 	  System.out.println("lookup(): mapping buffer of size: " + sz);
 	}
 	try {
-	  this.postingsByteBuffer =
+	  postingsByteBuffer =
 	    postingsFileChannel.map(FileChannel.MapMode.READ_ONLY, 0, sz);
 	} catch (IOException exception) {
 	  System.err.println("Exception mapping postings buffer of size: " + sz );
 	  throw exception;
 	}
+	this.postingsFiles.put(segment, postingsByteBuffer);
 	// postingsFileChannel.close();
       }
       if (loadAllData)
 	{
 	  postings = new ArrayList<String>((int)count);
-	  this.postingsByteBuffer.position((int)address);
+	  postingsByteBuffer.position((int)address);
 	  for (int i = 0; i < count; i++)
 	    {
-	      int postingsLen = this.postingsByteBuffer.getInt();
+	      int postingsLen = postingsByteBuffer.getInt();
 	      byte[] databuf = new byte[postingsLen];
-	      this.postingsByteBuffer.get(databuf);
+	      postingsByteBuffer.get(databuf);
 	      postings.add(new String(databuf));
 	    }
 	} else {
-	postings = new MappedPostingsList(this.postingsByteBuffer, (int)address, (int)count);
+	postings = new MappedPostingsList(postingsByteBuffer, (int)address, (int)count);
       }
     } else {
-      if ( this.postingsFile == null ) {
-	this.postingsFile = 
-	  new RandomAccessFile ( indexParentDirectoryPath + File.separator +
-				 indexname + File.separator + "postings", "r" );
+      RandomAccessFile postingsFile = (RandomAccessFile)this.postingsFiles.get(segment);
+      if ( postingsFile == null ) {
+	postingsFile = 
+	  CachedRandomAccessFile.open(this.blockCache,
+				      this.getIndexDirectoryPath() + File.separator + postingsFilename(segment));
+	this.postingsFiles.put(segment, postingsFile);
       }
       if (loadAllData)
 	{
@@ -696,25 +1615,35 @@ public class InvertedFile implements Serializable
   public void release() 
     throws IOException
   {
+    AsyncFileReader reader = this.asyncReader;
+    if (reader != null) {
+      this.asyncReader = null;
+      reader.close();
+    }
+    if (this.partitionFiles == null) {
+      // deserialized index, nothing opened yet.
+      return;
+    }
     Iterator<String> partIter = this.partitionFiles.keySet().iterator();
     while (partIter.hasNext()) {
       String key = partIter.next();
       if (! useMappedFile) {
 	RandomAccessFile raFile = (RandomAccessFile)this.partitionFiles.get(key);
 	raFile.close();
-	if (this.postingsFile != null && deferClosing == false)  {
-	  this.postingsFile.close();
-	  this.postingsFile = null;
-	}
       } 
       // else {
 	// MappedByteBuffer dictionaryByteBuffer = (MappedByteBuffer)this.partitionFiles.get(key);
 	// dictionaryByteBuffer.finalize();
-	// if (this.postingsByteBuffer != null && deferClosing == false)  {
-	//	  this.postingsByteBuffer = null;
-	//}
       //}
-      this.partitionFiles.remove(key);
+      partIter.remove();
+    }
+    if (this.postingsFiles != null && deferClosing == false)  {
+      for (Object postingsFile: this.postingsFiles.values()) {
+	if (postingsFile instanceof RandomAccessFile) {
+	  ((RandomAccessFile)postingsFile).close();
+	}
+      }
+      this.postingsFiles.clear();
     }
   }
 
@@ -755,6 +1684,71 @@ public class InvertedFile implements Serializable
     return this.indexname;
   }
 
+  /**
+   * @param metrics metrics to report lookups and index generation
+   *                to, null disables metrics.
+   */
+  public void setMetrics(IndexMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /** @return metrics lookups and index generation are reported to. */
+  public IndexMetrics getMetrics() {
+    // metrics is transient: null in deserialized instances.
+    return this.metrics == null ? NullIndexMetrics.INSTANCE : this.metrics;
+  }
+
+  /**
+   * Read partitions and postings through block cache when not using
+   * mapped files.  Applies to files opened after the call.
+   * @param blockCache cache, null to read files directly.
+   */
+  public void setBlockCache(BlockCache blockCache) {
+    this.blockCache = blockCache;
+  }
+
+  /** @return cache reads go through, null if none. */
+  public BlockCache getBlockCache() {
+    return this.blockCache;
+  }
+
+  /**
+   * @param listener receives progress reports during load_map and create, may be null.
+   */
+  public void setProgressListener(BuildProgressListener listener) {
+    this.progressListener = listener;
+  }
+
+  /** @return profile of last build by this instance, null if not profiled. */
+  public BuildProfile getBuildProfile() {
+    return this.buildProfile;
+  }
+
+  /** @return new build profile, null if profiling is disabled and there is no listener. */
+  BuildProfile newBuildProfile() {
+    if (BuildProfile.isProfilingEnabled() || this.progressListener != null) {
+      return new BuildProfile(this.indexname, this.progressListener);
+    }
+    return null;
+  }
+
+  /**
+   * @param postings postings list returned by lookup.
+   * @return number of postings bytes read to produce list.
+   */
+  static long postingsByteLength(List<String> postings) {
+    if (postings instanceof PostingsList) {
+      return ((PostingsList)postings).byteLength();
+    } else if (postings instanceof MappedPostingsList) {
+      return ((MappedPostingsList)postings).byteLength();
+    }
+    long length = 0;
+    for (int i = 0; i < postings.size(); i++) {
+      length = length + 4 + postings.get(i).length();
+    }
+    return length;
+  }
+
   public void setUseMappedFile(boolean state) {
     this.useMappedFile = state;
   }
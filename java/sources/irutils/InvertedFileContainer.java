@@ -1,6 +1,8 @@
 package irutils;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.io.*;
 
 /**
@@ -98,6 +100,18 @@ import java.io.*;
  * </pre>
  *</p>
  *<p>
+ * Switching to new index generations: when an index is rebuilt into a
+ * new generation (see InvertedFile), get() and acquire() open the new
+ * generation the next time they check for one, at most every
+ * <code>ifread.refresh.interval</code> milliseconds (default: 1000, a
+ * negative value disables checks); refresh() checks immediately.
+ * Handles obtained from acquire() are reference counted: lookups in
+ * flight finish on the old generation, whose files are released when
+ * its last handle is closed.  Indices returned by get() are not
+ * reference counted and are never released by the container.  An index
+ * is opened once even if several threads ask for it at the same time.
+ *</p>
+ *<p>
  * Created: Mon Jul  9 21:57:05 2001
  *</p>
  * @author Will Rogers
@@ -120,8 +134,29 @@ public class InvertedFileContainer {
   /** map of tables and their configurations */
   Map<String,String> tableMap = new HashMap<String,String>(3);
   
-  /** map of open indices */
-  Map<String,InvertedFile> openIndexMap = new HashMap<String,InvertedFile>(5);
+  /** map of open indices, handles of current generation of each index. */
+  ConcurrentMap<String,InvertedFileHandle> openIndexMap =
+    new ConcurrentHashMap<String,InvertedFileHandle>(5);
+
+  /** locks serializing open and refresh of each index */
+  ConcurrentMap<String,Object> openLocks = new ConcurrentHashMap<String,Object>(5);
+
+  /** milliseconds between checks for a new generation, negative to never check. */
+  long refreshInterval =
+    Long.parseLong(System.getProperty("ifread.refresh.interval", "1000"));
+
+  /** metrics of open indices */
+  IndexMetrics metrics = NullIndexMetrics.INSTANCE;
+
+  /** publish index statistics through JMX */
+  boolean useStatistics =
+    Boolean.parseBoolean(System.getProperty("ifread.statistics","false"));
+
+  /** class name of IndexMetrics implementation to use, if any. */
+  String metricsClassName = System.getProperty("ifread.metrics");
+
+  /** block cache shared by indices in container, null if not caching. */
+  BlockCache blockCache;
 
   /** default constructor for serialization purposes. */
   public InvertedFileContainer()
@@ -138,6 +173,36 @@ public class InvertedFileContainer {
     this.tableRoot = tableRoot; 
     this.indexRoot = indexRoot;
     this.loadConfig();
+    if (this.metricsClassName != null) {
+      this.setMetrics(newMetrics(this.metricsClassName));
+    }
+    if (this.useStatistics) {
+      this.enableStatistics();
+    }
+    BlockCache cache = BlockCache.fromProperties();
+    if (cache != null) {
+      cache.register(new File(this.indexRoot).getAbsolutePath());
+      this.setBlockCache(cache);
+    }
+  }
+
+  /**
+   * Instantiate IndexMetrics implementation using its public no-arg constructor.
+   * @param className name of class implementing IndexMetrics.
+   * @return metrics instance, NullIndexMetrics.INSTANCE if class could not be instantiated.
+   */
+  public static IndexMetrics newMetrics(String className)
+  {
+    try {
+      return (IndexMetrics)Class.forName(className).getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException exception) {
+      System.err.println("unable to instantiate index metrics " + className + ": " + exception);
+      return NullIndexMetrics.INSTANCE;
+    } catch (RuntimeException exception) {
+      // ClassCastException if class does not implement IndexMetrics
+      System.err.println("unable to instantiate index metrics " + className + ": " + exception);
+      return NullIndexMetrics.INSTANCE;
+    }
   }
 
   /** Load list of tables and their configurations. */
@@ -193,13 +258,97 @@ public class InvertedFileContainer {
     this.tableRoot = root;
   }
 
-  String getSerializedInfoFilename(String indexname) {
+  /**
+   * set metrics of open indices and of indices opened later.
+   * @param metrics metrics implementation, NullIndexMetrics.INSTANCE disables metrics.
+   */
+  public void setMetrics(IndexMetrics metrics)
+  {
+    this.metrics = metrics;
+    for (InvertedFileHandle handle: this.openIndexMap.values()) {
+      handle.index.setMetrics(metrics);
+    }
+  }
+
+  /** @return metrics of indices in container. */
+  public IndexMetrics getMetrics()
+  {
+    return this.metrics;
+  }
+
+  /**
+   * Set block cache shared by indices in container, used by indices
+   * reading files without mapping them.  Indices already open keep
+   * their open files but read files opened later through the cache.
+   * Also enabled by setting system property
+   * <code>ifread.blockcache.size</code>, see BlockCache.
+   * @param blockCache cache, null to read files directly.
+   */
+  public void setBlockCache(BlockCache blockCache)
+  {
+    this.blockCache = blockCache;
+    for (InvertedFileHandle handle: this.openIndexMap.values()) {
+      handle.index.setBlockCache(blockCache);
+    }
+  }
+
+  /** @return block cache shared by indices in container, null if none. */
+  public BlockCache getBlockCache()
+  {
+    return this.blockCache;
+  }
+
+  /**
+   * Keep statistics on lookups and index generation for all indices
+   * in container and publish them as MXBeans named
+   * <code>irutils:type=IndexStatistics,scope="&lt;indexRoot&gt;",name="&lt;indexname&gt;"</code>.
+   * Also enabled by setting system property <code>ifread.statistics</code> to true.
+   * Replaces any other metrics set on container.
+   * @return statistics instance
+   */
+  public IndexStatistics enableStatistics()
+  {
+    if (this.metrics instanceof IndexStatistics) {
+      return (IndexStatistics)this.metrics;
+    }
+    IndexStatistics statistics = new IndexStatistics(new File(this.indexRoot).getAbsolutePath());
+    this.setMetrics(statistics);
+    return statistics;
+  }
+
+  /**
+   * @param indexname  name of index
+   * @param generation generation directory, null if index has no generations.
+   * @return filename of serialized index.
+   */
+  String getSerializedInfoFilename(String indexname, String generation) {
     StringBuffer strbuf = new StringBuffer();
-    strbuf.append(indexRoot).append(File.separator).append(indexname).append
-      (File.separator).append(InvertedFile.canonicalSerializedName);
+    strbuf.append(indexRoot).append(File.separator).append(indexname);
+    if (generation != null) {
+      strbuf.append(File.separator).append(generation);
+    }
+    strbuf.append(File.separator).append(InvertedFile.canonicalSerializedName);
     return strbuf.toString();
   }
 
+  /**
+   * @param indexname name of index
+   * @return version of index files on disk: current generation and
+   *         modification time of serialized index, which changes when
+   *         an index is rebuilt.
+   */
+  String currentVersion(String indexname)
+    throws IOException
+  {
+    String generation =
+      InvertedFile.readCurrentGeneration(new File(this.indexRoot + File.separator + indexname));
+    File serializedInfo = new File(getSerializedInfoFilename(indexname, generation));
+    if (! serializedInfo.exists()) {
+      return "none";
+    }
+    return generation + ":" + serializedInfo.lastModified() + ":" + serializedInfo.length();
+  }
+
   /** 
    * get index object for index specified by indexname.
    * @param indexname name of index to be instantiated.
@@ -209,33 +358,125 @@ public class InvertedFileContainer {
     throws FileNotFoundException, StreamCorruptedException, IOException,
            ClassNotFoundException, OptionalDataException
   {
-    /** index open? if so then use it. */
-    InvertedFile invertedFile = this.openIndexMap.get(indexname);
-    if (invertedFile != null)
-      return invertedFile;
+    InvertedFileHandle handle = this.current(indexname);
+    if (handle == null) {
+      return null;
+    }
+    // caller doesn't release index, never release it.
+    handle.pinned = true;
+    return handle.index;
+  }
+
+  /**
+   * Get reference counted handle to current generation of index, the
+   * caller must close the handle when done with it.
+   * @param indexname name of index to be instantiated.
+   * @return index handle, null if index is not in configuration.
+   */
+  public InvertedFileHandle acquire(String indexname)
+    throws IOException, ClassNotFoundException
+  {
+    while (true) {
+      InvertedFileHandle handle = this.current(indexname);
+      if (handle == null) {
+	return null;
+      }
+      InvertedFileHandle acquired = handle.acquire();
+      if (acquired != null) {
+	return acquired;
+      }
+      // handle was replaced and released meanwhile, use its successor.
+    }
+  }
+
+  /**
+   * @param indexname name of index
+   * @return handle of current generation of index, opening it if
+   *         necessary, null if index is not in configuration.
+   */
+  InvertedFileHandle current(String indexname)
+    throws IOException, ClassNotFoundException
+  {
+    InvertedFileHandle handle = this.openIndexMap.get(indexname);
+    if (handle != null &&
+	(this.refreshInterval < 0 ||
+	 System.currentTimeMillis() - handle.checkedMillis < this.refreshInterval)) {
+      return handle;
+    }
+    return this.refresh(indexname);
+  }
 
-    /** otherwise instantiate index */
+  /**
+   * Open index, or if it is open and has been rebuilt since, open its
+   * new generation and release the old one once its handles are closed.
+   * @param indexname name of index
+   * @return handle of current generation of index, null if index is not in configuration.
+   */
+  public InvertedFileHandle refresh(String indexname)
+    throws IOException, ClassNotFoundException
+  {
+    Object lock = this.openLocks.get(indexname);
+    if (lock == null) {
+      Object newLock = new Object();
+      lock = this.openLocks.putIfAbsent(indexname, newLock);
+      if (lock == null) {
+	lock = newLock;
+      }
+    }
+    // only one thread opens an index, others wait for it and use its instance.
+    synchronized (lock) {
+      InvertedFileHandle handle = this.openIndexMap.get(indexname);
+      String version = this.currentVersion(indexname);
+      if (handle != null) {
+	handle.checkedMillis = System.currentTimeMillis();
+	if (version.equals(handle.version)) {
+	  return handle;
+	}
+      }
+      InvertedFile index = this.open(indexname);
+      if (index == null) {
+	return null;
+      }
+      InvertedFileHandle newHandle = new InvertedFileHandle(index, version);
+      this.openIndexMap.put(indexname, newHandle);
+      if (handle != null) {
+	// drop container's reference, files are released when handles are closed.
+	handle.release();
+      }
+      return newHandle;
+    }
+  }
+
+  /**
+   * Instantiate current generation of index.
+   * @param indexname name of index to be instantiated.
+   * @return index instance, null if index is not in configuration.
+   */
+  InvertedFile open(String indexname)
+    throws IOException, ClassNotFoundException
+  {
     String line = this.tableMap.get(indexname);
     if (line != null) {
       List<String> formatList = utils.StringUtils.split(line, "|");
-      String serializedInfo = getSerializedInfoFilename(indexname);
-      if ( new File(serializedInfo).exists() ) {
-	// System.out.println(" loading " + serializedInfo);
-	FileInputStream istream = new FileInputStream(serializedInfo);
-	ObjectInputStream p = new ObjectInputStream(istream);
-	InvertedFile index = (InvertedFile)p.readObject();
-        index.tablefilename = tableRoot + File.separator + indexname;
-        index.indexParentDirectoryPath = indexRoot;
-	istream.close();
-	this.openIndexMap.put(indexname, index);
+      InvertedFile index = InvertedFile.readSerialized(this.indexRoot, indexname);
+      if (index != null) {
+        index.tablefilename = tableRoot + File.separator + formatList.get(0);
+	index.setMetrics(this.metrics);
+	index.setBlockCache(this.blockCache);
+	try {
+	  index.setup();
+	} catch (BSPIndexInvalidException exception) {
+	  throw new IOException(exception.getMessage());
+	}
 	return index;
       } else {
-	InvertedFile index = 
+	index = 
 	  new InvertedFile(formatList.get(1), 
 			   this.tableRoot + File.separator + formatList.get(0),
 			   this.indexRoot,
 			   formatList);
-	this.openIndexMap.put(indexname, index);
+	index.setMetrics(this.metrics);
+	index.setBlockCache(this.blockCache);
 	return index;
       }
     } 
@@ -288,9 +529,9 @@ public class InvertedFileContainer {
   protected void finalize()
     throws Throwable
   {
-    for (Iterator<InvertedFile> iterator = openIndexMap.values().iterator(); 
+    for (Iterator<InvertedFileHandle> iterator = openIndexMap.values().iterator(); 
 	 iterator.hasNext(); 
-	 iterator.next().finalize());
+	 iterator.next().index.finalize());
     super.finalize();
   }
 
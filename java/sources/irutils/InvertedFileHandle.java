@@ -0,0 +1,182 @@
+package irutils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reference counted handle to one generation of an index, obtained
+ * from InvertedFileContainer.acquire().
+ * <p>
+ * The container holds one reference to the handle of the current
+ * generation, each acquire() adds one, returned as a handle of its
+ * own, and close() of that handle removes it; closing a handle more
+ * than once has no further effect.  When
+ * the container switches to a new generation it drops its reference;
+ * lookups in flight finish on the old generation and its files are
+ * released when the last handle is closed.  A generation removed by a
+ * build in the same process while handles acquired on it are open (see
+ * ifbuild.generations.keep) is deleted when the last of them is closed.
+ * </p><p>
+ * As with InvertedFile, lookups using non-mapped files share file
+ * pointers: lookup() serializes lookups on the index of the
+ * generation, shared by all handles acquired from it, and loads the
+ * postings before returning, as ShardedInvertedFile.lookup() does.
+ * </p>
+ * Example of use:
+ * <pre>
+ *   InvertedFileHandle handle = container.acquire("mrcon");
+ *   try {
+ *     BSPTuple&lt;List&lt;String&gt;&gt; result = handle.lookup("C0001403");
+ *     ...
+ *   } finally {
+ *     handle.close();
+ *   }
+ * </pre>
+ */
+
+public class InvertedFileHandle implements Closeable
+{
+  /** index */
+  final InvertedFile index;
+  /** version of index files handle was opened from, see InvertedFileContainer.currentVersion */
+  final String version;
+  /** number of references, starts with the container's reference */
+  final AtomicInteger references = new AtomicInteger(1);
+  /** handle reference was acquired from, null for the container's handle. */
+  final InvertedFileHandle shared;
+  /** set by first close() */
+  final AtomicBoolean closed = new AtomicBoolean(false);
+  /** generation directory of index, null if index has no generations. */
+  final File generationDirectory;
+  /** if true, index was returned by InvertedFileContainer.get() and is never released. */
+  volatile boolean pinned = false;
+  /** time of last check for a newer generation */
+  volatile long checkedMillis = System.currentTimeMillis();
+
+  /**
+   * @param index   index, setup for retrieval.
+   * @param version version of index files.
+   */
+  InvertedFileHandle(InvertedFile index, String version)
+  {
+    this.index = index;
+    this.version = version;
+    this.shared = null;
+    this.generationDirectory =
+      index.getGeneration() == null ? null : new File(index.getIndexDirectoryPath());
+  }
+
+  /**
+   * @param shared container's handle of generation, holding the
+   *               reference released by close().
+   */
+  InvertedFileHandle(InvertedFileHandle shared)
+  {
+    this.index = shared.index;
+    this.version = shared.version;
+    this.shared = shared;
+    this.generationDirectory = shared.generationDirectory;
+    if (this.generationDirectory != null) {
+      InvertedFile.generationOpened(this.generationDirectory);
+    }
+  }
+
+  /**
+   * Add a reference unless handle has already been released.
+   * @return handle owning the reference, null if handle has been released.
+   */
+  InvertedFileHandle acquire()
+  {
+    return this.retain() ? new InvertedFileHandle(this) : null;
+  }
+
+  /**
+   * Add a reference unless handle has already been released.
+   * @return true if reference was added.
+   */
+  boolean retain()
+  {
+    while (true) {
+      int count = this.references.get();
+      if (count == 0) {
+	return false;
+      }
+      if (this.references.compareAndSet(count, count + 1)) {
+	return true;
+      }
+    }
+  }
+
+  /**
+   * Remove a reference, releasing files of index when there are none left.
+   * @exception IOException if an error occurs
+   */
+  void release()
+    throws IOException
+  {
+    if (this.references.decrementAndGet() == 0 && (! this.pinned)) {
+      this.index.release();
+    }
+  }
+
+  /**
+   * Release reference obtained by InvertedFileContainer.acquire(),
+   * only the first time handle is closed.
+   * @exception IOException if an error occurs
+   */
+  public void close()
+    throws IOException
+  {
+    if (this.closed.compareAndSet(false, true)) {
+      if (this.shared == null) {
+	this.release();
+	return;
+      }
+      try {
+	this.shared.release();
+      } finally {
+	if (this.generationDirectory != null) {
+	  InvertedFile.generationReleased(this.generationDirectory);
+	}
+      }
+    }
+  }
+
+  /**
+   * Look up word in index, loading its postings completely; lookups
+   * on handles of the same generation are serialized.
+   * @param word word to lookup in index.
+   * @return tuple containing key/value pair, value is empty if key not found.
+   * @exception IOException if an error occurs
+   */
+  public BSPTuple<List<String>> lookup(String word)
+    throws IOException
+  {
+    synchronized (this.index) {
+      return this.index.lookup(word, true);
+    }
+  }
+
+  /** @return index */
+  public InvertedFile getIndex() { return this.index; }
+
+  /** @return generation directory of index, null if index has no generations. */
+  public String getGeneration() { return this.index.getGeneration(); }
+
+  /** @return number of references. */
+  public int getReferenceCount()
+  {
+    return (this.shared == null ? this : this.shared).references.get();
+  }
+
+  public String toString()
+  {
+    return "InvertedFileHandle: " + this.index.indexname + ", version: " + this.version +
+      ", references: " + this.getReferenceCount();
+  }
+
+} // InvertedFileHandle
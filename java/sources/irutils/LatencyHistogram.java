@@ -0,0 +1,118 @@
+package irutils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size, lock-free histogram of non-negative long values
+ * (latencies in nanoseconds.)
+ * <p>
+ * Values are counted in log-linear buckets: each power of two is
+ * split into eight sub-buckets, so reported percentiles are within
+ * 12.5% of the recorded value.  Recording never allocates.
+ */
+
+public class LatencyHistogram
+{
+  /** number of sub-buckets per power of two, as a power of two */
+  static final int SUB_BUCKET_BITS = 3;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  /** enough buckets for any positive long */
+  static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  AtomicLong count = new AtomicLong();
+  AtomicLong total = new AtomicLong();
+  AtomicLong max = new AtomicLong();
+
+  /**
+   * @param value value to record, negative values are recorded as zero.
+   */
+  public void record(long value)
+  {
+    if (value < 0) {
+      value = 0;
+    }
+    this.counts.incrementAndGet(bucketIndex(value));
+    this.count.incrementAndGet();
+    this.total.addAndGet(value);
+    long current = this.max.get();
+    while (value > current && (! this.max.compareAndSet(current, value))) {
+      current = this.max.get();
+    }
+  }
+
+  static int bucketIndex(long value)
+  {
+    int msb = 63 - Long.numberOfLeadingZeros(value);
+    if (msb < SUB_BUCKET_BITS) {
+      return (int)value;
+    }
+    int sub = (int)(value >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return ((msb - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + sub;
+  }
+
+  /** @return upper bound of values counted in bucket. */
+  static long bucketLimit(int index)
+  {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int msb = (index >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+    long sub = index & (SUB_BUCKETS - 1);
+    long lower = (SUB_BUCKETS + sub) << (msb - SUB_BUCKET_BITS);
+    return lower + (1L << (msb - SUB_BUCKET_BITS)) - 1;
+  }
+
+  /** @return number of recorded values */
+  public long getCount() { return this.count.get(); }
+
+  /** @return sum of recorded values */
+  public long getTotal() { return this.total.get(); }
+
+  /** @return largest recorded value */
+  public long getMax() { return this.max.get(); }
+
+  /** @return mean of recorded values, zero if none recorded. */
+  public double getMean()
+  {
+    long n = this.count.get();
+    return n == 0 ? 0.0 : (double)this.total.get() / n;
+  }
+
+  /**
+   * @param percentile percentile, 0.0 to 100.0
+   * @return value at or below which percentile of recorded values fall.
+   */
+  public long getValueAtPercentile(double percentile)
+  {
+    long n = this.count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = (long)Math.ceil((percentile / 100.0) * n);
+    if (rank < 1) {
+      rank = 1;
+    }
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen = seen + this.counts.get(i);
+      if (seen >= rank) {
+	return Math.min(bucketLimit(i), this.max.get());
+      }
+    }
+    return this.max.get();
+  }
+
+  /** discard recorded values. */
+  public void reset()
+  {
+    for (int i = 0; i < BUCKETS; i++) {
+      this.counts.set(i, 0);
+    }
+    this.count.set(0);
+    this.total.set(0);
+    this.max.set(0);
+  }
+
+} // LatencyHistogram
@@ -0,0 +1,843 @@
+package irutils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Inverted file index accepting new table rows while it is being read.
+ * <p>
+ * Rows added with append() are written to the end of the table and
+ * inserted into an in-memory MemTable, so lookup() sees them
+ * immediately.  When the memtable reaches
+ * <code>ifbuild.memtable.size</code> bytes (default: 16 MB) it is
+ * frozen and flushed in the background to an immutable segment: a
+ * complete index in the usual partition/postings format in directory
+ * <b>live.&lt;n&gt;/&lt;indexname&gt;</b> of the index (generation) directory.
+ * Segments of similar size are merged in the background once there
+ * are <code>ifbuild.merge.threshold</code> (default: 4) of them,
+ * size-tiered, so the number of segments a lookup consults grows
+ * logarithmically with the number of rows appended.
+ * </p>
+ * <p>
+ * Lookups never wait for appends, flushes or merges: the memtables
+ * and segments are published as an immutable snapshot which lookups
+ * read once.  Postings are returned newest first: memtable rows, then
+ * segment rows, then rows of the underlying index.  As with
+ * InvertedFile, lookups using non-mapped files share file pointers, so
+ * concurrent lookups on one instance must be serialized by the caller.
+ * </p>
+ * <p>
+ * The table is the log: each segment records the range of the table
+ * it holds, and on open rows following the index and the segments
+ * after it without a gap (left by a failed flush) are reloaded into
+ * the memtable.  Building the index again (IFBuild, update(),
+ * compact()) incorporates the appended rows, the segments it covers
+ * are removed the next time the index is opened live.  The index must
+ * not be rebuilt while it is open live.  Indices built before table
+ * offsets were recorded are assumed to contain the whole table.
+ * </p>
+ * Example of use:
+ * <pre>
+ *   InvertedFile index = container.get("mrcon");
+ *   index.update();
+ *   index.setup();
+ *   LiveInvertedFile live = new LiveInvertedFile(index);
+ *   live.append("C0001403|ENG|P|L0001403|PF|S0010794|Addison's Disease|0");
+ *   BSPTuple&lt;List&lt;String&gt;&gt; result = live.lookup("C0001403");
+ *   ...
+ *   live.close();
+ * </pre>
+ */
+
+public class LiveInvertedFile
+{
+  /** prefix of segment directory names */
+  public static final String SEGMENT_PREFIX = "live.";
+
+  /** milliseconds replaced segments are kept for lookups still using them */
+  static final long RETIRE_DELAY_MILLIS = 60000L;
+
+  /** memtables and segments visible to lookups, never modified once published. */
+  static final class State
+  {
+    /** memtable receiving appends */
+    final MemTable active;
+    /** frozen memtables being flushed, newest first */
+    final List<MemTable> flushing;
+    /** segments, newest first */
+    final List<InvertedFile> segments;
+
+    State(MemTable active, List<MemTable> flushing, List<InvertedFile> segments)
+    {
+      this.active = active;
+      this.flushing = Collections.unmodifiableList(flushing);
+      this.segments = Collections.unmodifiableList(segments);
+    }
+  }
+
+  /** segment replaced by a merge, deleted after RETIRE_DELAY_MILLIS */
+  static final class Retired
+  {
+    final InvertedFile segment;
+    final long time;
+
+    Retired(InvertedFile segment, long time)
+    {
+      this.segment = segment;
+      this.time = time;
+    }
+  }
+
+  /** underlying index */
+  final InvertedFile index;
+  /** index directory */
+  final File indexDirectory;
+  /** serializes appends and state changes */
+  final Object writeLock = new Object();
+  /** current snapshot */
+  volatile State state;
+  /** segments replaced by merges */
+  final List<Retired> retired = new ArrayList<Retired>();
+  /** number of next segment */
+  int nextSegment = 1;
+  /** appends rows to table */
+  FileOutputStream tableOutput;
+  /** offset in table following last row */
+  long tableEnd;
+  /** true if table does not end with a newline, one is written before the next row. */
+  boolean tableUnterminated;
+  /** flushes and merges segments */
+  final ExecutorService executor;
+  /** size of memtable in bytes which triggers flush */
+  long memtableSize =
+    Long.parseLong(System.getProperty("ifbuild.memtable.size", "16777216"));
+  /** number of segments of similar size which triggers merge */
+  int mergeThreshold =
+    Integer.parseInt(System.getProperty("ifbuild.merge.threshold", "4"));
+  /** display informational messages */
+  boolean verbose =
+    Boolean.parseBoolean(System.getProperty("ifbuild.verbose", "false"));
+
+  /**
+   * Open index for appends: open existing segments and reload rows
+   * appended to table after the last segment.
+   * @param index valid index, see InvertedFile.update() and setup().
+   * @exception IOException if an error occurs
+   * @exception BSPIndexInvalidException if index is not valid.
+   */
+  public LiveInvertedFile(InvertedFile index)
+    throws IOException, BSPIndexInvalidException
+  {
+    index.setup();
+    this.index = index;
+    this.indexDirectory = new File(index.getIndexDirectoryPath());
+    File tablefile = new File(index.tablefilename);
+    List<InvertedFile> segments = this.openSegments(index.tableEnd);
+    long replayStart = index.tableEnd;
+    if (replayStart == 0 && segments.isEmpty()) {
+      // index predates table offsets, assume it contains whole table.
+      replayStart = tablefile.length();
+    }
+    for (InvertedFile segment: segments) {
+      replayStart = Math.max(replayStart, segment.tableEnd);
+    }
+    MemTable memtable = new MemTable(replayStart);
+    this.tableEnd = this.replay(tablefile, memtable);
+    this.tableUnterminated = ! endsWithNewline(tablefile);
+    this.state = new State(memtable, new ArrayList<MemTable>(), segments);
+    this.tableOutput = new FileOutputStream(tablefile, true);
+    final String threadName = "irutils-live-" + index.indexname;
+    this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	public Thread newThread(Runnable runnable) {
+	  Thread thread = new Thread(runnable, threadName);
+	  thread.setDaemon(true);
+	  return thread;
+	}
+      });
+    if (this.verbose) {
+      System.out.println("opened live index " + index.indexname + ", segments: " +
+			 segments.size() + ", rows reloaded: " + memtable.getRows());
+    }
+  }
+
+  /**
+   * Open segments following the part of table in index, removing
+   * segments which are covered by the index or another segment,
+   * segments whose flush or merge did not complete and segments
+   * following a range of the table in no segment (whose flush failed),
+   * so that rows are reloaded from the end of the contiguous range
+   * covered by the index and the segments kept.
+   * @param indexEnd offset in table following last row in index.
+   * @return segments, newest first.
+   */
+  List<InvertedFile> openSegments(long indexEnd)
+    throws IOException
+  {
+    List<InvertedFile> candidates = new ArrayList<InvertedFile>();
+    File[] files = this.indexDirectory.listFiles();
+    if (files != null) {
+      for (File dir: files) {
+	String name = dir.getName();
+	if (! (dir.isDirectory() && name.startsWith(SEGMENT_PREFIX))) {
+	  continue;
+	}
+	int number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length()));
+	this.nextSegment = Math.max(this.nextSegment, number + 1);
+	File info = new File(dir, this.index.indexname + File.separator +
+			     InvertedFile.canonicalSerializedName);
+	if (! info.exists()) {
+	  deleteTree(dir);
+	  continue;
+	}
+	ObjectInputStream istream =
+	  new ObjectInputStream(new BufferedInputStream(new FileInputStream(info)));
+	InvertedFile segment;
+	try {
+	  segment = (InvertedFile)istream.readObject();
+	} catch (ClassNotFoundException exception) {
+	  throw new IOException(exception.getMessage());
+	} finally {
+	  istream.close();
+	}
+	segment.indexParentDirectoryPath = dir.getPath();
+	segment.tablefilename = this.index.tablefilename;
+	segment.setBlockCache(this.index.getBlockCache());
+	candidates.add(segment);
+      }
+    }
+    // oldest first, larger (merged) segment first among those starting at same offset.
+    Collections.sort(candidates, new Comparator<InvertedFile>() {
+	public int compare(InvertedFile a, InvertedFile b) {
+	  if (a.tableStart != b.tableStart) {
+	    return a.tableStart < b.tableStart ? -1 : 1;
+	  }
+	  return a.tableEnd > b.tableEnd ? -1 : (a.tableEnd == b.tableEnd ? 0 : 1);
+	}
+      });
+    List<InvertedFile> segments = new ArrayList<InvertedFile>();
+    long end = indexEnd;
+    if (indexEnd == 0 && ! candidates.isEmpty()) {
+      // index predates table offsets, segments start where it ended.
+      end = candidates.get(0).tableStart;
+    }
+    boolean gap = false;
+    for (InvertedFile segment: candidates) {
+      if (! gap && segment.tableStart > end) {
+	// rows of a failed flush: they are reloaded from the table
+	// along with the rows of the segments after them.
+	gap = true;
+      }
+      if (gap) {
+	if (this.verbose) {
+	  System.out.println("removing segment following unflushed rows: " +
+			     segment.indexParentDirectoryPath);
+	}
+	deleteTree(new File(segment.indexParentDirectoryPath));
+      } else if (segment.tableStart == end) {
+	setup(segment);
+	segments.add(0, segment);
+	end = segment.tableEnd;
+      } else {
+	if (this.verbose) {
+	  System.out.println("removing segment covered by index: " + segment.indexParentDirectoryPath);
+	}
+	deleteTree(new File(segment.indexParentDirectoryPath));
+      }
+    }
+    return segments;
+  }
+
+  /**
+   * Load rows of table following offset of memtable into memtable.
+   * Offsets are byte positions in the table, whatever the line
+   * terminator ("\n" or "\r\n") and the encoding of rows; a last row
+   * without a terminator ends at the end of the table.
+   * @param tablefile table
+   * @param memtable  memtable
+   * @return offset in table following last row.
+   */
+  long replay(File tablefile, MemTable memtable)
+    throws IOException
+  {
+    long offset = memtable.tableStart;
+    FileInputStream istream = new FileInputStream(tablefile);
+    try {
+      long skipped = 0;
+      while (skipped < offset) {
+	long n = istream.skip(offset - skipped);
+	if (n <= 0) {
+	  break;
+	}
+	skipped = skipped + n;
+      }
+      offset = skipped;
+      byte[] buffer = new byte[65536];
+      ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+      int n;
+      while ((n = istream.read(buffer)) > 0) {
+	int start = 0;
+	for (int i = 0; i < n; i++) {
+	  if (buffer[i] == '\n') {
+	    line.write(buffer, start, i - start);
+	    this.replayRow(memtable, line, offset + i + 1);
+	    line.reset();
+	    start = i + 1;
+	  }
+	}
+	line.write(buffer, start, n - start);
+	offset = offset + n;
+      }
+      if (line.size() > 0) {
+	this.replayRow(memtable, line, offset);
+      }
+    } finally {
+      istream.close();
+    }
+    return offset;
+  }
+
+  /**
+   * Add row read by replay() to memtable.
+   * @param memtable memtable
+   * @param line     bytes of row, without "\n", with a "\r" of "\r\n".
+   * @param offset   offset in table following row
+   */
+  void replayRow(MemTable memtable, ByteArrayOutputStream line, long offset)
+  {
+    String row = line.toString();
+    if (row.endsWith("\r")) {
+      row = row.substring(0, row.length() - 1);
+    }
+    if (row.trim().length() > 0) {
+      memtable.add(this.index.rowKey(utils.StringUtils.split(row, "|")), row, offset);
+    }
+  }
+
+  /** @return true if file is empty or its last byte is a newline. */
+  static boolean endsWithNewline(File file)
+    throws IOException
+  {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      if (raf.length() == 0) {
+	return true;
+      }
+      raf.seek(raf.length() - 1);
+      return raf.read() == '\n';
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Append row to table and make it visible to lookups.
+   * @param row table row, fields separated by "|".
+   * @exception IOException if an error occurs writing table.
+   */
+  public void append(String row)
+    throws IOException
+  {
+    if (row.indexOf('\n') >= 0 || row.indexOf('\r') >= 0) {
+      throw new IllegalArgumentException("row contains line separator: " + row);
+    }
+    String term = this.index.rowKey(utils.StringUtils.split(row, "|"));
+    byte[] line = (row + "\n").getBytes();
+    synchronized (this.writeLock) {
+      if (this.tableOutput == null) {
+	throw new IOException("live index " + this.index.indexname + " is closed");
+      }
+      if (this.tableUnterminated) {
+	// keep last row of table from running into this one.
+	this.tableOutput.write('\n');
+	this.tableEnd = this.tableEnd + 1;
+	this.tableUnterminated = false;
+      }
+      this.tableOutput.write(line);
+      this.tableEnd = this.tableEnd + line.length;
+      State current = this.state;
+      current.active.add(term, row, this.tableEnd);
+      if (current.active.getBytes() >= this.memtableSize) {
+	this.freeze();
+      }
+    }
+  }
+
+  /**
+   * Freeze active memtable and schedule its flush, caller must hold writeLock.
+   * @return future of flush, null if memtable is empty.
+   */
+  Future<?> freeze()
+  {
+    final State current = this.state;
+    if (current.active.isEmpty()) {
+      return null;
+    }
+    final MemTable frozen = current.active;
+    List<MemTable> flushing = new ArrayList<MemTable>(current.flushing.size() + 1);
+    flushing.add(frozen);
+    flushing.addAll(current.flushing);
+    this.state = new State(new MemTable(this.tableEnd), flushing, current.segments);
+    return this.executor.submit(new Runnable() {
+	public void run() {
+	  try {
+	    flush(frozen);
+	    merge();
+	    removeRetired(false);
+	  } catch (IOException exception) {
+	    // rows stay in frozen memtable and table, they are reloaded
+	    // on next open, see openSegments().
+	    System.err.println("flush of live index " + index.indexname + " failed: " + exception);
+	    exception.printStackTrace(System.err);
+	  }
+	}
+      });
+  }
+
+  /**
+   * Flush memtable to a new segment in the background.
+   * @return future of flush, completed once the rows are in a
+   *         segment, null if the memtable is empty.
+   */
+  public Future<?> flush()
+  {
+    synchronized (this.writeLock) {
+      return this.freeze();
+    }
+  }
+
+  /**
+   * Write frozen memtable to segment and replace memtable by segment.
+   * @param memtable frozen memtable
+   */
+  void flush(MemTable memtable)
+    throws IOException
+  {
+    IndexMetrics metrics = this.index.getMetrics();
+    long start = System.nanoTime();
+    SegmentWriter writer = new SegmentWriter(this.nextSegment++);
+    Map<String,List<String>> partitions = memtable.partitions(this.index.indexname);
+    for (Map.Entry<String,List<String>> entry: partitions.entrySet()) {
+      writer.beginPartition(entry.getKey());
+      for (String term: entry.getValue()) {
+	writer.add(term, memtable.get(term));
+      }
+      writer.endPartition();
+    }
+    InvertedFile segment = writer.finish(memtable.tableStart, memtable.tableEnd);
+    synchronized (this.writeLock) {
+      State current = this.state;
+      List<MemTable> flushing = new ArrayList<MemTable>(current.flushing);
+      flushing.remove(memtable);
+      List<InvertedFile> segments = new ArrayList<InvertedFile>(current.segments.size() + 1);
+      segments.add(segment);
+      segments.addAll(current.segments);
+      this.state = new State(current.active, flushing, segments);
+    }
+    if (this.verbose) {
+      System.out.println("flushed " + memtable.getRows() + " rows to " +
+			 segment.indexParentDirectoryPath);
+    }
+    if (metrics.isEnabled()) {
+      metrics.buildPhase(this.index.indexname, "flush", System.nanoTime() - start, memtable.getRows());
+    }
+  }
+
+  /**
+   * Size tier of segment: tier n holds segments of about memtable size
+   * times merge threshold to the power n, so merging a run of a tier
+   * yields a segment of the next tier.
+   * @param segment segment
+   * @return tier, 0 for flushed memtables.
+   */
+  int tier(InvertedFile segment)
+  {
+    long size = segmentFile(segment, "postings").length();
+    // tier boundaries lie midway (geometrically) between tier sizes.
+    double limit = this.memtableSize * Math.sqrt(this.mergeThreshold);
+    int tier = 0;
+    while (size > limit && tier < 62) {
+      limit = limit * this.mergeThreshold;
+      tier++;
+    }
+    return tier;
+  }
+
+  /**
+   * Merge runs of at least mergeThreshold adjacent segments in the
+   * same size tier until there are none.  Only adjacent segments are
+   * merged so each segment holds a contiguous range of the table.
+   */
+  void merge()
+    throws IOException
+  {
+    while (true) {
+      List<InvertedFile> segments = this.state.segments;
+      int runStart = 0;
+      List<InvertedFile> run = null;
+      for (int i = 1; i <= segments.size(); i++) {
+	if (i == segments.size() || this.tier(segments.get(i)) != this.tier(segments.get(runStart))) {
+	  if (i - runStart >= this.mergeThreshold) {
+	    run = new ArrayList<InvertedFile>(segments.subList(runStart, i));
+	    break;
+	  }
+	  runStart = i;
+	}
+      }
+      if (run == null) {
+	return;
+      }
+      this.merge(run);
+    }
+  }
+
+  /**
+   * Merge adjacent segments into one segment.
+   * @param run segments, newest first.
+   */
+  void merge(List<InvertedFile> run)
+    throws IOException
+  {
+    IndexMetrics metrics = this.index.getMetrics();
+    long start = System.nanoTime();
+    long rows = 0;
+    Set<String> partitionIds = new TreeSet<String>();
+    for (InvertedFile segment: run) {
+      partitionIds.addAll(segment.numrecs.keySet());
+    }
+    SegmentWriter writer = new SegmentWriter(this.nextSegment++);
+    Map<InvertedFile,RandomAccessFile> postingsFiles = new HashMap<InvertedFile,RandomAccessFile>();
+    try {
+      for (InvertedFile segment: run) {
+	postingsFiles.put(segment, new RandomAccessFile(segmentFile(segment, "postings"), "r"));
+      }
+      for (String partitionId: partitionIds) {
+	int keylength = Integer.parseInt(partitionId.substring(this.index.indexname.length()));
+	Map<String,List<String>> terms = new TreeMap<String,List<String>>();
+	for (InvertedFile segment: run) {
+	  Integer numrecs = segment.numrecs.get(partitionId);
+	  if (numrecs != null) {
+	    rows = rows + readPartition(segmentFile(segment, "partition_" + partitionId),
+					keylength, numrecs.intValue(),
+					postingsFiles.get(segment), terms);
+	  }
+	}
+	writer.beginPartition(partitionId);
+	for (Map.Entry<String,List<String>> entry: terms.entrySet()) {
+	  writer.add(entry.getKey(), entry.getValue());
+	}
+	writer.endPartition();
+      }
+    } finally {
+      for (RandomAccessFile raf: postingsFiles.values()) {
+	raf.close();
+      }
+    }
+    InvertedFile merged = writer.finish(run.get(run.size() - 1).tableStart, run.get(0).tableEnd);
+    synchronized (this.writeLock) {
+      State current = this.state;
+      List<InvertedFile> segments = new ArrayList<InvertedFile>(current.segments);
+      int position = segments.indexOf(run.get(0));
+      segments.removeAll(run);
+      segments.add(position, merged);
+      this.state = new State(current.active, current.flushing, segments);
+      long now = System.currentTimeMillis();
+      for (InvertedFile segment: run) {
+	this.retired.add(new Retired(segment, now));
+      }
+    }
+    if (this.verbose) {
+      System.out.println("merged " + run.size() + " segments into " + merged.indexParentDirectoryPath);
+    }
+    if (metrics.isEnabled()) {
+      metrics.buildPhase(this.index.indexname, "merge", System.nanoTime() - start, rows);
+    }
+  }
+
+  /**
+   * Read all entries of partition dictionary and their postings,
+   * appending postings of each term to map.
+   * @param partitionFile dictionary of partition
+   * @param keylength     length of terms in partition
+   * @param numrecs       number of terms in partition
+   * @param postingsFile  postings of segment
+   * @param terms         map of term to postings postings are appended to.
+   * @return number of postings read.
+   */
+  static long readPartition(File partitionFile, int keylength, int numrecs,
+			    RandomAccessFile postingsFile, Map<String,List<String>> terms)
+    throws IOException
+  {
+    long rows = 0;
+    DataInputStream dictionary =
+      new DataInputStream(new BufferedInputStream(new FileInputStream(partitionFile)));
+    try {
+      byte[] termbuf = new byte[keylength];
+      for (int i = 0; i < numrecs; i++) {
+	dictionary.readFully(termbuf);
+	String term = new String(termbuf, "ISO-8859-1");
+	int count = dictionary.readInt();
+	int address = dictionary.readInt();
+	List<String> postings = terms.get(term);
+	if (postings == null) {
+	  postings = new ArrayList<String>(count);
+	  terms.put(term, postings);
+	}
+	postingsFile.seek(address);
+	for (int j = 0; j < count; j++) {
+	  byte[] databuf = new byte[postingsFile.readInt()];
+	  postingsFile.readFully(databuf);
+	  postings.add(new String(databuf));
+	}
+	rows = rows + count;
+      }
+    } finally {
+      dictionary.close();
+    }
+    return rows;
+  }
+
+  /**
+   * Look up word in index, return corresponding key and postings: rows
+   * appended since the index was built, newest first, followed by the
+   * postings of the underlying index.
+   * @param targetWord word to lookup in index.
+   * @return tuple containing key/value pair, value is empty if key not found.
+   * @exception IOException if an error occurs
+   */
+  public BSPTuple<List<String>> lookup(String targetWord)
+    throws IOException
+  {
+    String word = this.index.invfLowerCaseKeys ? targetWord.toLowerCase() : targetWord;
+    String partitionId = this.index.indexname + word.length();
+    State current = this.state;
+    List<String> postings = new ArrayList<String>();
+    current.active.collect(word, postings);
+    for (MemTable memtable: current.flushing) {
+      memtable.collect(word, postings);
+    }
+    for (InvertedFile segment: current.segments) {
+      if (segment.numrecs.containsKey(partitionId)) {
+	postings.addAll(segment.lookup(word, true).getValue());
+      }
+    }
+    BSPTuple<List<String>> result = this.index.lookup(word);
+    if (postings.isEmpty()) {
+      return result;
+    }
+    postings.addAll(result.getValue());
+    return new BSPTuple<List<String>>(word, postings);
+  }
+
+  /**
+   * Delete segments replaced by merges, caller must not hold writeLock.
+   * @param all if true delete all, otherwise only those replaced at
+   *            least RETIRE_DELAY_MILLIS ago.
+   */
+  void removeRetired(boolean all)
+    throws IOException
+  {
+    List<Retired> expired = new ArrayList<Retired>();
+    long now = System.currentTimeMillis();
+    synchronized (this.writeLock) {
+      for (Retired entry: this.retired) {
+	if (all || now - entry.time >= RETIRE_DELAY_MILLIS) {
+	  expired.add(entry);
+	}
+      }
+      this.retired.removeAll(expired);
+    }
+    for (Retired entry: expired) {
+      entry.segment.release();
+      deleteTree(new File(entry.segment.indexParentDirectoryPath));
+    }
+  }
+
+  /**
+   * Flush memtable, wait for flushes and merges to complete and
+   * release segments.  The underlying index is not released.
+   * @exception IOException if an error occurs
+   */
+  public void close()
+    throws IOException
+  {
+    synchronized (this.writeLock) {
+      if (this.tableOutput == null) {
+	return;
+      }
+      this.freeze();
+      this.tableOutput.close();
+      this.tableOutput = null;
+    }
+    this.executor.shutdown();
+    try {
+      this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    }
+    this.removeRetired(true);
+    for (InvertedFile segment: this.state.segments) {
+      segment.release();
+    }
+  }
+
+  /** @return underlying index. */
+  public InvertedFile getIndex() { return this.index; }
+
+  /** @return number of on-disk segments. */
+  public int getSegmentCount() { return this.state.segments.size(); }
+
+  /** @return number of rows in memtables, not yet flushed. */
+  public long getMemTableRows()
+  {
+    State current = this.state;
+    long rows = current.active.getRows();
+    for (MemTable memtable: current.flushing) {
+      rows = rows + memtable.getRows();
+    }
+    return rows;
+  }
+
+  /**
+   * @param segment  segment
+   * @param filename name of file in segment
+   * @return file in segment's index directory.
+   */
+  static File segmentFile(InvertedFile segment, String filename)
+  {
+    return new File(segment.indexParentDirectoryPath + File.separator +
+		    segment.indexname + File.separator + filename);
+  }
+
+  /**
+   * Setup segment for retrieval.
+   * @param segment segment
+   * @exception IOException if segment is not valid.
+   */
+  static void setup(InvertedFile segment)
+    throws IOException
+  {
+    try {
+      segment.setup();
+    } catch (BSPIndexInvalidException exception) {
+      throw new IOException(exception.getMessage());
+    }
+  }
+
+  /**
+   * Remove file or directory and its contents.
+   * @param file file or directory
+   */
+  static void deleteTree(File file)
+  {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child: files) {
+	deleteTree(child);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * Writes a segment: one index in the usual organization, with its
+   * own dictionary partitions and postings file.
+   */
+  class SegmentWriter
+  {
+    final InvertedFile segment;
+    final FileRunLengthPostingsWriter postingsWriter;
+    DictionaryBinSearchMap partition;
+    String partitionId;
+
+    SegmentWriter(int number)
+      throws IOException
+    {
+      File parent = new File(indexDirectory, SEGMENT_PREFIX + number);
+      File dir = new File(parent, index.indexname);
+      if (! dir.mkdirs()) {
+	throw new IOException("unable to create segment directory: " + dir);
+      }
+      this.segment = new InvertedFile(index.indexname, index.tablefilename,
+				      parent.getPath(), index.indexFormat);
+      this.segment.invfLowerCaseKeys = index.invfLowerCaseKeys;
+      this.segment.setBlockCache(index.getBlockCache());
+      this.segment.numrecs = new HashMap<String,Integer>();
+      this.segment.dataLength = new HashMap<String,Integer>();
+      this.postingsWriter = new FileRunLengthPostingsWriter(dir.getPath());
+    }
+
+    void beginPartition(String partitionId)
+      throws IOException
+    {
+      this.partitionId = partitionId;
+      this.partition =
+	new DictionaryBinSearchMap(segmentFile(this.segment, "partition_" + partitionId).getPath(),
+				   BinSearchMap.WRITE);
+    }
+
+    /**
+     * @param term     term, terms must be added in sorted order.
+     * @param postings postings of term
+     */
+    void add(String term, List<String> postings)
+      throws IOException
+    {
+      int address = 0;
+      for (int i = 0; i < postings.size(); i++) {
+	int postingAddress = this.postingsWriter.writeString(postings.get(i));
+	if (i == 0) {
+	  address = postingAddress;
+	}
+      }
+      this.partition.writeEntry(term, postings.size(), address);
+    }
+
+    void endPartition()
+      throws IOException
+    {
+      this.segment.numrecs.put(this.partitionId, new Integer(this.partition.getNumberOfRecords()));
+      this.segment.dataLength.put(this.partitionId, new Integer(4));
+      this.partition.close();
+    }
+
+    /**
+     * Close segment files and write serialized segment info, which marks segment complete.
+     * @param tableStart offset in table of first row of segment.
+     * @param tableEnd offset in table following last row of segment.
+     * @return segment ready for lookups.
+     */
+    InvertedFile finish(long tableStart, long tableEnd)
+      throws IOException
+    {
+      this.postingsWriter.close();
+      this.segment.tableStart = tableStart;
+      this.segment.tableEnd = tableEnd;
+      this.segment.valid = true;
+      this.segment.writeSerializedInfo();
+      setup(this.segment);
+      return this.segment;
+    }
+  }
+
+} // LiveInvertedFile
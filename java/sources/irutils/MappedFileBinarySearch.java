@@ -118,23 +118,15 @@ public final class MappedFileBinarySearch extends Object
     int mid;
     byte[] tstwordbytes = new byte[wordlen];
     byte[] wordbytes = word.getBytes();
+    ByteSearch search = ByteSearch.get();
 
     while ( low < high )
       {
 	mid = low + (high- low) / 2;
 	byteBuf.position(mid * (wordlen+datalen));
 	byteBuf.get(tstwordbytes);
-	// System.out.println(" byte array comparison, both byte arrays must be equal.");
-	int i = 0;
-	while (i < wordlen) {
-	  if ( wordbytes[i] != tstwordbytes[i] ) {
-	    cond = wordbytes[i] - tstwordbytes[i];
-	    break;
-	  } else {
-	    cond = 0;
-	  }
-	  i++;
-	}
+	// byte array comparison, both byte arrays must be equal.
+	cond = search.compare(wordbytes, 0, tstwordbytes, 0, wordlen);
 	if (cond < 0) {
 	  high = mid;
 	} else if (cond > 0) {
@@ -170,23 +162,15 @@ public final class MappedFileBinarySearch extends Object
     int mid;
     byte[] tstwordbytes = new byte[wordlen];
     byte[] wordbytes = word.getBytes(charset);
+    ByteSearch search = ByteSearch.get();
 
     while ( low < high )
       {
 	mid = low + (high- low) / 2;
 	byteBuf.position(mid * (wordlen+datalen));
 	byteBuf.get(tstwordbytes);
-	// System.out.println(" byte array comparison, both byte arrays must be equal.");
-	int i = 0;
-	while (i < wordlen) {
-	  if ( wordbytes[i] != tstwordbytes[i] ) {
-	    cond = wordbytes[i] - tstwordbytes[i];
-	    break;
-	  } else {
-	    cond = 0;
-	  }
-	  i++;
-	}
+	// byte array comparison, both byte arrays must be equal.
+	cond = search.compare(wordbytes, 0, tstwordbytes, 0, wordlen);
 	if (cond < 0) {
 	  high = mid;
 	} else if (cond > 0) {
@@ -14,15 +14,28 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.FileWriter;
 import java.io.BufferedWriter;
+import java.io.UncheckedIOException;
 
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.channels.FileChannel;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
- * 
+ * Reader of a multi-key index through memory mapped files.
+ * <p>
+ * Files and statistics of a partition are mapped and read on the
+ * first lookup in the partition, into concurrent maps.  The mapped
+ * buffers are shared and never repositioned: dictionary probes and
+ * postings reads go through absolute gets or a duplicate() view of
+ * the buffer owned by the lookup, so lookup() may be called from
+ * several threads at once.
+ * </p>
  */
 
 public class MappedMultiKeyIndex {
@@ -31,13 +44,15 @@ public class MappedMultiKeyIndex {
   String indexDirectoryName;
   MappedByteBuffer postingsRaf = null;
   /** random access file name cache as Map, filename -> random access file. */
-  Map<String,MappedByteBuffer> byteBufCache = new HashMap<String,MappedByteBuffer>(); 
+  Map<String,MappedByteBuffer> byteBufCache = new ConcurrentHashMap<String,MappedByteBuffer>(); 
   /** map of term dictionary byte buffers for each partition, partitionName -> StatsMap */
-  Map<String,MappedByteBuffer> mapOfTermDictionaryRafs = new HashMap<String,MappedByteBuffer>();
+  Map<String,MappedByteBuffer> mapOfTermDictionaryRafs = new ConcurrentHashMap<String,MappedByteBuffer>();
   /** map of extents byte buffers for each partition, partitionName -> StatsMap */
-  Map<String,MappedByteBuffer> mapOfExtentsRafs = new HashMap<String,MappedByteBuffer>();
+  Map<String,MappedByteBuffer> mapOfExtentsRafs = new ConcurrentHashMap<String,MappedByteBuffer>();
   /** map of stats maps for each partition, partitionName -> StatsMap */
-  Map<String,Map<String,String>> mapOfStatMaps = new HashMap<String,Map<String,String>>();
+  Map<String,Map<String,String>> mapOfStatMaps = new ConcurrentHashMap<String,Map<String,String>>();
+  /** lookup metrics */
+  IndexMetrics metrics = NullIndexMetrics.INSTANCE;
 
   public MappedMultiKeyIndex(String indexDirectoryName)
     throws FileNotFoundException, IOException
@@ -72,17 +87,52 @@ public class MappedMultiKeyIndex {
   public MappedByteBuffer openMappedByteBuffer(String filename) 
     throws FileNotFoundException, IOException
   {
-    if (byteBufCache.containsKey(filename)) {
-      return byteBufCache.get(filename);
-    } else {
-      FileChannel fileChannel = 
-	(new FileInputStream(new File (filename))).getChannel();
-      int sz = (int)fileChannel.size();
-      MappedByteBuffer byteBuffer = 
-	fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, sz);
-      byteBufCache.put(filename, byteBuffer);
-      fileChannel.close();
-      return byteBuffer;
+    return computeIfAbsent(this.byteBufCache, filename, new IOFunction<String,MappedByteBuffer>() {
+	public MappedByteBuffer apply(String filename) throws IOException {
+	  FileChannel fileChannel = 
+	    (new FileInputStream(new File (filename))).getChannel();
+	  int sz = (int)fileChannel.size();
+	  MappedByteBuffer byteBuffer = 
+	    fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, sz);
+	  fileChannel.close();
+	  return byteBuffer;
+	}
+      });
+  }
+
+  /** function computing a cached value that may fail with an IOException. */
+  interface IOFunction<K,V> {
+    V apply(K key) throws IOException;
+  }
+
+  /**
+   * ConcurrentHashMap.computeIfAbsent for functions throwing
+   * IOException: the value is computed at most once per key, and an
+   * IOException of the function is thrown, leaving the key absent.
+   * @param map      cache
+   * @param key      key of value
+   * @param function computes value of absent key
+   * @return value of key
+   */
+  static <K,V> V computeIfAbsent(Map<K,V> map, K key, final IOFunction<K,V> function)
+    throws IOException
+  {
+    V value = map.get(key);
+    if (value != null) {
+      return value;
+    }
+    try {
+      return map.computeIfAbsent(key, new Function<K,V>() {
+	  public V apply(K key) {
+	    try {
+	      return function.apply(key);
+	    } catch (IOException exception) {
+	      throw new UncheckedIOException(exception);
+	    }
+	  }
+	});
+    } catch (UncheckedIOException exception) {
+      throw exception.getCause();
     }
   }
 
@@ -123,15 +173,18 @@ public class MappedMultiKeyIndex {
   public MappedByteBuffer getTermDictionaryFile(String columnString, String termLengthString)
     throws IOException
   {
-    MappedByteBuffer termDictionaryByteBuffer;
-    String partitionKey = columnString + "|" + termLengthString;
-    if (this.mapOfTermDictionaryRafs.containsKey(partitionKey)) {
-       termDictionaryByteBuffer = this.mapOfTermDictionaryRafs.get(partitionKey);
-    } else {
-      termDictionaryByteBuffer = this.openTermDictionaryFile(columnString, termLengthString);
-      this.mapOfTermDictionaryRafs.put(partitionKey, termDictionaryByteBuffer);
-    }
-    return termDictionaryByteBuffer;
+    final String columnKey = columnString;
+    final String termLengthKey = termLengthString;
+    return computeIfAbsent(this.mapOfTermDictionaryRafs, columnString + "|" + termLengthString,
+			   new IOFunction<String,MappedByteBuffer>() {
+	public MappedByteBuffer apply(String partitionKey) throws IOException {
+	  MappedByteBuffer termDictionaryByteBuffer = openTermDictionaryFile(columnKey, termLengthKey);
+	  if (metrics.isEnabled()) {
+	    metrics.partitionOpened(indexname, partitionKey);
+	  }
+	  return termDictionaryByteBuffer;
+	}
+      });
   }
 
   public MappedByteBuffer openExtentsFile(String columnString, String termLengthString)
@@ -145,21 +198,27 @@ public class MappedMultiKeyIndex {
   public MappedByteBuffer getExtentsFile(String columnString, String termLengthString)
     throws IOException
   {
-    MappedByteBuffer extentsByteBuffer;
-    String partitionKey = columnString + "|" + termLengthString;
-    if (this.mapOfExtentsRafs.containsKey(partitionKey)) {
-       extentsByteBuffer = this.mapOfExtentsRafs.get(partitionKey);
-    } else {
-      extentsByteBuffer = this.openExtentsFile(columnString, termLengthString);
-      this.mapOfExtentsRafs.put(partitionKey, extentsByteBuffer);
-    }
-    return extentsByteBuffer;
+    final String columnKey = columnString;
+    final String termLengthKey = termLengthString;
+    return computeIfAbsent(this.mapOfExtentsRafs, columnString + "|" + termLengthString,
+			   new IOFunction<String,MappedByteBuffer>() {
+	public MappedByteBuffer apply(String partitionKey) throws IOException {
+	  return openExtentsFile(columnKey, termLengthKey);
+	}
+      });
   }
 
   public MappedByteBuffer getPostingsFile() {
     return this.postingsRaf;
   }
 
+  /**
+   * @param metrics metrics to report lookups to.
+   */
+  public void setMetrics(IndexMetrics metrics) {
+    this.metrics = metrics;
+  }
+
   public Map<String,String> readStatsFile(String columnString, String termLengthString)
     throws IOException
   {
@@ -171,20 +230,20 @@ public class MappedMultiKeyIndex {
   public Map<String,String> getStatsMap(String columnString, String termLengthString)
     throws FileNotFoundException, IOException
   {
-    Map<String,String> statsMap;
-    String partitionKey = columnString + "|" + termLengthString;
-    if (this.mapOfStatMaps.containsKey(partitionKey)) {
-      statsMap = this.mapOfStatMaps.get(partitionKey);
-    } else {
-      statsMap = this.readStatsFile(columnString, termLengthString);
-      this.mapOfStatMaps.put(partitionKey, statsMap);
-    }
-    return statsMap;
+    final String columnKey = columnString;
+    final String termLengthKey = termLengthString;
+    return computeIfAbsent(this.mapOfStatMaps, columnString + "|" + termLengthString,
+			   new IOFunction<String,Map<String,String>>() {
+	public Map<String,String> apply(String partitionKey) throws IOException {
+	  return readStatsFile(columnKey, termLengthKey);
+	}
+      });
   }
  
   public List<String> lookup(int column, String term)
     throws IOException, FileNotFoundException
   {
+    long start = this.metrics.isEnabled() ? System.nanoTime() : 0L;
     List<String> resultList = new ArrayList<String>();
     String termLengthString = Integer.toString(term.length());
     String columnString = Integer.toString(column);
@@ -201,6 +260,11 @@ public class MappedMultiKeyIndex {
     if (entry != null) {
       readPostings(extentsRaf, this.postingsRaf, resultList, entry);
     } 
+    if (this.metrics.isEnabled()) {
+      this.metrics.lookup(this.indexname, partitionKey, term.length(), true,
+			  System.nanoTime() - start, resultList.size(),
+			  MultiKeyIndex.postingsByteLength(resultList, resultList.size()));
+    }
     return resultList;
   }
 
@@ -222,18 +286,18 @@ public class MappedMultiKeyIndex {
     String line;
     /** line separated into fields */
     String [] fields;
-    /** checksum digest of line (currently sha1) */
-    String digest;
-    Record(String line, String [] fields, String digest) {
-      this.line = line; this.fields = fields; this.digest = digest;
+    /** 128 bit hash of line */
+    RecordHash hash;
+    Record(String line, String [] fields, RecordHash hash) {
+      this.line = line; this.fields = fields; this.hash = hash;
     }
     String getLine() { return this.line; }
     String [] getFields() { return this.fields; }
-    String getDigest() { return this.digest; }
+    RecordHash getHash() { return this.hash; }
   }
 
   /**
-   * Load Table
+   * Load Table; lines are split and hashed in parallel, see ParallelTableReader.
    * @param tablefilename name of file containing table of records with pipe-separated fields.
    * @return list of records instances.
    * @throws FileNotFoundException
@@ -242,14 +306,18 @@ public class MappedMultiKeyIndex {
    */
   public static List<Record> loadTable(String tablefilename) 
     throws FileNotFoundException, IOException, NoSuchAlgorithmException {
-    List<Record> newList = new ArrayList<Record>();
-    BufferedReader br = new BufferedReader(new FileReader(tablefilename));
-    String line;
-    while ((line = br.readLine()) != null) {
-      String[] fields = line.split("\\|");
-      String digest = sha1(line);
-      newList.add(new Record(line, fields, digest));
-    }
+    final List<Record> newList = new ArrayList<Record>();
+    new ParallelTableReader(tablefilename, Charset.defaultCharset()).read
+      (new ParallelTableReader.LineParser<Record>() {
+	  public Record parse(String line) {
+	    return new Record(line, line.split("\\|"), RecordHash.of(line));
+	  }
+	},
+	new ParallelTableReader.LineConsumer<Record>() {
+	  public void accept(String line, Record record) {
+	    newList.add(record);
+	  }
+	});
     return newList;
   }
 
@@ -263,7 +331,9 @@ public class MappedMultiKeyIndex {
   }
   
   /**
-   *  Disk based binary search implementation
+   *  Binary search of mapped term dictionary, through a view of the
+   *  buffer: the position of bsfp is not used or changed, so the
+   *  buffer may be shared by threads.
    *
    * @param bsfp       file pointer for binary search table
    * @param word       search word
@@ -284,21 +354,31 @@ public class MappedMultiKeyIndex {
     String tstword;
 
     // System.out.println("wordlen: " + wordlen + ", datalen: " + datalen + ", numrecs: " + numrecs);
+    // ASCII words are compared as bytes, without decoding records.
+    ByteSearch search = ByteSearch.get();
+    byte[] wordbytes = ByteSearch.keyBytes(word, wordlen);
+    ByteBuffer dictionary = bsfp.duplicate();
+
     while ( low < high )
       {
 	mid = low + (high- low) / 2;
-	bsfp.position((int)(mid * (wordlen+datalen)));
-	bsfp.get(wordbuf);
-	tstword = new String(wordbuf);
+	dictionary.position((int)(mid * (wordlen+datalen)));
+	dictionary.get(wordbuf);
 	// System.out.println("index: " + mid + ", address: " + (mid * (wordlen+datalen)) + ", tstword: " + tstword + ", word: " + word);
-	cond = word.compareTo(tstword);
+	if (wordbytes != null) {
+	  cond = search.compare(wordbytes, 0, wordbuf, 0, wordlen);
+	  tstword = word;
+	} else {
+	  tstword = new String(wordbuf);
+	  cond = word.compareTo(tstword);
+	}
 	if (cond < 0) {
 	  high = mid;
 	} else if (cond > 0) {
 	  low = mid + 1;
 	} else {
-	  long count = bsfp.getLong();
-	  long address = bsfp.getLong();
+	  long count = dictionary.getLong();
+	  long address = dictionary.getLong();
 	  return new DictionaryEntry(tstword, count, address);
 	}
       }
@@ -319,18 +399,17 @@ public class MappedMultiKeyIndex {
     return newMap;
   }
 
+  /**
+   * Add postings of term to list, reading through views of the
+   * buffers, whose positions are not used or changed.
+   */
   public static void readPostings(MappedByteBuffer extentsRaf, MappedByteBuffer postingsRaf, 
 			   List<String> newList, DictionaryEntry entry) 
     throws IOException
   {
-    extentsRaf.position((int)entry.getAddress());
-    for (int i = 0; i < entry.getNumberOfPostings(); i++) {
-      long offset = extentsRaf.getLong();
-      long length = extentsRaf.getLong();
-      byte[] buf = new byte[(int)length];
-      postingsRaf.position((int)offset);
-      postingsRaf.get(buf);
-      newList.add(new String(buf));
-    }
+    ByteBuffer extents = extentsRaf.duplicate();
+    extents.position((int)entry.getAddress());
+    extents.limit((int)(entry.getAddress() + 16 * entry.getNumberOfPostings()));
+    new ExtentReads(extents).read(postingsRaf.duplicate(), newList, Charset.defaultCharset());
   }
 }
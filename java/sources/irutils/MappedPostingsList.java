@@ -63,6 +63,15 @@ public class MappedPostingsList extends AbstractList<String> implements List<Str
     return this.count;
   }
 
+  /** @return number of bytes occupied by postings list in postings file. */
+  public long byteLength()
+  {
+    if (this.count == 0) {
+      return 0;
+    }
+    return this.offsets[this.count - 1] + 4 + this.lengths[this.count - 1] - this.address;
+  }
+
   @Override
   public void     add(int index, String element) {  }
   @Override
@@ -0,0 +1,285 @@
+package irutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sequential writer of index files through memory mapped windows.
+ * <p>
+ * A window of the file starting at the position written is mapped
+ * read-write; when the data written doesn't fit in what is left of
+ * the window, the window is unmapped and the next one is mapped from
+ * the current position, extending the file.  On close the last
+ * window is unmapped and the file is truncated to the bytes written.
+ * The byte format is that of DataOutputStream (big endian).
+ * </p><p>
+ * Windows are unmapped as soon as they are done with, rather than
+ * when the buffers are garbage collected, where the JVM allows it
+ * (see unmap()).
+ * </p>
+ * Properties:
+ * <pre>
+ *   -Difbuild.mapped.window=&lt;n&gt; bytes mapped at a time (default: 67108864)
+ *   -Difbuild.write.sync=&lt;n&gt;     force windows to disk before they are
+ *                                unmapped, when not 0 (see BlockWriter)
+ * </pre>
+ */
+
+public class MappedWriter implements DataOutput, Closeable
+{
+  /** bytes per window */
+  static final long WINDOW_SIZE =
+    Math.max(4096, Long.parseLong(System.getProperty("ifbuild.mapped.window", "67108864")));
+
+  /** sun.misc.Unsafe and its invokeCleaner method (Java 9 and later), null if absent */
+  static final Object UNSAFE;
+  static final Method INVOKE_CLEANER;
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+    } catch (Exception exception) {
+      invokeCleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  /**
+   * Unmap buffer now, rather than when it is garbage collected.  The
+   * buffer must not be used afterwards.  If the JVM provides no way
+   * to do so the buffer is left to the garbage collector.
+   * @param buffer mapped buffer
+   */
+  static void unmap(MappedByteBuffer buffer)
+  {
+    if (buffer == null) {
+      return;
+    }
+    try {
+      if (INVOKE_CLEANER != null) {
+	INVOKE_CLEANER.invoke(UNSAFE, buffer);
+      } else {
+	// Java 8: DirectByteBuffer.cleaner().clean()
+	Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+	cleanerMethod.setAccessible(true);
+	Object cleaner = cleanerMethod.invoke(buffer);
+	if (cleaner != null) {
+	  cleaner.getClass().getMethod("clean").invoke(cleaner);
+	}
+      }
+    } catch (Exception exception) {
+      // leave it to the garbage collector.
+    }
+  }
+
+  final String filename;
+  final FileChannel channel;
+  /** window being written, null if none */
+  MappedByteBuffer window = null;
+  /** offset in file of window */
+  long windowStart;
+  boolean closed = false;
+
+  /**
+   * Create (or truncate) file and write from its start.
+   * @param filename name of file
+   */
+  public MappedWriter(String filename)
+    throws IOException
+  {
+    this(filename, -1);
+  }
+
+  /**
+   * @param filename name of file
+   * @param position offset in existing file to write from, data
+   *                 beyond it is truncated on close; -1 to truncate
+   *                 file and write from its start.
+   */
+  public MappedWriter(String filename, long position)
+    throws IOException
+  {
+    this.filename = filename;
+    this.channel = position < 0 ?
+      FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+		       StandardOpenOption.READ, StandardOpenOption.WRITE,
+		       StandardOpenOption.TRUNCATE_EXISTING) :
+      FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+		       StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.windowStart = Math.max(0, position);
+  }
+
+  /** @return name of file */
+  public String getFilename() { return this.filename; }
+
+  /** @return offset in file of next byte written */
+  public long position()
+  {
+    return this.windowStart + (this.window == null ? 0 : this.window.position());
+  }
+
+  /**
+   * @param bytes bytes about to be written, at most the window size
+   * @return window with room for bytes, mapping the next window if needed.
+   */
+  MappedByteBuffer window(int bytes)
+    throws IOException
+  {
+    if (this.window == null || this.window.remaining() < bytes) {
+      long start = this.position();
+      this.unmapWindow();
+      this.windowStart = start;
+      this.window = this.channel.map(FileChannel.MapMode.READ_WRITE, start, WINDOW_SIZE);
+    }
+    return this.window;
+  }
+
+  /** unmap window, leaving position unchanged */
+  void unmapWindow()
+  {
+    if (this.window != null) {
+      if (BlockWriter.SYNC_BYTES > 0) {
+	this.window.force();
+      }
+      this.windowStart = this.windowStart + this.window.position();
+      MappedByteBuffer done = this.window;
+      this.window = null;
+      unmap(done);
+    }
+  }
+
+  public void write(int b)
+    throws IOException
+  {
+    this.window(1).put((byte)b);
+  }
+
+  public void write(byte[] b)
+    throws IOException
+  {
+    this.write(b, 0, b.length);
+  }
+
+  public void write(byte[] b, int off, int len)
+    throws IOException
+  {
+    while (len > 0) {
+      MappedByteBuffer window = this.window(1);
+      int n = Math.min(len, window.remaining());
+      window.put(b, off, n);
+      off = off + n;
+      len = len - n;
+    }
+  }
+
+  public void writeBoolean(boolean v)
+    throws IOException
+  {
+    this.write(v ? 1 : 0);
+  }
+
+  public void writeByte(int v)
+    throws IOException
+  {
+    this.write(v);
+  }
+
+  public void writeShort(int v)
+    throws IOException
+  {
+    this.window(2).putShort((short)v);
+  }
+
+  public void writeChar(int v)
+    throws IOException
+  {
+    this.window(2).putChar((char)v);
+  }
+
+  public void writeInt(int v)
+    throws IOException
+  {
+    this.window(4).putInt(v);
+  }
+
+  public void writeLong(long v)
+    throws IOException
+  {
+    this.window(8).putLong(v);
+  }
+
+  public void writeFloat(float v)
+    throws IOException
+  {
+    this.writeInt(Float.floatToIntBits(v));
+  }
+
+  public void writeDouble(double v)
+    throws IOException
+  {
+    this.writeLong(Double.doubleToLongBits(v));
+  }
+
+  /** write low byte of each character of s, as DataOutputStream does. */
+  public void writeBytes(String s)
+    throws IOException
+  {
+    int length = s.length();
+    for (int i = 0; i < length; i++) {
+      this.window(1).put((byte)s.charAt(i));
+    }
+  }
+
+  public void writeChars(String s)
+    throws IOException
+  {
+    int length = s.length();
+    for (int i = 0; i < length; i++) {
+      this.writeChar(s.charAt(i));
+    }
+  }
+
+  public void writeUTF(String s)
+    throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length() + 2);
+    new DataOutputStream(bytes).writeUTF(s);
+    this.write(bytes.toByteArray());
+  }
+
+  /** unmap window, truncate file to bytes written and close it. */
+  public void close()
+    throws IOException
+  {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    try {
+      this.unmapWindow();
+      this.channel.truncate(this.windowStart);
+      if (BlockWriter.SYNC_BYTES > 0) {
+	this.channel.force(false);
+      }
+    } finally {
+      this.channel.close();
+    }
+  }
+
+} // MappedWriter
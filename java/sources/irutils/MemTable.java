@@ -0,0 +1,125 @@
+package irutils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory sorted map of terms to table rows appended to a
+ * LiveInvertedFile since its last flush.
+ * <p>
+ * Rows of a term are kept in an immutable chain, newest row first,
+ * the same order as postings in the index.  Adding a row replaces the
+ * head of the chain, so readers never lock: they see the chain as it
+ * was when they fetched its head.  Writers must be serialized by the
+ * caller.
+ * </p>
+ * @see LiveInvertedFile
+ */
+
+public class MemTable
+{
+  /** table row and link to next older row of term. */
+  static final class Posting
+  {
+    final String row;
+    final Posting next;
+    final int count;
+
+    Posting(String row, Posting next)
+    {
+      this.row = row;
+      this.next = next;
+      this.count = next == null ? 1 : next.count + 1;
+    }
+  }
+
+  /** term -> newest posting of term */
+  final ConcurrentSkipListMap<String,Posting> map = new ConcurrentSkipListMap<String,Posting>();
+
+  /** offset in table of first row in memtable */
+  final long tableStart;
+  /** offset in table following last row in memtable */
+  volatile long tableEnd;
+  /** number of rows */
+  volatile long rows = 0;
+  /** bytes of rows, an estimate of size of postings */
+  volatile long bytes = 0;
+
+  /**
+   * @param tableStart offset in table of first row added to memtable.
+   */
+  public MemTable(long tableStart)
+  {
+    this.tableStart = tableStart;
+    this.tableEnd = tableStart;
+  }
+
+  /**
+   * Add row of table to memtable, callers must not call add concurrently.
+   * @param term     key of row
+   * @param row      table row
+   * @param tableEnd offset in table following row.
+   */
+  void add(String term, String row, long tableEnd)
+  {
+    this.map.put(term, new Posting(row, this.map.get(term)));
+    this.rows = this.rows + 1;
+    this.bytes = this.bytes + row.length() + 4;
+    this.tableEnd = tableEnd;
+  }
+
+  /**
+   * Append rows of term to list, newest first.
+   * @param term   term to look up.
+   * @param result list rows are added to.
+   */
+  void collect(String term, List<String> result)
+  {
+    for (Posting posting = this.map.get(term); posting != null; posting = posting.next) {
+      result.add(posting.row);
+    }
+  }
+
+  /**
+   * @param term term to look up.
+   * @return rows of term, newest first, empty list if term not present.
+   */
+  public List<String> get(String term)
+  {
+    Posting posting = this.map.get(term);
+    List<String> result = new ArrayList<String>(posting == null ? 0 : posting.count);
+    this.collect(term, result);
+    return result;
+  }
+
+  /**
+   * Group terms by partition (term length) as in the index.
+   * @param indexname name of index, prefix of partition names.
+   * @return map of partition name to sorted terms of partition.
+   */
+  Map<String,List<String>> partitions(String indexname)
+  {
+    Map<String,List<String>> partitionMap = new TreeMap<String,List<String>>();
+    Iterator<String> iter = this.map.keySet().iterator();
+    while (iter.hasNext()) {
+      String term = iter.next();
+      String partitionId = indexname + term.length();
+      List<String> terms = partitionMap.get(partitionId);
+      if (terms == null) {
+	terms = new ArrayList<String>();
+	partitionMap.put(partitionId, terms);
+      }
+      terms.add(term);
+    }
+    return partitionMap;
+  }
+
+  public boolean isEmpty() { return this.map.isEmpty(); }
+  public long getRows() { return this.rows; }
+  public long getBytes() { return this.bytes; }
+
+} // MemTable
@@ -4,9 +4,11 @@ package irutils;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.TreeMap;
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -17,41 +19,203 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.FileWriter;
 import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
 import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
- * 
+ * Reader of a multi-key index built by MultiKeyIndexGeneration.
+ * <p>
+ * A MultiKeyIndex is meant to be opened once and kept: the statistics
+ * of all partitions are read when it is opened, and the files of a
+ * partition are opened on the first lookup in it and kept open until
+ * close().  Files are read with positional reads (see PositionalFile),
+ * so lookup() and lookupAsync() may be called from several threads at
+ * once.  The RandomAccessFile accessors (openTermDictionaryFile() and
+ * so on) are not thread-safe.
+ * </p>
  */
 
-public class MultiKeyIndex {
+public class MultiKeyIndex implements Closeable {
+
+  static final Charset UTF8 = Charset.forName("utf-8");
 
   String indexname;
   String indexDirectoryName;
+  /** postings file read by lookups */
+  PositionalFile postingsFile;
+  /** postings file of getPostingsFile(), opened on first use. */
   RandomAccessFile postingsRaf;
   /** random access file name cache as Map, filename -> random access file. */
   Map<String,RandomAccessFile> rafCache = new HashMap<String,RandomAccessFile>(); 
-  /** map of stats maps for each partition, partitionName -> StatsMap */
-  Map<String,Map<String,String>> MapOfStatMaps = new HashMap<String,Map<String,String>>();
+  /** datalength of each partition, by column and term length */
+  int[][] datalengths;
+  /** number of terms of each partition, by column and term length, -1 if no partition */
+  long[][] recordnums;
+  /** files of each partition, by column and term length, null until first lookup in partition */
+  PartitionFiles[][] partitionFiles;
+  volatile boolean closed = false;
+  /** lookup metrics */
+  IndexMetrics metrics = NullIndexMetrics.INSTANCE;
+  /** cache files are read through, null if reading files directly. */
+  BlockCache blockCache;
+  /** channels of lookupAsync(), null until first asynchronous lookup. */
+  volatile AsyncFileReader asyncReader;
 
   public MultiKeyIndex(String indexDirectoryName)
-    throws FileNotFoundException
+    throws IOException
+  {
+    this(indexDirectoryName, (BlockCache)null);
+  }
+
+  /**
+   * @param indexDirectoryName directory of index
+   * @param blockCache cache dictionaries, extents and postings are read
+   *                   through, may be shared by indices, null to read
+   *                   files directly.
+   */
+  public MultiKeyIndex(String indexDirectoryName, BlockCache blockCache)
+    throws IOException
   {
     this.indexDirectoryName = indexDirectoryName;
     String[] fields = indexDirectoryName.split("/");
     this.indexname = fields[fields.length - 1];
-    this.postingsRaf = 
-      new RandomAccessFile(indexDirectoryName + "/postings", "r");
+    this.blockCache = blockCache;
+    this.postingsFile = new PositionalFile(blockCache, indexDirectoryName + "/postings");
+    try {
+      this.readPartitionStats();
+    } catch (IOException exception) {
+      this.postingsFile.close();
+      throw exception;
+    }
   }
 
   public MultiKeyIndex(String workingDirectoryName, String indexname)
+    throws IOException
+  {
+    this(workingDirectoryName +  "/indices/" + indexname, (BlockCache)null);
+  }
+
+  /** term dictionary, extents of a partition */
+  static final class PartitionFiles {
+    final PositionalFile termDictionary;
+    final PositionalFile extents;
+    PartitionFiles(PositionalFile termDictionary, PositionalFile extents) {
+      this.termDictionary = termDictionary;
+      this.extents = extents;
+    }
+  }
+
+  /**
+   * Read statistics (-term-dictionary-stats.txt) of all partitions of
+   * index into datalengths and recordnums.
+   */
+  void readPartitionStats()
+    throws IOException
+  {
+    File[] files = new File(this.indexDirectoryName).listFiles();
+    if (files == null) {
+      throw new FileNotFoundException(this.indexDirectoryName + " (No such directory)");
+    }
+    Pattern statsPattern = Pattern.compile(Pattern.quote(this.indexname) +
+					   "-(\\d+)-(\\d+)-term-dictionary-stats\\.txt");
+    List<int[]> partitions = new ArrayList<int[]>();
+    int columns = 0;
+    int termLengths = 0;
+    for (File file: files) {
+      Matcher matcher = statsPattern.matcher(file.getName());
+      if (matcher.matches()) {
+	int column = Integer.parseInt(matcher.group(1));
+	int termLength = Integer.parseInt(matcher.group(2));
+	partitions.add(new int[] { column, termLength });
+	columns = Math.max(columns, column + 1);
+	termLengths = Math.max(termLengths, termLength + 1);
+      }
+    }
+    this.datalengths = new int[columns][termLengths];
+    this.recordnums = new long[columns][termLengths];
+    this.partitionFiles = new PartitionFiles[columns][termLengths];
+    for (long[] recordnums: this.recordnums) {
+      Arrays.fill(recordnums, -1L);
+    }
+    for (int[] partition: partitions) {
+      Map<String,String> statsMap =
+	this.readStatsFile(Integer.toString(partition[0]), Integer.toString(partition[1]));
+      this.datalengths[partition[0]][partition[1]] = Integer.parseInt(statsMap.get("datalength"));
+      this.recordnums[partition[0]][partition[1]] = Long.parseLong(statsMap.get("recordnum"));
+    }
+  }
+
+  /** @exception IOException if index has been closed. */
+  void checkOpen()
+    throws IOException
+  {
+    if (this.closed) {
+      throw new IOException(this.indexDirectoryName + ": index is closed");
+    }
+  }
+
+  /**
+   * @param column     key column
+   * @param termLength length of term
+   * @exception FileNotFoundException if index has no partition for column and term length.
+   */
+  void checkPartition(int column, int termLength)
     throws FileNotFoundException
   {
-    this.indexDirectoryName = workingDirectoryName +  "/indices/" + indexname ;
-    this.indexname = indexname;
-    this.postingsRaf = 
-      new RandomAccessFile(this.indexDirectoryName + "/postings", "r");
+    if (column < 0 || column >= this.recordnums.length || termLength < 0 ||
+	termLength >= this.recordnums[column].length || this.recordnums[column][termLength] < 0) {
+      throw new FileNotFoundException
+	(partitionPath(this.indexDirectoryName, Integer.toString(column),
+		       Integer.toString(termLength), "-term-dictionary-stats.txt") +
+	 " (No such file or directory)");
+    }
+  }
+
+  /**
+   * @param column     key column
+   * @param termLength length of term
+   * @return files of partition, opened on first use.
+   * @exception FileNotFoundException if index has no partition for column and term length.
+   */
+  PartitionFiles getPartitionFiles(int column, int termLength)
+    throws IOException
+  {
+    this.checkOpen();
+    this.checkPartition(column, termLength);
+    PartitionFiles files = this.partitionFiles[column][termLength];
+    if (files == null) {
+      synchronized (this) {
+	this.checkOpen();
+	files = this.partitionFiles[column][termLength];
+	if (files == null) {
+	  String columnString = Integer.toString(column);
+	  String termLengthString = Integer.toString(termLength);
+	  PositionalFile termDictionary =
+	    new PositionalFile(this.blockCache, partitionPath(this.indexDirectoryName, columnString,
+							      termLengthString, "-term-dictionary"));
+	  try {
+	    files = new PartitionFiles
+	      (termDictionary,
+	       new PositionalFile(this.blockCache, partitionPath(this.indexDirectoryName, columnString,
+								 termLengthString, "-postings-offsets")));
+	  } catch (IOException exception) {
+	    termDictionary.close();
+	    throw exception;
+	  }
+	  this.partitionFiles[column][termLength] = files;
+	  this.metrics.partitionOpened(this.indexname, columnString + "|" + termLengthString);
+	}
+      }
+    }
+    return files;
   }
 
   public RandomAccessFile openRandomAccessFile(String filename) 
@@ -60,7 +224,7 @@ public class MultiKeyIndex {
     if (rafCache.containsKey(filename)) {
       return rafCache.get(filename);
     } else {
-      RandomAccessFile raf = new RandomAccessFile(filename, "r");
+      RandomAccessFile raf = CachedRandomAccessFile.open(this.blockCache, filename);
       rafCache.put(filename, raf);
       return raf;
     }
@@ -95,9 +259,12 @@ public class MultiKeyIndex {
   public RandomAccessFile openTermDictionaryFile(String columnString, String termLengthString)
     throws IOException
   {
-    return openRandomAccessFile(partitionPath
-				(this.indexDirectoryName,
-				 columnString, termLengthString, "-term-dictionary"));
+    String filename = partitionPath(this.indexDirectoryName,
+				    columnString, termLengthString, "-term-dictionary");
+    if (this.metrics.isEnabled() && (! this.rafCache.containsKey(filename))) {
+      this.metrics.partitionOpened(this.indexname, columnString + "|" + termLengthString);
+    }
+    return openRandomAccessFile(filename);
   }
 
   public RandomAccessFile openExtentsFile(String columnString, String termLengthString)
@@ -108,9 +275,21 @@ public class MultiKeyIndex {
 				 columnString, termLengthString, "-postings-offsets"));
   }
 
-  public RandomAccessFile getPostingsFile() {
+  public synchronized RandomAccessFile getPostingsFile()
+    throws FileNotFoundException
+  {
+    if (this.postingsRaf == null) {
+      this.postingsRaf = CachedRandomAccessFile.open(this.blockCache, this.indexDirectoryName + "/postings");
+    }
     return this.postingsRaf;
   }
+
+  /**
+   * @param metrics metrics to report lookups to.
+   */
+  public void setMetrics(IndexMetrics metrics) {
+    this.metrics = metrics;
+  }
  
   public Map<String,String> readStatsFile(String columnString, String termLengthString)
     throws IOException
@@ -120,40 +299,232 @@ public class MultiKeyIndex {
 			  columnString, termLengthString, "-term-dictionary-stats.txt"));
   }
 
+  /**
+   * Look up term in column.  May be called from several threads at once.
+   * @param column key column
+   * @param term   term to look up
+   * @return postings of term, or a message if term is not in index.
+   * @exception FileNotFoundException if index has no partition for column and length of term.
+   */
   public List<String> lookup(int column, String term)
     throws IOException, FileNotFoundException
   {
+    long start = this.metrics.isEnabled() ? System.nanoTime() : 0L;
     List<String> resultList = new ArrayList<String>();
-    String termLengthString = Integer.toString(term.length());
-    String columnString = Integer.toString(column);
-
-    RandomAccessFile termDictionaryRaf = this.openTermDictionaryFile(columnString, termLengthString);
-    RandomAccessFile extentsRaf = this.openExtentsFile(columnString, termLengthString);
-    RandomAccessFile postingsRaf = this.getPostingsFile();
-    Map<String,String> statsMap = this.readStatsFile(columnString, termLengthString);
-
-    int datalength = Integer.parseInt(statsMap.get("datalength"));
-    int recordnum = Integer.parseInt(statsMap.get("recordnum"));
-    
-    DictionaryEntry entry = 
-      dictionaryBinarySearch(termDictionaryRaf, term, 
-					   term.length(), datalength, recordnum );
-    if (entry != null) {
-      readPostings(extentsRaf, postingsRaf, resultList, entry);
-    } else {
+    DictionaryEntry entry = this.readPostings(column, term, resultList);
+    if (entry == null) {
       resultList.add("\"" + term + "\" entry is " + entry);
     }
-    termDictionaryRaf.close();
-    extentsRaf.close();
-    postingsRaf.close();
+    if (this.metrics.isEnabled()) {
+      int postings = entry == null ? 0 : resultList.size();
+      this.metrics.lookup(this.indexname, column + "|" + term.length(), term.length(), false,
+			  System.nanoTime() - start, postings, postingsByteLength(resultList, postings));
+    }
     return resultList;
   }
 
+  /**
+   * Add postings of term in column to list.
+   * @param column     key column
+   * @param term       term to look up
+   * @param resultList list postings are added to
+   * @return dictionary entry of term, null if term is not in index.
+   * @exception FileNotFoundException if index has no partition for column and length of term.
+   */
+  DictionaryEntry readPostings(int column, String term, List<String> resultList)
+    throws IOException
+  {
+    PartitionFiles files = this.getPartitionFiles(column, term.length());
+    DictionaryEntry entry =
+      dictionaryBinarySearch(files.termDictionary, term, term.length(),
+			     this.datalengths[column][term.length()],
+			     this.recordnums[column][term.length()]);
+    if (entry != null) {
+      ExtentReads.read(files.extents, entry).read(this.postingsFile, resultList, UTF8);
+    }
+    return entry;
+  }
+
 
 
 
 
 
+  /**
+   * Look up term in column without blocking the calling thread.
+   * <p>
+   * Reads the term dictionary, extents and postings with chained reads
+   * on AsynchronousFileChannels sharing a small I/O executor, see
+   * AsyncFileReader.  May be called from several threads at once.
+   * </p>
+   * @param column key column
+   * @param term   term to look up
+   * @return future of postings of term, empty if term is not in index;
+   *         completes exceptionally if there is no partition for term.
+   */
+  public CompletableFuture<List<String>> lookupAsync(int column, final String term)
+  {
+    final long start = this.metrics.isEnabled() ? System.nanoTime() : 0L;
+    final String termLengthString = Integer.toString(term.length());
+    final String columnString = Integer.toString(column);
+    CompletableFuture<List<String>> result;
+    try {
+      this.checkOpen();
+      this.checkPartition(column, term.length());
+      result = this.lookupAsync(columnString, termLengthString, term,
+				this.datalengths[column][term.length()],
+				this.recordnums[column][term.length()]);
+    } catch (IOException exception) {
+      result = AsyncFileReader.<List<String>>failed(exception);
+    }
+    if (this.metrics.isEnabled()) {
+      final IndexMetrics lookupMetrics = this.metrics;
+      result = result.whenComplete((postings, throwable) -> {
+	  String partition = columnString + "|" + termLengthString;
+	  if (throwable != null) {
+	    lookupMetrics.lookupFailed(this.indexname, partition);
+	  } else {
+	    lookupMetrics.lookup(this.indexname, partition, term.length(), false,
+				 System.nanoTime() - start, postings.size(),
+				 postingsByteLength(postings, postings.size()));
+	  }
+	});
+    }
+    return result;
+  }
+
+  CompletableFuture<List<String>> lookupAsync(String columnString, String termLengthString,
+					      String term, int datalength, long recordnum)
+    throws IOException
+  {
+    AsyncFileReader reader = this.getAsyncReader();
+    AsynchronousFileChannel termDictionaryChannel =
+      reader.channel(partitionPath(this.indexDirectoryName,
+				   columnString, termLengthString, "-term-dictionary"));
+    final AsynchronousFileChannel extentsChannel =
+      reader.channel(partitionPath(this.indexDirectoryName,
+				   columnString, termLengthString, "-postings-offsets"));
+    final AsynchronousFileChannel postingsChannel =
+      reader.channel(this.indexDirectoryName + "/postings");
+    if (termDictionaryChannel == null || extentsChannel == null || postingsChannel == null) {
+      throw new FileNotFoundException("missing files of partition " + columnString + "|" +
+				      termLengthString + " in " + this.indexDirectoryName);
+    }
+    return AsyncFileReader.dictionaryBinarySearch(termDictionaryChannel, term, term.length(),
+						  datalength, recordnum, true)
+      .thenCompose(entry -> {
+	  if (entry == null) {
+	    return CompletableFuture.completedFuture((List<String>)new ArrayList<String>(0));
+	  }
+	  return AsyncFileReader.read(extentsChannel, entry.getAddress(),
+				      (int)(16 * entry.getNumberOfPostings()))
+	    .thenCompose(extents -> AsyncFileReader.readExtents(postingsChannel, extents,
+								 UTF8));
+	});
+  }
+
+  /**
+   * Look up several terms in column without blocking the calling
+   * thread, see lookupAsync(int, String).  All lookups are issued at once.
+   * @param column key column
+   * @param terms  terms to look up
+   * @return future of map of each term to its postings, in order of terms.
+   */
+  public CompletableFuture<Map<String,List<String>>> lookupAsync(int column, List<String> terms)
+  {
+    final Map<String,CompletableFuture<List<String>>> lookups =
+      new LinkedHashMap<String,CompletableFuture<List<String>>>();
+    for (String term: terms) {
+      if (! lookups.containsKey(term)) {
+	lookups.put(term, this.lookupAsync(column, term));
+      }
+    }
+    return CompletableFuture.allOf(lookups.values().toArray(new CompletableFuture<?>[lookups.size()]))
+      .thenApply(ignored -> {
+	  Map<String,List<String>> result = new LinkedHashMap<String,List<String>>();
+	  for (Map.Entry<String,CompletableFuture<List<String>>> entry: lookups.entrySet()) {
+	    result.put(entry.getKey(), entry.getValue().join());
+	  }
+	  return result;
+	});
+  }
+
+  /** @return reader of asynchronous lookups, created on first use. */
+  AsyncFileReader getAsyncReader()
+  {
+    AsyncFileReader reader = this.asyncReader;
+    if (reader == null) {
+      synchronized (this) {
+	reader = this.asyncReader;
+	if (reader == null) {
+	  reader = new AsyncFileReader();
+	  this.asyncReader = reader;
+	}
+      }
+    }
+    return reader;
+  }
+
+  /**
+   * Close channels opened by asynchronous lookups.
+   * @exception IOException if an error occurs
+   */
+  public void closeAsync()
+    throws IOException
+  {
+    AsyncFileReader reader = this.asyncReader;
+    if (reader != null) {
+      this.asyncReader = null;
+      reader.close();
+    }
+  }
+
+  /**
+   * Close files of index, including channels of asynchronous lookups.
+   * Lookups must not be in progress or started afterwards.
+   * @exception IOException if an error occurs
+   */
+  public void close()
+    throws IOException
+  {
+    synchronized (this) {
+      if (this.closed) {
+	return;
+      }
+      this.closed = true;
+    }
+    for (PartitionFiles[] columnFiles: this.partitionFiles) {
+      for (PartitionFiles files: columnFiles) {
+	if (files != null) {
+	  files.termDictionary.close();
+	  files.extents.close();
+	}
+      }
+    }
+    this.postingsFile.close();
+    for (RandomAccessFile raf: this.rafCache.values()) {
+      raf.close();
+    }
+    this.rafCache.clear();
+    if (this.postingsRaf != null) {
+      this.postingsRaf.close();
+    }
+    this.closeAsync();
+  }
+
+  /**
+   * @param postings postings read by lookup
+   * @param count number of postings in list to count.
+   * @return number of postings bytes read, assuming one byte per character.
+   */
+  static long postingsByteLength(List<String> postings, int count) {
+    long length = 0;
+    for (int i = 0; i < count; i++) {
+      length = length + postings.get(i).length();
+    }
+    return length;
+  }
+
   public static String sha1(String input) throws NoSuchAlgorithmException {
     MessageDigest mDigest = MessageDigest.getInstance("SHA1");
     byte[] result = mDigest.digest(input.getBytes());
@@ -172,18 +543,18 @@ public class MultiKeyIndex {
     String line;
     /** line separated into fields */
     String [] fields;
-    /** checksum digest of line (currently sha1) */
-    String digest;
-    Record(String line, String [] fields, String digest) {
-      this.line = line; this.fields = fields; this.digest = digest;
+    /** 128 bit hash of line */
+    RecordHash hash;
+    Record(String line, String [] fields, RecordHash hash) {
+      this.line = line; this.fields = fields; this.hash = hash;
     }
     String getLine() { return this.line; }
     String [] getFields() { return this.fields; }
-    String getDigest() { return this.digest; }
+    RecordHash getHash() { return this.hash; }
   }
 
   /**
-   * Load Table
+   * Load Table; lines are split and hashed in parallel, see ParallelTableReader.
    * @param tablefilename name of file containing table of records with pipe-separated fields.
    * @param charset Character Set: ASCII, UTF-8, etc.
    * @return list of records instances.
@@ -193,20 +564,23 @@ public class MultiKeyIndex {
    */
   public static List<Record> loadTable(String tablefilename, Charset charset) 
     throws FileNotFoundException, IOException, NoSuchAlgorithmException {
-    List<Record> newList = new ArrayList<Record>();
-    BufferedReader br = new BufferedReader
-      (new InputStreamReader(new FileInputStream(tablefilename), charset));
-    String line;
-    while ((line = br.readLine()) != null) {
-      String[] fields = line.split("\\|");
-      String digest = sha1(line);
-      newList.add(new Record(line, fields, digest));
-    }
+    final List<Record> newList = new ArrayList<Record>();
+    new ParallelTableReader(tablefilename, charset).read
+      (new ParallelTableReader.LineParser<Record>() {
+	  public Record parse(String line) {
+	    return new Record(line, line.split("\\|"), RecordHash.of(line));
+	  }
+	},
+	new ParallelTableReader.LineConsumer<Record>() {
+	  public void accept(String line, Record record) {
+	    newList.add(record);
+	  }
+	});
     return newList;
   }
 
   /**
-   * Load Table
+   * Load Table; lines are split and hashed in parallel, see ParallelTableReader.
    * @param tablefilename name of file containing table of records with pipe-separated fields.
    * @return list of records instances.
    * @throws FileNotFoundException
@@ -215,15 +589,7 @@ public class MultiKeyIndex {
    */
   public static List<Record> loadTable(String tablefilename) 
     throws FileNotFoundException, IOException, NoSuchAlgorithmException {
-    List<Record> newList = new ArrayList<Record>();
-    BufferedReader br = new BufferedReader(new FileReader(tablefilename));
-    String line;
-    while ((line = br.readLine()) != null) {
-      String[] fields = line.split("\\|");
-      String digest = sha1(line);
-      newList.add(new Record(line, fields, digest));
-    }
-    return newList;
+    return loadTable(tablefilename, Charset.defaultCharset());
   }
 
   /** container for start offset and length of a posting. */
@@ -257,14 +623,23 @@ public class MultiKeyIndex {
     String tstword;
 
     // System.out.println("wordlen: " + wordlen + ", datalen: " + datalen + ", numrecs: " + numrecs);
+    // ASCII words are compared as bytes, without decoding records.
+    ByteSearch search = ByteSearch.get();
+    byte[] wordbytes = ByteSearch.keyBytes(word, wordlen);
+
     while ( low < high )
       {
 	mid = low + (high- low) / 2;
 	bsfp.seek(mid * (wordlen+datalen));
 	bsfp.read(wordbuf);
-	tstword = new String(wordbuf);
 	// System.out.println("index: " + mid + ", address: " + (mid * (wordlen+datalen)) + ", tstword: " + tstword + ", word: " + word);
-	cond = word.compareTo(tstword);
+	if (wordbytes != null) {
+	  cond = search.compare(wordbytes, 0, wordbuf, 0, wordlen);
+	  tstword = word;
+	} else {
+	  tstword = new String(wordbuf);
+	  cond = word.compareTo(tstword);
+	}
 	if (cond < 0) {
 	  high = mid;
 	} else if (cond > 0) {
@@ -278,6 +653,59 @@ public class MultiKeyIndex {
     return null;
   }
 
+  /**
+   * Binary search of term dictionary shared by threads: each probe
+   * reads a whole record (term, count and address) with one
+   * positional read.
+   *
+   * @param dictionary term dictionary
+   * @param word       search word
+   * @param wordlen    wordlength
+   * @param datalen    length of data following term in record
+   * @param numrecs    number of records in table
+   * @return entry of word, null if not found.
+   */
+  public static DictionaryEntry
+    dictionaryBinarySearch(PositionalFile dictionary, String word,
+			   int wordlen, int datalen, long numrecs)
+    throws IOException
+  {
+    long low = 0;
+    long high = numrecs;
+    int cond;
+    long mid;
+    byte[] record = new byte[wordlen + datalen];
+
+    // ASCII words are compared as bytes, without decoding records.
+    ByteSearch search = ByteSearch.get();
+    byte[] wordbytes = ByteSearch.keyBytes(word, wordlen);
+    String tstword;
+
+    while ( low < high )
+      {
+	mid = low + (high- low) / 2;
+	dictionary.readFully(mid * (wordlen+datalen), record, 0, record.length);
+	if (wordbytes != null) {
+	  cond = search.compare(wordbytes, 0, record, 0, wordlen);
+	  tstword = word;
+	} else {
+	  tstword = new String(record, 0, wordlen);
+	  cond = word.compareTo(tstword);
+	}
+	if (cond < 0) {
+	  high = mid;
+	} else if (cond > 0) {
+	  low = mid + 1;
+	} else {
+	  ByteBuffer data = ByteBuffer.wrap(record, wordlen, datalen);
+	  long count = data.getLong();
+	  long address = data.getLong();
+	  return new DictionaryEntry(tstword, count, address);
+	}
+      }
+    return null;
+  }
+
   public static Map<String,String> readStatsFile(String filename)
     throws IOException, FileNotFoundException
   {
@@ -292,19 +720,16 @@ public class MultiKeyIndex {
     return newMap;
   }
 
+  /**
+   * Add postings of term to list, in the order of its extent list.
+   * The extent list is read at once and the postings are read with
+   * coalesced reads, see ExtentReads.
+   */
   public static void readPostings(RandomAccessFile extentsRaf, RandomAccessFile postingsRaf, 
 				  List<String> newList, DictionaryEntry entry, Charset charset) 
     throws IOException
   {
-    extentsRaf.seek(entry.getAddress());
-    for (int i = 0; i < entry.getNumberOfPostings(); i++) {
-      long offset = extentsRaf.readLong();
-      long length = extentsRaf.readLong();
-      byte[] buf = new byte[(int)length];
-      postingsRaf.seek(offset);
-      postingsRaf.read(buf);
-      newList.add(new String(buf, charset));
-    }
+    ExtentReads.read(extentsRaf, entry).read(postingsRaf, newList, charset);
   }
 
   public static void readPostings(RandomAccessFile extentsRaf, RandomAccessFile postingsRaf, 
@@ -4,18 +4,32 @@ package irutils;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.HashMap;
 import java.util.TreeMap;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.FileWriter;
 import java.io.BufferedWriter;
-import java.security.MessageDigest;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.security.NoSuchAlgorithmException;
 import irutils.MultiKeyIndex.Record;
 import irutils.MultiKeyIndex.Extent;
@@ -29,29 +43,382 @@ public class MultiKeyIndexGeneration {
     Memory based temporary inverted file
     two tables;
     <ol>
-    <li>digest -> postings record map
-    <li>column -> termlength -> term -> digest map 
+    <li>record set: distinct records, numbered in order of first appearance
+    <li>for each column, terms sorted by length and term, each with its list
+        of record numbers (TermPostings)
     </ol>
   */
 
-  /** map of stats maps for each partition, partitionName -> StatsMap */
-  Map<String,Map<String,String>> mapOfStatMaps = new HashMap<String,Map<String,String>>();
+  /**
+   * Terms of one column, numbered in order of first appearance, in
+   * an open addressing table of terms.
+   */
+  static final class TermTable {
+    /** term of slots, null if slot is empty */
+    String[] keys;
+    /** term number of slots */
+    int[] values;
+    /** terms by term number */
+    String[] terms;
+    int size = 0;
+
+    TermTable(int expected) {
+      int capacity = 16;
+      while (capacity < expected * 2) {
+	capacity = capacity << 1;
+      }
+      this.keys = new String[capacity];
+      this.values = new int[capacity];
+      this.terms = new String[Math.max(16, expected)];
+    }
+
+    static int slot(String term, int mask) {
+      int h = term.hashCode() * 0x9e3779b9;
+      return (h ^ (h >>> 16)) & mask;
+    }
+
+    /** @return term number of term, a new one if term was not in table. */
+    int intern(String term) {
+      int mask = this.keys.length - 1;
+      int slot = slot(term, mask);
+      while (this.keys[slot] != null) {
+	if (this.keys[slot].equals(term)) {
+	  return this.values[slot];
+	}
+	slot = (slot + 1) & mask;
+      }
+      int number = this.size++;
+      if (number == this.terms.length) {
+	this.terms = Arrays.copyOf(this.terms, number << 1);
+      }
+      this.terms[number] = term;
+      this.keys[slot] = term;
+      this.values[slot] = number;
+      if (this.size * 2 > this.keys.length) {
+	this.rehash();
+      }
+      return number;
+    }
+
+    void rehash() {
+      String[] oldKeys = this.keys;
+      int[] oldValues = this.values;
+      this.keys = new String[oldKeys.length << 1];
+      this.values = new int[oldKeys.length << 1];
+      int mask = this.keys.length - 1;
+      for (int i = 0; i < oldKeys.length; i++) {
+	if (oldKeys[i] != null) {
+	  int slot = slot(oldKeys[i], mask);
+	  while (this.keys[slot] != null) {
+	    slot = (slot + 1) & mask;
+	  }
+	  this.keys[slot] = oldKeys[i];
+	  this.values[slot] = oldValues[i];
+	}
+      }
+    }
+
+    /** @return term number of term, -1 if term is not in table. */
+    int get(String term) {
+      int mask = this.keys.length - 1;
+      int slot = slot(term, mask);
+      while (this.keys[slot] != null) {
+	if (this.keys[slot].equals(term)) {
+	  return this.values[slot];
+	}
+	slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+  }
+
+  /** orders terms as the dictionaries do: by length, then by term. */
+  static final Comparator<String> TERM_ORDER = new Comparator<String>() {
+      public int compare(String a, String b) {
+	if (a.length() != b.length()) {
+	  return a.length() < b.length() ? -1 : 1;
+	}
+	return a.compareTo(b);
+      }
+    };
+
+  /**
+   * Postings of one column in compressed sparse row form: terms sorted
+   * by length and term, their dictionary bytes in one array, and their
+   * record numbers in one array.  Terms of one length make up one
+   * partition.
+   */
+  static final class TermPostings {
+    /** column of records */
+    final int column;
+    /** number of terms */
+    final int termCount;
+    /** bytes of terms in order, term i is termBytes[termStart[i]..termStart[i+1]) */
+    final byte[] termBytes;
+    final int[] termStart;
+    /** record numbers of term i are postings[postingsStart[i]..postingsStart[i+1]) */
+    final int[] postings;
+    final int[] postingsStart;
+    /** term length (in characters) of partition p */
+    final int[] partitionLength;
+    /** terms of partition p are partitionStart[p]..partitionStart[p+1] */
+    final int[] partitionStart;
+
+    /**
+     * @param column   column of records
+     * @param table    terms of column
+     * @param rowTerms term number of each row of table
+     * @param rowIds   record number of each row of table
+     */
+    TermPostings(int column, TermTable table, int[] rowTerms, int[] rowIds) {
+      this.column = column;
+      int n = table.size;
+      this.termCount = n;
+      String[] sorted = Arrays.copyOf(table.terms, n);
+      Arrays.sort(sorted, TERM_ORDER);
+      int[] rank = new int[n];
+      int partitions = 0;
+      ByteArrayOutputStream termBuffer = new ByteArrayOutputStream();
+      this.termStart = new int[n + 1];
+      for (int i = 0; i < n; i++) {
+	rank[table.get(sorted[i])] = i;
+	if (i == 0 || sorted[i].length() != sorted[i - 1].length()) {
+	  partitions++;
+	}
+	byte[] bytes = sorted[i].getBytes();
+	termBuffer.write(bytes, 0, bytes.length);
+	this.termStart[i + 1] = termBuffer.size();
+      }
+      this.termBytes = termBuffer.toByteArray();
+      this.partitionLength = new int[partitions];
+      this.partitionStart = new int[partitions + 1];
+      int p = 0;
+      for (int i = 0; i < n; i++) {
+	if (i == 0 || sorted[i].length() != sorted[i - 1].length()) {
+	  this.partitionLength[p] = sorted[i].length();
+	  this.partitionStart[p] = i;
+	  p++;
+	}
+      }
+      this.partitionStart[partitions] = n;
+      // count postings of each term, then place record numbers in row order.
+      this.postingsStart = new int[n + 1];
+      for (int row = 0; row < rowTerms.length; row++) {
+	this.postingsStart[rank[rowTerms[row]] + 1]++;
+      }
+      for (int i = 0; i < n; i++) {
+	this.postingsStart[i + 1] += this.postingsStart[i];
+      }
+      int[] next = Arrays.copyOf(this.postingsStart, n);
+      this.postings = new int[rowTerms.length];
+      for (int row = 0; row < rowTerms.length; row++) {
+	this.postings[next[rank[rowTerms[row]]]++] = rowIds[row];
+      }
+    }
+
+    /** @return term i as written to dictionary, decoded */
+    String getTerm(int i) {
+      return new String(this.termBytes, this.termStart[i], this.termStart[i + 1] - this.termStart[i]);
+    }
+
+    /** @return number of postings of term i */
+    int getPostingsCount(int i) {
+      return this.postingsStart[i + 1] - this.postingsStart[i];
+    }
+  }
+
+  /**
+   * Distinct records of a table, numbered 0, 1, ... in order of first
+   * appearance.  Records are found by their 128 bit hash in an open
+   * addressing table of long pairs; records with equal hashes are
+   * compared by line, so a hash collision can't merge two records.
+   */
+  static final class RecordSet {
+    /** hash halves of slots, valid where ids is not -1 */
+    long[] hash1s;
+    long[] hash2s;
+    /** record number of slots, -1 if slot is empty */
+    int[] ids;
+    /** lines by record number */
+    final List<String> lines = new ArrayList<String>();
+    /** number of records whose hash equaled that of a different record */
+    int collisions = 0;
+
+    RecordSet(int expected) {
+      int capacity = 16;
+      while (capacity < expected * 2) {
+	capacity = capacity << 1;
+      }
+      this.allocate(capacity);
+    }
+
+    void allocate(int capacity) {
+      this.hash1s = new long[capacity];
+      this.hash2s = new long[capacity];
+      this.ids = new int[capacity];
+      Arrays.fill(this.ids, -1);
+    }
+
+    /** @return number of distinct records */
+    int size() { return this.lines.size(); }
+
+    /** @return line of record number id */
+    String getLine(int id) { return this.lines.get(id); }
+
+    /**
+     * @param hash hash of line
+     * @param line record
+     * @return record number of line, a new one if line was not in set.
+     */
+    int add(RecordHash hash, String line) {
+      int mask = this.ids.length - 1;
+      int slot = (int)(hash.hash1 ^ (hash.hash1 >>> 32)) & mask;
+      while (this.ids[slot] >= 0) {
+	if (this.hash1s[slot] == hash.hash1 && this.hash2s[slot] == hash.hash2) {
+	  int id = this.ids[slot];
+	  if (this.lines.get(id).equals(line)) {
+	    return id;
+	  }
+	  this.collisions++;
+	}
+	slot = (slot + 1) & mask;
+      }
+      int id = this.lines.size();
+      this.lines.add(line);
+      this.hash1s[slot] = hash.hash1;
+      this.hash2s[slot] = hash.hash2;
+      this.ids[slot] = id;
+      if (this.lines.size() * 2 > this.ids.length) {
+	this.rehash();
+      }
+      return id;
+    }
+
+    void rehash() {
+      long[] oldHash1s = this.hash1s;
+      long[] oldHash2s = this.hash2s;
+      int[] oldIds = this.ids;
+      this.allocate(oldIds.length << 1);
+      int mask = this.ids.length - 1;
+      for (int i = 0; i < oldIds.length; i++) {
+	if (oldIds[i] >= 0) {
+	  int slot = (int)(oldHash1s[i] ^ (oldHash1s[i] >>> 32)) & mask;
+	  while (this.ids[slot] >= 0) {
+	    slot = (slot + 1) & mask;
+	  }
+	  this.hash1s[slot] = oldHash1s[i];
+	  this.hash2s[slot] = oldHash2s[i];
+	  this.ids[slot] = oldIds[i];
+	}
+      }
+    }
+  }
 
   /** start a new digest list for term using map from column -> termLength 
    * @param newMap string -> digest -list map
    * @param term   term to be indexed
    * @param digest digest of postings for term
+   * @deprecated terms are no longer mapped to digest lists.
    */
+  @Deprecated
   public static void addNewDigestList(Map<String,List<String>> newMap, String term, String digest) {
     List<String> newList = new ArrayList<String>();
     newList.add(digest);
     newMap.put(term, newList);
   }
 
-  /** column -> termlength -> term -> digest map */
-  Map<Integer,Map<Integer,Map<String,List<String>>>> columnLengthTermDigestMap;
-  /** digest -> single posting map */
-  Map<String,String> digestPostingMap;
+  /** map of stats maps for each partition, partitionName -> StatsMap */
+  Map<String,Map<String,String>> mapOfStatMaps = new HashMap<String,Map<String,String>>();
+
+  /** postings of each column */
+  TermPostings[] columnTermPostings;
+  /** distinct records, postings are written in record number order */
+  RecordSet recordSet;
+
+  /**
+   * column whose terms postings are clustered by, -1 to write postings
+   * in order of first appearance (table order).
+   */
+  int clusterColumn =
+    Integer.parseInt(System.getProperty("ifbuild.multikey.cluster", "-1"));
+  /** bytes skipped reading postings and number of terms of each column of last build */
+  final Map<String,long[]> columnSeeks = new TreeMap<String,long[]>();
+
+  /** index generation metrics */
+  IndexMetrics metrics = NullIndexMetrics.INSTANCE;
+  /** elapsed time of last generateMaps, reported once the index name is known. */
+  long generateMapsNanos = -1;
+  /** number of records processed by last generateMaps */
+  long generateMapsRecords = 0;
+
+  /** profile of current build, null if not profiled. */
+  BuildProfile buildProfile;
+  /** receives build progress reports, may be null. */
+  BuildProgressListener progressListener;
+
+  /**
+   * @param metrics metrics to report generation phases to.
+   */
+  public void setMetrics(IndexMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @param listener receives progress reports during generation, may be null.
+   */
+  public void setProgressListener(BuildProgressListener listener) {
+    this.progressListener = listener;
+  }
+
+  /**
+   * Write postings of records with the same term in column next to
+   * each other, in order of the terms of column, so lookups of the
+   * terms of column (and of terms that occur with them) read one
+   * range of the postings file.
+   * @param column column of table, -1 to write postings in table order.
+   */
+  public void setClusterColumn(int column) {
+    this.clusterColumn = column;
+  }
+
+  /**
+   * @param column column of records
+   * @return average over terms of column of the bytes skipped between
+   *         the postings of a term, reading them in order, in last build.
+   */
+  public double getAverageSeekDistance(int column) {
+    long[] seeks = this.columnSeeks.get(Integer.toString(column));
+    return seeks == null || seeks[1] == 0 ? 0.0 : (double)seeks[0] / seeks[1];
+  }
+
+  /**
+   * @param fields fields of record
+   * @param column cluster column
+   * @return term of record in cluster column, empty if record has no such column.
+   */
+  static String clusterTerm(String[] fields, int column) {
+    return column < fields.length ? fields[column].toLowerCase() : "";
+  }
+
+  /** @return profile of current or last build, null if not profiled. */
+  public BuildProfile getBuildProfile() {
+    return this.buildProfile;
+  }
+
+  /**
+   * @param indexname name of index, null if not yet known.
+   * @return build profile, a new one if none has been started.
+   */
+  BuildProfile getOrCreateBuildProfile(String indexname) {
+    if (this.buildProfile == null &&
+	(BuildProfile.isProfilingEnabled() || this.progressListener != null)) {
+      this.buildProfile = new BuildProfile(indexname, this.progressListener);
+    }
+    if (this.buildProfile != null && indexname != null) {
+      this.buildProfile.setIndexName(indexname);
+    }
+    return this.buildProfile;
+  }
 
   /**
    * Generate in-memory term dictionary
@@ -59,126 +426,778 @@ public class MultiKeyIndexGeneration {
    * @param columns  which columns of records to use as keys.
    */
   public void generateMaps(List<Record> recordTable, int[] columns) {
+    long start = this.metrics.isEnabled() ? System.nanoTime() : 0L;
+    // each generateMaps starts a new build.
+    this.buildProfile = null;
+    this.columnSeeks.clear();
+    BuildProfile profile = this.getOrCreateBuildProfile(null);
+    BuildProfile.Phase phase =
+      profile != null ? profile.beginPhase("generateMaps", recordTable.size()) : null;
+    long records = 0;
     // create in-memory representation of file maps
-    this.columnLengthTermDigestMap =  new HashMap<Integer,Map<Integer,Map<String,List<String>>>>();
-    this.digestPostingMap = new HashMap<String,String>();
-
-    for (int column: columns) {
-      this.columnLengthTermDigestMap.put(column, new HashMap<Integer,Map<String,List<String>>>());
+    int rows = recordTable.size();
+    this.recordSet = new RecordSet(rows);
+    int[] rowIds = new int[rows];
+    TermTable[] termTables = new TermTable[columns.length];
+    int[][] rowTerms = new int[columns.length][rows];
+    for (int c = 0; c < columns.length; c++) {
+      termTables[c] = new TermTable(Math.min(rows, 1 << 16));
     }
+    int row = 0;
     for (Record record: recordTable) {
       String[] fields = record.getFields();
-      String digest = record.getDigest();
-      this.digestPostingMap.put(digest, record.getLine()); // store hash -> postings
-      for (int column: columns) {
-	String term = fields[column].toLowerCase();
-	if (this.columnLengthTermDigestMap.get(column).containsKey(term.length())) {
-	  if (this.columnLengthTermDigestMap.get(column).get(term.length()).containsKey(term)) {
-	    // store column -> term -> hash list
-	    this.columnLengthTermDigestMap.get(column).get(term.length()).get(term).add(digest);
-	  } else {
-	    Map<String,List<String>> termDigestMap = this.columnLengthTermDigestMap.get(column).get(new Integer(term.length()));
-            List<String> newList = new ArrayList<String>();
-            newList.add(digest);    
-            termDigestMap.put(term, newList);
-	  }
-	} else {
-	  Map<String,List<String>> newTermDigestMap = new TreeMap<String,List<String>>();
-	  List<String> newList = new ArrayList<String>();
-          newList.add(digest);    
-          newTermDigestMap.put(term, newList);
-          this.columnLengthTermDigestMap.get(column).put(term.length(), newTermDigestMap);
-	}
+      rowIds[row] = this.recordSet.add(record.getHash(), record.getLine()); // store record once
+      for (int c = 0; c < columns.length; c++) {
+	rowTerms[c][row] = termTables[c].intern(fields[columns[c]].toLowerCase());
       }
+      row++;
+      if (phase != null) {
+	records++;
+	phase.progress(records, records);
+      }
+    }
+    this.columnTermPostings = new TermPostings[columns.length];
+    for (int c = 0; c < columns.length; c++) {
+      this.columnTermPostings[c] = new TermPostings(columns[c], termTables[c], rowTerms[c], rowIds);
+      termTables[c] = null;
+      rowTerms[c] = null;
+    }
+    if (phase != null) {
+      phase.end(records, 0);
+    }
+    if (this.recordSet.collisions > 0) {
+      System.err.println("generateMaps: " + this.recordSet.collisions +
+			 " record hash collisions, resolved by comparing records.");
+    }
+    if (this.metrics.isEnabled()) {
+      this.generateMapsNanos = System.nanoTime() - start;
+      this.generateMapsRecords = recordTable.size();
     }
   }
 
 
+  /**
+   * Write postings to posting pool file, in record number order or
+   * clustered by the terms of the cluster column (see
+   * setClusterColumn), while filling the array of posting extents
+   * that is returned at end of processing.
+   * @param workingdir working directory
+   * @return array of start, offset pairs (extents) indexed by record number
+   * @throws IOException 
+   */
+  public Extent[] writePostingExtents(String workingdir, String indexname) 
+    throws IOException { 
+    long phaseStart = this.metrics.isEnabled() ? System.nanoTime() : 0L;
+    if (this.metrics.isEnabled() && this.generateMapsNanos >= 0) {
+      this.metrics.buildPhase(indexname, "generateMaps", this.generateMapsNanos, this.generateMapsRecords);
+      this.generateMapsNanos = -1;
+    }
+    BuildProfile profile = this.getOrCreateBuildProfile(indexname);
+    BuildProfile.Phase phase =
+      profile != null ? profile.beginPhase("writePostings", this.recordSet.size()) : null;
+    long records = 0;
+    Extent[] extents = new Extent[this.recordSet.size()];
+    int[] order = this.postingsOrder();
+    BlockWriter postings = new BlockWriter(workingdir + "/indices/" + indexname + "/postings");
+    for (int i = 0; i < extents.length; i++) {
+      int id = order[i];
+      byte[] byteData = this.recordSet.getLine(id).getBytes(); // convert posting string to bytes
+      long start = postings.position();
+      postings.write(byteData);
+      long end = postings.position();
+      if ((end - start) != byteData.length) {
+	System.out.println("Warning: extent: (" + end + " - " + start + ") = " + (end - start) +
+			   " does not equal byteData length: " + Integer.toString(byteData.length));
+      }
+      extents[id] = new Extent(start, byteData.length);
+      if (phase != null) {
+	records++;
+	phase.progress(records, records);
+      }
+    }
+    postings.close();
+    if (phase != null) {
+      phase.end(records, postings.position());
+    }
+    if (this.metrics.isEnabled()) {
+      this.metrics.buildPhase(indexname, "writePostings", System.nanoTime() - phaseStart,
+			      this.recordSet.size());
+    }
+    return extents;
+  }
+
   /**
    * Write postings to posting pool file while filling digest -> posting extent map that is returned at end of processing.
    * @param workingdir working directory
    * @return map of string -> start, offset pairs (extents)
    * @throws IOException 
+   * @deprecated use writePostingExtents, which doesn't compute a SHA1
+   *             digest of every record.
    */
+  @Deprecated
   public Map<String, Extent> writePostings(String workingdir, String indexname) 
     throws IOException { 
+    Extent[] extents = this.writePostingExtents(workingdir, indexname);
     Map<String, Extent> digestExtentMap = new TreeMap<String, Extent>();
-    RandomAccessFile raf = new RandomAccessFile(workingdir + "/indices/" + indexname + "/postings", "rw");
-    for (Map.Entry<String,String> digestEntry: this.digestPostingMap.entrySet()) {
-      byte[] byteData = digestEntry.getValue().getBytes(); // convert posting string to bytes
-      long start = raf.getFilePointer();
-      raf.write(byteData);
-      long end = raf.getFilePointer();
-      if ((end - start) != byteData.length) {
-	System.out.println("Warning: extent: (" + end + " - " + start + ") = " + (end - start) +
-			   " does not equal byteData length: " + Integer.toString(byteData.length));
+    try {
+      for (int id = 0; id < extents.length; id++) {
+	digestExtentMap.put(MultiKeyIndex.sha1(this.recordSet.getLine(id)), extents[id]);
       }
-      digestExtentMap.put(digestEntry.getKey(), new Extent(start, byteData.length));
+    } catch (NoSuchAlgorithmException exception) {
+      throw new IOException(exception.getMessage());
     }
     return digestExtentMap;
   }
 
   /**
-   * Using column length term digest map and digest extent Map, create
+   * @return record numbers in order of their postings: by term of
+   *         cluster column, records with equal terms in record number
+   *         order, or in record number order if there is no cluster column.
+   */
+  int[] postingsOrder() {
+    int size = this.recordSet.size();
+    int[] order = new int[size];
+    if (this.clusterColumn < 0) {
+      for (int id = 0; id < size; id++) {
+	order[id] = id;
+      }
+      return order;
+    }
+    final String[] terms = new String[size];
+    Integer[] ids = new Integer[size];
+    for (int id = 0; id < size; id++) {
+      terms[id] = clusterTerm(this.recordSet.getLine(id).split("\\|"), this.clusterColumn);
+      ids[id] = id;
+    }
+    // stable: records with equal terms stay in record number order.
+    Arrays.sort(ids, new Comparator<Integer>() {
+	public int compare(Integer a, Integer b) {
+	  return TERM_ORDER.compare(terms[a], terms[b]);
+	}
+      });
+    for (int i = 0; i < size; i++) {
+      order[i] = ids[i];
+    }
+    return order;
+  }
+
+  /**
+   * Writes one partition: a dictionary of fixed width records (term,
+   * number of postings, offset of extent list) and the pool of extent
+   * lists, through block writers.  Terms must be added in order.
+   * The stats file and the reports on the partition are left to
+   * finish(), so partitions can be written by several threads and
+   * finished in order by the thread building the index.
+   */
+  static final class PartitionWriter {
+    final String workingDir;
+    final String indexname;
+    final String column;
+    final String termLength;
+    /** length of terms in characters */
+    final int length;
+    final String partitionName;
+    final BlockWriter termDictionary;
+    final BlockWriter extents;
+    /** bytes written to dictionary and extents */
+    long dictionaryBytes = 0;
+    long extentsBytes = 0;
+    final long startNanos;
+    /** time spent writing partition */
+    long nanos;
+    boolean closed = false;
+    /** largest postings lists of partition, null if not profiled */
+    final BuildProfile.LargestPostingsLists postingsLists;
+    /** terms written by all writers of the build, null if not profiled */
+    final AtomicLong termsDone;
+    /** offset of extent list of current term */
+    long extentListOffset = 0;
+    /** number of extents of current term */
+    int termPostings = 0;
+    int recordnumber = 0;
+    long postingsCount = 0;
+    /** end of last extent of current term */
+    long lastEnd = 0;
+    /** bytes skipped between extents of terms, read in order */
+    long seekBytes = 0;
+    long datalength = 16;
+    long recordlength;
+
+    /**
+     * @param termsDone counter of terms written, null if not profiled.
+     */
+    PartitionWriter(String workingDir, String indexname, int column, int termLength,
+		    AtomicLong termsDone)
+      throws IOException
+    {
+      this.startNanos = System.nanoTime();
+      this.workingDir = workingDir;
+      this.indexname = indexname;
+      this.column = Integer.toString(column);
+      this.termLength = Integer.toString(termLength);
+      this.length = termLength;
+      this.partitionName = this.column + "|" + this.termLength;
+      this.termsDone = termsDone;
+      this.postingsLists = termsDone != null ? new BuildProfile.LargestPostingsLists() : null;
+      this.termDictionary =
+	new BlockWriter(MultiKeyIndex.partitionPath(workingDir, indexname,
+						    this.column, this.termLength, "-term-dictionary"));
+      try {
+	this.extents =
+	  new BlockWriter(MultiKeyIndex.partitionPath(workingDir, indexname,
+						      this.column, this.termLength, "-postings-offsets"));
+      } catch (IOException exception) {
+	this.termDictionary.close();
+	throw exception;
+      }
+      this.recordlength = termLength + this.datalength;
+    }
+
+    /**
+     * Extend partition files to their sizes, when known before writing.
+     * @param termBytes bytes of all terms of partition
+     * @param terms     number of terms
+     * @param postings  number of postings of all terms
+     */
+    void preallocate(long termBytes, long terms, long postings) throws IOException {
+      this.termDictionary.preallocate(termBytes + 16 * terms);
+      this.extents.preallocate(16 * postings);
+    }
+
+    /** add extent of a posting of current term */
+    void addExtent(long start, long length) throws IOException {
+      if (this.termPostings > 0) {
+	this.seekBytes += Math.abs(start - this.lastEnd);
+      }
+      this.lastEnd = start + length;
+      this.extents.writeLong(start);
+      this.extents.writeLong(length);
+      this.extentsBytes += 16;
+      this.termPostings++;
+    }
+
+    /**
+     * Write dictionary entry of current term, whose extents have been added.
+     * @param term   array containing bytes of term
+     * @param offset offset of term in array
+     * @param length length of term in bytes
+     */
+    void endTerm(byte[] term, int offset, int length) throws IOException {
+      this.postingsCount = this.postingsCount + this.termPostings;
+      this.recordnumber++;
+      if (this.postingsLists != null) {
+	this.postingsLists.add(this.partitionName, new String(term, offset, length), this.termPostings);
+	this.termsDone.incrementAndGet();
+      }
+      // write dictionary
+      this.termDictionary.write(term, offset, length);	      // term
+      this.termDictionary.writeLong(this.termPostings);    // number of postings
+      this.termDictionary.writeLong(this.extentListOffset); // offset to begining of extent list
+      this.datalength = 16;
+      this.recordlength = length + this.datalength;
+      this.dictionaryBytes += this.recordlength;
+      this.termPostings = 0;
+      this.extentListOffset = this.extentsBytes;
+    }
+
+    /**
+     * Close partition files, both of them even if closing one fails.
+     * Closing again does nothing.
+     * @return number of bytes in partition files.
+     */
+    long close() throws IOException {
+      if (! this.closed) {
+	this.closed = true;
+	this.nanos = System.nanoTime() - this.startNanos;
+      }
+      try {
+	this.termDictionary.close();
+      } finally {
+	this.extents.close();
+      }
+      return this.dictionaryBytes + this.extentsBytes;
+    }
+
+    /** write stats file of partition */
+    void writeStats() throws IOException {
+      BufferedWriter bw =
+	new BufferedWriter
+	(new FileWriter
+	 (this.workingDir + "/indices/" + this.indexname + "/" + this.indexname + "-" + 
+	  this.column + "-" + this.termLength + "-term-dictionary-stats.txt"));
+      bw.write("termlength|" + this.termLength + "\n");
+      bw.write("reclength|"  + this.recordlength + "\n");
+      bw.write("datalength|" + this.datalength + "\n");
+      bw.write("recordnum|"  + this.recordnumber + "\n");
+      bw.close();
+    }
+  }
+
+  /**
+   * Task writing partitions.
+   */
+  interface PartitionTask {
+    /** @return writers of partitions written, closed. */
+    List<PartitionWriter> call(AtomicLong termsDone) throws IOException;
+  }
+
+  /**
+   * Run partition tasks on up to <code>ifbuild.multikey.threads</code>
+   * threads (default: available processors), then write the stats
+   * files of the partitions and report them in task order.
+   * @return number of terms and bytes written
+   */
+  long[] runPartitionTasks(String indexname, List<PartitionTask> tasks,
+			   BuildProfile profile, BuildProfile.Phase phase)
+    throws IOException
+  {
+    final AtomicLong termsDone = phase != null ? new AtomicLong(0) : null;
+    int threads =
+      Integer.parseInt(System.getProperty("ifbuild.multikey.threads",
+					  Integer.toString(Runtime.getRuntime().availableProcessors())));
+    threads = Math.max(1, Math.min(threads, tasks.size()));
+    List<List<PartitionWriter>> results = new ArrayList<List<PartitionWriter>>();
+    if (threads == 1) {
+      for (PartitionTask task: tasks) {
+	results.add(task.call(termsDone));
+	if (phase != null) {
+	  phase.progress(termsDone.get(), termsDone.get());
+	}
+      }
+    } else {
+      ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+	  final AtomicInteger count = new AtomicInteger(0);
+	  public Thread newThread(Runnable runnable) {
+	    Thread thread = new Thread(runnable, "irutils-partition-" + count.incrementAndGet());
+	    thread.setDaemon(true);
+	    return thread;
+	  }
+	});
+      try {
+	List<Future<List<PartitionWriter>>> futures = new ArrayList<Future<List<PartitionWriter>>>();
+	for (final PartitionTask task: tasks) {
+	  futures.add(executor.submit(new Callable<List<PartitionWriter>>() {
+	      public List<PartitionWriter> call() throws IOException {
+		return task.call(termsDone);
+	      }
+	    }));
+	}
+	for (Future<List<PartitionWriter>> future: futures) {
+	  results.add(awaitPartitions(future, termsDone, phase));
+	}
+      } finally {
+	executor.shutdownNow();
+	// tasks still running when one fails close their partition
+	// files on the way out; wait for them before returning.
+	try {
+	  executor.awaitTermination(1, TimeUnit.MINUTES);
+	} catch (InterruptedException exception) {
+	  Thread.currentThread().interrupt();
+	}
+      }
+    }
+    long termCount = 0;
+    long bytesWritten = 0;
+    for (List<PartitionWriter> writers: results) {
+      for (PartitionWriter writer: writers) {
+	writer.writeStats();
+	long partitionBytes = writer.dictionaryBytes + writer.extentsBytes;
+	if (phase != null) {
+	  for (BuildProfile.PostingsListSize size: writer.postingsLists.get()) {
+	    profile.addPostingsList(size.getPartition(), size.getTerm(), size.getPostings());
+	  }
+	  profile.addPartition(writer.partitionName, writer.recordnumber, writer.postingsCount,
+			       partitionBytes, writer.nanos, writer.seekBytes);
+	}
+	long[] seeks = this.columnSeeks.get(writer.column);
+	if (seeks == null) {
+	  seeks = new long[2];
+	  this.columnSeeks.put(writer.column, seeks);
+	}
+	seeks[0] = seeks[0] + writer.seekBytes;
+	seeks[1] = seeks[1] + writer.recordnumber;
+	if (this.metrics.isEnabled()) {
+	  this.metrics.partitionBuilt(indexname, writer.partitionName, writer.nanos,
+				      writer.recordnumber, writer.postingsCount);
+	}
+	bytesWritten = bytesWritten + partitionBytes;
+	termCount = termCount + writer.recordnumber;
+      }
+    }
+    return new long[] { termCount, bytesWritten };
+  }
+
+  /** wait for task, reporting progress */
+  static List<PartitionWriter> awaitPartitions(Future<List<PartitionWriter>> future,
+					       AtomicLong termsDone, BuildProfile.Phase phase)
+    throws IOException
+  {
+    try {
+      while (true) {
+	try {
+	  return future.get(1, TimeUnit.SECONDS);
+	} catch (TimeoutException exception) {
+	  if (phase != null) {
+	    phase.progress(termsDone.get(), termsDone.get());
+	  }
+	}
+      }
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while writing partitions");
+    } catch (ExecutionException exception) {
+      Throwable cause = exception.getCause();
+      if (cause instanceof IOException) {
+	throw (IOException)cause;
+      } else if (cause instanceof RuntimeException) {
+	throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+	throw (Error)cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Using term postings of each column and extents, create
    * partitions consisting of two files: a dictionary containing term,
    * num-of-postings, and pointer to extent list and extext list pool
    * containing offset length pairs, one for each posting.
+   * Partitions are written in parallel, see runPartitionTasks().
+   *
+   * @param workingDir working directory
+   * @param indexname name of index
+   * @param extents start length pairs (extents) indexed by record number
+   * @throws IOException
+   * @throws FileNotFoundException
+   */
+  public void writePartitions(final String workingDir, final String indexname, final Extent[] extents) 
+    throws FileNotFoundException, IOException
+  {
+    long start = this.metrics.isEnabled() ? System.nanoTime() : 0L;
+    BuildProfile profile = this.getOrCreateBuildProfile(indexname);
+    BuildProfile.Phase phase = null;
+    if (profile != null) {
+      long totalTerms = 0;
+      for (TermPostings termPostings: this.columnTermPostings) {
+	totalTerms = totalTerms + termPostings.termCount;
+      }
+      phase = profile.beginPhase("writePartitions", totalTerms);
+    }
+    List<PartitionTask> tasks = new ArrayList<PartitionTask>();
+    for (final TermPostings termPostings: this.columnTermPostings) {
+      for (int partition = 0; partition < termPostings.partitionLength.length; partition++) {
+	final int p = partition;
+	tasks.add(new PartitionTask() {
+	    public List<PartitionWriter> call(AtomicLong termsDone) throws IOException {
+	      PartitionWriter writer =
+		new PartitionWriter(workingDir, indexname, termPostings.column,
+				    termPostings.partitionLength[p], termsDone);
+	      try {
+		int first = termPostings.partitionStart[p];
+		int last = termPostings.partitionStart[p + 1];
+		writer.preallocate(termPostings.termStart[last] - termPostings.termStart[first],
+				   last - first,
+				   termPostings.postingsStart[last] - termPostings.postingsStart[first]);
+		for (int t = first; t < last; t++) {
+		  // write extents
+		  for (int i = termPostings.postingsStart[t]; i < termPostings.postingsStart[t + 1]; i++) {
+		    Extent extent = extents[termPostings.postings[i]];
+		    writer.addExtent(extent.getStart(), extent.getLength());
+		  }
+		  writer.endTerm(termPostings.termBytes, termPostings.termStart[t],
+				 termPostings.termStart[t + 1] - termPostings.termStart[t]);
+		}
+	      } finally {
+		writer.close();
+	      }
+	      return Collections.singletonList(writer);
+	    }
+	  });
+      }
+    }
+    long[] written = this.runPartitionTasks(indexname, tasks, profile, phase);
+    if (phase != null) {
+      phase.end(written[0], written[1]);
+      profile.writeJson(new File(workingDir + "/indices/" + indexname + "/" + BuildProfile.FILENAME));
+    }
+    if (this.metrics.isEnabled()) {
+      this.metrics.buildPhase(indexname, "writePartitions", System.nanoTime() - start, written[0]);
+    }
+  }
+
+  /**
+   * Using column length term digest map and digest extent Map, create
+   * partitions, see writePartitions(String, String, Extent[]).
    *
    * @param workingDir working directory
    * @param indexname name of index
    * @param digestExtentMap map of digest -> start length pairs (extents)
    * @throws IOException
    * @throws FileNotFoundException
-   * @throws NoSuchAlgorithmException
+   * @deprecated use writePartitions with the extents returned by writePostingExtents.
    */
+  @Deprecated
   public void writePartitions(String workingDir, String indexname, Map<String, Extent> digestExtentMap) 
     throws FileNotFoundException, IOException
   {
-    for (Integer column: this.columnLengthTermDigestMap.keySet()) {
-      for (Integer termLength: this.columnLengthTermDigestMap.get(column).keySet()) {
-	RandomAccessFile termDictionaryRaf = 
-	  new RandomAccessFile(MultiKeyIndex.partitionPath(workingDir, indexname,
-					     column.toString(), termLength.toString(), "-term-dictionary"), "rw");
-	RandomAccessFile extentsRaf = 
-	  new RandomAccessFile(MultiKeyIndex.partitionPath(workingDir, indexname,
-					     column.toString(), termLength.toString(), "-postings-offsets"), "rw");
-	int recordnumber = this.columnLengthTermDigestMap.get(column).get(termLength).size();
-	long datalength = 16;
-	long recordlength = termLength.intValue() + datalength;
-	for (Entry<String,List<String>> termEntry: this.columnLengthTermDigestMap.get(column).get(termLength).entrySet()) {
-	  byte[] byteData = termEntry.getKey().getBytes();
-	  List<String> digestList = termEntry.getValue();
-	  long extentListOffset = extentsRaf.getFilePointer();
-	  // write extents
-	  for (String digest: digestList) {
-	    Extent extent = digestExtentMap.get(digest);
-	    extentsRaf.writeLong(extent.getStart());
-	    extentsRaf.writeLong(extent.getLength());
-	  }
-	  // write dictionary
-	  
-	  long dictEntryStart = termDictionaryRaf.getFilePointer();
-	  termDictionaryRaf.write(byteData);		  // term
-	  
-	  long dictEntryDataStart = termDictionaryRaf.getFilePointer();
-	  termDictionaryRaf.writeLong(digestList.size()); // number of postings
-	  termDictionaryRaf.writeLong(extentListOffset);  // offset to begining of extent list
-	  datalength = termDictionaryRaf.getFilePointer() - dictEntryDataStart;
-	  recordlength = termDictionaryRaf.getFilePointer() - dictEntryStart;
+    Extent[] extents = new Extent[this.recordSet.size()];
+    try {
+      for (int id = 0; id < extents.length; id++) {
+	String digest = MultiKeyIndex.sha1(this.recordSet.getLine(id));
+	extents[id] = digestExtentMap.get(digest);
+	if (extents[id] == null) {
+	  throw new IOException("writePartitions: no extent for record digest " + digest);
+	}
+      }
+    } catch (NoSuchAlgorithmException exception) {
+      throw new IOException(exception.getMessage());
+    }
+    this.writePartitions(workingDir, indexname, extents);
+  }
+
+  /**
+   * Build index from table without holding the table in memory.
+   * <p>
+   * Each line is appended to the postings file as it is read, once
+   * per distinct record, and the (term, extent) entries of each key
+   * column are buffered.  When the buffers hold about
+   * <code>ifbuild.multikey.runsize</code> bytes (default: 64 MB) they
+   * are sorted and spilled to run files in the index directory; at
+   * the end the runs of each column are merged into its partitions.
+   * The buffered entries are bounded, but other state grows with the
+   * number of distinct records: the hashes and extents used to store
+   * each record once (about 64 bytes per record, not kept with
+   * <code>-Difbuild.multikey.dedup=false</code>, which writes duplicate
+   * lines to postings again) and, with a cluster column, the table of
+   * the moved offsets of postings (about 32 bytes per record).
+   * Run files are deleted when the build ends, failed or not.
+   * </p><p>
+   * The index is the same as that written by generateMaps,
+   * writePostingExtents and writePartitions.
+   * </p>
+   * @param workingDir     working directory
+   * @param indexname      name of index
+   * @param tablefilename  name of file containing table of records with pipe-separated fields.
+   * @param charset        charset of table
+   * @param columns        which columns of records to use as keys.
+   * @throws IOException
+   */
+  public void build(String workingDir, final String indexname, String tablefilename,
+		    Charset charset, final int[] columns)
+    throws IOException
+  {
+    long start = this.metrics.isEnabled() ? System.nanoTime() : 0L;
+    this.buildProfile = null;
+    this.columnSeeks.clear();
+    final BuildProfile profile = this.getOrCreateBuildProfile(indexname);
+    final BuildProfile.Phase readPhase =
+      profile != null ? profile.beginPhase("streamTable", new File(tablefilename).length()) : null;
+    final long runSize = Long.parseLong(System.getProperty("ifbuild.multikey.runsize", "67108864"));
+    final boolean dedup = Boolean.parseBoolean(System.getProperty("ifbuild.multikey.dedup", "true"));
+    File indexDir = new File(workingDir + "/indices/" + indexname);
+    final MultiKeyIndexRuns.ColumnRuns[] runs = new MultiKeyIndexRuns.ColumnRuns[columns.length];
+    for (int c = 0; c < columns.length; c++) {
+      runs[c] = new MultiKeyIndexRuns.ColumnRuns(columns[c], indexDir, indexname);
+    }
+    // clustered postings are written in table order first, then
+    // copied in order of the terms of the cluster column.
+    final int cluster = this.clusterColumn;
+    String postingsFilename = workingDir + "/indices/" + indexname + "/postings";
+    final String tableOrderFilename = cluster < 0 ? postingsFilename : postingsFilename + ".unclustered";
+    final MultiKeyIndexRuns.ColumnRuns clusterRuns =
+      cluster < 0 ? null : new MultiKeyIndexRuns.ColumnRuns(cluster, indexDir, indexname + "-cluster");
+    final MultiKeyIndexRuns.PostingsAppender postings =
+      new MultiKeyIndexRuns.PostingsAppender(tableOrderFilename);
+    final MultiKeyIndexRuns.ExtentTable extentTable = new MultiKeyIndexRuns.ExtentTable();
+    final long[] rows = new long[] { 0 };
+    try {
+      new ParallelTableReader(tablefilename, charset).read
+	(new ParallelTableReader.LineParser<Record>() {
+	    public Record parse(String line) {
+	      return new Record(line, line.split("\\|"), dedup ? RecordHash.of(line) : null);
+	    }
+	  },
+	  new ParallelTableReader.LineConsumer<Record>() {
+	    public void accept(String line, Record record) throws IOException {
+	      byte[] byteData = line.getBytes(); // convert posting string to bytes
+	      long extentStart;
+	      boolean added = true;
+	      if (dedup) {
+		int distinct = extentTable.size;
+		extentStart = extentTable.add(record.getHash(), byteData, postings);
+		added = extentTable.size > distinct;
+	      } else {
+		extentStart = postings.append(byteData);
+	      }
+	      long bufferSize = 0;
+	      if (clusterRuns != null && added) {
+		clusterRuns.add(new MultiKeyIndexRuns.Entry(clusterTerm(record.getFields(), cluster),
+							    extentStart, byteData.length));
+		bufferSize = clusterRuns.bufferSize();
+	      }
+	      for (int c = 0; c < columns.length; c++) {
+		String term = record.getFields()[columns[c]].toLowerCase();
+		runs[c].add(new MultiKeyIndexRuns.Entry(term, extentStart, byteData.length));
+		bufferSize = bufferSize + runs[c].bufferSize();
+	      }
+	      if (bufferSize > runSize) {
+		for (MultiKeyIndexRuns.ColumnRuns columnRuns: runs) {
+		  columnRuns.spill();
+		}
+		if (clusterRuns != null) {
+		  clusterRuns.spill();
+		}
+	      }
+	      rows[0]++;
+	      if (readPhase != null) {
+		readPhase.progress(rows[0], postings.length());
+	      }
+	    }
+	  });
+      postings.close();
+      if (readPhase != null) {
+	readPhase.end(rows[0], postings.length());
+      }
+      if (extentTable.collisions > 0) {
+	System.err.println("build: " + extentTable.collisions +
+			   " record hash collisions, resolved by comparing records.");
+      }
+      if (this.metrics.isEnabled()) {
+	this.metrics.buildPhase(indexname, "streamTable", System.nanoTime() - start, rows[0]);
+      }
+      MultiKeyIndexRuns.StartTable relocation = null;
+      if (clusterRuns != null) {
+	relocation = this.clusterPostings(indexname, clusterRuns, tableOrderFilename,
+					  postingsFilename, profile);
+      }
+      this.mergeRuns(workingDir, indexname, runs, relocation, profile);
+    } finally {
+      postings.close();
+      for (MultiKeyIndexRuns.ColumnRuns columnRuns: runs) {
+	columnRuns.delete();
+      }
+      if (clusterRuns != null) {
+	clusterRuns.delete();
+	new File(tableOrderFilename).delete();
+      }
+    }
+  }
+
+  /**
+   * Copy postings written in table order to the postings file in
+   * order of the terms of the cluster column.
+   * @param clusterRuns     term of cluster column and extent of each
+   *                        distinct record
+   * @param tableOrderFilename postings written in table order
+   * @param postingsFilename   postings file of index
+   * @return new offsets of postings by offset in table order
+   */
+  MultiKeyIndexRuns.StartTable clusterPostings(String indexname, MultiKeyIndexRuns.ColumnRuns clusterRuns,
+					       String tableOrderFilename, String postingsFilename,
+					       BuildProfile profile)
+    throws IOException
+  {
+    long start = this.metrics.isEnabled() ? System.nanoTime() : 0L;
+    BuildProfile.Phase phase = profile != null ? profile.beginPhase("clusterPostings", 0) : null;
+    MultiKeyIndexRuns.StartTable relocation = new MultiKeyIndexRuns.StartTable();
+    RandomAccessFile in = new RandomAccessFile(tableOrderFilename, "r");
+    BlockWriter out = new BlockWriter(postingsFilename);
+    MultiKeyIndexRuns.Merge merge = clusterRuns.merge();
+    long records = 0;
+    try {
+      out.preallocate(in.length());
+      byte[] data = new byte[4096];
+      for (MultiKeyIndexRuns.Entry entry = merge.next(); entry != null; entry = merge.next()) {
+	int length = (int)entry.length;
+	if (data.length < length) {
+	  data = new byte[length];
+	}
+	in.seek(entry.start);
+	in.readFully(data, 0, length);
+	if (length > 0) {
+	  relocation.put(entry.start, out.position());
+	  out.write(data, 0, length);
+	}
+	records++;
+	if (phase != null) {
+	  phase.progress(records, out.position());
 	}
-	termDictionaryRaf.close();
-	extentsRaf.close();
-	BufferedWriter bw =
-	  new BufferedWriter
-	  (new FileWriter
-	   (workingDir + "/indices/" + indexname + "/" + indexname + "-" + 
-	    column.toString() + "-" + termLength.toString() + "-term-dictionary-stats.txt"));
-	bw.write("termlength|" + termLength + "\n");
-	bw.write("reclength|"  + recordlength + "\n");
-	bw.write("datalength|" + datalength + "\n");
-	bw.write("recordnum|"  + recordnumber + "\n");
-	bw.close();
       }
+    } finally {
+      merge.close();
+      in.close();
+      out.close();
+    }
+    if (phase != null) {
+      phase.end(records, out.position());
+    }
+    if (this.metrics.isEnabled()) {
+      this.metrics.buildPhase(indexname, "clusterPostings", System.nanoTime() - start, records);
+    }
+    return relocation;
+  }
+
+  /**
+   * merge runs of each column into partitions, columns in parallel
+   * @param relocation new offsets of postings that were clustered, null if none
+   */
+  void mergeRuns(final String workingDir, final String indexname,
+		 MultiKeyIndexRuns.ColumnRuns[] runs,
+		 final MultiKeyIndexRuns.StartTable relocation, BuildProfile profile)
+    throws IOException
+  {
+    long start = this.metrics.isEnabled() ? System.nanoTime() : 0L;
+    BuildProfile.Phase phase = profile != null ? profile.beginPhase("mergeRuns", 0) : null;
+    List<PartitionTask> tasks = new ArrayList<PartitionTask>();
+    for (final MultiKeyIndexRuns.ColumnRuns columnRuns: runs) {
+      tasks.add(new PartitionTask() {
+	  public List<PartitionWriter> call(AtomicLong termsDone) throws IOException {
+	    List<PartitionWriter> writers = new ArrayList<PartitionWriter>();
+	    MultiKeyIndexRuns.Merge merge = columnRuns.merge();
+	    PartitionWriter writer = null;
+	    try {
+	      MultiKeyIndexRuns.Entry entry = merge.next();
+	      while (entry != null) {
+		String term = entry.term;
+		if (writer == null || writer.length != term.length()) {
+		  if (writer != null) {
+		    writer.close();
+		  }
+		  writer = new PartitionWriter(workingDir, indexname, columnRuns.column,
+					       term.length(), termsDone);
+		  writers.add(writer);
+		}
+		// write extents of all entries of term
+		while (entry != null && entry.term.equals(term)) {
+		  writer.addExtent(relocation == null ?
+				   entry.start : relocation.relocate(entry.start, entry.length),
+				   entry.length);
+		  entry = merge.next();
+		}
+		byte[] byteData = term.getBytes();
+		writer.endTerm(byteData, 0, byteData.length);
+	      }
+	    } finally {
+	      try {
+		if (writer != null) {
+		  writer.close();
+		}
+	      } finally {
+		merge.close();
+	      }
+	    }
+	    return writers;
+	  }
+	});
+    }
+    long[] written = this.runPartitionTasks(indexname, tasks, profile, phase);
+    if (phase != null) {
+      phase.end(written[0], written[1]);
+      profile.writeJson(new File(workingDir + "/indices/" + indexname + "/" + BuildProfile.FILENAME));
+    }
+    if (this.metrics.isEnabled()) {
+      this.metrics.buildPhase(indexname, "mergeRuns", System.nanoTime() - start, written[0]);
     }
   }
 
@@ -270,13 +1289,18 @@ public class MultiKeyIndexGeneration {
 	  for (int i = 0; i < columnStrings.length; i++) {
 	    columns[i] = Integer.parseInt(columnStrings[i]);
 	  }
-	  System.out.println("loading table for " + indexName + " from file: " + tableFilename + ".");
-	  List<MultiKeyIndex.Record> recordTable = MultiKeyIndex.loadTable(workingDir + "/tables/" + tableFilename);
 	  MultiKeyIndexGeneration instance = new MultiKeyIndexGeneration();
-	  System.out.println("Generating maps for columns " + renderColumns(columns) ); 
-	  instance.generateMaps(recordTable, columns);
-	  Map<String,Extent> digestExtentMap = instance.writePostings(workingDir, indexName);
-	  instance.writePartitions(workingDir, indexName, digestExtentMap);
+	  if (IFBuild.progress) {
+	    instance.setProgressListener(IFBuild.STDERR_PROGRESS_LISTENER);
+	  }
+	  System.out.println("building index " + indexName + " for columns " + renderColumns(columns) +
+			     " from file: " + tableFilename + ".");
+	  instance.build(workingDir, indexName, workingDir + "/tables/" + tableFilename,
+			 Charset.defaultCharset(), columns);
+	  for (int column: columns) {
+	    System.out.println("column " + column + ": average seek distance per lookup: " +
+			       String.format("%.1f", instance.getAverageSeekDistance(column)) + " bytes");
+	  }
 	} else {
 	  System.out.println("table entry for index " + indexName + " is not present in configuration file: ifconfig.");
 	}
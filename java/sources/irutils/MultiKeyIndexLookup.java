@@ -26,7 +26,7 @@ public class MultiKeyIndexLookup {
   MultiKeyIndex index;
 
   public MultiKeyIndexLookup(String indexDirectoryName)
-    throws FileNotFoundException
+    throws IOException
   {
     this.index = new MultiKeyIndex(indexDirectoryName);
   }
@@ -39,29 +39,17 @@ public class MultiKeyIndexLookup {
     throws IOException, FileNotFoundException
   {
     List<String> resultList = new ArrayList<String>();
-    String termLengthString = Integer.toString(term.length());
-    String columnString = Integer.toString(column);
-
-    RandomAccessFile termDictionaryRaf = this.index.openTermDictionaryFile(columnString, termLengthString);
-    RandomAccessFile extentsRaf = this.index.openExtentsFile(columnString, termLengthString);
-    RandomAccessFile postingsRaf = this.index.getPostingsFile();
-    Map<String,String> statsMap = this.index.readStatsFile(columnString, termLengthString);
-
-    int datalength = Integer.parseInt(statsMap.get("datalength"));
-    int recordnum = Integer.parseInt(statsMap.get("recordnum"));
-    
-    DictionaryEntry entry = 
-      MultiKeyIndex.dictionaryBinarySearch(termDictionaryRaf, term.toLowerCase(), 
-					   term.length(), datalength, recordnum );
-    if (entry != null) {
-      MultiKeyIndex.readPostings(extentsRaf, postingsRaf, resultList, entry);
-    }
-    termDictionaryRaf.close();
-    extentsRaf.close();
-    postingsRaf.close();
+    this.index.readPostings(column, term.toLowerCase(), resultList);
     return resultList;
   }
 
+  /** close index */
+  public void close()
+    throws IOException
+  {
+    this.index.close();
+  }
+
   /**
    * The main program
    * @param args Arguments passed from the command line
@@ -97,6 +85,7 @@ public class MultiKeyIndexLookup {
 	for (String result: resultList) {
 	  System.out.println(result);
 	}
+	instance.close();
 	
       } else {
 	System.out.println("Unknown option.");
@@ -0,0 +1,428 @@
+package irutils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Pieces of the streaming multi-key index build
+ * (MultiKeyIndexGeneration.build): the postings file appender, the
+ * table of record hashes used to store each distinct record once,
+ * the sorted runs of (term, extent) entries of a column that are
+ * spilled to disk and merged into partitions, and the table of
+ * offsets of postings moved when they are clustered.
+ */
+
+final class MultiKeyIndexRuns
+{
+  private MultiKeyIndexRuns() {}
+
+  /** term of a column and the extent of the posting of a row containing it. */
+  static final class Entry {
+    final String term;
+    final long start;
+    final long length;
+    Entry(String term, long start, long length) {
+      this.term = term; this.start = start; this.length = length;
+    }
+    /** @return estimate of heap used by entry and its term */
+    long size() { return 64 + 2L * this.term.length(); }
+  }
+
+  /** orders entries by term as dictionaries do; sorts using it are stable. */
+  static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+      public int compare(Entry a, Entry b) {
+	return MultiKeyIndexGeneration.TERM_ORDER.compare(a.term, b.term);
+      }
+    };
+
+  /**
+   * Appends postings to the postings file through a block writer, and
+   * reads back written postings to confirm duplicate records.
+   */
+  static final class PostingsAppender {
+    final BlockWriter writer;
+
+    PostingsAppender(String filename) throws IOException {
+      this.writer = new BlockWriter(filename);
+    }
+
+    /** @return offset of posting in postings file */
+    long append(byte[] data) throws IOException {
+      long start = this.writer.position();
+      this.writer.write(data);
+      return start;
+    }
+
+    /** @return true if posting at start is data */
+    boolean matches(long start, byte[] data) throws IOException {
+      byte[] posting = new byte[data.length];
+      this.writer.readFully(start, posting);
+      return Arrays.equals(posting, data);
+    }
+
+    /** @return length of postings file */
+    long length() { return this.writer.position(); }
+
+    void close() throws IOException {
+      this.writer.close();
+    }
+  }
+
+  /**
+   * Extents of the distinct records written so far, found by the
+   * 128 bit hash of the record in an open addressing table of long
+   * pairs.  Records with equal hashes are compared with the posting
+   * already written, so a hash collision can't merge two records.
+   */
+  static final class ExtentTable {
+    long[] hash1s;
+    long[] hash2s;
+    /** extent of slots, length is -1 if slot is empty */
+    long[] starts;
+    long[] lengths;
+    int size = 0;
+    int collisions = 0;
+
+    ExtentTable() {
+      this.allocate(1 << 16);
+    }
+
+    void allocate(int capacity) {
+      this.hash1s = new long[capacity];
+      this.hash2s = new long[capacity];
+      this.starts = new long[capacity];
+      this.lengths = new long[capacity];
+      Arrays.fill(this.lengths, -1L);
+    }
+
+    static int slot(long hash1, int mask) {
+      return (int)(hash1 ^ (hash1 >>> 32)) & mask;
+    }
+
+    /**
+     * @return start of extent of record, written to postings if not
+     *         written before.
+     */
+    long add(RecordHash hash, byte[] data, PostingsAppender postings)
+      throws IOException
+    {
+      int mask = this.lengths.length - 1;
+      int slot = slot(hash.hash1, mask);
+      while (this.lengths[slot] >= 0) {
+	if (this.hash1s[slot] == hash.hash1 && this.hash2s[slot] == hash.hash2) {
+	  if (this.lengths[slot] == data.length && postings.matches(this.starts[slot], data)) {
+	    return this.starts[slot];
+	  }
+	  this.collisions++;
+	}
+	slot = (slot + 1) & mask;
+      }
+      long start = postings.append(data);
+      this.hash1s[slot] = hash.hash1;
+      this.hash2s[slot] = hash.hash2;
+      this.starts[slot] = start;
+      this.lengths[slot] = data.length;
+      this.size++;
+      if (this.size * 2 > this.lengths.length) {
+	this.rehash();
+      }
+      return start;
+    }
+
+    void rehash() {
+      long[] oldHash1s = this.hash1s;
+      long[] oldHash2s = this.hash2s;
+      long[] oldStarts = this.starts;
+      long[] oldLengths = this.lengths;
+      this.allocate(oldLengths.length << 1);
+      int mask = this.lengths.length - 1;
+      for (int i = 0; i < oldLengths.length; i++) {
+	if (oldLengths[i] >= 0) {
+	  int slot = slot(oldHash1s[i], mask);
+	  while (this.lengths[slot] >= 0) {
+	    slot = (slot + 1) & mask;
+	  }
+	  this.hash1s[slot] = oldHash1s[i];
+	  this.hash2s[slot] = oldHash2s[i];
+	  this.starts[slot] = oldStarts[i];
+	  this.lengths[slot] = oldLengths[i];
+	}
+      }
+    }
+  }
+
+  /**
+   * Offsets of postings in the clustered postings file, found by their
+   * offset in the postings file written while reading the table, in an
+   * open addressing table of longs.  Only postings of one or more
+   * bytes are relocated: an empty posting (a blank row) starts at the
+   * same offset as the posting after it, so its offset is not a key;
+   * its extent is left as is, see relocate().
+   */
+  static final class StartTable {
+    /** old offsets of slots, -1 if slot is empty */
+    long[] keys;
+    long[] values;
+    int size = 0;
+
+    StartTable() {
+      this.allocate(1 << 16);
+    }
+
+    void allocate(int capacity) {
+      this.keys = new long[capacity];
+      this.values = new long[capacity];
+      Arrays.fill(this.keys, -1L);
+    }
+
+    static int slot(long key, int mask) {
+      long hash = key * 0x9E3779B97F4A7C15L;
+      return (int)(hash ^ (hash >>> 32)) & mask;
+    }
+
+    void put(long key, long value) {
+      int mask = this.keys.length - 1;
+      int slot = slot(key, mask);
+      while (this.keys[slot] >= 0) {
+	if (this.keys[slot] == key) {
+	  throw new IllegalStateException("posting at offset " + key + " relocated twice");
+	}
+	slot = (slot + 1) & mask;
+      }
+      this.keys[slot] = key;
+      this.values[slot] = value;
+      this.size++;
+      if (this.size * 2 > this.keys.length) {
+	this.rehash();
+      }
+    }
+
+    /**
+     * @param start  old offset of posting
+     * @param length length of posting
+     * @return new offset of posting, the old one if posting is empty:
+     *         nothing is read at it.
+     */
+    long relocate(long start, long length) {
+      return length == 0 ? start : this.get(start);
+    }
+
+    /** @return new offset of non-empty posting at old offset key */
+    long get(long key) {
+      int mask = this.keys.length - 1;
+      int slot = slot(key, mask);
+      while (this.keys[slot] >= 0) {
+	if (this.keys[slot] == key) {
+	  return this.values[slot];
+	}
+	slot = (slot + 1) & mask;
+      }
+      throw new IllegalStateException("no clustered posting for offset " + key);
+    }
+
+    void rehash() {
+      long[] oldKeys = this.keys;
+      long[] oldValues = this.values;
+      this.allocate(oldKeys.length << 1);
+      int mask = this.keys.length - 1;
+      for (int i = 0; i < oldKeys.length; i++) {
+	if (oldKeys[i] >= 0) {
+	  int slot = slot(oldKeys[i], mask);
+	  while (this.keys[slot] >= 0) {
+	    slot = (slot + 1) & mask;
+	  }
+	  this.keys[slot] = oldKeys[i];
+	  this.values[slot] = oldValues[i];
+	}
+      }
+    }
+  }
+
+  /**
+   * Entries of one column: buffered in memory, sorted and spilled to
+   * a run file when the buffer is full, and merged in term order at
+   * the end.  Entries with equal terms come out in the order they
+   * were added.
+   */
+  static final class ColumnRuns {
+    final int column;
+    final File directory;
+    final String prefix;
+    final List<Entry> buffer = new ArrayList<Entry>();
+    long bufferSize = 0;
+    final List<File> runs = new ArrayList<File>();
+
+    /**
+     * @param column    column of records
+     * @param directory directory for run files
+     * @param prefix    prefix of run file names
+     */
+    ColumnRuns(int column, File directory, String prefix) {
+      this.column = column;
+      this.directory = directory;
+      this.prefix = prefix;
+    }
+
+    /** @return estimate of heap used by buffered entries */
+    long bufferSize() { return this.bufferSize; }
+
+    void add(Entry entry) {
+      this.buffer.add(entry);
+      this.bufferSize += entry.size();
+    }
+
+    /** sort buffered entries and write them to a new run file. */
+    void spill() throws IOException {
+      if (this.buffer.isEmpty()) {
+	return;
+      }
+      Collections.sort(this.buffer, ENTRY_ORDER);
+      File run = File.createTempFile(this.prefix + "-" + this.column + "-run-", ".tmp", this.directory);
+      // listed at once, so delete() removes it even if writing fails.
+      this.runs.add(run);
+      BlockWriter out = new BlockWriter(run.getPath());
+      try {
+	for (Entry entry: this.buffer) {
+	  out.writeInt(entry.term.length());
+	  out.writeChars(entry.term);
+	  out.writeLong(entry.start);
+	  out.writeLong(entry.length);
+	}
+      } finally {
+	out.close();
+      }
+      this.buffer.clear();
+      this.bufferSize = 0;
+    }
+
+    /** @return number of run files spilled */
+    int getRunCount() { return this.runs.size(); }
+
+    /**
+     * Merge runs and buffered entries.
+     * @return cursor over all entries in term order.
+     */
+    Merge merge() throws IOException {
+      Collections.sort(this.buffer, ENTRY_ORDER);
+      List<Cursor> cursors = new ArrayList<Cursor>();
+      for (File run: this.runs) {
+	cursors.add(new FileCursor(run, cursors.size()));
+      }
+      // buffered entries were added last, they follow those of runs.
+      cursors.add(new BufferCursor(this.buffer, cursors.size()));
+      return new Merge(cursors);
+    }
+
+    /** delete run files, the build calls this when it ends, failed or not. */
+    void delete() {
+      for (File run: this.runs) {
+	run.delete();
+      }
+      this.runs.clear();
+      this.buffer.clear();
+      this.bufferSize = 0;
+    }
+  }
+
+  /** entries of one run in term order */
+  abstract static class Cursor {
+    /** order of run, breaks ties between equal terms */
+    final int order;
+    Entry current;
+    Cursor(int order) { this.order = order; }
+    /** @return next entry, null at end of run. */
+    abstract Entry next() throws IOException;
+    void close() throws IOException {}
+  }
+
+  static final class BufferCursor extends Cursor {
+    final List<Entry> entries;
+    int i = 0;
+    BufferCursor(List<Entry> entries, int order) {
+      super(order);
+      this.entries = entries;
+    }
+    Entry next() {
+      return this.i < this.entries.size() ? this.entries.get(this.i++) : null;
+    }
+  }
+
+  static final class FileCursor extends Cursor {
+    final DataInputStream in;
+    FileCursor(File run, int order) throws IOException {
+      super(order);
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 65536));
+    }
+    Entry next() throws IOException {
+      int length;
+      try {
+	length = this.in.readInt();
+      } catch (EOFException exception) {
+	return null;
+      }
+      char[] chars = new char[length];
+      for (int i = 0; i < length; i++) {
+	chars[i] = this.in.readChar();
+      }
+      String term = new String(chars);
+      long start = this.in.readLong();
+      return new Entry(term, start, this.in.readLong());
+    }
+    void close() throws IOException {
+      this.in.close();
+    }
+  }
+
+  /** k-way merge of runs of a column */
+  static final class Merge {
+    final PriorityQueue<Cursor> queue;
+    final List<Cursor> cursors;
+
+    Merge(List<Cursor> cursors) throws IOException {
+      this.cursors = cursors;
+      this.queue = new PriorityQueue<Cursor>(Math.max(1, cursors.size()), new Comparator<Cursor>() {
+	  public int compare(Cursor a, Cursor b) {
+	    int c = ENTRY_ORDER.compare(a.current, b.current);
+	    return c != 0 ? c : a.order - b.order;
+	  }
+	});
+      for (Cursor cursor: cursors) {
+	cursor.current = cursor.next();
+	if (cursor.current != null) {
+	  this.queue.add(cursor);
+	}
+      }
+    }
+
+    /** @return next entry in term order, null when all runs are done. */
+    Entry next() throws IOException {
+      Cursor cursor = this.queue.poll();
+      if (cursor == null) {
+	return null;
+      }
+      Entry entry = cursor.current;
+      cursor.current = cursor.next();
+      if (cursor.current != null) {
+	this.queue.add(cursor);
+      }
+      return entry;
+    }
+
+    void close() throws IOException {
+      for (Cursor cursor: this.cursors) {
+	cursor.close();
+      }
+    }
+  }
+
+} // MultiKeyIndexRuns
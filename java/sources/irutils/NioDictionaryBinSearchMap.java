@@ -30,9 +30,11 @@ public class NioDictionaryBinSearchMap implements DiskBasedBinSearchMap, Seriali
  
   /** length of integer in bytes */
   public static final int DATALENGTH = 4; /* is this right? */
-  /** FileChannel for writing or reading map. */
+  /** mapped writer for writing map. */
+  private transient MappedWriter mapWriter;
+  /** FileChannel for reading map. */
   private transient FileChannel mapFileChannel;
-  /** Memory Mapped File Buffer for writing or reading map. */
+  /** Memory Mapped File Buffer for reading map. */
   private transient MappedByteBuffer mapByteBuffer;
   
   /** number of records in this map. */
@@ -55,13 +57,10 @@ public class NioDictionaryBinSearchMap implements DiskBasedBinSearchMap, Seriali
     throws FileNotFoundException, IOException
   {
     if ( mode == WRITE ) {
-      this.mapFileChannel = 
-	new RandomAccessFile( mapFilename, "rw" ).getChannel();
-      this.mapByteBuffer =
-	this.mapFileChannel.map(FileChannel.MapMode.READ_WRITE, 0, 0x8FFFFFF);
+      this.mapWriter = new MappedWriter( mapFilename );
     } else {
       this.mapFileChannel = 
-	new RandomAccessFile( mapFilename, "nw" ).getChannel();
+	new RandomAccessFile( mapFilename, "r" ).getChannel();
       long sz = this.mapFileChannel.size();
       this.mapByteBuffer = 
 	this.mapFileChannel.map(FileChannel.MapMode.READ_ONLY, 0, sz);
@@ -79,11 +78,11 @@ public class NioDictionaryBinSearchMap implements DiskBasedBinSearchMap, Seriali
     throws IOException
   {
     // write dictionary entry
-    this.mapByteBuffer.put(term.getBytes());
-    this.mapByteBuffer.putInt(numOfPostings);
-    this.mapByteBuffer.putInt(data);
+    this.mapWriter.writeBytes(term);
+    this.mapWriter.writeInt(numOfPostings);
+    this.mapWriter.writeInt(data);
     this.numberOfRecords++;
-    this.termLength = term.getBytes().length;
+    this.termLength = term.length();
   }
 
   /**
@@ -124,12 +123,21 @@ public class NioDictionaryBinSearchMap implements DiskBasedBinSearchMap, Seriali
     return DATALENGTH;
   }
 
-  /** close resources used by this map. */
+  /** close resources used by this map, truncating a written map to its length. */
   public void close()
     throws IOException
   {
+    if ( this.mapWriter != null ) {
+      this.mapWriter.close();
+      this.mapWriter = null;
+    }
+    if ( this.mapByteBuffer != null ) {
+      MappedWriter.unmap(this.mapByteBuffer);
+      this.mapByteBuffer = null;
+    }
     if ( this.mapFileChannel != null ) {
       this.mapFileChannel.close();
+      this.mapFileChannel = null;
     }
   }
 
@@ -1,8 +1,6 @@
 package irutils;
 
 import java.io.*;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 
 /**
  * RunLengthPostings.java
@@ -21,8 +19,9 @@ import java.nio.channels.FileChannel;
 
 public class NioRunLengthPostingsWriter implements RunLengthPostingsWriter, Serializable
 {
-  transient MappedByteBuffer postingsWriter = null;
+  transient MappedWriter postingsWriter = null;
   String directoryName;
+  String filename = "postings";
   int nextPosting = 0;
 
   /**
@@ -31,23 +30,32 @@ public class NioRunLengthPostingsWriter implements RunLengthPostingsWriter, Seri
   public NioRunLengthPostingsWriter (String aDirectoryName)
     throws FileNotFoundException, IOException
   {
-    this.postingsWriter = new RandomAccessFile
-      (aDirectoryName + "/postings", "rw" ).getChannel().map
-      (FileChannel.MapMode.READ_WRITE, 0, 0x8FFFFFF);
+    this(aDirectoryName, "postings");
+  }
+
+  /**
+   * @param aDirectoryName directory in which postings file resides.
+   * @param aFilename      name of postings file, e.g.: "postings" or "postings.1"
+   */
+  public NioRunLengthPostingsWriter (String aDirectoryName, String aFilename)
+    throws FileNotFoundException, IOException
+  {
+    this.postingsWriter = new MappedWriter(aDirectoryName + "/" + aFilename);
     this.directoryName = aDirectoryName;
+    this.filename = aFilename;
   }
 
   /** 
    * if postings object was loaded from a serialized object then 
-   * intialize i/o for writing using this method.
+   * intialize i/o for writing using this method, postings are
+   * written after those already in the file.
    */
   public void initializeIO()
     throws FileNotFoundException, IOException
   {
     if (this.postingsWriter == null) {
-      this.postingsWriter = new RandomAccessFile
-	(this.directoryName + "/postings", "nw" ).getChannel().map
-	(FileChannel.MapMode.READ_WRITE, 0, 0x8FFFFFF);
+      this.postingsWriter =
+	new MappedWriter(this.directoryName + "/" + this.filename, this.nextPosting);
     }
   }
 
@@ -60,19 +68,19 @@ public class NioRunLengthPostingsWriter implements RunLengthPostingsWriter, Seri
     throws IOException
   {
     int currentPosting = this.nextPosting;
-    this.postingsWriter.putInt(aDataRecord.length());
-    this.postingsWriter.put(aDataRecord.getBytes());
-    this.nextPosting = this.nextPosting + aDataRecord.getBytes().length + 4;
+    this.postingsWriter.writeInt(aDataRecord.length());
+    this.postingsWriter.writeBytes(aDataRecord);
+    this.nextPosting = this.nextPosting + aDataRecord.length() + 4;
     return currentPosting;
   }
 
-  /** close resources used by writer. */
+  /** close resources used by writer, truncating postings to their length. */
   public void close()
     throws IOException
   {
     if (this.postingsWriter != null) {
-      // no unmap method in MappedByteBuffer
-      // this.postingsWriter.?();
+      this.postingsWriter.close();
+      this.postingsWriter = null;
     }
   }
 
@@ -0,0 +1,28 @@
+package irutils;
+
+/**
+ * Default IndexMetrics implementation, records nothing.
+ */
+
+public final class NullIndexMetrics implements IndexMetrics
+{
+  /** the only instance */
+  public static final NullIndexMetrics INSTANCE = new NullIndexMetrics();
+
+  private NullIndexMetrics() { }
+
+  /** @return false, always. */
+  public boolean isEnabled() { return false; }
+
+  public void lookup(String indexname, String partition, int keyLength, boolean mapped,
+		     long nanos, int postings, long bytes) { }
+
+  public void lookupFailed(String indexname, String partition) { }
+
+  public void partitionOpened(String indexname, String partition) { }
+
+  public void partitionBuilt(String indexname, String partition, long nanos, int terms, long postings) { }
+
+  public void buildPhase(String indexname, String phase, long nanos, long records) { }
+
+} // NullIndexMetrics
@@ -0,0 +1,322 @@
+package irutils;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the lines of a table with parsing spread over several threads.
+ * <p>
+ * The file is cut into chunks of about <code>ifbuild.parse.chunksize</code>
+ * bytes ending at a newline.  Worker threads map a chunk, decode it,
+ * cut it into lines and parse each line with a LineParser.  The
+ * calling thread gets the lines and their parses in file order through
+ * a LineConsumer, so anything built by the consumer is the same as if
+ * the file were read with BufferedReader.readLine() and parsed on one
+ * thread.  Lines end at '\n', '\r' or "\r\n", as for readLine().
+ * </p><p>
+ * At most two chunks per thread are in memory at once.  Charsets that
+ * don't encode '\n' as the single byte 10 (UTF-16 and the like) are
+ * read sequentially.
+ * </p>
+ * Properties:
+ * <pre>
+ *   -Difbuild.parse.threads=&lt;n&gt;     parsing threads, 1 parses on calling thread
+ *                                   (default: available processors)
+ *   -Difbuild.parse.chunksize=&lt;n&gt;   bytes per chunk (default: 4194304)
+ * </pre>
+ */
+
+public class ParallelTableReader
+{
+  /** parses one line; called by several threads at once. */
+  public interface LineParser<T>
+  {
+    /**
+     * @param line line of table, without line terminator.
+     * @return parse of line, may be null.
+     */
+    T parse(String line) throws Exception;
+  }
+
+  /** receives lines and their parses on the calling thread, in file order. */
+  public interface LineConsumer<T>
+  {
+    /**
+     * @param line   line of table, without line terminator.
+     * @param parsed value returned by parser for line.
+     */
+    void accept(String line, T parsed) throws IOException;
+  }
+
+  /** lines of a chunk and their parses */
+  static final class Chunk
+  {
+    final List<String> lines = new ArrayList<String>();
+    final List<Object> parsed = new ArrayList<Object>();
+  }
+
+  final String filename;
+  final Charset charset;
+  final int threads;
+  final long chunkSize;
+  /** time spent parsing by all threads */
+  final AtomicLong parseNanos = new AtomicLong(0);
+
+  /**
+   * @param filename name of table file
+   * @param charset  charset of table
+   */
+  public ParallelTableReader(String filename, Charset charset)
+  {
+    this(filename, charset,
+	 Integer.parseInt(System.getProperty("ifbuild.parse.threads",
+					     Integer.toString(Runtime.getRuntime().availableProcessors()))),
+	 Long.parseLong(System.getProperty("ifbuild.parse.chunksize", "4194304")));
+  }
+
+  /**
+   * @param filename  name of table file
+   * @param charset   charset of table
+   * @param threads   number of parsing threads
+   * @param chunkSize bytes per chunk
+   */
+  public ParallelTableReader(String filename, Charset charset, int threads, long chunkSize)
+  {
+    this.filename = filename;
+    this.charset = charset;
+    this.threads = Math.max(1, threads);
+    this.chunkSize = Math.max(1024, Math.min(chunkSize, Integer.MAX_VALUE / 2));
+  }
+
+  /** @return true if newline and carriage return are single bytes in charset. */
+  static boolean isAsciiCompatible(Charset charset)
+  {
+    return charset.canEncode() &&
+      Arrays.equals("\n\r".getBytes(charset), new byte[] { '\n', '\r' });
+  }
+
+  /** @return time spent parsing lines, summed over threads. */
+  public long getParseNanos() { return this.parseNanos.get(); }
+
+  /**
+   * Read all lines of table.
+   * @param parser   parser of lines, run by parsing threads.
+   * @param consumer receives lines and parses in order on calling thread.
+   * @return number of lines read.
+   * @exception IOException if table could not be read, or a parser or
+   *            consumer failed.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> long read(final LineParser<T> parser, LineConsumer<T> consumer)
+    throws IOException
+  {
+    if (! isAsciiCompatible(this.charset)) {
+      return this.readSequential(parser, consumer);
+    }
+    long count = 0;
+    final FileChannel channel = FileChannel.open(Paths.get(this.filename), StandardOpenOption.READ);
+    ExecutorService executor = null;
+    try {
+      long size = channel.size();
+      long start = 0;
+      if (this.threads == 1 || size <= this.chunkSize) {
+	while (start < size) {
+	  long end = this.chunkEnd(channel, start, size);
+	  count += consume(this.parse(channel, start, end, parser), consumer);
+	  start = end;
+	}
+	return count;
+      }
+      executor = newExecutor(this.threads);
+      ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+      while (start < size || ! pending.isEmpty()) {
+	while (start < size && pending.size() < 2 * this.threads) {
+	  final long chunkStart = start;
+	  final long chunkEnd = this.chunkEnd(channel, start, size);
+	  pending.add(executor.submit(new Callable<Chunk>() {
+	      public Chunk call() throws IOException {
+		return parse(channel, chunkStart, chunkEnd, parser);
+	      }
+	    }));
+	  start = chunkEnd;
+	}
+	count += consume(await(pending.poll()), consumer);
+      }
+      return count;
+    } finally {
+      if (executor != null) {
+	executor.shutdownNow();
+      }
+      channel.close();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  static <T> int consume(Chunk chunk, LineConsumer<T> consumer)
+    throws IOException
+  {
+    int n = chunk.lines.size();
+    for (int i = 0; i < n; i++) {
+      consumer.accept(chunk.lines.get(i), (T)chunk.parsed.get(i));
+    }
+    return n;
+  }
+
+  static Chunk await(Future<Chunk> future)
+    throws IOException
+  {
+    try {
+      return future.get();
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while parsing table");
+    } catch (ExecutionException exception) {
+      Throwable cause = exception.getCause();
+      if (cause instanceof IOException) {
+	throw (IOException)cause;
+      } else if (cause instanceof RuntimeException) {
+	throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+	throw (Error)cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  static ExecutorService newExecutor(int threads)
+  {
+    return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+	final AtomicInteger count = new AtomicInteger(0);
+	public Thread newThread(Runnable runnable) {
+	  Thread thread = new Thread(runnable, "irutils-parse-" + count.incrementAndGet());
+	  thread.setDaemon(true);
+	  return thread;
+	}
+      });
+  }
+
+  /**
+   * @return end of chunk beginning at start: just after the first
+   *         newline at or after start + chunkSize - 1, or end of file.
+   */
+  long chunkEnd(FileChannel channel, long start, long size)
+    throws IOException
+  {
+    long position = start + this.chunkSize - 1;
+    if (position >= size - 1) {
+      return size;
+    }
+    ByteBuffer probe = ByteBuffer.allocate(8192);
+    ByteSearch search = ByteSearch.get();
+    while (position < size) {
+      probe.clear();
+      int n = channel.read(probe, position);
+      if (n <= 0) {
+	break;
+      }
+      int newline = search.indexOf(probe.array(), 0, n, (byte)'\n');
+      if (newline >= 0) {
+	return position + newline + 1;
+      }
+      position += n;
+    }
+    return size;
+  }
+
+  /** map, decode, split and parse lines of chunk from start to end. */
+  <T> Chunk parse(FileChannel channel, long start, long end, LineParser<T> parser)
+    throws IOException
+  {
+    CharsetDecoder decoder = this.charset.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    CharBuffer chars = decoder.decode(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+    long t0 = System.nanoTime();
+    Chunk chunk = new Chunk();
+    char[] array = chars.array();
+    int offset = chars.arrayOffset() + chars.position();
+    int length = chars.remaining();
+    int lineStart = 0;
+    try {
+      for (int i = 0; i < length; i++) {
+	char c = array[offset + i];
+	if (c == '\n' || c == '\r') {
+	  String line = new String(array, offset + lineStart, i - lineStart);
+	  chunk.lines.add(line);
+	  chunk.parsed.add(parser.parse(line));
+	  if (c == '\r' && i + 1 < length && array[offset + i + 1] == '\n') {
+	    i++;
+	  }
+	  lineStart = i + 1;
+	}
+      }
+      if (lineStart < length) {
+	String line = new String(array, offset + lineStart, length - lineStart);
+	chunk.lines.add(line);
+	chunk.parsed.add(parser.parse(line));
+      }
+    } catch (IOException exception) {
+      throw exception;
+    } catch (RuntimeException exception) {
+      throw exception;
+    } catch (Exception exception) {
+      throw new IOException(exception);
+    }
+    this.parseNanos.addAndGet(System.nanoTime() - t0);
+    return chunk;
+  }
+
+  /** read and parse lines on calling thread. */
+  <T> long readSequential(LineParser<T> parser, LineConsumer<T> consumer)
+    throws IOException
+  {
+    long count = 0;
+    BufferedReader reader =
+      new BufferedReader(new InputStreamReader(new FileInputStream(this.filename), this.charset));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+	long t0 = System.nanoTime();
+	T parsed;
+	try {
+	  parsed = parser.parse(line);
+	} catch (IOException exception) {
+	  throw exception;
+	} catch (RuntimeException exception) {
+	  throw exception;
+	} catch (Exception exception) {
+	  throw new IOException(exception);
+	}
+	this.parseNanos.addAndGet(System.nanoTime() - t0);
+	consumer.accept(line, parsed);
+	count++;
+      }
+    } finally {
+      reader.close();
+    }
+    return count;
+  }
+
+} // ParallelTableReader
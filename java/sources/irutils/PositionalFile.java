@@ -0,0 +1,109 @@
+package irutils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only index file read with positional reads, through a
+ * BlockCache if one is given.
+ * <p>
+ * Unlike RandomAccessFile (and CachedRandomAccessFile) there is no
+ * file pointer: every read names its offset, so one instance may be
+ * shared by any number of threads, and kept open for the life of the
+ * reader using it.
+ * </p>
+ * @see BlockCache
+ */
+
+public class PositionalFile implements Closeable
+{
+  final String filename;
+  final FileChannel channel;
+  /** cache to read through, null to read channel directly */
+  final BlockCache cache;
+  /** id of file in cache */
+  final int fileId;
+  /** length of file, index files don't change once written. */
+  final long length;
+
+  /**
+   * Open file for reading, through cache if cache is not null.
+   * @param cache    block cache, may be null.
+   * @param filename name of file
+   * @exception FileNotFoundException if file does not exist.
+   */
+  public PositionalFile(BlockCache cache, String filename)
+    throws IOException
+  {
+    File file = new File(filename);
+    this.filename = filename;
+    try {
+      this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+    } catch (NoSuchFileException exception) {
+      throw new FileNotFoundException(filename + " (No such file or directory)");
+    }
+    this.cache = cache;
+    this.fileId = cache == null ? -1 : cache.fileId(file);
+    this.length = this.channel.size();
+  }
+
+  /** @return name of file */
+  public String getFilename() { return this.filename; }
+
+  /** @return length of file */
+  public long length() { return this.length; }
+
+  /**
+   * Read len bytes at position.
+   * @param position offset in file
+   * @param b        buffer to fill
+   * @param off      offset in buffer
+   * @param len      number of bytes
+   * @exception EOFException if file ends before len bytes are read.
+   */
+  public void readFully(long position, byte[] b, int off, int len)
+    throws IOException
+  {
+    if (this.cache != null) {
+      while (len > 0) {
+	int n = this.cache.read(this.channel, this.fileId, this.length, position, b, off, len);
+	if (n < 0) {
+	  throw new EOFException(this.filename + ": end of file at " + position);
+	}
+	position += n;
+	off += n;
+	len -= n;
+      }
+    } else {
+      ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+      while (buffer.hasRemaining()) {
+	int n = this.channel.read(buffer, position + (len - buffer.remaining()));
+	if (n < 0) {
+	  throw new EOFException(this.filename + ": end of file at " +
+				 (position + (len - buffer.remaining())));
+	}
+      }
+    }
+  }
+
+  public void close()
+    throws IOException
+  {
+    this.channel.close();
+  }
+
+  public String toString()
+  {
+    return "PositionalFile: " + this.filename + ", length: " + this.length +
+      (this.cache == null ? "" : ", file id: " + this.fileId);
+  }
+
+} // PositionalFile
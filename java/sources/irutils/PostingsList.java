@@ -61,6 +61,15 @@ public class PostingsList extends AbstractList<String> implements List<String> {
   {
     return this.count;
   }
+
+  /** @return number of bytes occupied by postings list in postings file. */
+  public long byteLength()
+  {
+    if (this.count == 0) {
+      return 0;
+    }
+    return this.offsets[this.count - 1] + 4 + this.lengths[this.count - 1] - this.address;
+  }
   /** not supported */
   public void     add(int index, String element) {  }
   /** not supported */
@@ -0,0 +1,110 @@
+package irutils;
+
+/**
+ * 128 bit hash of a table record, used to find duplicate records
+ * when building multi-key indices.
+ * <p>
+ * The hash is MurmurHash3 x64_128 (seed 0) taken over the UTF-16
+ * code units of the line, four characters to a long, little endian,
+ * so lines are hashed without being encoded first.  It is not a
+ * cryptographic hash: equal hashes must be confirmed by comparing
+ * the lines, as MultiKeyIndexGeneration does.
+ * </p>
+ */
+
+public final class RecordHash
+{
+  static final long C1 = 0x87c37b91114253d5L;
+  static final long C2 = 0x4cf5ad432745937fL;
+
+  /** first 64 bits of hash */
+  final long hash1;
+  /** second 64 bits of hash */
+  final long hash2;
+
+  RecordHash(long hash1, long hash2) {
+    this.hash1 = hash1;
+    this.hash2 = hash2;
+  }
+
+  /** @return first 64 bits of hash */
+  public long getHash1() { return this.hash1; }
+  /** @return second 64 bits of hash */
+  public long getHash2() { return this.hash2; }
+
+  /**
+   * @param line record
+   * @return hash of record
+   */
+  public static RecordHash of(String line) {
+    int length = line.length();
+    long h1 = 0;
+    long h2 = 0;
+    int i = 0;
+    // body: eight characters (16 bytes) per block
+    for (; i + 8 <= length; i += 8) {
+      long k1 = chars(line, i, 4);
+      long k2 = chars(line, i + 4, 4);
+
+      k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+      h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+      k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+      h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+    }
+    // tail: up to seven characters
+    int rest = length - i;
+    if (rest > 4) {
+      long k2 = chars(line, i + 4, rest - 4);
+      k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+    }
+    if (rest > 0) {
+      long k1 = chars(line, i, Math.min(rest, 4));
+      k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+    }
+    // finalization
+    long bytes = 2L * length;
+    h1 ^= bytes;
+    h2 ^= bytes;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+    h1 += h2;
+    h2 += h1;
+    return new RecordHash(h1, h2);
+  }
+
+  /** @return count characters of s starting at offset, little endian. */
+  static long chars(String s, int offset, int count) {
+    long k = 0;
+    for (int j = count - 1; j >= 0; j--) {
+      k = (k << 16) | s.charAt(offset + j);
+    }
+    return k;
+  }
+
+  static long fmix64(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  public int hashCode() { return (int)this.hash1; }
+
+  public boolean equals(Object object) {
+    if (object instanceof RecordHash) {
+      RecordHash other = (RecordHash)object;
+      return this.hash1 == other.hash1 && this.hash2 == other.hash2;
+    }
+    return false;
+  }
+
+  public String toString() {
+    return String.format("%016x%016x", this.hash1, this.hash2);
+  }
+
+} // RecordHash
@@ -0,0 +1,567 @@
+package irutils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Index hash-partitioned by key into shards, each a normal
+ * InvertedFile with its own table, built and read independently.
+ * <p>
+ * build() splits the table by hash of the row key into one table per
+ * shard and builds the shards in parallel.  Shards whose rows did not
+ * change are not rebuilt.  Shard directories can be spread over
+ * several directories, e.g. on different disks.  The shard layout is
+ * recorded in <b>&lt;indexRoot&gt;/&lt;indexname&gt;/SHARDS</b>:
+ * <pre>
+ *   &lt;indexRoot&gt;/&lt;indexname&gt;/SHARDS
+ *   &lt;shard root&gt;/&lt;indexname&gt;.shard-&lt;i&gt;/&lt;table&gt;              rows of shard i
+ *   &lt;shard root&gt;/&lt;indexname&gt;.shard-&lt;i&gt;/&lt;indexname&gt;/gen-&lt;n&gt;/...  index of shard i
+ * </pre>
+ * </p><p>
+ * A reader routes a point lookup to the shard holding its key and
+ * fans batch lookups, and any other per-shard work (see
+ * forEachShard()), out to all shards in parallel, merging the
+ * results.  Lookups of one shard are serialized on that shard, since
+ * InvertedFile lookups are not thread-safe; lookupAsync() does not
+ * lock.
+ * </p>
+ * Build with IFBuild and properties:
+ * <pre>
+ *   -Difbuild.shards=&lt;n&gt;                     number of shards
+ *   -Difbuild.shard.paths=&lt;dir&gt;,&lt;dir&gt;,...    roots of shard directories, used
+ *                                             round robin (default: index directory)
+ *   -Difbuild.shard.threads=&lt;n&gt;               shards built at once (default: processors)
+ * </pre>
+ */
+
+public class ShardedInvertedFile implements Closeable
+{
+  /** name of shard manifest in index directory */
+  public static final String MANIFEST_FILENAME = "SHARDS";
+
+  /** name of index */
+  final String indexname;
+  /** shard indices, setup for retrieval */
+  final InvertedFile[] shards;
+  /** lower case keys before hashing */
+  final boolean lowerCaseKeys;
+  /** runs per-shard tasks of fan-outs */
+  final ExecutorService executor;
+
+  ShardedInvertedFile(String indexname, InvertedFile[] shards)
+  {
+    this.indexname = indexname;
+    this.shards = shards;
+    this.lowerCaseKeys = shards.length > 0 && shards[0].invfLowerCaseKeys;
+    this.executor = newExecutor("irutils-shard-" + indexname,
+				Integer.parseInt(System.getProperty("ifread.shard.threads",
+								    Integer.toString(shards.length))));
+  }
+
+  static ExecutorService newExecutor(final String name, int threads)
+  {
+    return Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+	final AtomicInteger count = new AtomicInteger(0);
+	public Thread newThread(Runnable runnable) {
+	  Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+	  thread.setDaemon(true);
+	  return thread;
+	}
+      });
+  }
+
+  /**
+   * Shard of key.  Uses String.hashCode(), which is specified and so
+   * stable across JVMs, with its bits mixed.
+   * @param key    row key, as returned by InvertedFile.rowKey().
+   * @param shards number of shards
+   * @return shard of key, 0 to shards - 1.
+   */
+  public static int shardOf(String key, int shards)
+  {
+    int h = key.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return (h & 0x7fffffff) % shards;
+  }
+
+  /**
+   * @param indexDirectory index directory, &lt;indexRoot&gt;/&lt;indexname&gt;
+   * @return true if index is sharded.
+   */
+  public static boolean isSharded(File indexDirectory)
+  {
+    return new File(indexDirectory, MANIFEST_FILENAME).exists();
+  }
+
+  /**
+   * Build or update sharded index.
+   * @param template   index of table as configured in container, provides
+   *                   table, format, index root and metrics.
+   * @param shardCount number of shards
+   * @param shardRoots directories to put shards in, used round robin;
+   *                   empty to put shards in index directory.
+   * @exception IOException if an error occurs
+   * @exception BSPIndexCreateException if a shard could not be built
+   */
+  public static void build(InvertedFile template, int shardCount, List<String> shardRoots)
+    throws IOException, BSPIndexCreateException
+  {
+    if (shardCount < 1) {
+      throw new IllegalArgumentException("number of shards must be positive: " + shardCount);
+    }
+    File indexDirectory = template.getBaseDirectory();
+    Properties manifest = readManifest(indexDirectory);
+    if (manifest != null &&
+	Integer.parseInt(manifest.getProperty("shards")) != shardCount) {
+      throw new BSPIndexCreateException("index " + template.indexname + " has " +
+					manifest.getProperty("shards") + " shards, not " +
+					shardCount + "; remove it to reshard.");
+    }
+    indexDirectory.mkdirs();
+    String[] shardDirectories = new String[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      String name = template.indexname + ".shard-" + i;
+      if (shardRoots == null || shardRoots.isEmpty()) {
+	shardDirectories[i] = name;	// relative to index directory
+      } else {
+	shardDirectories[i] =
+	  new File(shardRoots.get(i % shardRoots.size()), name).getAbsolutePath();
+      }
+      resolve(indexDirectory, shardDirectories[i]).mkdirs();
+    }
+    long start = System.nanoTime();
+    boolean[] changed = splitTable(template, indexDirectory, shardDirectories);
+    IndexMetrics metrics = template.getMetrics();
+    if (metrics.isEnabled()) {
+      metrics.buildPhase(template.indexname, "split", System.nanoTime() - start, shardCount);
+    }
+
+    int threads = Integer.parseInt(System.getProperty("ifbuild.shard.threads",
+						      Integer.toString(Runtime.getRuntime().availableProcessors())));
+    ExecutorService buildExecutor = newExecutor("irutils-shard-build", Math.min(threads, shardCount));
+    try {
+      List<Future<Void>> builds = new ArrayList<Future<Void>>();
+      for (int i = 0; i < shardCount; i++) {
+	final File shardDirectory = resolve(indexDirectory, shardDirectories[i]);
+	final InvertedFile shard = openShard(template, shardDirectory);
+	if (! changed[i] && shard.numrecs != null) {
+	  continue;
+	}
+	builds.add(buildExecutor.submit(new Callable<Void>() {
+	    public Void call() throws Exception {
+	      shard.update();
+	      shard.release();
+	      new File(shard.temporaryPostingsFilename()).delete();
+	      return null;
+	    }
+	  }));
+      }
+      for (Future<Void> build: builds) {
+	await(build);
+      }
+    } finally {
+      buildExecutor.shutdown();
+    }
+    manifest = new Properties();
+    manifest.setProperty("shards", Integer.toString(shardCount));
+    manifest.setProperty("hash", "string-hashcode-fmix32");
+    for (int i = 0; i < shardCount; i++) {
+      manifest.setProperty("shard." + i, shardDirectories[i]);
+    }
+    writeManifest(indexDirectory, manifest);
+  }
+
+  /** wait for build, rethrowing its exception. */
+  static void await(Future<Void> build)
+    throws IOException, BSPIndexCreateException
+  {
+    try {
+      build.get();
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while building shards");
+    } catch (ExecutionException exception) {
+      Throwable cause = exception.getCause();
+      if (cause instanceof IOException) {
+	throw (IOException)cause;
+      } else if (cause instanceof BSPIndexCreateException) {
+	throw (BSPIndexCreateException)cause;
+      } else if (cause instanceof RuntimeException) {
+	throw (RuntimeException)cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Split table of template into the tables of the shards.  A shard
+   * table is only replaced if its contents changed, so unchanged shards
+   * are not rebuilt.  Rows keep their order, and blank lines go to the
+   * shard of the row before them.
+   * @return for each shard, true if its table changed.
+   */
+  static boolean[] splitTable(InvertedFile template, File indexDirectory, String[] shardDirectories)
+    throws IOException
+  {
+    int shardCount = shardDirectories.length;
+    String tableName = new File(template.tablefilename).getName();
+    File[] tables = new File[shardCount];
+    File[] newTables = new File[shardCount];
+    Writer[] writers = new Writer[shardCount];
+    MessageDigest[] digests = new MessageDigest[shardCount];
+    // shard tables are loaded by load_map in the platform charset
+    Charset charset = Charset.defaultCharset();
+    try {
+      for (int i = 0; i < shardCount; i++) {
+	tables[i] = new File(resolve(indexDirectory, shardDirectories[i]), tableName);
+	newTables[i] = new File(tables[i].getPath() + ".tmp");
+	writers[i] = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(newTables[i]),
+							       charset));
+	digests[i] = MessageDigest.getInstance("MD5");
+      }
+      BufferedReader reader =
+	new BufferedReader(new InputStreamReader(new FileInputStream(template.tablefilename),
+						 charset));
+      try {
+	String line;
+	int shard = 0;
+	while ((line = reader.readLine()) != null) {
+	  // a blank line stays with the row before it, as in load_map
+	  if (line.trim().length() > 0) {
+	    shard = shardOf(template.rowKey(utils.StringUtils.split(line, "|")), shardCount);
+	  }
+	  writers[shard].write(line);
+	  writers[shard].write('\n');
+	  digests[shard].update(line.getBytes(charset));
+	  digests[shard].update((byte)'\n');
+	}
+      } finally {
+	reader.close();
+      }
+    } catch (NoSuchAlgorithmException exception) {
+      throw new IOException(exception.getMessage());
+    } finally {
+      for (Writer writer: writers) {
+	if (writer != null) {
+	  writer.close();
+	}
+      }
+    }
+    boolean[] changed = new boolean[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      if (tables[i].exists() &&
+	  MessageDigest.isEqual(digests[i].digest(), digest(tables[i]))) {
+	newTables[i].delete();
+      } else {
+	Files.move(newTables[i].toPath(), tables[i].toPath(),
+		   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	changed[i] = true;
+      }
+    }
+    return changed;
+  }
+
+  static byte[] digest(File file)
+    throws IOException
+  {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("MD5");
+      InputStream in = new FileInputStream(file);
+      try {
+	byte[] buffer = new byte[65536];
+	int n;
+	while ((n = in.read(buffer)) > 0) {
+	  digest.update(buffer, 0, n);
+	}
+      } finally {
+	in.close();
+      }
+      return digest.digest();
+    } catch (NoSuchAlgorithmException exception) {
+      throw new IOException(exception.getMessage());
+    }
+  }
+
+  /**
+   * @return index of shard in shard directory: existing index if built,
+   *         otherwise a new index with format of template.
+   */
+  static InvertedFile openShard(InvertedFile template, File shardDirectory)
+    throws IOException
+  {
+    String tablefilename = new File(shardDirectory, new File(template.tablefilename).getName()).getPath();
+    InvertedFile shard = InvertedFile.readSerialized(shardDirectory.getPath(), template.indexname);
+    if (shard == null) {
+      shard = new InvertedFile(template.indexname, tablefilename,
+			       shardDirectory.getPath(), template.indexFormat);
+      shard.invfLowerCaseKeys = template.invfLowerCaseKeys;
+    }
+    shard.tablefilename = tablefilename;
+    shard.temporaryPostingsFilename =
+      new File(shardDirectory, template.indexname + "_tposts").getPath();
+    shard.setMetrics(template.getMetrics());
+    shard.setProgressListener(template.progressListener);
+    return shard;
+  }
+
+  static File resolve(File indexDirectory, String shardDirectory)
+  {
+    File file = new File(shardDirectory);
+    return file.isAbsolute() ? file : new File(indexDirectory, shardDirectory);
+  }
+
+  /** @return manifest of index, null if index is not sharded. */
+  static Properties readManifest(File indexDirectory)
+    throws IOException
+  {
+    File manifestFile = new File(indexDirectory, MANIFEST_FILENAME);
+    if (! manifestFile.exists()) {
+      return null;
+    }
+    Properties manifest = new Properties();
+    InputStream in = new FileInputStream(manifestFile);
+    try {
+      manifest.load(in);
+    } finally {
+      in.close();
+    }
+    return manifest;
+  }
+
+  /** atomically replace manifest of index */
+  static void writeManifest(File indexDirectory, Properties manifest)
+    throws IOException
+  {
+    File tmpFile = new File(indexDirectory, MANIFEST_FILENAME + ".tmp");
+    FileOutputStream out = new FileOutputStream(tmpFile);
+    try {
+      manifest.store(out, "shards of sharded index");
+      out.getFD().sync();
+    } finally {
+      out.close();
+    }
+    Files.move(tmpFile.toPath(), new File(indexDirectory, MANIFEST_FILENAME).toPath(),
+	       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Open sharded index for retrieval.
+   * @param indexRoot parent directory of index
+   * @param indexname name of index
+   * @return sharded index, its shards setup for retrieval.
+   * @exception IOException if index is not sharded or a shard could not be opened.
+   */
+  public static ShardedInvertedFile open(String indexRoot, String indexname)
+    throws IOException
+  {
+    File indexDirectory = new File(indexRoot, indexname);
+    Properties manifest = readManifest(indexDirectory);
+    if (manifest == null) {
+      throw new IOException("index " + indexname + " in " + indexRoot + " is not sharded");
+    }
+    int shardCount = Integer.parseInt(manifest.getProperty("shards"));
+    InvertedFile[] shards = new InvertedFile[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      File shardDirectory = resolve(indexDirectory, manifest.getProperty("shard." + i));
+      InvertedFile shard = InvertedFile.readSerialized(shardDirectory.getPath(), indexname);
+      if (shard == null) {
+	throw new IOException("shard " + i + " of index " + indexname + " has not been built: " +
+			      shardDirectory);
+      }
+      try {
+	shard.setup();
+      } catch (BSPIndexInvalidException exception) {
+	throw new IOException(exception.getMessage());
+      }
+      shards[i] = shard;
+    }
+    return new ShardedInvertedFile(indexname, shards);
+  }
+
+  /** @return key as hashed and stored by shards. */
+  String normalize(String word)
+  {
+    return this.lowerCaseKeys ? word.toLowerCase() : word;
+  }
+
+  /**
+   * @param word key
+   * @return shard holding key.
+   */
+  public InvertedFile shard(String word)
+  {
+    return this.shards[shardOf(this.normalize(word), this.shards.length)];
+  }
+
+  /**
+   * Look up word in the shard holding it.  Postings are loaded
+   * completely, so the result may be used while other threads read the shard.
+   * @param word word to lookup in index.
+   * @return tuple containing key/value pair, value is empty if key not found.
+   * @exception IOException if an error occurs
+   */
+  public BSPTuple<List<String>> lookup(String word)
+    throws IOException
+  {
+    InvertedFile shard = this.shard(word);
+    synchronized (shard) {
+      return shard.lookup(word, true);
+    }
+  }
+
+  /**
+   * Look up word without blocking, see InvertedFile.lookupAsync().
+   * @param word word to lookup in index.
+   * @return future of postings of word.
+   */
+  public CompletableFuture<List<String>> lookupAsync(String word)
+  {
+    return this.shard(word).lookupAsync(word);
+  }
+
+  /** work done on each shard by forEachShard() */
+  public interface ShardTask<T>
+  {
+    /**
+     * @param shardNumber number of shard
+     * @param shard       index of shard, not used by other tasks while task runs.
+     * @return result of task for shard.
+     */
+    T run(int shardNumber, InvertedFile shard) throws IOException;
+  }
+
+  /**
+   * Run task on all shards in parallel.
+   * @param task task
+   * @return results of task, by shard number.
+   * @exception IOException if task failed on a shard.
+   */
+  public <T> List<T> forEachShard(final ShardTask<T> task)
+    throws IOException
+  {
+    List<Future<T>> futures = new ArrayList<Future<T>>(this.shards.length);
+    for (int i = 0; i < this.shards.length; i++) {
+      final int shardNumber = i;
+      final InvertedFile shard = this.shards[i];
+      futures.add(this.executor.submit(new Callable<T>() {
+	  public T call() throws IOException {
+	    synchronized (shard) {
+	      return task.run(shardNumber, shard);
+	    }
+	  }
+	}));
+    }
+    List<T> results = new ArrayList<T>(this.shards.length);
+    for (Future<T> future: futures) {
+      try {
+	results.add(future.get());
+      } catch (InterruptedException exception) {
+	Thread.currentThread().interrupt();
+	throw new IOException("interrupted while waiting for shards");
+      } catch (ExecutionException exception) {
+	Throwable cause = exception.getCause();
+	if (cause instanceof IOException) {
+	  throw (IOException)cause;
+	} else if (cause instanceof RuntimeException) {
+	  throw (RuntimeException)cause;
+	}
+	throw new IOException(cause);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Look up several words: words are grouped by shard and the shards
+   * are searched in parallel.
+   * @param words words to look up.
+   * @return map of each word to its postings, in order of words.
+   * @exception IOException if an error occurs
+   */
+  public Map<String,List<String>> lookup(Collection<String> words)
+    throws IOException
+  {
+    final List<List<String>> wordsByShard = new ArrayList<List<String>>(this.shards.length);
+    for (int i = 0; i < this.shards.length; i++) {
+      wordsByShard.add(new ArrayList<String>());
+    }
+    for (String word: words) {
+      wordsByShard.get(shardOf(this.normalize(word), this.shards.length)).add(word);
+    }
+    List<Map<String,List<String>>> results =
+      this.forEachShard(new ShardTask<Map<String,List<String>>>() {
+	  public Map<String,List<String>> run(int shardNumber, InvertedFile shard)
+	    throws IOException
+	  {
+	    Map<String,List<String>> result = new LinkedHashMap<String,List<String>>();
+	    for (String word: wordsByShard.get(shardNumber)) {
+	      result.put(word, shard.lookup(word, true).getValue());
+	    }
+	    return result;
+	  }
+	});
+    Map<String,List<String>> merged = new LinkedHashMap<String,List<String>>();
+    for (String word: words) {
+      merged.put(word, results.get(shardOf(this.normalize(word), this.shards.length)).get(word));
+    }
+    return merged;
+  }
+
+  /** @return number of shards */
+  public int getShardCount() { return this.shards.length; }
+
+  /** @return shard indices, in shard order. */
+  public List<InvertedFile> getShards() { return Arrays.asList(this.shards); }
+
+  /** @return name of index */
+  public String getIndexName() { return this.indexname; }
+
+  /**
+   * Release files of all shards.
+   * @exception IOException if an error occurs
+   */
+  public void close()
+    throws IOException
+  {
+    this.executor.shutdown();
+    for (InvertedFile shard: this.shards) {
+      synchronized (shard) {
+	shard.release();
+      }
+    }
+  }
+
+} // ShardedInvertedFile
@@ -15,57 +15,62 @@ import java.util.*;
 public class TemporaryPostingsPool implements Serializable {
   String postingsFilename = "tpost";
   transient private RandomAccessFile postingsRAF = null;
+  transient private BlockWriter postingsWriter = null;
   static final int BUFFER_SIZE = 1500;
   byte[] buffer = new byte[BUFFER_SIZE];
   int lastIndex = 0;
 
   public TemporaryPostingsPool ()
   {
-    try {
-      this.postingsRAF =  new RandomAccessFile(this.postingsFilename, "rw");
-    } catch (FileNotFoundException exception) {
-      exception.printStackTrace(System.err);
-    }
+    this.openPostings("rw");
   }
 
   public TemporaryPostingsPool (String aPostingsFilename)
   {
     this.postingsFilename = aPostingsFilename;
-    try {
-      this.postingsRAF =  new RandomAccessFile(this.postingsFilename, "rw");
-    } catch (FileNotFoundException exception) {
-      exception.printStackTrace(System.err);
-    }
+    this.openPostings("rw");
   }
 
   public TemporaryPostingsPool (String aPostingsFilename, String mode)
   {
     this.postingsFilename = aPostingsFilename;
-    try {
-      this.postingsRAF =  new RandomAccessFile(this.postingsFilename, mode);
-    } catch (FileNotFoundException exception) {
-      exception.printStackTrace(System.err);
-    }
+    this.openPostings(mode);
   }
 
   public void openPostings()
   {
-    try {
-      this.postingsRAF =  new RandomAccessFile(this.postingsFilename, "rw");
-    } catch (FileNotFoundException exception) {
-      exception.printStackTrace(System.err);
-    }
+    this.openPostings("rw");
   }
 
+  /**
+   * Open pool in mode of RandomAccessFile.  In a writable mode the
+   * pool is truncated and postings are added through a block writer,
+   * which is flushed before postings are read back.
+   * @param mode "r" to read postings, "rw" to add them.
+   */
   public void openPostings(String mode)
   {
     try {
+      if (mode.startsWith("rw")) {
+	this.postingsWriter = BlockWriter.create(this.postingsFilename);
+	this.lastIndex = 0;
+      }
       this.postingsRAF =  new RandomAccessFile(this.postingsFilename, mode);
     } catch (FileNotFoundException exception) {
       exception.printStackTrace(System.err);
     }
   }
 
+  /** @return file of postings, including all postings added. */
+  private RandomAccessFile reader()
+    throws IOException
+  {
+    if (this.postingsWriter != null) {
+      this.postingsWriter.flush();
+    }
+    return this.postingsRAF;
+  }
+
   /**
    * @param posting string data to post 
    * @param link address of previous posting in list.
@@ -76,9 +81,9 @@ public class TemporaryPostingsPool implements Serializable {
     int address = -1;
     try {
       byte[] bytes = posting.getBytes();
-      this.postingsRAF.writeInt(bytes.length);
-      this.postingsRAF.write(bytes);
-      this.postingsRAF.writeInt(link);
+      this.postingsWriter.writeInt(bytes.length);
+      this.postingsWriter.write(bytes);
+      this.postingsWriter.writeInt(link);
       address = this.lastIndex;
       this.lastIndex = this.lastIndex + bytes.length + 8;
     } catch (Exception exception) {
@@ -93,12 +98,13 @@ public class TemporaryPostingsPool implements Serializable {
     int length = 0;
     int link = address;
     try {
+      RandomAccessFile raf = this.reader();
       while (link != -1) {
-	this.postingsRAF.seek(link);
-	length = this.postingsRAF.readInt();
-	this.postingsRAF.read(buffer, 0, length);
+	raf.seek(link);
+	length = raf.readInt();
+	raf.read(buffer, 0, length);
 	aList.add(new String(buffer, 0, length).intern());
-	link = this.postingsRAF.readInt();
+	link = raf.readInt();
       }
     } catch (Exception exception) {
       System.err.println("get(): exception: " + exception.getMessage());
@@ -108,15 +114,21 @@ public class TemporaryPostingsPool implements Serializable {
 
   public List<String> getv2(int address)
   {
+    try {
+      return new TemporaryPostingsList(this.reader(), address);
+    } catch (IOException exception) {
+      System.err.println("getv2(): exception: " + exception.getMessage());
+    }
     return new TemporaryPostingsList(this.postingsRAF, address);
   }
 
   public String getPosting(int address)
   {
     try {
-      this.postingsRAF.seek(address);
-      int length = this.postingsRAF.readInt();
-      this.postingsRAF.read(buffer, 0, length);
+      RandomAccessFile raf = this.reader();
+      raf.seek(address);
+      int length = raf.readInt();
+      raf.read(buffer, 0, length);
       return new String(buffer, 0, length);
     } catch (Exception exception) {
       System.err.println("get(): exception: " + exception.getMessage());
@@ -127,6 +139,10 @@ public class TemporaryPostingsPool implements Serializable {
   public void close()
   { 
     try {
+      if (this.postingsWriter != null) {
+	this.postingsWriter.close();
+	this.postingsWriter = null;
+      }
       this.postingsRAF.close();
     } catch (Exception exception) {
       System.err.println("get(): exception: " + exception.getMessage());
@@ -146,6 +162,11 @@ public class TemporaryPostingsPool implements Serializable {
       this.postingsRAF = raf;
       this.address = newAddress;
     }
+    /** follows the chain once, rather than calling size() for each posting. */
+    public Iterator<String> iterator()
+    {
+      return new PostingsListIterator(this.postingsRAF, this.address);
+    }
     public String get(int index)
     {
       int i = 0;
@@ -27,6 +27,51 @@ public final class StringUtils extends Object
    *         were split.
    */
   public static List<String> split(String textstring, String delimitchars)
+  {
+    if (delimitchars.length() == 1) {
+      return split(textstring, delimitchars.charAt(0));
+    }
+    return tokenizerSplit(textstring, delimitchars);
+  }
+
+  /**
+   * Split string into substrings at delimiter character; same result
+   * as split(textstring, String.valueOf(delimiter)): a leading
+   * delimiter does not start an empty substring, a trailing one ends
+   * one.  Searches with String.indexOf(), which the JVM vectorizes,
+   * and does not allocate delimiter tokens.
+   *
+   * @param textstring string to be split.
+   * @param delimiter delimitor character.
+   * @return List containing substrings or empty list if textstring is empty.
+   */
+  public static List<String> split(String textstring, char delimiter)
+  {
+    List<String> list = new ArrayList<String>();
+    int length = textstring.length();
+    if (length == 0) {
+      return list;
+    }
+    int start = textstring.charAt(0) == delimiter ? 1 : 0;
+    int end;
+    while ((end = textstring.indexOf(delimiter, start)) >= 0) {
+      list.add(textstring.substring(start, end));
+      start = end + 1;
+    }
+    list.add(textstring.substring(start));
+    return list;
+  }
+
+  /**
+   * Split string with StringTokenizer, the implementation of split()
+   * for more than one delimiter character.
+   *
+   * @param textstring string to be split.
+   * @param delimitchars delimitor characters.
+   * @return List containing substrings or empty list if no strings
+   *         were split.
+   */
+  public static List<String> tokenizerSplit(String textstring, String delimitchars)
   {
     StringTokenizer st = new StringTokenizer(textstring, delimitchars, true);
     List<String> list = new ArrayList<String>((st.countTokens() + 1)/ 2);
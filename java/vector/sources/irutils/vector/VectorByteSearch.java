@@ -0,0 +1,82 @@
+package irutils.vector;
+
+import irutils.ByteSearch;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * ByteSearch using the incubating Vector API: compares a full vector
+ * of bytes (16 to 64, as the CPU allows) per step, then 16 bytes per
+ * step, so keys shorter than the widest vector still use vectors, and
+ * finishes the tail a byte at a time.
+ * <p>
+ * Selected with <code>-Dirutils.bytesearch=vector</code>; the JVM must
+ * be started with <code>--add-modules jdk.incubator.vector</code>.
+ * </p>
+ */
+
+public final class VectorByteSearch extends ByteSearch
+{
+  static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+  static final VectorSpecies<Byte> SPECIES_16 = ByteVector.SPECIES_128;
+
+  public VectorByteSearch() { }
+
+  public String getName() { return "vector"; }
+
+  public int indexOf(byte[] a, int from, int to, byte b)
+  {
+    int i = from;
+    int bound = from + SPECIES.loopBound(to - from);
+    for (; i < bound; i += SPECIES.length()) {
+      VectorMask<Byte> found = ByteVector.fromArray(SPECIES, a, i).eq(b);
+      if (found.anyTrue()) {
+	return i + found.firstTrue();
+      }
+    }
+    bound = i + SPECIES_16.loopBound(to - i);
+    for (; i < bound; i += SPECIES_16.length()) {
+      VectorMask<Byte> found = ByteVector.fromArray(SPECIES_16, a, i).eq(b);
+      if (found.anyTrue()) {
+	return i + found.firstTrue();
+      }
+    }
+    for (; i < to; i++) {
+      if (a[i] == b) {
+	return i;
+      }
+    }
+    return -1;
+  }
+
+  public int mismatch(byte[] a, int aOffset, byte[] b, int bOffset, int length)
+  {
+    int i = 0;
+    int bound = SPECIES.loopBound(length);
+    for (; i < bound; i += SPECIES.length()) {
+      VectorMask<Byte> differ = ByteVector.fromArray(SPECIES, a, aOffset + i)
+	.compare(VectorOperators.NE, ByteVector.fromArray(SPECIES, b, bOffset + i));
+      if (differ.anyTrue()) {
+	return i + differ.firstTrue();
+      }
+    }
+    bound = i + SPECIES_16.loopBound(length - i);
+    for (; i < bound; i += SPECIES_16.length()) {
+      VectorMask<Byte> differ = ByteVector.fromArray(SPECIES_16, a, aOffset + i)
+	.compare(VectorOperators.NE, ByteVector.fromArray(SPECIES_16, b, bOffset + i));
+      if (differ.anyTrue()) {
+	return i + differ.firstTrue();
+      }
+    }
+    for (; i < length; i++) {
+      if (a[aOffset + i] != b[bOffset + i]) {
+	return i;
+      }
+    }
+    return -1;
+  }
+
+} // VectorByteSearch